@@ -0,0 +1,287 @@
+/**
+ * Decodes and encodes the compact binary messages of the server's BinaryWireFormat, which
+ * carry the same content as the JSON messages. Message types, field names and enum constants
+ * are indices into a dictionary that the server sends first, player ids are indices into a
+ * table that frames add to, and numbers are variable-length integers.
+ */
+
+const DICTIONARY_FRAME = 0;
+const MESSAGE_FRAME = 1;
+
+const NULL = 0;
+const FALSE = 1;
+const TRUE = 2;
+const INT = 3;
+const DOUBLE = 4;
+const STRING = 5;
+const WORD = 6;
+const PLAYER_ID = 7;
+const ARRAY = 8;
+const INT_ARRAY = 9;
+const OBJECT = 10;
+const INT_STRING = 11;
+
+const PLAYER_ID_PATTERN = /^[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}$/;
+const INT_STRING_PATTERN = /^-?(0|[1-9][0-9]{0,14})$/;
+
+class Reader {
+  constructor(buffer) {
+    this.bytes = new Uint8Array(buffer);
+    this.view = new DataView(this.bytes.buffer, this.bytes.byteOffset, this.bytes.byteLength);
+    this.offset = 0;
+  }
+
+  readByte() {
+    if (this.offset >= this.bytes.length) {
+      throw new Error('Unexpected end of frame');
+    }
+    return this.bytes[this.offset++];
+  }
+
+  readVarInt() {
+    // multiplication rather than shifts, which would overflow past 32 bits
+    let value = 0;
+    for (let scale = 1; ; scale *= 128) {
+      const b = this.readByte();
+      value += (b & 0x7f) * scale;
+      if ((b & 0x80) === 0) {
+        return value;
+      }
+    }
+  }
+
+  readSignedVarInt() {
+    const value = this.readVarInt();
+    return value % 2 === 0 ? value / 2 : -(value + 1) / 2;
+  }
+
+  readDouble() {
+    const value = this.view.getFloat64(this.offset);
+    this.offset += 8;
+    return value;
+  }
+
+  readString() {
+    const length = this.readVarInt();
+    const value = new TextDecoder().decode(this.bytes.subarray(this.offset, this.offset + length));
+    this.offset += length;
+    return value;
+  }
+}
+
+class Writer {
+  constructor() {
+    this.bytes = [];
+  }
+
+  writeByte(b) {
+    this.bytes.push(b);
+  }
+
+  writeVarInt(value) {
+    while (value >= 0x80) {
+      this.bytes.push((value % 0x80) | 0x80);
+      value = Math.floor(value / 0x80);
+    }
+    this.bytes.push(value);
+  }
+
+  writeSignedVarInt(value) {
+    this.writeVarInt(value < 0 ? -2 * value - 1 : 2 * value);
+  }
+
+  writeDouble(value) {
+    const buffer = new DataView(new ArrayBuffer(8));
+    buffer.setFloat64(0, value);
+    for (let i = 0; i < 8; i++) {
+      this.bytes.push(buffer.getUint8(i));
+    }
+  }
+
+  writeString(value) {
+    const bytes = new TextEncoder().encode(value);
+    this.writeVarInt(bytes.length);
+    bytes.forEach(b => this.bytes.push(b));
+  }
+
+  toArrayBuffer() {
+    return new Uint8Array(this.bytes).buffer;
+  }
+}
+
+/**
+ * The state of one binary connection: the server's dictionary and the room's player table.
+ */
+export class BinaryWire {
+  constructor() {
+    this.words = null;
+    this.wordIndices = null;
+    this.playerIds = [];
+  }
+
+  /**
+   * Returns the message in the frame, as the equivalent of the parsed JSON message, or null for
+   * the dictionary frame.
+   */
+  decode(buffer) {
+    const reader = new Reader(buffer);
+    const kind = reader.readByte();
+    if (kind === DICTIONARY_FRAME) {
+      const words = [];
+      for (let size = reader.readVarInt(); size > 0; size--) {
+        words.push(reader.readString());
+      }
+      this.words = words;
+      this.wordIndices = new Map(words.map((word, i) => [word, i]));
+      return null;
+    }
+    if (kind !== MESSAGE_FRAME || !this.words) {
+      throw new Error('Unexpected frame ' + kind);
+    }
+    const firstPlayerIndex = reader.readVarInt();
+    if (firstPlayerIndex > this.playerIds.length) {
+      throw new Error('Missing player ids before index ' + firstPlayerIndex);
+    }
+    for (let size = reader.readVarInt(), i = firstPlayerIndex; size > 0; size--, i++) {
+      this.playerIds[i] = reader.readString();
+    }
+    return this.readValue(reader);
+  }
+
+  /**
+   * Returns the message as a binary frame, with a player table of its own.
+   */
+  encode(message) {
+    const playerIds = [];
+    const body = new Writer();
+    this.writeValue(body, message, playerIds);
+
+    const frame = new Writer();
+    frame.writeByte(MESSAGE_FRAME);
+    frame.writeVarInt(0);
+    frame.writeVarInt(playerIds.length);
+    playerIds.forEach(playerId => frame.writeString(playerId));
+    frame.bytes.push(...body.bytes);
+    return frame.toArrayBuffer();
+  }
+
+  readValue(reader) {
+    const tag = reader.readByte();
+    switch (tag) {
+      case NULL:
+        return null;
+      case FALSE:
+        return false;
+      case TRUE:
+        return true;
+      case INT:
+        return reader.readSignedVarInt();
+      case DOUBLE:
+        return reader.readDouble();
+      case ARRAY: {
+        const array = [];
+        for (let size = reader.readVarInt(); size > 0; size--) {
+          array.push(this.readValue(reader));
+        }
+        return array;
+      }
+      case INT_ARRAY: {
+        const array = [];
+        for (let size = reader.readVarInt(); size > 0; size--) {
+          array.push(reader.readSignedVarInt());
+        }
+        return array;
+      }
+      case OBJECT: {
+        const object = {};
+        for (let size = reader.readVarInt(); size > 0; size--) {
+          const key = this.readString(reader, reader.readByte());
+          object[key] = this.readValue(reader);
+        }
+        return object;
+      }
+      default:
+        return this.readString(reader, tag);
+    }
+  }
+
+  readString(reader, tag) {
+    switch (tag) {
+      case STRING:
+        return reader.readString();
+      case WORD: {
+        const index = reader.readVarInt();
+        if (index >= this.words.length) {
+          throw new Error('Unknown word ' + index);
+        }
+        return this.words[index];
+      }
+      case PLAYER_ID: {
+        const index = reader.readVarInt();
+        if (index >= this.playerIds.length) {
+          throw new Error('Unknown player index ' + index);
+        }
+        return this.playerIds[index];
+      }
+      case INT_STRING:
+        return String(reader.readSignedVarInt());
+      default:
+        throw new Error('Unknown tag ' + tag);
+    }
+  }
+
+  writeValue(writer, value, playerIds) {
+    if (value === null || value === undefined) {
+      writer.writeByte(NULL);
+    } else if (typeof value === 'boolean') {
+      writer.writeByte(value ? TRUE : FALSE);
+    } else if (typeof value === 'number') {
+      if (Number.isSafeInteger(value)) {
+        writer.writeByte(INT);
+        writer.writeSignedVarInt(value);
+      } else {
+        writer.writeByte(DOUBLE);
+        writer.writeDouble(value);
+      }
+    } else if (typeof value === 'string') {
+      this.writeString(writer, value, playerIds);
+    } else if (Array.isArray(value)) {
+      const allInts = value.length > 0 && value.every(Number.isSafeInteger);
+      writer.writeByte(allInts ? INT_ARRAY : ARRAY);
+      writer.writeVarInt(value.length);
+      value.forEach(element => allInts
+        ? writer.writeSignedVarInt(element)
+        : this.writeValue(writer, element, playerIds));
+    } else {
+      // like JSON.stringify, leave out undefined fields
+      const entries = Object.entries(value).filter(([, fieldValue]) => fieldValue !== undefined);
+      writer.writeByte(OBJECT);
+      writer.writeVarInt(entries.length);
+      entries.forEach(([key, fieldValue]) => {
+        this.writeString(writer, key, playerIds);
+        this.writeValue(writer, fieldValue, playerIds);
+      });
+    }
+  }
+
+  writeString(writer, value, playerIds) {
+    if (this.wordIndices && this.wordIndices.has(value)) {
+      writer.writeByte(WORD);
+      writer.writeVarInt(this.wordIndices.get(value));
+    } else if (PLAYER_ID_PATTERN.test(value)) {
+      let index = playerIds.indexOf(value);
+      if (index === -1) {
+        index = playerIds.length;
+        playerIds.push(value);
+      }
+      writer.writeByte(PLAYER_ID);
+      writer.writeVarInt(index);
+    } else if (INT_STRING_PATTERN.test(value) && value !== '-0') {
+      writer.writeByte(INT_STRING);
+      writer.writeSignedVarInt(Number(value));
+    } else {
+      writer.writeByte(STRING);
+      writer.writeString(value);
+    }
+  }
+}
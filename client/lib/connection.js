@@ -1,4 +1,5 @@
 import atmosphere from 'atmosphere.js';
+import {BinaryWire} from './binaryWire';
 
 const LOCATION = document.location.toString().split('#')[0]; // remove fragment
 
@@ -8,13 +9,16 @@ const LOCATION = document.location.toString().split('#')[0]; // remove fragment
  * @param {*} contextPath The context path to append to "ws://hostname/tractor"
  * @param {*} onMessage A callback that takes a single parameter, the
  * JSON-deserialized object sent from the server. Called once for each message.
+ * @param {*} binary Whether to ask the server for the compact binary encoding
+ * of messages (see binaryWire.js) instead of JSON. Messages are passed to
+ * onMessage in the same form either way.
  *
  * @returns an object containing two fields:
  * send: a function that accepts any object, and will send the
  * JSON-serialized object to the server.
  * disconnect: a nullary function to call to disconnect to the server.
  */
-export const setUpConnection = function(urlPath, onMessage) {
+export const setUpConnection = function(urlPath, onMessage, binary = false) {
   let subSocket;
   const request = {
     url: LOCATION + 'tractor' + urlPath,
@@ -23,6 +27,11 @@ export const setUpConnection = function(urlPath, onMessage) {
     transport: 'websocket',
     fallbackTransport: 'long-polling',
   };
+  const binaryWire = new BinaryWire();
+  if (binary) {
+    request.headers = {'X-Tractor-Wire': 'binary', 'X-Atmosphere-Binary': true};
+    request.webSocketBinaryType = 'arraybuffer';
+  }
 
   request.onClientTimeout = function(r) {
     subSocket.push(
@@ -50,15 +59,30 @@ export const setUpConnection = function(urlPath, onMessage) {
 
   request.onMessage = response => {
     const responseBody = response.responseBody;
-    console.log('Received response: ' + responseBody);
-    const message = JSON.parse(responseBody);
-    onMessage(message);
+    if (typeof responseBody === 'string') {
+      console.log('Received response: ' + responseBody);
+      onMessage(JSON.parse(responseBody));
+      return;
+    }
+    // the server only sends binary frames after agreeing to the binary encoding
+    let message;
+    try {
+      message = binaryWire.decode(responseBody);
+    } catch (e) {
+      // e.g. a frame sent before this client's room state, which replaces it anyway
+      console.error(e);
+      return;
+    }
+    if (message) {
+      console.log('Received response: ' + JSON.stringify(message));
+      onMessage(message);
+    }
   };
 
   const subscribe = atmosphere.subscribe(request);
 
   return {
-    send: message => subscribe.push(JSON.stringify(message)),
+    send: message => subscribe.push(binaryWire.words ? binaryWire.encode(message) : JSON.stringify(message)),
     disconnect: subscribe.disconnect,
   };
 };
@@ -63,6 +63,7 @@ export class Room extends React.Component {
       deck: undefined, // cardId[]
       cardsById: undefined, // {cardId: Card}
       playerHands: undefined, // {playerId: cardId[]}
+      handsVersion: undefined, // integer
       declaredCards: undefined, // Play[]
       exposedBottomCards: undefined, // cardId[]
       kitty: undefined, // cardId[]
@@ -127,6 +128,7 @@ export class Room extends React.Component {
           if (json.LEAVE_ROOM) {
             leaveRoom();
           } else if (json.ROOM_STATE) {
+            this.resyncing = false;
             this.setState(json.ROOM_STATE);
           } else if (json.REJOIN) {
             this.setState(json.REJOIN);
@@ -145,30 +147,30 @@ export class Room extends React.Component {
               ...json.CARD_INFO.cardsById,
             }});
           } else if (json.DRAW) {
-            this.setState(json.DRAW);
+            this.setState(this.applyHandDelta(json.DRAW));
           } else if (json.DECLARE) {
             const { playerId, ...other } = json.DECLARE;
             if (playerId === myPlayerId) {
               this.connection.send({ READY_FOR_PLAY: { ready: true } })
             }
-            this.setState(other);
+            this.setState(this.applyHandDelta(other));
           } else if (json.READY_FOR_PLAY) {
             this.setState(json.READY_FOR_PLAY);
           } else if (json.EXPOSE_BOTTOM_CARDS) {
             this.setNotification(`The trump suit is ${SUITS[json.EXPOSE_BOTTOM_CARDS.currentTrump.suit]}`)
-            this.setState(json.EXPOSE_BOTTOM_CARDS);
+            this.setState(this.applyHandDelta(json.EXPOSE_BOTTOM_CARDS));
           } else if (json.TAKE_KITTY) {
-            this.setState(json.TAKE_KITTY);
+            this.setState(this.applyHandDelta(json.TAKE_KITTY));
           } else if (json.FRIEND_DECLARE) {
             this.setState(json.FRIEND_DECLARE);
             this.audio.slowlyStopBackground();
           } else if (json.MAKE_KITTY) {
-            this.setState(json.MAKE_KITTY);
+            this.setState(this.applyHandDelta(json.MAKE_KITTY));
             if (json.MAKE_KITTY.status === 'PLAY') {
               this.audio.slowlyStopBackground();
             }
           } else if (json.PLAY) {
-            this.setState(json.PLAY);
+            this.setState(this.applyHandDelta(json.PLAY));
             if (status === 'PLAY' && playerIds[json.PLAY.currentPlayerIndex] === myPlayerId) {
               this.audio.playYourTurn();
             }
@@ -191,7 +193,7 @@ export class Room extends React.Component {
           } else if (json.TAKE_BACK) {
             const {playerId, ...other} = json.TAKE_BACK;
             this.setNotification(`${playerNames[playerId]} took back their cards`);
-            this.setState(other);
+            this.setState(this.applyHandDelta(other));
           } else if (json.FORFEIT) {
             const {playerId, message, ...other} = json.FORFEIT;
             this.setNotification(`${playerNames[playerId]} forfeited.`);
@@ -217,7 +219,54 @@ export class Room extends React.Component {
           } else {
             console.error('Unhandled message: ' + JSON.stringify(json));
           }
-        });
+        },
+        // opt in with localStorage.setItem('wireFormat', 'binary')
+        window.localStorage.getItem('wireFormat') === 'binary');
+  }
+
+  /**
+   * Returns the message's state updates, with its hand delta (if any) applied to the current hands.
+   * A delta only applies to the version right before it; if it's older than our hands it's ignored,
+   * and if it's newer we missed one, so we ask the server for the full state instead.
+   */
+  applyHandDelta(message) {
+    const { handDelta, ...other } = message;
+    if (!handDelta) {
+      return message;
+    }
+    const { handsVersion, playerHands, deck } = this.state;
+    if (handDelta.version <= handsVersion) {
+      return other;
+    }
+    if (handDelta.version !== handsVersion + 1) {
+      if (!this.resyncing) {
+        this.resyncing = true;
+        this.connection.send({ RESYNC: {} });
+      }
+      return other;
+    }
+
+    const newPlayerHands = { ...playerHands };
+    const addedCardIds = new Set();
+    Object.entries(handDelta.removedCardIds).forEach(([playerId, cardIds]) => {
+      const removed = new Set(cardIds);
+      newPlayerHands[playerId] = (newPlayerHands[playerId] || []).filter(cardId => !removed.has(cardId));
+    });
+    Object.entries(handDelta.addedCardIds).forEach(([playerId, cardIds]) => {
+      const hand = [...(newPlayerHands[playerId] || [])];
+      cardIds.forEach((cardId, i) => {
+        hand.splice(handDelta.addedIndices[playerId][i], 0, cardId);
+        addedCardIds.add(cardId);
+      });
+      newPlayerHands[playerId] = hand;
+    });
+    return {
+      ...other,
+      handsVersion: handDelta.version,
+      playerHands: newPlayerHands,
+      // cards are only added to a hand from the deck, except when taking back a play
+      deck: other.deck || (deck && deck.filter(cardId => !addedCardIds.has(cardId))),
+    };
   }
 
   setNotification(message) {
@@ -0,0 +1,165 @@
+package io.github.ytung.tractor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+import io.github.ytung.tractor.ai.AiClient;
+import io.github.ytung.tractor.ai.BayesianAiClientV2;
+import io.github.ytung.tractor.api.GameStatus;
+import io.github.ytung.tractor.api.OutgoingMessage;
+import io.github.ytung.tractor.api.OutgoingMessage.Declare;
+import io.github.ytung.tractor.api.OutgoingMessage.Draw;
+import io.github.ytung.tractor.api.OutgoingMessage.ExposeBottomCards;
+import io.github.ytung.tractor.api.OutgoingMessage.MakeKitty;
+import io.github.ytung.tractor.api.OutgoingMessage.PlayMessage;
+import io.github.ytung.tractor.api.OutgoingMessage.TakeKitty;
+
+/**
+ * Compares the bytes broadcast and the time spent encoding per round when messages carry every
+ * player's full hand, and when they carry a {@link io.github.ytung.tractor.api.HandDelta} instead
+ * (see TractorRoom.HAND_DELTAS). Rounds are played by AI players, and each message that changes hands
+ * is encoded both ways, as the room would encode it. Bytes count every player receiving the message.
+ */
+public class HandDeltaBenchmark {
+
+    private static final int[][] TABLES = {{4, 2}, {6, 3}, {8, 4}, {12, 8}};
+    private static final int NUM_WARMUP_ROUNDS = 5;
+    private static final int NUM_ROUNDS = 20;
+
+    public static void main(String[] args) throws Exception {
+        for (int[] table : TABLES)
+            for (int round = 0; round < NUM_WARMUP_ROUNDS; round++)
+                runRound(table[0], table[1], round, new Totals());
+
+        for (int[] table : TABLES) {
+            Totals totals = new Totals();
+            for (int round = 0; round < NUM_ROUNDS; round++)
+                runRound(table[0], table[1], round, totals);
+            System.out.printf("%d players, %d decks: %d messages per round\n", table[0], table[1], totals.numMessages / NUM_ROUNDS);
+            System.out.printf("  full hands  %9d bytes, %8.1f us encoding per round\n",
+                totals.fullBytes / NUM_ROUNDS, totals.fullNanos / 1e3 / NUM_ROUNDS);
+            System.out.printf("  hand deltas %9d bytes, %8.1f us encoding per round (%.1fx fewer bytes)\n",
+                totals.deltaBytes / NUM_ROUNDS, totals.deltaNanos / 1e3 / NUM_ROUNDS,
+                (double) totals.fullBytes / totals.deltaBytes);
+        }
+    }
+
+    private static void runRound(int numPlayers, int numDecks, long seed, Totals totals) {
+        Game game = new Game();
+        List<String> playerIds = new ArrayList<>();
+        List<AiClient> aiClients = new ArrayList<>();
+        for (int i = 0; i < numPlayers; i++) {
+            String playerId = UUID.randomUUID().toString();
+            game.addPlayer(playerId);
+            playerIds.add(playerId);
+            aiClients.add(new BayesianAiClientV2());
+        }
+        game.setNumDecks(numDecks);
+        game.startRound(seed);
+
+        while (true) {
+            int currentPlayerIndex = game.getCurrentPlayerIndex();
+            String playerId = playerIds.get(currentPlayerIndex);
+            DrawResult draw = game.draw();
+            if (draw == null)
+                break;
+            GameSnapshot snapshot = draw.getSnapshot();
+            totals.add(numPlayers,
+                new Draw(snapshot.getStatus(), snapshot.getCurrentPlayerIndex(), snapshot.getDeck(), snapshot.getPlayerHands(), null),
+                new Draw(snapshot.getStatus(), snapshot.getCurrentPlayerIndex(), null, null, snapshot.getHandDelta()));
+
+            Collection<Integer> declare = aiClients.get(currentPlayerIndex).declare(playerId, game.getSnapshot());
+            if (declare != null) {
+                try {
+                    snapshot = game.declare(playerId, new ArrayList<>(declare));
+                } catch (InvalidDeclareException e) {
+                    continue;
+                }
+                totals.add(numPlayers,
+                    declare(playerId, snapshot, true),
+                    declare(playerId, snapshot, false));
+            }
+        }
+
+        if (game.getDeclaredCards().isEmpty()) {
+            GameSnapshot snapshot = game.exposeBottomCards();
+            totals.add(numPlayers,
+                new ExposeBottomCards(snapshot.getStatus(), snapshot.getPlayerHands(), null, snapshot.getExposedBottomCards(), snapshot.getCurrentTrump()),
+                new ExposeBottomCards(snapshot.getStatus(), null, snapshot.getHandDelta(), snapshot.getExposedBottomCards(), snapshot.getCurrentTrump()));
+        }
+
+        int starterPlayerIndex = game.getStarterPlayerIndex();
+        String starterPlayerId = playerIds.get(starterPlayerIndex);
+        GameSnapshot snapshot = game.takeKitty().getSnapshot();
+        totals.add(numPlayers,
+            new TakeKitty(snapshot.getStatus(), snapshot.getCurrentPlayerIndex(), snapshot.getDeck(), snapshot.getPlayerHands(), null),
+            new TakeKitty(snapshot.getStatus(), snapshot.getCurrentPlayerIndex(), null, null, snapshot.getHandDelta()));
+        try {
+            snapshot = game.makeKitty(starterPlayerId, new ArrayList<>(aiClients.get(starterPlayerIndex).makeKitty(starterPlayerId, snapshot)));
+        } catch (InvalidKittyException e) {
+            throw new IllegalStateException(e);
+        }
+        totals.add(numPlayers,
+            new MakeKitty(snapshot.getStatus(), snapshot.getKitty(), snapshot.getPlayerHands(), null, snapshot.getCurrentTrick()),
+            new MakeKitty(snapshot.getStatus(), snapshot.getKitty(), null, snapshot.getHandDelta(), snapshot.getCurrentTrick()));
+
+        while (true) {
+            int currentPlayerIndex = game.getCurrentPlayerIndex();
+            String playerId = playerIds.get(currentPlayerIndex);
+            PlayResult result;
+            try {
+                result = game.play(playerId, new ArrayList<>(aiClients.get(currentPlayerIndex).play(playerId, game.getSnapshot())), true);
+            } catch (InvalidPlayException | ConfirmSpecialPlayException e) {
+                // the AI doesn't always follow the rules for special plays; the round is over for our purposes
+                return;
+            }
+            snapshot = result.getSnapshot();
+            totals.add(numPlayers,
+                new PlayMessage(snapshot.getCurrentPlayerIndex(), snapshot.getPlayerHands(), null, snapshot.getCurrentTrick()),
+                new PlayMessage(snapshot.getCurrentPlayerIndex(), null, snapshot.getHandDelta(), snapshot.getCurrentTrick()));
+            if (result.isTrickComplete()) {
+                game.finishTrick();
+                if (game.getStatus() != GameStatus.PLAY)
+                    return;
+            }
+        }
+    }
+
+    private static Declare declare(String playerId, GameSnapshot snapshot, boolean fullHands) {
+        return new Declare(
+            playerId,
+            snapshot.getStarterPlayerIndex(),
+            snapshot.getIsDeclaringTeam(),
+            snapshot.getDeck(),
+            fullHands ? snapshot.getPlayerHands() : null,
+            fullHands ? null : snapshot.getHandDelta(),
+            snapshot.getDeclaredCards(),
+            snapshot.getCurrentTrump(),
+            null);
+    }
+
+    private static class Totals {
+
+        long numMessages;
+        long fullBytes;
+        long deltaBytes;
+        long fullNanos;
+        long deltaNanos;
+
+        void add(int numRecipients, OutgoingMessage fullMessage, OutgoingMessage deltaMessage) {
+            long startTime = System.nanoTime();
+            String full = JacksonEncoder.INSTANCE.encode(fullMessage);
+            fullNanos += System.nanoTime() - startTime;
+
+            startTime = System.nanoTime();
+            String delta = JacksonEncoder.INSTANCE.encode(deltaMessage);
+            deltaNanos += System.nanoTime() - startTime;
+
+            numMessages++;
+            fullBytes += (long) numRecipients * full.length();
+            deltaBytes += (long) numRecipients * delta.length();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package io.github.ytung.tractor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+import io.github.ytung.tractor.api.Card;
+import io.github.ytung.tractor.api.Card.Suit;
+import io.github.ytung.tractor.api.Card.Value;
+
+/**
+ * Measures how fast {@link ShapeMatcher} compares throws. For each number of decks, it profiles
+ * random pairs of same-sized throws in a non-trump suit, and times covers() on them.
+ */
+public class ShapeMatcherBenchmark {
+
+    private static final int NUM_PAIRS = 2000;
+    private static final int NUM_ROUNDS = 200;
+
+    public static void main(String[] args) {
+        Random random = new Random(0);
+        Game game = new Game();
+        ShapeMatcher shapeMatcher = new ShapeMatcher();
+
+        for (int numDecks = 2; numDecks <= 10; numDecks++) {
+            Map<Integer, Card> cardsById = Decks.getCardsById(numDecks, new SplittableRandom(random.nextLong()));
+            TrumpTable trumpTable = new TrumpTable(new CardTable(cardsById), Card.of(Value.TWO, Suit.HEART), numDecks);
+            List<Integer> spades = new ArrayList<>();
+            for (Map.Entry<Integer, Card> entry : cardsById.entrySet())
+                if (entry.getValue().getSuit() == Suit.SPADE && entry.getValue().getValue() != Value.TWO)
+                    spades.add(entry.getKey());
+
+            List<List<Component>> myProfiles = new ArrayList<>();
+            List<List<Component>> otherProfiles = new ArrayList<>();
+            int numComponents = 0;
+            for (int i = 0; i < NUM_PAIRS; i++) {
+                int numCards = 2 + random.nextInt(4 * numDecks - 1);
+                Collections.shuffle(spades, random);
+                myProfiles.add(game.getProfile(trumpTable, spades.subList(0, numCards)));
+                Collections.shuffle(spades, random);
+                otherProfiles.add(game.getProfile(trumpTable, spades.subList(0, numCards)));
+                numComponents += otherProfiles.get(i).size();
+            }
+
+            // warm up, then time
+            int numCovered = 0;
+            for (int round = 0; round < NUM_ROUNDS / 4; round++)
+                for (int i = 0; i < NUM_PAIRS; i++)
+                    shapeMatcher.covers(myProfiles.get(i), otherProfiles.get(i));
+            long startTime = System.nanoTime();
+            for (int round = 0; round < NUM_ROUNDS; round++)
+                for (int i = 0; i < NUM_PAIRS; i++)
+                    if (shapeMatcher.covers(myProfiles.get(i), otherProfiles.get(i)))
+                        numCovered++;
+            long elapsed = System.nanoTime() - startTime;
+
+            long numOps = (long) NUM_ROUNDS * NUM_PAIRS;
+            System.out.printf("%2d decks: %6.1f components/throw, %5.1f%% covered, %7.1f ns/op, %,12.0f ops/s\n",
+                numDecks,
+                (double) numComponents / NUM_PAIRS,
+                100.0 * numCovered / numOps,
+                (double) elapsed / numOps,
+                numOps * 1e9 / elapsed);
+        }
+    }
+}
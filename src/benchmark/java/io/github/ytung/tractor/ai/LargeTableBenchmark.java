@@ -0,0 +1,127 @@
+package io.github.ytung.tractor.ai;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import io.github.ytung.tractor.Game;
+import io.github.ytung.tractor.InvalidPlayException;
+import io.github.ytung.tractor.DrawResult;
+import io.github.ytung.tractor.PlayResult;
+import io.github.ytung.tractor.api.GameStatus;
+
+/**
+ * Measures the latency of each kind of action in rounds played by AI players (the same AI as in
+ * rooms), from the smallest tables up to 12 players with 10 decks. Per-action latency should stay
+ * about the same as the table grows, so each line also shows the mean relative to the first table.
+ */
+public class LargeTableBenchmark {
+
+    private static final int[][] TABLES = {{4, 2}, {6, 3}, {8, 4}, {8, 6}, {10, 8}, {12, 8}, {12, 10}};
+    private static final int NUM_WARMUP_ROUNDS = 3;
+    private static final int NUM_ROUNDS = 10;
+
+    private static final String[] ACTIONS = {"draw", "ai play", "play"};
+
+    public static void main(String[] args) throws Exception {
+        for (int[] table : TABLES)
+            for (int round = 0; round < NUM_WARMUP_ROUNDS; round++)
+                runRound(table[0], table[1], round, new Latencies());
+
+        double[] baseMeans = null;
+        for (int[] table : TABLES) {
+            Latencies latencies = new Latencies();
+            for (int round = 0; round < NUM_ROUNDS; round++)
+                runRound(table[0], table[1], round, latencies);
+
+            double[] means = new double[ACTIONS.length];
+            System.out.printf("%d players, %d decks:\n", table[0], table[1]);
+            for (int action = 0; action < ACTIONS.length; action++) {
+                long[] nanos = latencies.get(action);
+                Arrays.sort(nanos);
+                means[action] = Arrays.stream(nanos).average().orElse(0);
+                System.out.printf("  %-8s %6d actions, mean %8.1f us (%5.2fx), p99 %8.1f us\n",
+                    ACTIONS[action],
+                    nanos.length,
+                    means[action] / 1e3,
+                    baseMeans == null ? 1 : means[action] / baseMeans[action],
+                    nanos[(int) (0.99 * (nanos.length - 1))] / 1e3);
+            }
+            if (baseMeans == null)
+                baseMeans = means;
+        }
+    }
+
+    private static void runRound(int numPlayers, int numDecks, long seed, Latencies latencies) throws Exception {
+        Game game = new Game();
+        List<String> playerIds = new ArrayList<>();
+        List<AiClient> aiClients = new ArrayList<>();
+        for (int i = 0; i < numPlayers; i++) {
+            String playerId = "player" + i;
+            game.addPlayer(playerId);
+            playerIds.add(playerId);
+            aiClients.add(new BayesianAiClientV2());
+        }
+        game.setNumDecks(numDecks);
+        game.startRound(seed);
+
+        while (true) {
+            int currentPlayerIndex = game.getCurrentPlayerIndex();
+            String playerId = playerIds.get(currentPlayerIndex);
+
+            long startTime = System.nanoTime();
+            DrawResult draw = game.draw();
+            Collection<Integer> declare = aiClients.get(currentPlayerIndex).declare(playerId, game.getSnapshot());
+            if (declare != null)
+                game.declare(playerId, new ArrayList<>(declare));
+            latencies.add(0, System.nanoTime() - startTime);
+            if (draw == null)
+                break;
+        }
+
+        int starterPlayerIndex = game.getStarterPlayerIndex();
+        String starterPlayerId = playerIds.get(starterPlayerIndex);
+        game.takeKitty();
+        game.makeKitty(starterPlayerId, new ArrayList<>(aiClients.get(starterPlayerIndex).makeKitty(starterPlayerId, game.getSnapshot())));
+
+        while (true) {
+            int currentPlayerIndex = game.getCurrentPlayerIndex();
+            String playerId = playerIds.get(currentPlayerIndex);
+
+            long startTime = System.nanoTime();
+            Collection<Integer> play = aiClients.get(currentPlayerIndex).play(playerId, game.getSnapshot());
+            latencies.add(1, System.nanoTime() - startTime);
+
+            startTime = System.nanoTime();
+            PlayResult result;
+            try {
+                result = game.play(playerId, new ArrayList<>(play), true);
+            } catch (InvalidPlayException e) {
+                // the AI doesn't always follow the rules for special plays; the round is over for our purposes
+                return;
+            }
+            if (result.isTrickComplete())
+                game.finishTrick();
+            latencies.add(2, System.nanoTime() - startTime);
+            if (result.isTrickComplete() && game.getStatus() != GameStatus.PLAY)
+                return;
+        }
+    }
+
+    private static class Latencies {
+
+        private final long[][] nanos = new long[ACTIONS.length][1024];
+        private final int[] sizes = new int[ACTIONS.length];
+
+        void add(int action, long elapsed) {
+            if (sizes[action] == nanos[action].length)
+                nanos[action] = Arrays.copyOf(nanos[action], 2 * sizes[action]);
+            nanos[action][sizes[action]++] = elapsed;
+        }
+
+        long[] get(int action) {
+            return Arrays.copyOf(nanos[action], sizes[action]);
+        }
+    }
+}
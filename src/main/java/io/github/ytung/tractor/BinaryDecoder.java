@@ -0,0 +1,29 @@
+package io.github.ytung.tractor;
+
+import java.io.IOException;
+
+import org.atmosphere.config.managed.Decoder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.github.ytung.tractor.api.IncomingMessage;
+
+/**
+ * Decodes the messages of clients that negotiated the {@link BinaryWireFormat}. Their connection
+ * delivers every message as bytes, so a JSON message sent over it is accepted too.
+ */
+public class BinaryDecoder implements Decoder<byte[], IncomingMessage> {
+
+    private ObjectMapper mapper = new ObjectMapper();
+
+    @Override
+    public IncomingMessage decode(byte[] s) {
+        try {
+            if (s.length > 0 && s[0] == '{')
+                return mapper.readValue(s, IncomingMessage.class);
+            return BinaryWireFormat.decodeIncomingMessage(s);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
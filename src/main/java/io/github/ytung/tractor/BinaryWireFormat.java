@@ -0,0 +1,421 @@
+package io.github.ytung.tractor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import com.fasterxml.jackson.annotation.JsonSubTypes;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.introspect.BeanPropertyDefinition;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import io.github.ytung.tractor.api.IncomingMessage;
+import io.github.ytung.tractor.api.OutgoingMessage;
+
+/**
+ * A compact binary alternative to the JSON messages, for clients that ask for it when they connect
+ * (see TractorRoom). A message is encoded from the same tree that JSON encoding writes, so both
+ * formats always carry the same content, but:
+ *
+ * <pre>
+ * 1. Message types, field names and enum constants are words of a fixed dictionary, which the
+ *    server sends once per connection (see {@link #dictionaryFrame}), and are written as indices.
+ * 2. Player ids are written as indices into a table of player ids. Each frame starts with the ids
+ *    it adds to the table.
+ * 3. Numbers, such as card ids, are variable-length integers, so a card id below 128 takes one byte.
+ * </pre>
+ *
+ * Frames sent by the server use the room's player table, which lives as long as the room. A frame
+ * sent to everyone in the room adds the ids that weren't in any earlier frame sent to everyone. A
+ * frame sent to a single client also adds the ids since then, and a full room state adds the whole
+ * table, so a client that received everything since its latest full room state knows every index.
+ * Frames sent by clients have a table of their own, which starts empty.
+ */
+public final class BinaryWireFormat {
+
+    private static final int DICTIONARY_FRAME = 0;
+    private static final int MESSAGE_FRAME = 1;
+
+    private static final int NULL = 0;
+    private static final int FALSE = 1;
+    private static final int TRUE = 2;
+    private static final int INT = 3;
+    private static final int DOUBLE = 4;
+    private static final int STRING = 5;
+    private static final int WORD = 6;
+    private static final int PLAYER_ID = 7;
+    private static final int ARRAY = 8;
+    private static final int INT_ARRAY = 9;
+    private static final int OBJECT = 10;
+    // a string holding an integer, e.g. the card ids that key a map
+    private static final int INT_STRING = 11;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final List<String> WORDS = buildDictionary();
+    private static final Map<String, Integer> WORD_INDICES = new HashMap<>();
+    private static final byte[] DICTIONARY;
+
+    static {
+        for (int i = 0; i < WORDS.size(); i++)
+            WORD_INDICES.put(WORDS.get(i), i);
+
+        Output out = new Output();
+        out.write(DICTIONARY_FRAME);
+        out.writeVarInt(WORDS.size());
+        for (String word : WORDS)
+            out.writeString(word);
+        DICTIONARY = out.toByteArray();
+    }
+
+    private final List<String> playerIds = new ArrayList<>();
+    private final Map<String, Integer> playerIndices = new HashMap<>();
+    private int numBroadcastPlayerIds = 0;
+
+    /**
+     * The frame to send first on a binary connection, with the dictionary that the other frames
+     * refer to.
+     */
+    public static byte[] dictionaryFrame() {
+        return DICTIONARY.clone();
+    }
+
+    /**
+     * Encodes a message from the server. Set broadcast if the message goes to everyone in the room,
+     * and withAllPlayerIds if it should carry the whole player table (e.g. a full room state).
+     */
+    public synchronized byte[] encode(OutgoingMessage message, boolean broadcast, boolean withAllPlayerIds) {
+        int firstPlayerIndex = withAllPlayerIds ? 0 : numBroadcastPlayerIds;
+        Output body = new Output();
+        writeValue(body, MAPPER.valueToTree(message), playerIndices, playerIds);
+
+        Output frame = new Output();
+        frame.write(MESSAGE_FRAME);
+        frame.writeVarInt(firstPlayerIndex);
+        frame.writeVarInt(playerIds.size() - firstPlayerIndex);
+        for (String playerId : playerIds.subList(firstPlayerIndex, playerIds.size()))
+            frame.writeString(playerId);
+        frame.write(body);
+        if (broadcast)
+            numBroadcastPlayerIds = playerIds.size();
+        return frame.toByteArray();
+    }
+
+    /**
+     * Encodes a message from a client, as a client would.
+     */
+    public static byte[] encode(IncomingMessage message) {
+        Map<String, Integer> playerIndices = new HashMap<>();
+        List<String> playerIds = new ArrayList<>();
+        Output body = new Output();
+        writeValue(body, MAPPER.valueToTree(message), playerIndices, playerIds);
+
+        Output frame = new Output();
+        frame.write(MESSAGE_FRAME);
+        frame.writeVarInt(0);
+        frame.writeVarInt(playerIds.size());
+        for (String playerId : playerIds)
+            frame.writeString(playerId);
+        frame.write(body);
+        return frame.toByteArray();
+    }
+
+    public static IncomingMessage decodeIncomingMessage(byte[] frame) throws IOException {
+        return MAPPER.treeToValue(decode(frame, new ArrayList<>()), IncomingMessage.class);
+    }
+
+    /**
+     * Decodes a message frame into the tree of its JSON equivalent, as a client would. The player
+     * ids that the frame adds are added to playerIds, the client's copy of the player table.
+     */
+    public static JsonNode decode(byte[] frame, List<String> playerIds) throws IOException {
+        Input in = new Input(frame);
+        if (in.readUnsignedByte() != MESSAGE_FRAME)
+            throw new IOException("Not a message frame");
+        int firstPlayerIndex = in.readVarInt();
+        if (firstPlayerIndex > playerIds.size())
+            throw new IOException("Missing player ids before index " + firstPlayerIndex);
+        int numPlayerIds = in.readVarInt();
+        for (int i = 0; i < numPlayerIds; i++) {
+            String playerId = in.readString();
+            if (firstPlayerIndex + i < playerIds.size())
+                playerIds.set(firstPlayerIndex + i, playerId);
+            else
+                playerIds.add(playerId);
+        }
+        return readValue(in, playerIds);
+    }
+
+    private static void writeValue(Output out, JsonNode node, Map<String, Integer> playerIndices, List<String> playerIds) {
+        if (node.isNull()) {
+            out.write(NULL);
+        } else if (node.isBoolean()) {
+            out.write(node.booleanValue() ? TRUE : FALSE);
+        } else if (node.isIntegralNumber() && node.canConvertToLong()) {
+            out.write(INT);
+            out.writeSignedVarLong(node.longValue());
+        } else if (node.isNumber()) {
+            out.write(DOUBLE);
+            out.writeDouble(node.doubleValue());
+        } else if (node.isTextual()) {
+            writeString(out, node.textValue(), playerIndices, playerIds);
+        } else if (node.isArray()) {
+            boolean allInts = true;
+            for (JsonNode element : node)
+                allInts &= element.isIntegralNumber() && element.canConvertToLong();
+            out.write(allInts && node.size() > 0 ? INT_ARRAY : ARRAY);
+            out.writeVarInt(node.size());
+            for (JsonNode element : node) {
+                if (allInts)
+                    out.writeSignedVarLong(element.longValue());
+                else
+                    writeValue(out, element, playerIndices, playerIds);
+            }
+        } else if (node.isObject()) {
+            out.write(OBJECT);
+            out.writeVarInt(node.size());
+            for (Iterator<Map.Entry<String, JsonNode>> fields = node.fields(); fields.hasNext();) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                writeString(out, field.getKey(), playerIndices, playerIds);
+                writeValue(out, field.getValue(), playerIndices, playerIds);
+            }
+        } else {
+            throw new IllegalArgumentException("Unsupported node " + node.getNodeType());
+        }
+    }
+
+    private static void writeString(Output out, String value, Map<String, Integer> playerIndices, List<String> playerIds) {
+        Integer wordIndex = WORD_INDICES.get(value);
+        if (wordIndex != null) {
+            out.write(WORD);
+            out.writeVarInt(wordIndex);
+        } else if (isPlayerId(value)) {
+            Integer playerIndex = playerIndices.get(value);
+            if (playerIndex == null) {
+                playerIndex = playerIds.size();
+                playerIds.add(value);
+                playerIndices.put(value, playerIndex);
+            }
+            out.write(PLAYER_ID);
+            out.writeVarInt(playerIndex);
+        } else if (isIntString(value)) {
+            out.write(INT_STRING);
+            out.writeSignedVarLong(Long.parseLong(value));
+        } else {
+            out.write(STRING);
+            out.writeString(value);
+        }
+    }
+
+    private static JsonNode readValue(Input in, List<String> playerIds) throws IOException {
+        JsonNodeFactory nodes = JsonNodeFactory.instance;
+        int tag = in.readUnsignedByte();
+        switch (tag) {
+            case NULL:
+                return nodes.nullNode();
+            case FALSE:
+                return nodes.booleanNode(false);
+            case TRUE:
+                return nodes.booleanNode(true);
+            case INT:
+                return nodes.numberNode(in.readSignedVarLong());
+            case DOUBLE:
+                return nodes.numberNode(in.readDouble());
+            case ARRAY: {
+                ArrayNode array = nodes.arrayNode();
+                for (int size = in.readVarInt(); size > 0; size--)
+                    array.add(readValue(in, playerIds));
+                return array;
+            }
+            case INT_ARRAY: {
+                ArrayNode array = nodes.arrayNode();
+                for (int size = in.readVarInt(); size > 0; size--)
+                    array.add(in.readSignedVarLong());
+                return array;
+            }
+            case OBJECT: {
+                ObjectNode object = nodes.objectNode();
+                for (int size = in.readVarInt(); size > 0; size--) {
+                    String key = readString(in, in.readUnsignedByte(), playerIds);
+                    object.set(key, readValue(in, playerIds));
+                }
+                return object;
+            }
+            default:
+                return nodes.textNode(readString(in, tag, playerIds));
+        }
+    }
+
+    private static String readString(Input in, int tag, List<String> playerIds) throws IOException {
+        switch (tag) {
+            case STRING:
+                return in.readString();
+            case WORD: {
+                int index = in.readVarInt();
+                if (index >= WORDS.size())
+                    throw new IOException("Unknown word " + index);
+                return WORDS.get(index);
+            }
+            case PLAYER_ID: {
+                int index = in.readVarInt();
+                if (index >= playerIds.size())
+                    throw new IOException("Unknown player index " + index);
+                return playerIds.get(index);
+            }
+            case INT_STRING:
+                return Long.toString(in.readSignedVarLong());
+            default:
+                throw new IOException("Unknown tag " + tag);
+        }
+    }
+
+    private static boolean isPlayerId(String value) {
+        // player ids are random UUIDs
+        if (value.length() != 36)
+            return false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            boolean valid = (i == 8 || i == 13 || i == 18 || i == 23)
+                ? c == '-'
+                : (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f');
+            if (!valid)
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean isIntString(String value) {
+        // only strings that read back the same (no leading zeros or plus signs), and that a
+        // JavaScript number holds exactly
+        int start = value.startsWith("-") ? 1 : 0;
+        int numDigits = value.length() - start;
+        if (numDigits == 0 || numDigits > 15 || (value.charAt(start) == '0' && (numDigits > 1 || start == 1)))
+            return false;
+        for (int i = start; i < value.length(); i++)
+            if (value.charAt(i) < '0' || value.charAt(i) > '9')
+                return false;
+        return true;
+    }
+
+    /**
+     * The message types, field names and enum constants of the api classes, sorted, so that the
+     * dictionary only changes when the api does.
+     */
+    private static List<String> buildDictionary() {
+        Set<String> words = new TreeSet<>();
+        Set<Class<?>> visited = new HashSet<>();
+        for (Class<?> messageClass : Arrays.asList(OutgoingMessage.class, IncomingMessage.class)) {
+            for (JsonSubTypes.Type type : messageClass.getAnnotation(JsonSubTypes.class).value()) {
+                words.add(type.name());
+                addWords(MAPPER.constructType(type.value()), words, visited);
+            }
+        }
+        return new ArrayList<>(words);
+    }
+
+    private static void addWords(JavaType type, Set<String> words, Set<Class<?>> visited) {
+        if (type.getKeyType() != null)
+            addWords(type.getKeyType(), words, visited);
+        if (type.getContentType() != null)
+            addWords(type.getContentType(), words, visited);
+
+        Class<?> rawClass = type.getRawClass();
+        if (!rawClass.getName().startsWith(OutgoingMessage.class.getPackage().getName()) || !visited.add(rawClass))
+            return;
+        if (rawClass.isEnum()) {
+            for (Object constant : rawClass.getEnumConstants())
+                words.add(((Enum<?>) constant).name());
+            return;
+        }
+        for (BeanPropertyDefinition property : MAPPER.getSerializationConfig().introspect(type).findProperties()) {
+            words.add(property.getName());
+            addWords(property.getPrimaryType(), words, visited);
+        }
+    }
+
+    private static class Output extends ByteArrayOutputStream {
+
+        void writeVarInt(int value) {
+            writeVarLong(value & 0xffffffffL);
+        }
+
+        void writeVarLong(long value) {
+            while ((value & ~0x7fL) != 0) {
+                write((int) (value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void writeSignedVarLong(long value) {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        void writeDouble(double value) {
+            long bits = Double.doubleToLongBits(value);
+            for (int shift = 56; shift >= 0; shift -= 8)
+                write((int) (bits >>> shift));
+        }
+
+        void writeString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+
+        void write(Output other) {
+            write(other.buf, 0, other.count);
+        }
+    }
+
+    private static class Input extends DataInputStream {
+
+        Input(byte[] bytes) {
+            super(new ByteArrayInputStream(bytes));
+        }
+
+        int readVarInt() throws IOException {
+            long value = readVarLong();
+            if (value > Integer.MAX_VALUE)
+                throw new IOException("Malformed varint");
+            return (int) value;
+        }
+
+        long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readUnsignedByte();
+                value |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0)
+                    return value;
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        long readSignedVarLong() throws IOException {
+            long value = readVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        String readString() throws IOException {
+            byte[] bytes = new byte[readVarInt()];
+            readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
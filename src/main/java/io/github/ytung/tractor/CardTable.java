@@ -0,0 +1,149 @@
+package io.github.ytung.tractor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import io.github.ytung.tractor.api.Card;
+
+/**
+ * A dense lookup table for the cards of a round. Card ids are handed out contiguously (starting at
+ * 101, see {@link Decks#getCardsById}), so each card is stored at index cardId - firstCardId, and
+ * the card and point value of a card id are plain array reads instead of boxed map lookups. Cards
+ * are interned (see {@link Card#of}), so comparing two of them is a reference comparison.
+ */
+public final class CardTable {
+
+    /**
+     * The number of possible distinct cards (value and suit), see {@link #getKind}.
+     */
+    public static final int NUM_KINDS = Card.NUM_ORDINALS;
+
+    private final int firstCardId;
+    private final Card[] cards;
+    private final byte[] points;
+    private final boolean[] containsCard = new boolean[NUM_KINDS];
+    private final int[] cardIds;
+    private final List<Card> distinctCards;
+
+    public CardTable(Map<Integer, Card> cardsById) {
+        int minCardId = cardsById.keySet().stream().mapToInt(cardId -> cardId).min().orElse(0);
+        int maxCardId = cardsById.keySet().stream().mapToInt(cardId -> cardId).max().orElse(-1);
+        int size = maxCardId - minCardId + 1;
+
+        this.firstCardId = minCardId;
+        this.cards = new Card[size];
+        this.points = new byte[size];
+        cardsById.forEach((cardId, card) -> {
+            int index = cardId - firstCardId;
+            cards[index] = card;
+            points[index] = (byte) points(card);
+        });
+
+        this.cardIds = cardsById.keySet().stream().mapToInt(cardId -> cardId).sorted().toArray();
+        List<Card> distinctCards = new ArrayList<>();
+        for (int cardId : cardIds) {
+            Card card = get(cardId);
+            if (!contains(card)) {
+                containsCard[card.ordinal()] = true;
+                distinctCards.add(card);
+            }
+        }
+        this.distinctCards = Collections.unmodifiableList(distinctCards);
+    }
+
+    /**
+     * The number of card ids covered by this table. The card ids are firstCardId, firstCardId + 1,
+     * ..., firstCardId + size() - 1.
+     */
+    public int size() {
+        return cards.length;
+    }
+
+    public int getFirstCardId() {
+        return firstCardId;
+    }
+
+    /**
+     * All card ids in the round, in increasing order.
+     */
+    public int[] getCardIds() {
+        return cardIds.clone();
+    }
+
+    /**
+     * One copy of each distinct card (value and suit) in the round.
+     */
+    public List<Card> getDistinctCards() {
+        return distinctCards;
+    }
+
+    public int cardId(int index) {
+        return firstCardId + index;
+    }
+
+    public int index(int cardId) {
+        return cardId - firstCardId;
+    }
+
+    public boolean containsId(int cardId) {
+        int index = cardId - firstCardId;
+        return index >= 0 && index < cards.length && cards[index] != null;
+    }
+
+    /**
+     * Whether a card with this value and suit exists in the round.
+     */
+    public boolean contains(Card card) {
+        return containsCard[card.ordinal()];
+    }
+
+    public Card get(int cardId) {
+        return cards[cardId - firstCardId];
+    }
+
+    public Card.Value getValue(int cardId) {
+        return cards[cardId - firstCardId].getValue();
+    }
+
+    public Card.Suit getSuit(int cardId) {
+        return cards[cardId - firstCardId].getSuit();
+    }
+
+    /**
+     * A number in [0, NUM_KINDS) that is the same for two card ids exactly when they have the same
+     * value and suit, namely the {@link Card#ordinal} of the card.
+     */
+    public int getKind(int cardId) {
+        return cards[cardId - firstCardId].ordinal();
+    }
+
+    public int getPoints(int cardId) {
+        return points[cardId - firstCardId];
+    }
+
+    /**
+     * Whether the two cards have the same value and suit.
+     */
+    public boolean isSameCard(int cardId1, int cardId2) {
+        return cards[cardId1 - firstCardId] == cards[cardId2 - firstCardId];
+    }
+
+    public int totalPoints(Collection<Integer> cardIds) {
+        int total = 0;
+        for (int cardId : cardIds)
+            total += points[cardId - firstCardId];
+        return total;
+    }
+
+    public static int points(Card card) {
+        if (card.getValue() == Card.Value.FIVE)
+            return 5;
+        else if (card.getValue() == Card.Value.TEN || card.getValue() == Card.Value.KING)
+            return 10;
+        else
+            return 0;
+    }
+}
@@ -1,13 +1,9 @@
 
 package io.github.ytung.tractor;
 
-import java.util.ArrayDeque;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.Queue;
+import java.util.SplittableRandom;
 
 import com.google.common.collect.ImmutableList;
 
@@ -19,31 +15,35 @@ public class Decks {
 
     public static final int SIZE = 54;
 
-    public static Map<Integer, Card> getCardsById(int numDecks) {
-        List<Card> cards = new ArrayList<>();
+    /**
+     * Generates the cards for a round and shuffles them in a single pass. Card ids are handed out in
+     * the shuffled order starting at 101, so the deck is simply the card ids in increasing order, and
+     * which card an id refers to is as unpredictable as the shuffle itself.
+     */
+    public static Map<Integer, Card> getCardsById(int numDecks, SplittableRandom random) {
+        Card[] cards = new Card[numDecks * SIZE];
+        int numCards = 0;
         for (int i = 0; i < numDecks; i++) {
             for (Suit suit : ImmutableList.of(Suit.CLUB, Suit.DIAMOND, Suit.HEART, Suit.SPADE))
                 for (Value value : ImmutableList.of(Value.TWO, Value.THREE, Value.FOUR, Value.FIVE, Value.SIX, Value.SEVEN, Value.EIGHT,
                     Value.NINE, Value.TEN, Value.JACK, Value.QUEEN, Value.KING, Value.ACE)) {
-                    cards.add(new Card(value, suit));
+                    cards[numCards++] = Card.of(value, suit);
                 }
-            cards.add(new Card(Value.SMALL_JOKER, Suit.JOKER));
-            cards.add(new Card(Value.BIG_JOKER, Suit.JOKER));
+            cards[numCards++] = Card.of(Value.SMALL_JOKER, Suit.JOKER);
+            cards[numCards++] = Card.of(Value.BIG_JOKER, Suit.JOKER);
+        }
+        for (int i = cards.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            Card card = cards[i];
+            cards[i] = cards[j];
+            cards[j] = card;
         }
-        Collections.shuffle(cards);
-        int cardId = 101;
         Map<Integer, Card> cardsById = new HashMap<>();
-        for (Card card : cards)
-            cardsById.put(cardId++, card);
+        for (int i = 0; i < cards.length; i++)
+            cardsById.put(101 + i, cards[i]);
         return cardsById;
     }
 
-    public static Queue<Integer> shuffle(Map<Integer, Card> cardsById) {
-        List<Integer> cardIds = new ArrayList<>(cardsById.keySet());
-        Collections.shuffle(cardIds);
-        return new ArrayDeque<>(cardIds);
-    }
-
     private Decks() {
     }
 }
@@ -0,0 +1,18 @@
+package io.github.ytung.tractor;
+
+import io.github.ytung.tractor.api.Play;
+import lombok.Data;
+
+/**
+ * An object encapsulating what happened from a single draw, or from the starter taking the kitty.
+ */
+@Data
+public class DrawResult {
+
+    private final Play play;
+
+    /**
+     * The snapshot that the draw published.
+     */
+    private final GameSnapshot snapshot;
+}
@@ -1,5 +1,6 @@
 package io.github.ytung.tractor;
 
+import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -9,15 +10,18 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
-import com.google.common.collect.Iterables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Streams;
-import com.google.common.collect.TreeMultiset;
+import com.google.common.primitives.Ints;
 
 import io.github.ytung.tractor.Cards.Grouping;
 import io.github.ytung.tractor.api.Card;
@@ -25,13 +29,20 @@ import io.github.ytung.tractor.api.Card.Suit;
 import io.github.ytung.tractor.api.FindAFriendDeclaration;
 import io.github.ytung.tractor.api.FindAFriendDeclaration.Declaration;
 import io.github.ytung.tractor.api.GameStatus;
+import io.github.ytung.tractor.api.HandDelta;
 import io.github.ytung.tractor.api.Play;
 import io.github.ytung.tractor.api.Trick;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
 
 @Data
 public class Game {
 
+    // only used to seed each game's own random stream, so it is hardly ever contended
+    private static final SecureRandom SEEDS = new SecureRandom();
+
     private List<String> playerIds = new ArrayList<>();
 
     // game configuration
@@ -48,40 +59,175 @@ public class Game {
     private GameStatus status = GameStatus.START_ROUND;
     private int currentPlayerIndex;
     private Map<String, Boolean> isDeclaringTeam;
-    private Queue<Integer> deck;
+    // the cards left to draw are deck[deckPosition..]
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private int[] deck;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private int deckPosition;
     private Map<Integer, Card> cardsById;
-    private Map<String, List<Integer>> playerHands;
+    @Setter(AccessLevel.NONE)
+    private CardTable cardTable;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private volatile TrumpTable trumpTable;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private int trumpVersion;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final PlayEvaluator evaluator = new PlayEvaluator();
+    @Setter(AccessLevel.NONE)
+    private Map<String, Hand> playerHands;
     private List<Play> declaredCards;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private RevealedCards revealedCards;
     private List<Integer> exposedBottomCards = new ArrayList<>();
     private List<Integer> kitty;
     private FindAFriendDeclaration findAFriendDeclaration;
+    // for each find-a-friend declaration, the number of matching cards played so far, and the play
+    // that satisfied it (if any)
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private int[] friendCardsPlayed;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private Play[] friendJoiningPlays;
     private List<Trick> pastTricks;
+    // copies of the past tricks for snapshots, see freezePastTrick
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private Trick[] frozenPastTricks;
     private Trick currentTrick;
+    // currentTrickWinners.get(i) is the index of the play that wins among the first i + 1 plays of the
+    // current trick, so that a play only has to be compared against the play that was winning before it.
+    // The lists of the past tricks are kept too, so that reopening a trick doesn't compare its plays again.
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private List<Integer> currentTrickWinners = new ArrayList<>();
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final List<List<Integer>> pastTrickWinners = new ArrayList<>();
     private Map<String, Integer> currentRoundScores = new HashMap<>();
     private Map<String, Integer> currentRoundPenalties = new HashMap<>();
+    // point totals, updated card by card as cards move: all cards in the round, the cards played into
+    // tricks so far, the current trick and the kitty
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private int totalPoints;
+    @Setter(AccessLevel.NONE)
+    private int playedPoints;
+    @Setter(AccessLevel.NONE)
+    private int currentTrickPoints;
+    @Setter(AccessLevel.NONE)
+    private int kittyPoints;
+
+    // the actions that led to the current state, oldest first, from the start of the game or, once a
+    // round has finished, from the start of the latest round
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final List<GameAction> actionLog = new ArrayList<>();
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private boolean replaying;
+    // the plays of this round that are currently taken back, most recent last, so that undoing a
+    // take back can put the play back
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final List<TakenBackPlay> takenBackPlays = new ArrayList<>();
+
+    // the state as of the end of the last mutation, for readers that don't hold the lock; a caller
+    // that just changed the game should use the snapshot the mutator returned instead, since another
+    // mutation may already have replaced this one
+    @Setter(AccessLevel.NONE)
+    private volatile GameSnapshot snapshot;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private long snapshotVersion;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private long handsVersion;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private HandDelta handDelta;
+    // the cards moved since the last snapshot, from which its hand delta is built
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final HandChanges handChanges = new HandChanges();
+
+    // where the seeds of new rounds come from, and how many seeds have been taken from it
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final long gameSeed;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final SplittableRandom random;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private int numRoundSeeds;
+
+    // the state carried into the latest round as of its start (or the start of the game), and the
+    // index in the action log where that round starts; a checkpoint is this plus the rest of the log
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private GameCheckpoint.RoundStart roundStart;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private int roundStartActionIndex;
+
+    @Data
+    private static class TakenBackPlay {
+
+        private final Play play;
+        // whether taking the play back reopened the trick it finished
+        private final boolean unfinishedTrick;
+    }
 
-    public synchronized void addPlayer(String playerId) {
+    public Game() {
+        this(SEEDS.nextLong());
+    }
+
+    /**
+     * Creates a game whose rounds are dealt from the given seed, so that a whole series of rounds can
+     * be reproduced.
+     */
+    public Game(long seed) {
+        gameSeed = seed;
+        random = new SplittableRandom(seed);
+        roundStart = captureRoundStart();
+        publishSnapshot();
+    }
+
+    public synchronized GameSnapshot addPlayer(String playerId) {
         if (status != GameStatus.START_ROUND)
-            return;
+            return snapshot;
         if (playerIds.contains(playerId))
-            return;
+            return snapshot;
 
         playerIds.add(playerId);
         playerRankScores.put(playerId, Card.Value.TWO);
+        updateTrump();
+        actionLog.add(new GameAction.AddPlayer(playerId));
+        return publishSnapshot();
     }
 
-    public synchronized void removePlayer(String playerId) {
+    public synchronized GameSnapshot removePlayer(String playerId) {
         if (!playerIds.contains(playerId))
-            return;
+            return snapshot;
 
         playerIds.remove(playerId);
         playerRankScores.remove(playerId);
+        updateTrump();
 
         if (playerIds.size() < 4)
             findAFriend = false;
+        actionLog.add(new GameAction.RemovePlayer(playerId));
+        return publishSnapshot();
     }
 
-    public synchronized void setPlayerOrder(List<String> newPlayerIds) {
+    public synchronized GameSnapshot setPlayerOrder(List<String> newPlayerIds) {
         if (status != GameStatus.START_ROUND)
             throw new IllegalStateException();
         if (!new HashSet<>(playerIds).equals(new HashSet<>(newPlayerIds)))
@@ -92,86 +238,132 @@ public class Game {
         playerIds = newPlayerIds;
         currentPlayerIndex = playerIds.indexOf(currentPlayerId);
         starterPlayerIndex = playerIds.indexOf(starterPlayerId);
+        updateTrump();
+        actionLog.add(new GameAction.SetPlayerOrder(ImmutableList.copyOf(newPlayerIds)));
+        return publishSnapshot();
     }
 
-    public synchronized void updatePlayerScore(String playerId, boolean increment) {
+    public synchronized GameSnapshot updatePlayerScore(String playerId, boolean increment) {
         if (status != GameStatus.START_ROUND)
             throw new IllegalStateException();
 
         updatePlayerScore(playerId, increment ? 1 : -1);
+        updateTrump();
+        actionLog.add(new GameAction.UpdatePlayerScore(playerId, increment));
+        return publishSnapshot();
     }
 
-    public synchronized void setNumDecks(int numDecks) {
+    public synchronized GameSnapshot setNumDecks(int numDecks) {
         if (status != GameStatus.START_ROUND)
             throw new IllegalStateException();
         if (numDecks <= 0 || numDecks > 10)
             throw new IllegalStateException();
 
         this.numDecks = numDecks;
+        actionLog.add(new GameAction.SetNumDecks(numDecks));
+        return publishSnapshot();
     }
 
-    public synchronized void setFindAFriend(boolean findAFriend) {
+    public synchronized GameSnapshot setFindAFriend(boolean findAFriend) {
         if (status != GameStatus.START_ROUND)
             throw new IllegalStateException();
         if (findAFriend && playerIds.size() < 4)
             throw new IllegalStateException();
 
         this.findAFriend = findAFriend;
+        actionLog.add(new GameAction.SetFindAFriend(findAFriend));
+        return publishSnapshot();
+    }
+
+    public synchronized GameSnapshot startRound() {
+        numRoundSeeds++;
+        return startRound(random.nextLong());
     }
 
-    public synchronized void startRound() {
+    /**
+     * Starts a round, generating and shuffling the cards with the given seed. The seed is recorded in
+     * the action log, so the round can be replayed exactly.
+     */
+    public synchronized GameSnapshot startRound(long seed) {
         if (status != GameStatus.START_ROUND)
             throw new IllegalStateException();
 
+        // the state carried into the round already covers the earlier rounds, so the log only needs
+        // to keep them while the game can still be replayed from its start
+        if (roundNumber > 0)
+            actionLog.clear();
+        roundStart = captureRoundStart();
+        roundStartActionIndex = actionLog.size();
         status = GameStatus.DRAW;
         currentPlayerIndex = starterPlayerIndex;
         setIsDeclaringTeam();
-        cardsById = Decks.getCardsById(numDecks);
-        deck = Decks.shuffle(cardsById);
+        // cleared before the new cards are set, since the trump table for them is built right away
         playerHands = new HashMap<>();
         declaredCards = new ArrayList<>();
         exposedBottomCards = new ArrayList<>();
+        setCardsById(Decks.getCardsById(numDecks, new SplittableRandom(seed)));
+        deck = cardTable.getCardIds();
+        deckPosition = 0;
+        revealedCards = new RevealedCards(cardTable);
         kitty = new ArrayList<>();
         findAFriendDeclaration = null;
+        friendCardsPlayed = null;
+        friendJoiningPlays = null;
         pastTricks = new ArrayList<>();
+        frozenPastTricks = new Trick[16];
+        pastTrickWinners.clear();
         currentTrick = null;
+        takenBackPlays.clear();
         currentRoundScores = new HashMap<>(Maps.toMap(playerIds, playerId -> 0));
         currentRoundPenalties = new HashMap<>(Maps.toMap(playerIds, playerId -> 0));
+        totalPoints = 0;
+        for (int cardId : cardTable.getCardIds())
+            totalPoints += cardTable.getPoints(cardId);
+        playedPoints = 0;
+        currentTrickPoints = 0;
+        kittyPoints = 0;
 
         for (String playerId : playerIds)
-            playerHands.put(playerId, new ArrayList<>());
+            playerHands.put(playerId, new Hand(cardTable));
+        handChanges.replaceAll();
+        actionLog.add(new GameAction.StartRound(seed));
+        return publishSnapshot();
     }
 
     /**
      * The next player draws a card from the deck.
      */
-    public synchronized Play draw() {
+    public synchronized DrawResult draw() {
         if (status == GameStatus.DRAW_KITTY)
             return null;
         if (status != GameStatus.DRAW)
             throw new IllegalStateException();
 
         String playerId = playerIds.get(currentPlayerIndex);
-        int cardId = deck.poll();
-        playerHands.get(playerId).add(cardId);
-        sortCards(playerHands.get(playerId));
+        int cardId = deck[deckPosition++];
+        addToHand(playerId, Collections.singletonList(cardId));
         currentPlayerIndex = (currentPlayerIndex + 1) % playerIds.size();
-        if (deck.size() <= getKittySize())
+        if (deck.length - deckPosition <= getKittySize())
             status = GameStatus.DRAW_KITTY;
-        return new Play(playerId, Collections.singletonList(cardId));
+        actionLog.add(new GameAction.Draw());
+        return new DrawResult(new Play(playerId, Collections.singletonList(cardId)), publishSnapshot());
     }
 
-    public synchronized void declare(String playerId, List<Integer> cardIds) throws InvalidDeclareException {
+    public synchronized GameSnapshot declare(String playerId, List<Integer> cardIds) throws InvalidDeclareException {
         Play play = new Play(playerId, cardIds);
         verifyCanDeclare(play);
         declaredCards.add(play);
-        playerHands.forEach((otherPlayerId, otherCardIds) -> sortCards(otherCardIds));
 
         // if this is the first round, then the person who declares is the starter
         if (roundNumber == 0) {
             starterPlayerIndex = playerIds.indexOf(playerId);
             setIsDeclaringTeam();
         }
+
+        updateTrump();
+        revealedCards.reveal(cardIds, actionLog.size());
+        actionLog.add(new GameAction.Declare(playerId, ImmutableList.copyOf(cardIds)));
+        return publishSnapshot();
     }
 
     private void verifyCanDeclare(Play play) throws InvalidDeclareException {
@@ -181,12 +373,11 @@ public class Game {
             throw new InvalidDeclareException("You must declare at least one card.");
         if (!isPlayable(play))
             throw new InvalidDeclareException("You do not have that card.");
-        if (play.getCardIds().stream().map(cardId -> cardsById.get(cardId).getValue()).distinct().count() != 1)
-            throw new InvalidDeclareException("All declared cards must be the same.");
-        if (play.getCardIds().stream().map(cardId -> cardsById.get(cardId).getSuit()).distinct().count() != 1)
+        int firstCardId = play.getCardIds().get(0);
+        if (!play.getCardIds().stream().allMatch(cardId -> cardTable.isSameCard(cardId, firstCardId)))
             throw new InvalidDeclareException("All declared cards must be the same.");
-        Card card = cardsById.get(play.getCardIds().get(0));
-        if (card.getValue() != getCurrentTrump().getValue() && card.getSuit() != Card.Suit.JOKER)
+        Card card = cardTable.get(firstCardId);
+        if (card.getValue() != getTrumpTable().getTrump().getValue() && card.getSuit() != Card.Suit.JOKER)
             throw new InvalidDeclareException("You can only declare the current trump value.");
         if (card.getSuit() == Card.Suit.JOKER && play.getCardIds().size() == 1)
             throw new InvalidDeclareException("You cannot declare a single joker.");
@@ -195,7 +386,7 @@ public class Game {
             return;
 
         Play lastDeclaredPlay = declaredCards.get(declaredCards.size() - 1);
-        Suit lastDeclaredSuit = cardsById.get(lastDeclaredPlay.getCardIds().get(0)).getSuit();
+        Suit lastDeclaredSuit = cardTable.getSuit(lastDeclaredPlay.getCardIds().get(0));
         if (lastDeclaredPlay.getPlayerId().equals(play.getPlayerId())) {
             // same player is only allowed to strengthen the declared suit
             if (card.getSuit() != lastDeclaredSuit)
@@ -222,7 +413,7 @@ public class Game {
                 Collectors.toMap(i -> playerIds.get(i), i -> findAFriend ? i == starterPlayerIndex : (i + starterPlayerIndex) % 2 == 0));
     }
 
-    public synchronized void exposeBottomCards() {
+    public synchronized GameSnapshot exposeBottomCards() {
         if (status != GameStatus.DRAW_KITTY)
             throw new IllegalStateException();
         if (!declaredCards.isEmpty())
@@ -230,30 +421,31 @@ public class Game {
 
         // draw from deck until we find a trump, or take the suit of the highest value card
         status = GameStatus.EXPOSE_BOTTOM_CARDS;
-        for (int cardId : deck) {
+        for (int cardId : getDeck()) {
             exposedBottomCards.add(cardId);
-            if (getCurrentTrump().getSuit() != Card.Suit.JOKER) {
-                playerHands.forEach((otherPlayerId, otherCardIds) -> sortCards(otherCardIds));
-                return;
-            }
+            if (getCurrentTrump().getSuit() != Card.Suit.JOKER)
+                break;
         }
+        updateTrump();
+        actionLog.add(new GameAction.ExposeBottomCards());
+        return publishSnapshot();
     }
 
-    public synchronized Play takeKitty() {
+    public synchronized DrawResult takeKitty() {
         if (status != GameStatus.DRAW_KITTY && status != GameStatus.EXPOSE_BOTTOM_CARDS)
             return null;
 
         status = GameStatus.MAKE_KITTY;
         currentPlayerIndex = starterPlayerIndex;
         String playerId = playerIds.get(currentPlayerIndex);
-        List<Integer> cardIds = new ArrayList<>(deck);
-        playerHands.get(playerIds.get(currentPlayerIndex)).addAll(cardIds);
-        sortCards(playerHands.get(playerIds.get(currentPlayerIndex)));
-        deck.clear();
-        return new Play(playerId, cardIds);
+        List<Integer> cardIds = new ArrayList<>(getDeck());
+        addToHand(playerId, cardIds);
+        deckPosition = deck.length;
+        actionLog.add(new GameAction.TakeKitty());
+        return new DrawResult(new Play(playerId, cardIds), publishSnapshot());
     }
 
-    public synchronized void makeKitty(String playerId, List<Integer> cardIds) throws InvalidKittyException {
+    public synchronized GameSnapshot makeKitty(String playerId, List<Integer> cardIds) throws InvalidKittyException {
         sortCards(cardIds);
         Play play = new Play(playerId, cardIds);
         if (status != GameStatus.MAKE_KITTY || !kitty.isEmpty())
@@ -266,11 +458,15 @@ public class Game {
             throw new InvalidKittyException("Unknown error");
         status = findAFriend ? GameStatus.DECLARE_FRIEND : GameStatus.PLAY;
         kitty = play.getCardIds();
-        playerHands.get(playerId).removeAll(cardIds);
+        kittyPoints = totalCardScore(kitty);
+        removeFromHand(playerId, cardIds);
         currentTrick = new Trick(play.getPlayerId());
+        currentTrickWinners.clear();
+        actionLog.add(new GameAction.MakeKitty(playerId, ImmutableList.copyOf(cardIds)));
+        return publishSnapshot();
     }
 
-    public synchronized void makeFindAFriendDeclaration(String playerId, FindAFriendDeclaration declarations)
+    public synchronized GameSnapshot makeFindAFriendDeclaration(String playerId, FindAFriendDeclaration declarations)
             throws InvalidFindAFriendDeclarationException {
         if (status != GameStatus.DECLARE_FRIEND)
             throw new InvalidFindAFriendDeclarationException("You cannot declare a friend now.");
@@ -283,30 +479,34 @@ public class Game {
         if (declarations.getDeclarations().size() != playerIds.size() / 2 - 1)
             throw new InvalidFindAFriendDeclarationException("Invalid number of declarations.");
         for (Declaration declaration : declarations.getDeclarations()) {
-            Card card = new Card(declaration.getValue(), declaration.getSuit());
+            Card card = Card.of(declaration.getValue(), declaration.getSuit());
             if (declaration.isSatisfied())
                 throw new InvalidFindAFriendDeclarationException("Unknown error");
             if (declaration.getOrdinal() > numDecks)
                 throw new InvalidFindAFriendDeclarationException("Invalid ordinal.");
             if (declaration.getOrdinal() < 0)
                 throw new InvalidFindAFriendDeclarationException("Invalid ordinal.");
-            if (!cardsById.containsValue(card))
+            if (!cardTable.contains(card))
                 throw new InvalidFindAFriendDeclarationException("Invalid card.");
 
             if (declaration.getOrdinal() == 0) {
                 if (numDecks != 2)
                     throw new InvalidFindAFriendDeclarationException("You can only declare OTHER with 2 decks.");
 
-                long numCards = playerHands.get(playerId).stream()
-                        .filter(cardId -> cardsById.get(cardId).equals(card))
+                long numCards = playerHands.get(playerId).getCardIds().stream()
+                        .filter(cardId -> cardTable.get(cardId).equals(card))
                         .count();
                 if (numCards != 1)
                     throw new InvalidFindAFriendDeclarationException("You need the card to declare OTHER.");
             }
         }
 
+        actionLog.add(new GameAction.MakeFindAFriendDeclaration(playerId, new FindAFriendDeclaration(declarations)));
         status = GameStatus.PLAY;
         findAFriendDeclaration = declarations;
+        friendCardsPlayed = new int[declarations.getDeclarations().size()];
+        friendJoiningPlays = new Play[declarations.getDeclarations().size()];
+        return publishSnapshot();
     }
 
     /**
@@ -330,41 +530,58 @@ public class Game {
                 if (!confirmSpecialPlay)
                     throw new ConfirmSpecialPlayException();
 
-                Card trump = getCurrentTrump();
+                TrumpTable trumpTable = getTrumpTable();
+                Grouping grouping = trumpTable.getGrouping(play.getCardIds());
                 for (Component component : profile)
                     for (String otherPlayerId : playerIds)
-                        if (!otherPlayerId.equals(play.getPlayerId())) {
-                            List<Integer> sameSuitCardIds = playerHands.get(otherPlayerId).stream()
-                                .filter(cardId -> Cards.grouping(cardsById.get(cardId), trump) == getGrouping(play.getCardIds()))
-                                .collect(Collectors.toList());
-                            for (Component otherComponent : getProfile(sameSuitCardIds))
-                                if (otherComponent.getShape().getWidth() >= component.getShape().getWidth()
-                                        && otherComponent.getShape().getHeight() >= component.getShape().getHeight()
-                                        && otherComponent.getMinRank() > component.getMinRank()) {
-                                    badComponent = component;
-                                }
+                        if (!otherPlayerId.equals(play.getPlayerId())
+                                && playerHands.get(otherPlayerId).getTopMinRank(
+                                    trumpTable,
+                                    grouping,
+                                    component.getShape(),
+                                    sameSuitCardIds -> getProfile(trumpTable, sameSuitCardIds)) > component.getMinRank()) {
+                            badComponent = component;
                         }
             }
         }
         if (badComponent != null) {
-            currentRoundPenalties.compute(playerId, (key, penalty) -> penalty + 10);
             cardIds = new ArrayList<>(badComponent.getCardIds());
             sortCards(cardIds);
         }
 
-        playerHands.get(playerId).removeAll(cardIds);
-        currentTrick.getPlays().add(new Play(playerId, cardIds)); // might be different from the initial play
-        currentTrick.setWinningPlayerId(winningPlayerId(currentTrick));
+        return applyPlay(playerId, cardIds, badComponent != null); // might be different from the initial play
+    }
 
-        boolean didFriendJoin = updateFindAFriendDeclaration();
+    /**
+     * Makes a play that has already been checked, penalizing the player if it was reduced from an
+     * invalid special play.
+     */
+    private PlayResult applyPlay(String playerId, List<Integer> cardIds, boolean isBadSpecialPlay) {
+        if (isBadSpecialPlay)
+            currentRoundPenalties.compute(playerId, (key, penalty) -> penalty + 10);
 
-        if (currentTrick.getPlays().size() == playerIds.size()) {
-            currentPlayerIndex = -1;
-            return new PlayResult(true, didFriendJoin, badComponent != null);
-        } else {
-            currentPlayerIndex = (currentPlayerIndex + 1) % playerIds.size();
-            return new PlayResult(false, didFriendJoin, badComponent != null);
-        }
+        boolean didFriendJoin = addPlay(new Play(playerId, cardIds));
+        boolean isTrickComplete = currentPlayerIndex == -1;
+        revealedCards.reveal(cardIds, actionLog.size());
+        actionLog.add(new GameAction.Play(playerId, ImmutableList.copyOf(cardIds), isBadSpecialPlay));
+        return new PlayResult(isTrickComplete, didFriendJoin, isBadSpecialPlay, publishSnapshot());
+    }
+
+    /**
+     * Adds the play to the current trick and moves on to the next player, or to no one if the trick
+     * is complete. This is the reverse of {@link #unplay}. Returns whether a friend joined.
+     */
+    private boolean addPlay(Play play) {
+        removeFromHand(play.getPlayerId(), play.getCardIds());
+        currentTrick.getPlays().add(play);
+        playedPoints += totalCardScore(play.getCardIds());
+        currentTrickPoints += totalCardScore(play.getCardIds());
+        recordCurrentTrickWinner();
+
+        boolean didFriendJoin = updateFindAFriendDeclaration(play);
+        boolean isTrickComplete = currentTrick.getPlays().size() == playerIds.size();
+        currentPlayerIndex = isTrickComplete ? -1 : (playerIds.indexOf(play.getPlayerId()) + 1) % playerIds.size();
+        return didFriendJoin;
     }
 
     private void verifyCanPlay(Play play) throws InvalidPlayException {
@@ -377,7 +594,7 @@ public class Game {
         if (!isPlayable(play))
             throw new InvalidPlayException("You do not have that card.");
 
-        Card trump = getCurrentTrump();
+        TrumpTable trumpTable = getTrumpTable();
         if (currentTrick.getPlays().isEmpty()) {
             // first play of trick
             List<Component> profile = getProfile(play.getCardIds());
@@ -389,99 +606,339 @@ public class Game {
                 throw new InvalidPlayException("You must play the same number of cards.");
 
             Grouping startingGrouping = getGrouping(startingPlay.getCardIds());
-            List<Integer> sameSuitCards = playerHands.get(play.getPlayerId()).stream()
-                .filter(cardId -> Cards.grouping(cardsById.get(cardId), trump) == startingGrouping)
-                .collect(Collectors.toList());
-
-            if (!sameSuitCards.isEmpty()
-                    && sameSuitCards.stream().anyMatch(cardId -> !play.getCardIds().contains(cardId))
-                    && play.getCardIds().stream().anyMatch(cardId -> Cards.grouping(cardsById.get(cardId), trump) != startingGrouping)) {
+            Hand hand = playerHands.get(play.getPlayerId());
+            if (hand.hasAnyExcept(trumpTable, startingGrouping, play.getCardIds())
+                    && play.getCardIds().stream().anyMatch(cardId -> trumpTable.getGrouping(cardId) != startingGrouping)) {
                 throw new InvalidPlayException("You must follow suit.");
             }
 
-            for (Component handComponent : getProfile(sameSuitCards)) {
-                Shape handShape = handComponent.getShape();
-                boolean isCapturedByStartingPlay = getProfile(startingPlay.getCardIds()).stream()
+            List<Integer> sameSuitCards = hand.getCardIds(trumpTable, startingGrouping);
+            if (!playsWidestComponents(getProfile(sameSuitCards), getProfile(startingPlay.getCardIds()), play.getCardIds()))
+                throw new InvalidPlayException("You must play pairs before singles, etc.");
+        }
+    }
+
+    /**
+     * Whether a play that follows suit plays the pairs (or triples, etc.) in the hand before singles,
+     * given the profiles of the player's cards in the starting suit and of the starting play.
+     */
+    private boolean playsWidestComponents(List<Component> handProfile, List<Component> startingProfile, List<Integer> cardIds) {
+        List<Component> profile = getProfile(cardIds);
+        for (Component handComponent : handProfile) {
+            Shape handShape = handComponent.getShape();
+            boolean isCapturedByStartingPlay = startingProfile.stream()
+                .map(Component::getShape)
+                .anyMatch(shape -> shape.getWidth() >= handShape.getWidth());
+            boolean inPlay = profile.contains(handComponent);
+            // Suppose the starting player played pairs. If you have any pairs (isCapturedByStartingPlay), but you didn't play it
+            // (!inPlay), then look at how many cards you played are worse than it (numFreeCardsInPlay). If there are at least as many
+            // worse cards (2), then those cards could have been replaced with the pair. This logic extends for any set of n cards.
+            if (isCapturedByStartingPlay && !inPlay) {
+                int numFreeCardsInPlay = profile.stream()
                     .map(Component::getShape)
-                    .anyMatch(shape -> shape.getWidth() >= handShape.getWidth());
-                boolean inPlay = getProfile(play.getCardIds()).contains(handComponent);
-                // Suppose the starting player played pairs. If you have any pairs (isCapturedByStartingPlay), but you didn't play it
-                // (!inPlay), then look at how many cards you played are worse than it (numFreeCardsInPlay). If there are at least as many
-                // worse cards (2), then those cards could have been replaced with the pair. This logic extends for any set of n cards.
-                if (isCapturedByStartingPlay && !inPlay) {
-                    int numFreeCardsInPlay = getProfile(play.getCardIds()).stream()
-                        .map(Component::getShape)
-                        .filter(shape -> shape.getWidth() < handShape.getWidth())
-                        .mapToInt(shape -> shape.getWidth() * shape.getHeight())
-                        .sum();
-                    if (numFreeCardsInPlay >= handShape.getWidth())
-                        throw new InvalidPlayException("You must play pairs before singles, etc.");
-                }
+                    .filter(shape -> shape.getWidth() < handShape.getWidth())
+                    .mapToInt(shape -> shape.getWidth() * shape.getHeight())
+                    .sum();
+                if (numFreeCardsInPlay >= handShape.getWidth())
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the plays that the player can make now, each as an array of card ids in hand order. Plays
+     * that only differ in which copy of a card they use are listed once.
+     *
+     * When following, every play that {@link #play} would accept is listed. When leading, the single
+     * components in the player's hand (singles, pairs, tractors, etc.) are listed, but not special
+     * plays, since there are exponentially many of those.
+     *
+     * If pruneDominated is true, follows that don't beat the play that is winning the trick are pruned
+     * to the one with the lowest ranks for each number of points and number of cards in each grouping.
+     * The number of follows can be large when the player has to discard from several suits, so pruning
+     * is recommended for search.
+     */
+    public synchronized List<int[]> legalPlays(String playerId, boolean pruneDominated) {
+        List<int[]> plays = new ArrayList<>();
+        if (status != GameStatus.PLAY || currentPlayerIndex == -1 || !playerIds.get(currentPlayerIndex).equals(playerId))
+            return plays;
+
+        TrumpTable trumpTable = getTrumpTable();
+        Hand hand = playerHands.get(playerId);
+        List<Play> trickPlays = currentTrick.getPlays();
+        if (trickPlays.isEmpty()) {
+            for (Grouping grouping : Grouping.values())
+                addLeads(trumpTable, hand.getCardIds(trumpTable, grouping), plays);
+            return plays;
+        }
+
+        List<Integer> startingCardIds = trickPlays.get(0).getCardIds();
+        Grouping startingGrouping = trumpTable.getGrouping(startingCardIds);
+        List<Integer> sameSuitCardIds = hand.getCardIds(trumpTable, startingGrouping);
+        List<Component> handProfile = getProfile(sameSuitCardIds);
+        List<Component> startingProfile = getProfile(startingCardIds);
+        List<Integer> winningCardIds = trickPlays.get(currentTrickWinners.get(trickPlays.size() - 1)).getCardIds();
+
+        // each play is checked and pruned as soon as it is generated, so dominated plays are never collected
+        Map<List<Integer>, int[]> lowestLosingPlays = new HashMap<>();
+        Consumer<int[]> addFollow = play -> {
+            if (!playsWidestComponents(handProfile, startingProfile, Ints.asList(play)))
+                return;
+            if (!pruneDominated || evaluator.beatsWinningPlay(trumpTable, Ints.asList(play), winningCardIds)) {
+                plays.add(play);
+                return;
+            }
+            lowestLosingPlays.merge(pruningKey(trumpTable, play), play,
+                (play1, play2) -> totalRank(trumpTable, play1) <= totalRank(trumpTable, play2) ? play1 : play2);
+        };
+
+        if (sameSuitCardIds.size() >= startingCardIds.size()) {
+            // follow suit with as many cards as the starting play
+            addCombinations(splitIntoKinds(sameSuitCardIds), 0, new int[startingCardIds.size()], 0, addFollow);
+        } else {
+            // follow suit with every card of the suit, and fill the rest of the play with other cards
+            int numFillCards = startingCardIds.size() - sameSuitCardIds.size();
+            List<List<List<int[]>>> fillsByGrouping = new ArrayList<>();
+            for (Grouping grouping : Grouping.values()) {
+                if (grouping == startingGrouping)
+                    continue;
+                // only trumps can win, and only when the player has none of the starting suit
+                boolean canWin = grouping == Grouping.TRUMP && sameSuitCardIds.isEmpty();
+                fillsByGrouping.add(fills(trumpTable, hand.getCardIds(trumpTable, grouping), numFillCards, pruneDominated && !canWin));
+            }
+            int[] play = Arrays.copyOf(Ints.toArray(sameSuitCardIds), startingCardIds.size());
+            addFills(fillsByGrouping, 0, play, sameSuitCardIds.size(), fillPlay -> {
+                sortInHandOrder(trumpTable, fillPlay);
+                addFollow.accept(fillPlay);
+            });
+        }
+
+        plays.addAll(lowestLosingPlays.values());
+        return plays;
+    }
+
+    /**
+     * Splits cards in hand order into runs of copies of the same card, which are in increasing rank.
+     */
+    private List<int[]> splitIntoKinds(List<Integer> cardIds) {
+        List<int[]> kinds = new ArrayList<>();
+        for (int start = 0, end; start < cardIds.size(); start = end) {
+            for (end = start + 1; end < cardIds.size() && cardTable.isSameCard(cardIds.get(start), cardIds.get(end)); end++);
+            kinds.add(Ints.toArray(cardIds.subList(start, end)));
+        }
+        return kinds;
+    }
+
+    /**
+     * Adds every single component that can be made from the cards of one grouping, given in hand
+     * order.
+     */
+    private void addLeads(TrumpTable trumpTable, List<Integer> cardIds, List<int[]> plays) {
+        List<int[]> kinds = splitIntoKinds(cardIds);
+        for (int i = 0; i < kinds.size(); i++)
+            for (int width = 1; width <= kinds.get(i).length; width++) {
+                plays.add(Arrays.copyOf(kinds.get(i), width));
+                if (width >= 2)
+                    addTractors(trumpTable, kinds, i, width, Arrays.copyOf(kinds.get(i), width), plays);
             }
+    }
+
+    /**
+     * Adds every tractor of the given width that extends the cards upwards from the given card.
+     */
+    private void addTractors(TrumpTable trumpTable, List<int[]> kinds, int kind, int width, int[] cardIds, List<int[]> plays) {
+        int nextRank = trumpTable.getRank(kinds.get(kind)[0]) + 1;
+        for (int next = kind + 1; next < kinds.size() && trumpTable.getRank(kinds.get(next)[0]) <= nextRank; next++) {
+            if (trumpTable.getRank(kinds.get(next)[0]) != nextRank || kinds.get(next).length < width)
+                continue;
+            int[] tractor = Arrays.copyOf(cardIds, cardIds.length + width);
+            System.arraycopy(kinds.get(next), 0, tractor, cardIds.length, width);
+            if (getProfile(trumpTable, Ints.asList(tractor)).size() == 1)
+                plays.add(tractor);
+            addTractors(trumpTable, kinds, next, width, tractor, plays);
+        }
+    }
+
+    /**
+     * Fills the rest of the play with every choice of how many copies of each kind of card to use,
+     * from the given kind on. Copies of the same card are interchangeable, so the first copies are
+     * used.
+     */
+    private static void addCombinations(List<int[]> kinds, int kind, int[] play, int size, Consumer<int[]> plays) {
+        if (size == play.length) {
+            plays.accept(play.clone());
+            return;
+        }
+        if (kind == kinds.size())
+            return;
+        int[] cardIds = kinds.get(kind);
+        for (int count = Math.min(cardIds.length, play.length - size); count >= 0; count--) {
+            System.arraycopy(cardIds, 0, play, size, count);
+            addCombinations(kinds, kind + 1, play, size + count, plays);
+        }
+    }
+
+    /**
+     * Returns the choices of up to maxCards cards of one grouping, given in hand order, by number of
+     * cards. If pruneDominated is true, only the choice with the lowest ranks is kept for each number
+     * of cards and points.
+     */
+    private List<List<int[]>> fills(TrumpTable trumpTable, List<Integer> cardIds, int maxCards, boolean pruneDominated) {
+        List<int[]> kinds = splitIntoKinds(cardIds);
+        List<List<int[]>> fills = new ArrayList<>();
+        for (int numCards = 0; numCards <= Math.min(maxCards, cardIds.size()); numCards++) {
+            List<int[]> choices = new ArrayList<>();
+            Map<Integer, int[]> lowestChoices = new HashMap<>();
+            addCombinations(kinds, 0, new int[numCards], 0, choice -> {
+                if (!pruneDominated)
+                    choices.add(choice);
+                else
+                    lowestChoices.merge(cardTable.totalPoints(Ints.asList(choice)), choice,
+                        (choice1, choice2) -> totalRank(trumpTable, choice1) <= totalRank(trumpTable, choice2) ? choice1 : choice2);
+            });
+            choices.addAll(lowestChoices.values());
+            fills.add(choices);
         }
+        return fills;
     }
 
     /**
-     * Returns whether a friend joined
+     * Adds the play filled up with one choice of cards from each grouping on.
      */
-    private boolean updateFindAFriendDeclaration() {
+    private static void addFills(List<List<List<int[]>>> fillsByGrouping, int grouping, int[] play, int size, Consumer<int[]> plays) {
+        if (grouping == fillsByGrouping.size()) {
+            if (size == play.length)
+                plays.accept(play.clone());
+            return;
+        }
+        List<List<int[]>> fills = fillsByGrouping.get(grouping);
+        for (int numCards = Math.min(fills.size() - 1, play.length - size); numCards >= 0; numCards--)
+            for (int[] fill : fills.get(numCards)) {
+                System.arraycopy(fill, 0, play, size, numCards);
+                addFills(fillsByGrouping, grouping + 1, play, size + numCards, plays);
+            }
+    }
+
+    private static void sortInHandOrder(TrumpTable trumpTable, int[] cardIds) {
+        long[] keys = new long[cardIds.length];
+        for (int i = 0; i < cardIds.length; i++)
+            keys[i] = (long) trumpTable.getSortKey(cardIds[i]) << 32 | cardIds[i];
+        Arrays.sort(keys);
+        for (int i = 0; i < cardIds.length; i++)
+            cardIds[i] = (int) keys[i];
+    }
+
+    /**
+     * The plays that don't beat the winning play are pruned to the one with the lowest total rank for
+     * each number of points and number of cards in each grouping.
+     */
+    private List<Integer> pruningKey(TrumpTable trumpTable, int[] play) {
+        int[] key = new int[Grouping.values().length + 1];
+        for (int cardId : play) {
+            key[0] += cardTable.getPoints(cardId);
+            key[1 + trumpTable.getGrouping(cardId).ordinal()]++;
+        }
+        return Ints.asList(key);
+    }
+
+    private static int totalRank(TrumpTable trumpTable, int[] cardIds) {
+        int totalRank = 0;
+        for (int cardId : cardIds)
+            totalRank += trumpTable.getRank(cardId);
+        return totalRank;
+    }
+
+    /**
+     * Counts the declared cards in a play that was just made. Returns whether a friend joined.
+     */
+    private boolean updateFindAFriendDeclaration(Play play) {
         if (!findAFriend)
             return false;
 
-        long numSatisfiedDeclarations = findAFriendDeclaration.getDeclarations().stream()
-                .filter(Declaration::isSatisfied)
-                .count();
-
-        for (int i = 0; i < playerIds.size(); i++)
-            if (i != starterPlayerIndex)
-                isDeclaringTeam.put(playerIds.get(i), false);
-
-        for (Declaration declaration : findAFriendDeclaration.getDeclarations())
-            updateFindAFriendDeclaration(declaration);
-
-        return findAFriendDeclaration.getDeclarations().stream()
-                .filter(Declaration::isSatisfied)
-                .count() != numSatisfiedDeclarations;
-    }
-
-    private void updateFindAFriendDeclaration(Declaration declaration) {
-        declaration.setSatisfied(false);
-        int numPlayed = 0;
-        for (Trick trick : getAllTricks())
-            for (Play play : trick.getPlays()) {
-                for (int cardId : play.getCardIds()) {
-                    Card card = cardsById.get(cardId);
-                    if (declaration.getValue() == card.getValue() && declaration.getSuit() == card.getSuit()
-                            && (declaration.getOrdinal() > 0 || !playerIds.get(starterPlayerIndex).equals(play.getPlayerId()))) {
-                        numPlayed++;
-                    }
-                }
-                if (numPlayed >= Math.max(declaration.getOrdinal(), 1)) {
-                    isDeclaringTeam.put(play.getPlayerId(), true);
-                    declaration.setSatisfied(true);
-                    return;
-                }
+        boolean didFriendJoin = false;
+        List<Declaration> declarations = findAFriendDeclaration.getDeclarations();
+        for (int i = 0; i < declarations.size(); i++) {
+            Declaration declaration = declarations.get(i);
+            friendCardsPlayed[i] += numFriendCards(declaration, play);
+            if (!declaration.isSatisfied() && friendCardsPlayed[i] >= Math.max(declaration.getOrdinal(), 1)) {
+                declaration.setSatisfied(true);
+                friendJoiningPlays[i] = play;
+                isDeclaringTeam.put(play.getPlayerId(), true);
+                didFriendJoin = true;
             }
+        }
+        return didFriendJoin;
     }
 
-    public synchronized void finishTrick() {
+    /**
+     * Reverses {@link #updateFindAFriendDeclaration(Play)} for a play that was taken back.
+     */
+    private void undoFindAFriendDeclaration(Play play) {
+        if (!findAFriend)
+            return;
+
+        List<Declaration> declarations = findAFriendDeclaration.getDeclarations();
+        boolean isFriend = false;
+        for (int i = 0; i < declarations.size(); i++) {
+            Declaration declaration = declarations.get(i);
+            friendCardsPlayed[i] -= numFriendCards(declaration, play);
+            if (friendJoiningPlays[i] == play) {
+                declaration.setSatisfied(false);
+                friendJoiningPlays[i] = null;
+            } else if (friendJoiningPlays[i] != null && friendJoiningPlays[i].getPlayerId().equals(play.getPlayerId())) {
+                isFriend = true;
+            }
+        }
+        if (!playerIds.get(starterPlayerIndex).equals(play.getPlayerId()))
+            isDeclaringTeam.put(play.getPlayerId(), isFriend);
+    }
+
+    /**
+     * The number of cards in the play that count towards the declaration. For the "other" ordinal
+     * (0), cards played by the starter don't count.
+     */
+    private int numFriendCards(Declaration declaration, Play play) {
+        if (declaration.getOrdinal() == 0 && playerIds.get(starterPlayerIndex).equals(play.getPlayerId()))
+            return 0;
+        Card card = Card.of(declaration.getValue(), declaration.getSuit());
+        int numCards = 0;
+        for (int cardId : play.getCardIds())
+            if (cardTable.get(cardId) == card)
+                numCards++;
+        return numCards;
+    }
+
+    public synchronized GameSnapshot finishTrick() {
         if (currentTrick.getPlays().size() != playerIds.size())
             throw new IllegalStateException();
 
-        // finish trick
+        finishCurrentTrick();
+        actionLog.add(new GameAction.FinishTrick());
+        return publishSnapshot();
+    }
+
+    /**
+     * Scores the complete current trick and starts the next one, or finishes the round if that was
+     * the last trick.
+     */
+    private void finishCurrentTrick() {
         String winningPlayerId = currentTrick.getWinningPlayerId();
-        for (Play play : currentTrick.getPlays())
-            currentRoundScores.put(winningPlayerId, currentRoundScores.get(winningPlayerId) + totalCardScore(play.getCardIds()));
+        currentRoundScores.put(winningPlayerId, currentRoundScores.get(winningPlayerId) + currentTrickPoints);
 
+        freezePastTrick(pastTricks.size(), currentTrick);
         pastTricks.add(currentTrick);
+        pastTrickWinners.add(currentTrickWinners);
         currentPlayerIndex = playerIds.indexOf(winningPlayerId);
         currentTrick = new Trick(winningPlayerId);
+        currentTrickWinners = new ArrayList<>();
+        currentTrickPoints = 0;
 
         // check for end of round
-        if (playerHands.values().stream().allMatch(List::isEmpty)) {
+        if (playerHands.values().stream().allMatch(Hand::isEmpty)) {
             if (!isDeclaringTeam.get(winningPlayerId)) {
                 int bonus = 2 * pastTricks.get(pastTricks.size() - 1).getPlays().get(0).getCardIds().size();
-                currentRoundScores.put(winningPlayerId, currentRoundScores.get(winningPlayerId) + bonus * totalCardScore(kitty));
+                currentRoundScores.put(winningPlayerId, currentRoundScores.get(winningPlayerId) + bonus * kittyPoints);
             }
             int roundScore = 0;
             for (String playerId : playerIds) {
@@ -502,7 +959,7 @@ public class Game {
         }
     }
 
-    public synchronized void takeBack(String playerId) {
+    public synchronized GameSnapshot takeBack(String playerId) {
         List<Play> plays = currentTrick.getPlays();
         if (plays.isEmpty()) {
             if (pastTricks.isEmpty())
@@ -514,25 +971,285 @@ public class Game {
         if (!lastPlay.getPlayerId().equals(playerId))
             throw new IllegalStateException();
 
-        if (currentTrick.getPlays().isEmpty()) {
-            // undo finishing previous trick
-            currentTrick = pastTricks.remove(pastTricks.size() - 1);
-            String winningPlayerId = currentTrick.getWinningPlayerId();
-            for (Play play : plays)
-                currentRoundScores.put(winningPlayerId, currentRoundScores.get(winningPlayerId) - totalCardScore(play.getCardIds()));
+        boolean unfinishedTrick = currentTrick.getPlays().isEmpty();
+        if (unfinishedTrick)
+            unfinishTrick();
+        takenBackPlays.add(new TakenBackPlay(unplay(), unfinishedTrick));
+        actionLog.add(new GameAction.TakeBack(playerId));
+        return publishSnapshot();
+    }
+
+    /**
+     * Undoes the last action in the log, removing it from the log. Every action within a round can be
+     * undone (draws, declares, exposing the bottom cards, the kitty, the find-a-friend declaration,
+     * plays, take backs and finished tricks), so this can be repeated to step back through a round to
+     * its start. Each action is undone by its inverse, in time that doesn't depend on the length of
+     * the log. Starting, finishing or forfeiting a round, and changes to the game's configuration,
+     * can't be undone: they reset or carry over the state of a whole round, which is what a
+     * {@link #checkpoint} is for.
+     *
+     * Unlike {@link #takeBack}, undoing a play also undoes its special play penalty.
+     */
+    public synchronized GameSnapshot undo() {
+        GameAction lastAction = actionLog.isEmpty() ? null : actionLog.get(actionLog.size() - 1);
+        if (lastAction instanceof GameAction.Draw) {
+            int cardId = deck[--deckPosition];
+            currentPlayerIndex = (currentPlayerIndex + playerIds.size() - 1) % playerIds.size();
+            removeFromHand(playerIds.get(currentPlayerIndex), Collections.singletonList(cardId));
+            status = GameStatus.DRAW;
+        } else if (lastAction instanceof GameAction.Declare) {
+            declaredCards.remove(declaredCards.size() - 1);
+            if (roundNumber == 0) {
+                starterPlayerIndex = declaredCards.isEmpty()
+                        ? roundStart.getStarterPlayerIndex()
+                        : playerIds.indexOf(declaredCards.get(declaredCards.size() - 1).getPlayerId());
+                setIsDeclaringTeam();
+            }
+            revealedCards.unreveal(actionLog.size() - 1);
+            updateTrump();
+        } else if (lastAction instanceof GameAction.ExposeBottomCards) {
+            exposedBottomCards.clear();
+            status = GameStatus.DRAW_KITTY;
+            updateTrump();
+        } else if (lastAction instanceof GameAction.TakeKitty) {
+            deckPosition = deck.length - getKittySize();
+            removeFromHand(playerIds.get(starterPlayerIndex), getDeck());
+            // the draws went around the table from the round's first starter
+            currentPlayerIndex = (roundStart.getStarterPlayerIndex() + deckPosition) % playerIds.size();
+            status = exposedBottomCards.isEmpty() ? GameStatus.DRAW_KITTY : GameStatus.EXPOSE_BOTTOM_CARDS;
+        } else if (lastAction instanceof GameAction.MakeKitty) {
+            addToHand(playerIds.get(currentPlayerIndex), kitty);
+            kitty = new ArrayList<>();
+            kittyPoints = 0;
+            currentTrick = null;
+            currentTrickWinners.clear();
+            status = GameStatus.MAKE_KITTY;
+        } else if (lastAction instanceof GameAction.MakeFindAFriendDeclaration) {
+            findAFriendDeclaration = null;
+            friendCardsPlayed = null;
+            friendJoiningPlays = null;
+            status = GameStatus.DECLARE_FRIEND;
+        } else if (lastAction instanceof GameAction.Play) {
+            Play play = unplay();
+            revealedCards.unreveal(actionLog.size() - 1);
+            if (((GameAction.Play) lastAction).isBadSpecialPlay())
+                currentRoundPenalties.compute(play.getPlayerId(), (key, penalty) -> penalty - 10);
+        } else if (lastAction instanceof GameAction.TakeBack && status == GameStatus.PLAY) {
+            TakenBackPlay takenBackPlay = takenBackPlays.remove(takenBackPlays.size() - 1);
+            addPlay(takenBackPlay.getPlay());
+            if (takenBackPlay.isUnfinishedTrick())
+                finishCurrentTrick();
+        } else if (lastAction instanceof GameAction.FinishTrick && status == GameStatus.PLAY) {
+            unfinishTrick();
+            currentPlayerIndex = -1;
+        } else {
+            throw new IllegalStateException();
         }
+        actionLog.remove(actionLog.size() - 1);
+        return publishSnapshot();
+    }
 
-        plays.remove(plays.size() - 1);
-        currentTrick.setWinningPlayerId(winningPlayerId(currentTrick));
-        playerHands.get(playerId).addAll(lastPlay.getCardIds());
-        sortCards(playerHands.get(playerId));
-        currentPlayerIndex = playerIds.indexOf(playerId);
-        updateFindAFriendDeclaration();
+    /**
+     * Reverses {@link #addPlay}. Returns the play that was removed.
+     */
+    private Play unplay() {
+        List<Play> plays = currentTrick.getPlays();
+        Play play = plays.remove(plays.size() - 1);
+        currentTrickWinners.remove(currentTrickWinners.size() - 1);
+        currentTrick.setWinningPlayerId(plays.isEmpty() ? null : plays.get(currentTrickWinners.get(plays.size() - 1)).getPlayerId());
+        addToHand(play.getPlayerId(), play.getCardIds());
+        playedPoints -= totalCardScore(play.getCardIds());
+        currentTrickPoints -= totalCardScore(play.getCardIds());
+        currentPlayerIndex = playerIds.indexOf(play.getPlayerId());
+        undoFindAFriendDeclaration(play);
+        return play;
     }
 
-    public synchronized void forfeitRound(String playerId) {
+    /**
+     * Records the winner among the plays of the current trick up to the first play whose winner isn't
+     * recorded yet, which only takes comparing that play against the play that was winning before it.
+     */
+    private void recordCurrentTrickWinner() {
+        List<Play> plays = currentTrick.getPlays();
+        int numRecorded = currentTrickWinners.size();
+        int winningPlayIndex = numRecorded == 0 ? 0 : currentTrickWinners.get(numRecorded - 1);
+        if (numRecorded > 0 && evaluator.beatsWinningPlay(getTrumpTable(), plays.get(numRecorded).getCardIds(), plays.get(winningPlayIndex).getCardIds()))
+            winningPlayIndex = numRecorded;
+        currentTrickWinners.add(winningPlayIndex);
+        currentTrick.setWinningPlayerId(plays.get(winningPlayIndex).getPlayerId());
+    }
+
+    /**
+     * Reverses {@link #finishTrick} for a trick that didn't end the round. The trick's winners were
+     * kept when it was finished, so its plays aren't compared again.
+     */
+    private void unfinishTrick() {
+        currentTrick = pastTricks.remove(pastTricks.size() - 1);
+        currentTrickWinners = pastTrickWinners.remove(pastTrickWinners.size() - 1);
+        currentTrickPoints = 0;
+        for (Play play : currentTrick.getPlays())
+            currentTrickPoints += totalCardScore(play.getCardIds());
+        String winningPlayerId = currentTrick.getWinningPlayerId();
+        currentRoundScores.put(winningPlayerId, currentRoundScores.get(winningPlayerId) - currentTrickPoints);
+    }
+
+    public synchronized GameSnapshot forfeitRound(String playerId) {
         boolean doDeclarersWin = !isDeclaringTeam.get(playerId);
         finishRound(doDeclarersWin, doDeclarersWin ? 1 : 0);
+        actionLog.add(new GameAction.ForfeitRound(playerId));
+        return publishSnapshot();
+    }
+
+    /**
+     * Exports the current round as a {@link GameState}, which can be played forward without affecting
+     * this game. The round must be in the play phase.
+     */
+    public synchronized GameState exportState() {
+        if (status != GameStatus.PLAY)
+            throw new IllegalStateException();
+
+        return GameState.of(
+            ImmutableList.copyOf(playerIds),
+            getTrumpTable(),
+            starterPlayerIndex,
+            kittyPoints,
+            playerHands,
+            currentPlayerIndex,
+            currentTrick,
+            currentTrick.getPlays().isEmpty() ? -1 : currentTrickWinners.get(currentTrick.getPlays().size() - 1),
+            currentRoundScores,
+            isDeclaringTeam,
+            findAFriendDeclaration == null ? null : findAFriendDeclaration.getDeclarations(),
+            friendCardsPlayed);
+    }
+
+    /**
+     * Returns the actions that led to the current state, oldest first. Until the first round
+     * finishes, the log starts when the game was created. After that, it starts when the latest
+     * round started, so it doesn't grow with the length of the game; {@link #checkpoint} has the
+     * state that the round started from.
+     */
+    public synchronized List<GameAction> getActionLog() {
+        return ImmutableList.copyOf(actionLog);
+    }
+
+    /**
+     * Rebuilds a game by applying a log from {@link #getActionLog} to a new game, which only works for
+     * a game that is still in its first round (see {@link #restore} for later rounds). Plays were
+     * checked when they were logged, so they are applied without being checked again, and only the
+     * final state is published as a snapshot.
+     *
+     * Only the synchronized mutators are logged, so anything set up with the plain setters (e.g. the
+     * round number in simulations) has to be set up on the returned game as well.
+     */
+    public static Game replay(List<GameAction> actions) {
+        Game game = new Game();
+        game.applyAll(actions);
+        return game;
+    }
+
+    /**
+     * The state needed to rebuild this game with {@link #restore}: the game's seed, the state carried
+     * into the latest round, and the actions since the round started.
+     */
+    public synchronized GameCheckpoint checkpoint() {
+        return new GameCheckpoint(
+            gameSeed,
+            numRoundSeeds,
+            roundStart,
+            ImmutableList.copyOf(actionLog.subList(roundStartActionIndex, actionLog.size())));
+    }
+
+    /**
+     * Rebuilds a game from a {@link #checkpoint}. Only the actions of the latest round are replayed,
+     * so this takes about as long as replaying one round, however long the game has been going. The
+     * action log of the restored game starts at the beginning of that round.
+     */
+    public static Game restore(GameCheckpoint checkpoint) {
+        Game game = new Game(checkpoint.getGameSeed());
+        for (int i = 0; i < checkpoint.getNumRoundSeeds(); i++)
+            game.random.nextLong();
+        game.numRoundSeeds = checkpoint.getNumRoundSeeds();
+
+        GameCheckpoint.RoundStart roundStart = checkpoint.getRoundStart();
+        game.playerIds = new ArrayList<>(roundStart.getPlayerIds());
+        game.numDecks = roundStart.getNumDecks();
+        game.findAFriend = roundStart.isFindAFriend();
+        game.roundNumber = roundStart.getRoundNumber();
+        game.starterPlayerIndex = roundStart.getStarterPlayerIndex();
+        game.playerRankScores = new HashMap<>(roundStart.getPlayerRankScores());
+        game.winningPlayerIds = new HashSet<>(roundStart.getWinningPlayerIds());
+        game.roundStart = roundStart;
+        game.applyAll(checkpoint.getActions());
+        return game;
+    }
+
+    private void applyAll(List<GameAction> actions) {
+        replaying = true;
+        try {
+            for (GameAction action : actions)
+                apply(action);
+        } catch (InvalidDeclareException | InvalidKittyException | InvalidFindAFriendDeclarationException e) {
+            throw new IllegalArgumentException("Invalid action log", e);
+        } finally {
+            replaying = false;
+        }
+        // only the final state is published, so its hands are diffed as a whole
+        handChanges.replaceAll();
+        publishSnapshot();
+    }
+
+    private GameCheckpoint.RoundStart captureRoundStart() {
+        return new GameCheckpoint.RoundStart(
+            ImmutableList.copyOf(playerIds),
+            numDecks,
+            findAFriend,
+            roundNumber,
+            starterPlayerIndex,
+            ImmutableMap.copyOf(playerRankScores),
+            ImmutableSet.copyOf(winningPlayerIds));
+    }
+
+    private synchronized void apply(GameAction action)
+            throws InvalidDeclareException, InvalidKittyException, InvalidFindAFriendDeclarationException {
+        if (action instanceof GameAction.AddPlayer)
+            addPlayer(((GameAction.AddPlayer) action).getPlayerId());
+        else if (action instanceof GameAction.RemovePlayer)
+            removePlayer(((GameAction.RemovePlayer) action).getPlayerId());
+        else if (action instanceof GameAction.SetPlayerOrder)
+            setPlayerOrder(new ArrayList<>(((GameAction.SetPlayerOrder) action).getPlayerIds()));
+        else if (action instanceof GameAction.UpdatePlayerScore)
+            updatePlayerScore(((GameAction.UpdatePlayerScore) action).getPlayerId(), ((GameAction.UpdatePlayerScore) action).isIncrement());
+        else if (action instanceof GameAction.SetNumDecks)
+            setNumDecks(((GameAction.SetNumDecks) action).getNumDecks());
+        else if (action instanceof GameAction.SetFindAFriend)
+            setFindAFriend(((GameAction.SetFindAFriend) action).isFindAFriend());
+        else if (action instanceof GameAction.StartRound)
+            startRound(((GameAction.StartRound) action).getSeed());
+        else if (action instanceof GameAction.Draw)
+            draw();
+        else if (action instanceof GameAction.Declare)
+            declare(((GameAction.Declare) action).getPlayerId(), new ArrayList<>(((GameAction.Declare) action).getCardIds()));
+        else if (action instanceof GameAction.ExposeBottomCards)
+            exposeBottomCards();
+        else if (action instanceof GameAction.TakeKitty)
+            takeKitty();
+        else if (action instanceof GameAction.MakeKitty)
+            makeKitty(((GameAction.MakeKitty) action).getPlayerId(), new ArrayList<>(((GameAction.MakeKitty) action).getCardIds()));
+        else if (action instanceof GameAction.MakeFindAFriendDeclaration)
+            makeFindAFriendDeclaration(
+                ((GameAction.MakeFindAFriendDeclaration) action).getPlayerId(),
+                new FindAFriendDeclaration(((GameAction.MakeFindAFriendDeclaration) action).getDeclaration()));
+        else if (action instanceof GameAction.Play)
+            applyPlay(((GameAction.Play) action).getPlayerId(), new ArrayList<>(((GameAction.Play) action).getCardIds()), ((GameAction.Play) action).isBadSpecialPlay());
+        else if (action instanceof GameAction.FinishTrick)
+            finishTrick();
+        else if (action instanceof GameAction.TakeBack)
+            takeBack(((GameAction.TakeBack) action).getPlayerId());
+        else if (action instanceof GameAction.ForfeitRound)
+            forfeitRound(((GameAction.ForfeitRound) action).getPlayerId());
+        else
+            throw new IllegalArgumentException("Unknown action " + action);
     }
 
     private void finishRound(boolean doDeclarersWin, int scoreIncrease) {
@@ -550,6 +1267,7 @@ public class Game {
                 winningPlayerIds.add(playerId);
             }
         status = GameStatus.START_ROUND;
+        updateTrump();
     }
 
     private void updatePlayerScore(String playerId, int scoreIncrease) {
@@ -569,28 +1287,70 @@ public class Game {
         Card.Value trumpValue = playerRankScores.get(playerIds.get(starterPlayerIndex));
 
         if (declaredCards != null && !declaredCards.isEmpty())
-            return new Card(trumpValue, cardsById.get(declaredCards.get(declaredCards.size() - 1).getCardIds().get(0)).getSuit());
+            return Card.of(trumpValue, cardTable.getSuit(declaredCards.get(declaredCards.size() - 1).getCardIds().get(0)));
 
         for (int cardId : exposedBottomCards) {
-            Card card = cardsById.get(cardId);
-            if (card.getValue() == trumpValue)
-                return new Card(trumpValue, card.getSuit());
+            if (cardTable.getValue(cardId) == trumpValue)
+                return Card.of(trumpValue, cardTable.getSuit(cardId));
         }
 
         if (exposedBottomCards.size() == getKittySize()) {
             Card highestCard = null;
             for (int cardId : exposedBottomCards) {
-                Card card = cardsById.get(cardId);
+                Card card = cardTable.get(cardId);
                 if (card.getSuit() == Card.Suit.JOKER)
                     continue;
                 if (highestCard == null || card.getValue().ordinal() > highestCard.getValue().ordinal())
                     highestCard = card;
             }
             if (highestCard != null)
-                return new Card(trumpValue, highestCard.getSuit());
+                return Card.of(trumpValue, highestCard.getSuit());
         }
 
-        return new Card(trumpValue, Card.Suit.JOKER);
+        return Card.of(trumpValue, Card.Suit.JOKER);
+    }
+
+    /**
+     * Returns the trump-dependent lookup tables for the current round, or null if no cards have been
+     * made yet. The tables are rebuilt as part of anything that can change the trump (see
+     * {@link #updateTrump}), so this never changes the game and doesn't need the game lock.
+     */
+    public TrumpTable getTrumpTable() {
+        return trumpTable;
+    }
+
+    /**
+     * Rebuilds the trump table for the current trump, and re-sorts every hand for it.
+     */
+    private void updateTrump() {
+        if (cardTable == null)
+            return;
+        TrumpTable trumpTable = new TrumpTable(cardTable, getCurrentTrump(), ++trumpVersion);
+        if (playerHands != null)
+            for (Map.Entry<String, Hand> entry : playerHands.entrySet()) {
+                List<Integer> cardIds = entry.getValue().getCardIds();
+                entry.getValue().sort(trumpTable);
+                if (!cardIds.equals(entry.getValue().getCardIds()))
+                    handChanges.reorder(entry.getKey());
+            }
+        this.trumpTable = trumpTable;
+    }
+
+    public void setCardsById(Map<Integer, Card> cardsById) {
+        this.cardsById = ImmutableMap.copyOf(cardsById);
+        this.cardTable = new CardTable(cardsById);
+        updateTrump();
+    }
+
+    /**
+     * The card ids left to draw, in the order they will be drawn, or null if no round has started. The
+     * returned list is an unmodifiable view that doesn't change as cards are drawn, since the deck
+     * itself is never changed once it is dealt.
+     */
+    public synchronized List<Integer> getDeck() {
+        if (deck == null)
+            return null;
+        return Collections.unmodifiableList(Ints.asList(deck).subList(deckPosition, deck.length));
     }
 
     public int getKittySize() {
@@ -602,27 +1362,172 @@ public class Game {
         return kittySize;
     }
 
+    /**
+     * Returns each player's hand as a list of card ids, sorted for display. The lists are derived
+     * from the underlying {@link Hand}s, which should be used directly for membership and suit
+     * queries (see {@link #getHand}).
+     */
+    public Map<String, List<Integer>> getPlayerHands() {
+        if (playerHands == null)
+            return null;
+        return ImmutableMap.copyOf(Maps.transformValues(playerHands, Hand::getCardIds));
+    }
+
+    /**
+     * Publishes the current state as a new {@link GameSnapshot}, and returns it. Every synchronized
+     * mutator calls this as its last step and returns the snapshot (or a result that holds it), so a
+     * snapshot never reflects half of a change, and callers can build messages from exactly the state
+     * their change produced, even if another thread changes the game right after. Lombok's plain
+     * setters don't publish, and are only meant for setting up a game before it is shared. While
+     * replaying, nothing is published and the current snapshot is returned.
+     *
+     * Publishing takes time proportional to the players and the current trick, not to the round so
+     * far: the deck, the revealed cards and the past tricks are views that the game never changes,
+     * the hands are the lists that each {@link Hand} already keeps, and the hand delta is built from
+     * the cards that the mutation moved (see {@link HandChanges}).
+     */
+    private GameSnapshot publishSnapshot() {
+        if (replaying)
+            return snapshot;
+        Map<String, List<Integer>> hands = getPlayerHands();
+        Map<String, List<Integer>> previousHands = snapshot == null ? null : snapshot.getPlayerHands();
+        HandDelta newHandDelta = handChanges.toDelta(handsVersion + 1, previousHands, hands, playerHands, trumpTable);
+        handChanges.clear();
+        if (newHandDelta != null) {
+            handDelta = newHandDelta;
+            handsVersion++;
+        }
+        snapshot = new GameSnapshot(
+            ++snapshotVersion,
+            ImmutableList.copyOf(playerIds),
+            numDecks,
+            findAFriend,
+            roundNumber,
+            starterPlayerIndex,
+            ImmutableMap.copyOf(playerRankScores),
+            ImmutableSet.copyOf(winningPlayerIds),
+            status,
+            currentPlayerIndex,
+            isDeclaringTeam == null ? null : ImmutableMap.copyOf(isDeclaringTeam),
+            getDeck(),
+            cardsById,
+            getPublicCards(),
+            hands,
+            handsVersion,
+            handDelta,
+            declaredCards == null ? null : ImmutableList.copyOf(declaredCards),
+            ImmutableList.copyOf(exposedBottomCards),
+            kitty == null ? null : ImmutableList.copyOf(kitty),
+            findAFriendDeclaration == null ? null : new FindAFriendDeclaration(findAFriendDeclaration),
+            pastTricks == null ? null : Collections.unmodifiableList(Arrays.asList(frozenPastTricks).subList(0, pastTricks.size())),
+            currentTrick == null ? null : copyTrick(currentTrick),
+            ImmutableMap.copyOf(currentRoundScores),
+            ImmutableMap.copyOf(currentRoundPenalties),
+            getCurrentTrump(),
+            getKittySize(),
+            trumpTable);
+        return snapshot;
+    }
+
+    /**
+     * Stores a copy of the trick for snapshots, as the past trick at the given index. The copies below
+     * the index never change, so every snapshot shares them. If a take back reopened a trick, its
+     * slot may still be seen by an earlier snapshot, so the array is copied before it is reused.
+     */
+    private void freezePastTrick(int index, Trick trick) {
+        if (index == frozenPastTricks.length) {
+            frozenPastTricks = Arrays.copyOf(frozenPastTricks, 2 * index);
+        } else if (frozenPastTricks[index] != null) {
+            frozenPastTricks = frozenPastTricks.clone();
+            Arrays.fill(frozenPastTricks, index, frozenPastTricks.length, null);
+        }
+        frozenPastTricks[index] = copyTrick(trick);
+    }
+
+    /**
+     * Adds the cards to the player's hand, and records them for the next hand delta.
+     */
+    private void addToHand(String playerId, Collection<Integer> cardIds) {
+        playerHands.get(playerId).addAll(getTrumpTable(), cardIds);
+        handChanges.add(playerId, cardIds);
+    }
+
+    /**
+     * Removes the cards from the player's hand, and records them for the next hand delta.
+     */
+    private void removeFromHand(String playerId, Collection<Integer> cardIds) {
+        playerHands.get(playerId).removeAll(getTrumpTable(), cardIds);
+        handChanges.remove(playerId, cardIds);
+    }
+
+    private static Trick copyTrick(Trick trick) {
+        Trick copy = new Trick(trick.getStartPlayerId());
+        copy.getPlays().addAll(trick.getPlays());
+        copy.setWinningPlayerId(trick.getWinningPlayerId());
+        return copy;
+    }
+
+    public Hand getHand(String playerId) {
+        return playerHands.get(playerId);
+    }
+
+    /**
+     * The points in the player's hand.
+     */
+    public int getHandPoints(String playerId) {
+        return playerHands.get(playerId).getPoints();
+    }
+
+    /**
+     * The points in the round that haven't been played into a trick yet, i.e. the points in hands, the
+     * kitty and the deck.
+     */
+    public int getUnplayedPoints() {
+        return totalPoints - playedPoints;
+    }
+
+    /**
+     * The unplayed points that the player can't see: everything outside their own hand, and outside
+     * the kitty if they made it.
+     */
+    public int getUnseenPoints(String playerId) {
+        int unseenPoints = getUnplayedPoints() - getHandPoints(playerId);
+        if (!kitty.isEmpty() && playerIds.get(starterPlayerIndex).equals(playerId))
+            unseenPoints -= kittyPoints;
+        return unseenPoints;
+    }
+
+    /**
+     * The points won so far this round by the declaring team (or by the other team), not counting
+     * penalties.
+     */
+    public int getTeamPoints(boolean declaringTeam) {
+        int points = 0;
+        for (String playerId : playerIds)
+            if (isDeclaringTeam.get(playerId) == declaringTeam)
+                points += currentRoundScores.get(playerId);
+        return points;
+    }
+
+    /**
+     * The cards that have been declared or played this round, including ones that were taken back.
+     * The returned map is unmodifiable, and doesn't change as the round goes on (see
+     * {@link RevealedCards}).
+     */
     public Map<Integer, Card> getPublicCards() {
-        Map<Integer, Card> publicCards = new HashMap<>();
-        if (declaredCards != null)
-            for (Play play : declaredCards)
-                for (int cardId : play.getCardIds())
-                    publicCards.put(cardId, cardsById.get(cardId));
-        for (Trick trick : getAllTricks())
-            for (Play play : trick.getPlays())
-                for (int cardId : play.getCardIds())
-                    publicCards.put(cardId, cardsById.get(cardId));
-        return publicCards;
+        if (revealedCards == null)
+            return ImmutableMap.of();
+        return revealedCards.asMap();
     }
 
     public Map<Integer, Card> getPrivateCards(String playerId) {
         Map<Integer, Card> privateCards = new HashMap<>();
         if (playerHands != null && playerHands.containsKey(playerId))
-            for (int cardId : playerHands.get(playerId))
-                privateCards.put(cardId, cardsById.get(cardId));
+            for (int cardId : playerHands.get(playerId).getCardIds())
+                privateCards.put(cardId, cardTable.get(cardId));
         if (kitty != null)
             for (int cardId : kitty)
-                privateCards.put(cardId, cardsById.get(cardId));
+                privateCards.put(cardId, cardTable.get(cardId));
         return privateCards;
     }
 
@@ -636,162 +1541,47 @@ public class Game {
     }
 
     private void sortCards(List<Integer> hand) {
-        Card trump = getCurrentTrump();
-
-        // Ensure same-colored suits are generally not next to each other
-        List<Grouping> order = trump.getSuit().equals(Card.Suit.DIAMOND) || trump.getSuit().equals(Card.Suit.SPADE)
-                ? Arrays.asList(Grouping.DIAMOND, Grouping.CLUB, Grouping.HEART, Grouping.SPADE, Grouping.TRUMP)
-                : Arrays.asList(Grouping.CLUB, Grouping.DIAMOND, Grouping.SPADE, Grouping.HEART, Grouping.TRUMP);
-
-        Collections.sort(hand, Comparator.comparing(cardId -> {
-            Card card = cardsById.get(cardId);
-            Grouping grouping = Cards.grouping(card, trump);
-            return order.indexOf(grouping) * 1000 + Cards.rank(card, trump) * 10 + card.getSuit().ordinal();
-        }));
+        TrumpTable trumpTable = getTrumpTable();
+        Collections.sort(hand, Comparator.comparingInt(trumpTable::getSortKey));
     }
 
     public int totalCardScore(Collection<Integer> cardIds) {
-        int score = 0;
-        for (int cardId : cardIds) {
-            Card card = cardsById.get(cardId);
-            if (card.getValue() == Card.Value.FIVE)
-                score += 5;
-            else if (card.getValue() == Card.Value.TEN || card.getValue() == Card.Value.KING)
-                score += 10;
-        }
-        return score;
+        return cardTable.totalPoints(cardIds);
     }
 
     private boolean isPlayable(Play play) {
-        List<Integer> hand = new ArrayList<>(playerHands.get(play.getPlayerId()));
-        for (Integer card : play.getCardIds())
-            if (!hand.remove(card))
-                return false;
-        return true;
+        return playerHands.get(play.getPlayerId()).containsAll(play.getCardIds());
     }
 
     public Grouping getGrouping(Collection<Integer> cardIds) {
-        Set<Grouping> groupings = cardIds.stream()
-            .map(cardsById::get)
-            .map(card -> Cards.grouping(card, getCurrentTrump()))
-            .collect(Collectors.toSet());
-        return groupings.size() == 1 ? Iterables.getOnlyElement(groupings) : null;
+        return getTrumpTable().getGrouping(cardIds);
     }
 
+    /**
+     * Splits the cards into components (see {@link Component}), or returns an empty profile if the
+     * cards are not all in the same grouping. Profiles are cached, so the result is unmodifiable.
+     */
     public List<Component> getProfile(Collection<Integer> cardIds) {
-        if (getGrouping(cardIds) == null)
-            return new ArrayList<>();
-
-        Card trump = getCurrentTrump();
-        List<Card> cards = cardIds.stream()
-                .map(cardsById::get)
-                .collect(Collectors.toList());
-        List<Component> profile = cards.stream()
-            .distinct()
-            .map(card -> {
-                return new Component(
-                    new Shape(Collections.frequency(cards, card), 1),
-                    Cards.rank(card, trump),
-                    Cards.rank(card, trump),
-                    cardIds.stream().filter(cardId -> cardsById.get(cardId).equals(card)).collect(Collectors.toSet()));
-            })
-            .collect(Collectors.toList());
-
-        while (combineConsecutiveComponents(profile));
-
-        return profile;
-    }
-
-    private static boolean combineConsecutiveComponents(List<Component> profile) {
-        for (int i = 0; i < profile.size(); i++)
-            for (int j = 0; j < profile.size(); j++) {
-                Component component1 = profile.get(i);
-                Component component2 = profile.get(j);
-                if (component1.shape.width == component2.shape.width
-                        && component1.shape.width >= 2
-                        && component1.minRank - component2.maxRank == 1) {
-                    profile.set(i, new Component(
-                        new Shape(component1.shape.width, component1.shape.height + component2.shape.height),
-                        component2.minRank,
-                        component1.maxRank,
-                        Streams.concat(component1.cardIds.stream(), component2.cardIds.stream()).collect(Collectors.toSet())));
-                    profile.remove(j);
-                    return true;
-                }
-            }
-        return false;
+        return getProfile(getTrumpTable(), cardIds);
     }
 
+    /**
+     * Same as {@link #getProfile(Collection)}, but for the given trump rather than the current one.
+     */
+    List<Component> getProfile(TrumpTable trumpTable, Collection<Integer> cardIds) {
+        return evaluator.getProfile(trumpTable, cardIds);
+    }
+
+    public ProfileCache getProfileCache() {
+        return evaluator.getProfileCache();
+    }
+
+    /**
+     * Returns the player who is winning the trick, e.g. a trick with a hypothetical play added. The
+     * game's own trick keeps its winner up to date as plays are made (see
+     * {@link #recordCurrentTrickWinner}).
+     */
     public String winningPlayerId(Trick trick) {
-        List<Play> plays = trick.getPlays();
-        if (plays.isEmpty())
-            return null;
-        String winningPlayerId = trick.getStartPlayerId();
-        List<Component> bestProfile = getProfile(plays.get(0).getCardIds());
-        Grouping bestGrouping = getGrouping(plays.get(0).getCardIds());
-        for (int i = 1; i < plays.size(); i++) {
-            Play play = plays.get(i);
-            List<Component> profile = getProfile(play.getCardIds());
-            Grouping grouping = getGrouping(play.getCardIds());
-            if (hasCoveringShape(profile, bestProfile)) {
-                if ((grouping == Grouping.TRUMP && bestGrouping != Grouping.TRUMP)
-                        || (grouping == bestGrouping && beats(profile, bestProfile))) {
-                    winningPlayerId = play.getPlayerId();
-                    bestProfile = profile;
-                    bestGrouping = grouping;
-                }
-            }
-        }
-        return winningPlayerId;
-    }
-
-    /**
-     * Returns whether my play "covers" the other play. For example, if myPlay is a single pair and
-     * otherPlay is two singles, then the pair covers the singles. This method is used to check the
-     * first requirement of beating a play in Tractor: whether your play has the same "shape".
-     */
-    private static boolean hasCoveringShape(List<Component> myPlay, List<Component> otherPlay) {
-        TreeMultiset<Shape> myShapes = TreeMultiset.create(Comparator.comparing(shape -> shape.getWidth() * shape.getHeight()));
-        for (Component component : myPlay)
-            myShapes.add(component.getShape());
-        List<Shape> otherShapes = otherPlay.stream()
-            .map(Component::getShape)
-            .sorted(Comparator.<Shape, Integer>comparing(shape -> shape.getWidth() * shape.getHeight()).reversed())
-            .collect(Collectors.toList());
-
-        for (Shape otherShape : otherShapes) {
-            // For each shape in the other play, find a component of my play that "covers" it (has at least that width
-            // and height), and then remove the relevant cards. This is a greedy algorithm that isn't guaranteed to be
-            // correct, but works for all practical cases if we try to match our smallest components with the other
-            // play's largest components.
-            boolean found = false;
-            for (Shape myShape : myShapes) {
-                if (myShape.getWidth() >= otherShape.getWidth() && myShape.getHeight() >= otherShape.getHeight()) {
-                    myShapes.remove(myShape);
-                    if (myShape.getHeight() > otherShape.getHeight())
-                        myShapes.add(new Shape(myShape.getWidth(), myShape.getHeight() - otherShape.getHeight()));
-                    if (myShape.getWidth() > otherShape.getWidth())
-                        myShapes.add(new Shape(myShape.getWidth() - otherShape.getHeight(), otherShape.getHeight()));
-                    found = true;
-                    break;
-                }
-            }
-            if (!found)
-                return false;
-        }
-        return myShapes.isEmpty();
-    }
-
-    private static boolean beats(List<Component> myProfile, List<Component> otherProfile) {
-        Component biggestComponent = otherProfile.stream()
-                .max(Comparator.<Component, Integer>comparing(component -> component.cardIds.size())
-                        .thenComparing(component -> component.maxRank))
-                .get();
-        return myProfile.stream()
-                .filter(component -> component.shape.width >= biggestComponent.shape.width)
-                .filter(component -> component.shape.height >= biggestComponent.shape.height)
-                .filter(component -> component.maxRank > biggestComponent.maxRank)
-                .findAny()
-                .isPresent();
+        return evaluator.winningPlayerId(getTrumpTable(), trick);
     }
 }
@@ -0,0 +1,122 @@
+package io.github.ytung.tractor;
+
+import java.util.List;
+
+import io.github.ytung.tractor.api.FindAFriendDeclaration;
+import lombok.Data;
+
+/**
+ * An entry in a {@link Game}'s action log. There is one entry type per state transition, holding
+ * only the arguments that the transition needs, so that replaying the log on a new game (see
+ * {@link Game#replay}) rebuilds the same state.
+ */
+public interface GameAction {
+
+    @Data
+    public static class AddPlayer implements GameAction {
+
+        private final String playerId;
+    }
+
+    @Data
+    public static class RemovePlayer implements GameAction {
+
+        private final String playerId;
+    }
+
+    @Data
+    public static class SetPlayerOrder implements GameAction {
+
+        private final List<String> playerIds;
+    }
+
+    @Data
+    public static class UpdatePlayerScore implements GameAction {
+
+        private final String playerId;
+        private final boolean increment;
+    }
+
+    @Data
+    public static class SetNumDecks implements GameAction {
+
+        private final int numDecks;
+    }
+
+    @Data
+    public static class SetFindAFriend implements GameAction {
+
+        private final boolean findAFriend;
+    }
+
+    @Data
+    public static class StartRound implements GameAction {
+
+        /**
+         * The seed that the cards were generated and shuffled with.
+         */
+        private final long seed;
+    }
+
+    @Data
+    public static class Draw implements GameAction {
+    }
+
+    @Data
+    public static class Declare implements GameAction {
+
+        private final String playerId;
+        private final List<Integer> cardIds;
+    }
+
+    @Data
+    public static class ExposeBottomCards implements GameAction {
+    }
+
+    @Data
+    public static class TakeKitty implements GameAction {
+    }
+
+    @Data
+    public static class MakeKitty implements GameAction {
+
+        private final String playerId;
+        private final List<Integer> cardIds;
+    }
+
+    @Data
+    public static class MakeFindAFriendDeclaration implements GameAction {
+
+        private final String playerId;
+        private final FindAFriendDeclaration declaration;
+    }
+
+    @Data
+    public static class Play implements GameAction {
+
+        private final String playerId;
+
+        /**
+         * The cards that were actually played, i.e. after an invalid special play was reduced to the
+         * component that failed.
+         */
+        private final List<Integer> cardIds;
+        private final boolean badSpecialPlay;
+    }
+
+    @Data
+    public static class FinishTrick implements GameAction {
+    }
+
+    @Data
+    public static class TakeBack implements GameAction {
+
+        private final String playerId;
+    }
+
+    @Data
+    public static class ForfeitRound implements GameAction {
+
+        private final String playerId;
+    }
+}
@@ -0,0 +1,385 @@
+package io.github.ytung.tractor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import io.github.ytung.tractor.api.Card;
+import io.github.ytung.tractor.api.FindAFriendDeclaration;
+import io.github.ytung.tractor.api.FindAFriendDeclaration.Declaration;
+import lombok.Data;
+
+/**
+ * Everything needed to rebuild a {@link Game} after a restart (see {@link Game#checkpoint} and
+ * {@link Game#restore}), with a compact binary encoding.
+ *
+ * Rather than the full state, a checkpoint holds what the game carried into its latest round, and
+ * the actions logged since then. The hands, tricks, kitty and scores of the round all follow from
+ * replaying those actions, and the cards follow from the round's seed, so a checkpoint stays small
+ * (a few hundred bytes for a 4-player round) and restoring it never replays more than one round.
+ *
+ * Like the action log, a checkpoint includes the seeds of the game and its rounds, so it must never
+ * be sent to clients.
+ */
+@Data
+public final class GameCheckpoint {
+
+    private static final int MAGIC = 0x54524b43;
+    private static final int VERSION = 1;
+
+    private static final Card.Value[] VALUES = Card.Value.values();
+    private static final Card.Suit[] SUITS = Card.Suit.values();
+
+    private final long gameSeed;
+
+    /**
+     * The number of round seeds that the game has taken from its own random stream.
+     */
+    private final int numRoundSeeds;
+
+    private final RoundStart roundStart;
+
+    /**
+     * The actions since the latest round started, oldest first.
+     */
+    private final List<GameAction> actions;
+
+    /**
+     * The state that carries over from one round to the next.
+     */
+    @Data
+    public static class RoundStart {
+
+        private final List<String> playerIds;
+        private final int numDecks;
+        private final boolean findAFriend;
+        private final int roundNumber;
+        private final int starterPlayerIndex;
+        private final Map<String, Card.Value> playerRankScores;
+        private final Set<String> winningPlayerIds;
+    }
+
+    // action tags, in the order of the GameAction types
+    private static final int ADD_PLAYER = 0;
+    private static final int REMOVE_PLAYER = 1;
+    private static final int SET_PLAYER_ORDER = 2;
+    private static final int UPDATE_PLAYER_SCORE = 3;
+    private static final int SET_NUM_DECKS = 4;
+    private static final int SET_FIND_A_FRIEND = 5;
+    private static final int START_ROUND = 6;
+    private static final int DRAW = 7;
+    private static final int DECLARE = 8;
+    private static final int EXPOSE_BOTTOM_CARDS = 9;
+    private static final int TAKE_KITTY = 10;
+    private static final int MAKE_KITTY = 11;
+    private static final int MAKE_FIND_A_FRIEND_DECLARATION = 12;
+    private static final int PLAY = 13;
+    private static final int FINISH_TRICK = 14;
+    private static final int TAKE_BACK = 15;
+    private static final int FORFEIT_ROUND = 16;
+
+    /**
+     * Encodes the checkpoint. Player ids are written once, and referred to by index afterwards; all
+     * other numbers are varints, so a card id takes at most two bytes.
+     */
+    public byte[] toBytes() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (Output out = new Output(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeLong(gameSeed);
+            out.writeVarInt(numRoundSeeds);
+
+            out.writeVarInt(roundStart.playerIds.size());
+            for (String playerId : roundStart.playerIds)
+                out.writePlayerId(playerId);
+            out.writeVarInt(roundStart.numDecks);
+            out.writeBoolean(roundStart.findAFriend);
+            out.writeVarInt(roundStart.roundNumber);
+            out.writeVarInt(roundStart.starterPlayerIndex);
+            out.writeVarInt(roundStart.playerRankScores.size());
+            for (Map.Entry<String, Card.Value> entry : roundStart.playerRankScores.entrySet()) {
+                out.writePlayerId(entry.getKey());
+                out.writeByte(entry.getValue().ordinal());
+            }
+            out.writeVarInt(roundStart.winningPlayerIds.size());
+            for (String playerId : roundStart.winningPlayerIds)
+                out.writePlayerId(playerId);
+
+            out.writeVarInt(actions.size());
+            for (GameAction action : actions)
+                writeAction(out, action);
+        } catch (IOException e) {
+            // a ByteArrayOutputStream doesn't throw
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a checkpoint encoded by {@link #toBytes}.
+     */
+    public static GameCheckpoint fromBytes(byte[] bytes) throws IOException {
+        Input in = new Input(new ByteArrayInputStream(bytes));
+        if (in.readInt() != MAGIC)
+            throw new IOException("Not a game checkpoint");
+        int version = in.readUnsignedByte();
+        if (version != VERSION)
+            throw new IOException("Unsupported game checkpoint version " + version);
+        long gameSeed = in.readLong();
+        int numRoundSeeds = in.readVarInt();
+
+        List<String> playerIds = new ArrayList<>();
+        for (int i = in.readVarInt(); i > 0; i--)
+            playerIds.add(in.readPlayerId());
+        int numDecks = in.readVarInt();
+        boolean findAFriend = in.readBoolean();
+        int roundNumber = in.readVarInt();
+        int starterPlayerIndex = in.readVarInt();
+        Map<String, Card.Value> playerRankScores = new HashMap<>();
+        for (int i = in.readVarInt(); i > 0; i--)
+            playerRankScores.put(in.readPlayerId(), in.readEnum(VALUES));
+        List<String> winningPlayerIds = new ArrayList<>();
+        for (int i = in.readVarInt(); i > 0; i--)
+            winningPlayerIds.add(in.readPlayerId());
+        RoundStart roundStart = new RoundStart(
+            ImmutableList.copyOf(playerIds),
+            numDecks,
+            findAFriend,
+            roundNumber,
+            starterPlayerIndex,
+            ImmutableMap.copyOf(playerRankScores),
+            ImmutableSet.copyOf(winningPlayerIds));
+
+        int numActions = in.readVarInt();
+        List<GameAction> actions = new ArrayList<>(numActions);
+        for (int i = 0; i < numActions; i++)
+            actions.add(readAction(in));
+        if (in.read() != -1)
+            throw new IOException("Trailing bytes after game checkpoint");
+        return new GameCheckpoint(gameSeed, numRoundSeeds, roundStart, ImmutableList.copyOf(actions));
+    }
+
+    private static void writeAction(Output out, GameAction action) throws IOException {
+        if (action instanceof GameAction.AddPlayer) {
+            out.writeByte(ADD_PLAYER);
+            out.writePlayerId(((GameAction.AddPlayer) action).getPlayerId());
+        } else if (action instanceof GameAction.RemovePlayer) {
+            out.writeByte(REMOVE_PLAYER);
+            out.writePlayerId(((GameAction.RemovePlayer) action).getPlayerId());
+        } else if (action instanceof GameAction.SetPlayerOrder) {
+            out.writeByte(SET_PLAYER_ORDER);
+            List<String> playerIds = ((GameAction.SetPlayerOrder) action).getPlayerIds();
+            out.writeVarInt(playerIds.size());
+            for (String playerId : playerIds)
+                out.writePlayerId(playerId);
+        } else if (action instanceof GameAction.UpdatePlayerScore) {
+            out.writeByte(UPDATE_PLAYER_SCORE);
+            out.writePlayerId(((GameAction.UpdatePlayerScore) action).getPlayerId());
+            out.writeBoolean(((GameAction.UpdatePlayerScore) action).isIncrement());
+        } else if (action instanceof GameAction.SetNumDecks) {
+            out.writeByte(SET_NUM_DECKS);
+            out.writeVarInt(((GameAction.SetNumDecks) action).getNumDecks());
+        } else if (action instanceof GameAction.SetFindAFriend) {
+            out.writeByte(SET_FIND_A_FRIEND);
+            out.writeBoolean(((GameAction.SetFindAFriend) action).isFindAFriend());
+        } else if (action instanceof GameAction.StartRound) {
+            out.writeByte(START_ROUND);
+            out.writeLong(((GameAction.StartRound) action).getSeed());
+        } else if (action instanceof GameAction.Draw) {
+            out.writeByte(DRAW);
+        } else if (action instanceof GameAction.Declare) {
+            out.writeByte(DECLARE);
+            out.writePlayerId(((GameAction.Declare) action).getPlayerId());
+            out.writeCardIds(((GameAction.Declare) action).getCardIds());
+        } else if (action instanceof GameAction.ExposeBottomCards) {
+            out.writeByte(EXPOSE_BOTTOM_CARDS);
+        } else if (action instanceof GameAction.TakeKitty) {
+            out.writeByte(TAKE_KITTY);
+        } else if (action instanceof GameAction.MakeKitty) {
+            out.writeByte(MAKE_KITTY);
+            out.writePlayerId(((GameAction.MakeKitty) action).getPlayerId());
+            out.writeCardIds(((GameAction.MakeKitty) action).getCardIds());
+        } else if (action instanceof GameAction.MakeFindAFriendDeclaration) {
+            out.writeByte(MAKE_FIND_A_FRIEND_DECLARATION);
+            out.writePlayerId(((GameAction.MakeFindAFriendDeclaration) action).getPlayerId());
+            List<Declaration> declarations = ((GameAction.MakeFindAFriendDeclaration) action).getDeclaration().getDeclarations();
+            out.writeVarInt(declarations.size());
+            for (Declaration declaration : declarations) {
+                out.writeVarInt(declaration.getOrdinal());
+                out.writeByte(declaration.getValue().ordinal());
+                out.writeByte(declaration.getSuit().ordinal());
+                out.writeBoolean(declaration.isSatisfied());
+            }
+        } else if (action instanceof GameAction.Play) {
+            out.writeByte(PLAY);
+            out.writePlayerId(((GameAction.Play) action).getPlayerId());
+            out.writeCardIds(((GameAction.Play) action).getCardIds());
+            out.writeBoolean(((GameAction.Play) action).isBadSpecialPlay());
+        } else if (action instanceof GameAction.FinishTrick) {
+            out.writeByte(FINISH_TRICK);
+        } else if (action instanceof GameAction.TakeBack) {
+            out.writeByte(TAKE_BACK);
+            out.writePlayerId(((GameAction.TakeBack) action).getPlayerId());
+        } else if (action instanceof GameAction.ForfeitRound) {
+            out.writeByte(FORFEIT_ROUND);
+            out.writePlayerId(((GameAction.ForfeitRound) action).getPlayerId());
+        } else {
+            throw new IllegalArgumentException("Unknown action " + action);
+        }
+    }
+
+    private static GameAction readAction(Input in) throws IOException {
+        int tag = in.readUnsignedByte();
+        switch (tag) {
+            case ADD_PLAYER:
+                return new GameAction.AddPlayer(in.readPlayerId());
+            case REMOVE_PLAYER:
+                return new GameAction.RemovePlayer(in.readPlayerId());
+            case SET_PLAYER_ORDER: {
+                List<String> playerIds = new ArrayList<>();
+                for (int i = in.readVarInt(); i > 0; i--)
+                    playerIds.add(in.readPlayerId());
+                return new GameAction.SetPlayerOrder(ImmutableList.copyOf(playerIds));
+            }
+            case UPDATE_PLAYER_SCORE:
+                return new GameAction.UpdatePlayerScore(in.readPlayerId(), in.readBoolean());
+            case SET_NUM_DECKS:
+                return new GameAction.SetNumDecks(in.readVarInt());
+            case SET_FIND_A_FRIEND:
+                return new GameAction.SetFindAFriend(in.readBoolean());
+            case START_ROUND:
+                return new GameAction.StartRound(in.readLong());
+            case DRAW:
+                return new GameAction.Draw();
+            case DECLARE:
+                return new GameAction.Declare(in.readPlayerId(), in.readCardIds());
+            case EXPOSE_BOTTOM_CARDS:
+                return new GameAction.ExposeBottomCards();
+            case TAKE_KITTY:
+                return new GameAction.TakeKitty();
+            case MAKE_KITTY:
+                return new GameAction.MakeKitty(in.readPlayerId(), in.readCardIds());
+            case MAKE_FIND_A_FRIEND_DECLARATION: {
+                String playerId = in.readPlayerId();
+                List<Declaration> declarations = new ArrayList<>();
+                for (int i = in.readVarInt(); i > 0; i--) {
+                    Declaration declaration = new Declaration();
+                    declaration.setOrdinal(in.readVarInt());
+                    declaration.setValue(in.readEnum(VALUES));
+                    declaration.setSuit(in.readEnum(SUITS));
+                    declaration.setSatisfied(in.readBoolean());
+                    declarations.add(declaration);
+                }
+                FindAFriendDeclaration declaration = new FindAFriendDeclaration();
+                declaration.setDeclarations(declarations);
+                return new GameAction.MakeFindAFriendDeclaration(playerId, declaration);
+            }
+            case PLAY:
+                return new GameAction.Play(in.readPlayerId(), in.readCardIds(), in.readBoolean());
+            case FINISH_TRICK:
+                return new GameAction.FinishTrick();
+            case TAKE_BACK:
+                return new GameAction.TakeBack(in.readPlayerId());
+            case FORFEIT_ROUND:
+                return new GameAction.ForfeitRound(in.readPlayerId());
+            default:
+                throw new IOException("Unknown action tag " + tag);
+        }
+    }
+
+    /**
+     * Writes player ids as an index into the ids written so far, followed by the id itself the first
+     * time it's written.
+     */
+    private static class Output extends DataOutputStream {
+
+        private final Map<String, Integer> playerIndices = new HashMap<>();
+
+        Output(ByteArrayOutputStream out) {
+            super(out);
+        }
+
+        void writeVarInt(int value) throws IOException {
+            while ((value & ~0x7f) != 0) {
+                writeByte((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            writeByte(value);
+        }
+
+        void writePlayerId(String playerId) throws IOException {
+            Integer index = playerIndices.get(playerId);
+            if (index != null) {
+                writeVarInt(index);
+            } else {
+                writeVarInt(playerIndices.size());
+                writeUTF(playerId);
+                playerIndices.put(playerId, playerIndices.size());
+            }
+        }
+
+        void writeCardIds(List<Integer> cardIds) throws IOException {
+            writeVarInt(cardIds.size());
+            for (int cardId : cardIds)
+                writeVarInt(cardId);
+        }
+    }
+
+    private static class Input extends DataInputStream {
+
+        private final List<String> playerIds = new ArrayList<>();
+
+        Input(ByteArrayInputStream in) {
+            super(in);
+        }
+
+        int readVarInt() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = readUnsignedByte();
+                value |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0)
+                    return value;
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        String readPlayerId() throws IOException {
+            int index = readVarInt();
+            if (index < playerIds.size())
+                return playerIds.get(index);
+            if (index > playerIds.size())
+                throw new IOException("Unknown player index " + index);
+            String playerId = readUTF();
+            playerIds.add(playerId);
+            return playerId;
+        }
+
+        List<Integer> readCardIds() throws IOException {
+            int size = readVarInt();
+            List<Integer> cardIds = new ArrayList<>(size);
+            for (int i = 0; i < size; i++)
+                cardIds.add(readVarInt());
+            return ImmutableList.copyOf(cardIds);
+        }
+
+        <E> E readEnum(E[] values) throws IOException {
+            int ordinal = readUnsignedByte();
+            if (ordinal >= values.length)
+                throw new IOException("Unknown enum ordinal " + ordinal);
+            return values[ordinal];
+        }
+    }
+}
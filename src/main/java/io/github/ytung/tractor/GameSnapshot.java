@@ -0,0 +1,154 @@
+package io.github.ytung.tractor;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import io.github.ytung.tractor.Cards.Grouping;
+import io.github.ytung.tractor.api.Card;
+import io.github.ytung.tractor.api.FindAFriendDeclaration;
+import io.github.ytung.tractor.api.GameStatus;
+import io.github.ytung.tractor.api.HandDelta;
+import io.github.ytung.tractor.api.Play;
+import io.github.ytung.tractor.api.Trick;
+import lombok.Data;
+
+/**
+ * An immutable copy of the state of a {@link Game}, taken at the end of a mutation. The game
+ * publishes a new snapshot after every change (see {@link Game#getSnapshot}), so reading a snapshot
+ * never needs the game lock, and everything read from one snapshot is consistent.
+ *
+ * None of the collections (or the tricks and declarations in them) change after the snapshot is
+ * taken. The deck, publicCards and the past tricks are views that are shared with later snapshots,
+ * and the hands are the lists that each {@link Hand} keeps, so that taking a snapshot doesn't copy
+ * the whole round. They must not be modified. Fields that the game hasn't set yet are null.
+ *
+ * The snapshot also carries the game's trump table, which never changes once built, so that AIs can
+ * look up groupings, profiles and trick winners for the snapshot's trump without reading the game.
+ * The snapshot doesn't refer to the game, so holding on to it doesn't keep the game reachable.
+ */
+@Data
+public final class GameSnapshot {
+
+    /**
+     * Increases by one with every snapshot published by the same game.
+     */
+    private final long version;
+
+    private final List<String> playerIds;
+
+    private final int numDecks;
+    private final boolean findAFriend;
+
+    private final int roundNumber;
+    private final int starterPlayerIndex;
+    private final Map<String, Card.Value> playerRankScores;
+    private final Set<String> winningPlayerIds;
+
+    private final GameStatus status;
+    private final int currentPlayerIndex;
+    private final Map<String, Boolean> isDeclaringTeam;
+    private final List<Integer> deck;
+    private final Map<Integer, Card> cardsById;
+    private final Map<Integer, Card> publicCards;
+    private final Map<String, List<Integer>> playerHands;
+
+    /**
+     * Increases by one with every snapshot whose hands differ from the previous one's, including in
+     * order.
+     */
+    private final long handsVersion;
+
+    /**
+     * The change that led to the current hands, i.e. from handsVersion - 1 to handsVersion, or null
+     * if the hands never changed.
+     */
+    private final HandDelta handDelta;
+    private final List<Play> declaredCards;
+    private final List<Integer> exposedBottomCards;
+    private final List<Integer> kitty;
+    private final FindAFriendDeclaration findAFriendDeclaration;
+    private final List<Trick> pastTricks;
+    private final Trick currentTrick;
+    private final Map<String, Integer> currentRoundScores;
+    private final Map<String, Integer> currentRoundPenalties;
+
+    private final Card currentTrump;
+    private final int kittySize;
+
+    /**
+     * The trump table that the hands are sorted by, or null if no cards have been made yet.
+     */
+    private final TrumpTable trumpTable;
+
+    public CardTable getCardTable() {
+        return trumpTable == null ? null : trumpTable.getCardTable();
+    }
+
+    /**
+     * The card ids in the player's hand that are in the grouping, in hand order.
+     */
+    public List<Integer> getPlayerHand(String playerId, Grouping grouping) {
+        CardTable cardTable = trumpTable.getCardTable();
+        BitSet groupingCards = trumpTable.getGroupingCards(grouping);
+        List<Integer> cardIds = new ArrayList<>();
+        for (int cardId : playerHands.get(playerId))
+            if (groupingCards.get(cardTable.index(cardId)))
+                cardIds.add(cardId);
+        return cardIds;
+    }
+
+    /**
+     * The finished tricks of the round followed by the current trick, if any.
+     */
+    public List<Trick> getAllTricks() {
+        List<Trick> allTricks = new ArrayList<>();
+        if (pastTricks != null)
+            allTricks.addAll(pastTricks);
+        if (currentTrick != null)
+            allTricks.add(currentTrick);
+        return allTricks;
+    }
+
+    public int totalCardScore(Collection<Integer> cardIds) {
+        return trumpTable.getCardTable().totalPoints(cardIds);
+    }
+
+    public Grouping getGrouping(Collection<Integer> cardIds) {
+        return trumpTable.getGrouping(cardIds);
+    }
+
+    /**
+     * Same as {@link Game#getProfile}, for this snapshot's trump. The profile is computed with the
+     * calling thread's own evaluator, so this never waits on the game.
+     */
+    public List<Component> getProfile(Collection<Integer> cardIds) {
+        return PlayEvaluator.forCurrentThread().getProfile(trumpTable, cardIds);
+    }
+
+    /**
+     * Same as {@link Game#winningPlayerId}, for this snapshot's trump. The plays are compared with the
+     * calling thread's own evaluator, so this never waits on the game.
+     */
+    public String winningPlayerId(Trick trick) {
+        return PlayEvaluator.forCurrentThread().winningPlayerId(trumpTable, trick);
+    }
+
+    /**
+     * The cards that only the given player can see: their hand, and the kitty.
+     */
+    public Map<Integer, Card> getPrivateCards(String playerId) {
+        Map<Integer, Card> privateCards = new HashMap<>();
+        if (playerHands != null && playerHands.containsKey(playerId))
+            for (int cardId : playerHands.get(playerId))
+                privateCards.put(cardId, cardsById.get(cardId));
+        if (kitty != null)
+            for (int cardId : kitty)
+                privateCards.put(cardId, cardsById.get(cardId));
+        return privateCards;
+    }
+}
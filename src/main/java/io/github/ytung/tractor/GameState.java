@@ -0,0 +1,296 @@
+package io.github.ytung.tractor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableMap;
+
+import io.github.ytung.tractor.api.Card;
+import io.github.ytung.tractor.api.FindAFriendDeclaration.Declaration;
+import io.github.ytung.tractor.api.Play;
+import io.github.ytung.tractor.api.Trick;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+
+/**
+ * An immutable view of a round in the play phase, for AIs and simulators that want to look ahead
+ * without touching the {@link Game}. {@link #apply} returns a new state and leaves this one
+ * unchanged, so any number of lines of play can branch off the same state.
+ *
+ * Unchanged data is shared between states rather than copied. Hands are bitsets over
+ * {@link CardTable} indices, and a play only copies the hand of the player who made it. The scores
+ * and the find-a-friend state are only copied when the play changes them. A trick is finished as soon
+ * as its last play is applied.
+ *
+ * Plays are compared with the evaluator of the thread that applies them (see {@link PlayEvaluator}),
+ * so states don't refer to the game, and searches never wait on the game's locks or on each other.
+ *
+ * Plays are assumed to be legal (see {@link Game#play}). apply only checks that it is the player's
+ * turn and that they have the cards, and special plays are not checked against the other hands.
+ */
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public final class GameState {
+
+    private final TrumpTable trumpTable;
+    private final List<String> playerIds;
+    private final int starterPlayerIndex;
+    private final int kittyPoints;
+
+    private final long[][] hands;
+    private final int currentPlayerIndex;
+
+    private final int trickStartPlayerIndex;
+    private final Play[] trickPlays;
+    private final int trickWinningPlayIndex;
+
+    private final int[] roundScores;
+    private final boolean[] declaringTeam;
+    private final Declaration[] declarations;
+    private final int[] friendCardsPlayed;
+
+    /**
+     * Exports the play phase of the game. If the current trick is complete, the returned state has
+     * already finished it.
+     */
+    static GameState of(
+            List<String> playerIds,
+            TrumpTable trumpTable,
+            int starterPlayerIndex,
+            int kittyPoints,
+            Map<String, Hand> playerHands,
+            int currentPlayerIndex,
+            Trick currentTrick,
+            int trickWinningPlayIndex,
+            Map<String, Integer> currentRoundScores,
+            Map<String, Boolean> isDeclaringTeam,
+            List<Declaration> declarations,
+            int[] friendCardsPlayed) {
+        CardTable cardTable = trumpTable.getCardTable();
+        int numWords = (cardTable.size() + 63) >>> 6;
+        long[][] hands = new long[playerIds.size()][];
+        int[] roundScores = new int[playerIds.size()];
+        boolean[] declaringTeam = new boolean[playerIds.size()];
+        for (int i = 0; i < playerIds.size(); i++) {
+            hands[i] = Arrays.copyOf(playerHands.get(playerIds.get(i)).toLongArray(), numWords);
+            roundScores[i] = currentRoundScores.get(playerIds.get(i));
+            declaringTeam[i] = isDeclaringTeam.get(playerIds.get(i));
+        }
+
+        List<Play> plays = currentTrick.getPlays();
+        GameState state = new GameState(
+            trumpTable,
+            playerIds,
+            starterPlayerIndex,
+            kittyPoints,
+            hands,
+            currentPlayerIndex,
+            playerIds.indexOf(currentTrick.getStartPlayerId()),
+            plays.toArray(new Play[0]),
+            trickWinningPlayIndex,
+            roundScores,
+            declaringTeam,
+            declarations == null ? new Declaration[0] : declarations.stream().map(Declaration::new).toArray(Declaration[]::new),
+            friendCardsPlayed == null ? new int[0] : friendCardsPlayed.clone());
+        return plays.size() == playerIds.size() ? state.finishTrick() : state;
+    }
+
+    /**
+     * Returns the state after the current player plays the given cards.
+     */
+    public GameState apply(Play play) {
+        int playerIndex = playerIds.indexOf(play.getPlayerId());
+        if (playerIndex != currentPlayerIndex)
+            throw new IllegalArgumentException("It is not " + play.getPlayerId() + "'s turn");
+
+        CardTable cardTable = trumpTable.getCardTable();
+        long[] hand = hands[playerIndex].clone();
+        for (int cardId : play.getCardIds()) {
+            int index = cardTable.index(cardId);
+            if ((hand[index >>> 6] & 1L << index) == 0)
+                throw new IllegalArgumentException(play.getPlayerId() + " does not have card " + cardId);
+            hand[index >>> 6] &= ~(1L << index);
+        }
+        long[][] newHands = hands.clone();
+        newHands[playerIndex] = hand;
+
+        Play[] newTrickPlays = Arrays.copyOf(trickPlays, trickPlays.length + 1);
+        newTrickPlays[trickPlays.length] = play;
+        int newTrickWinningPlayIndex = trickPlays.length == 0
+                || PlayEvaluator.forCurrentThread().beatsWinningPlay(trumpTable, play.getCardIds(), trickPlays[trickWinningPlayIndex].getCardIds())
+            ? trickPlays.length
+            : trickWinningPlayIndex;
+
+        // count the declared cards in the play, copying the friend state only if a declaration matches
+        boolean[] newDeclaringTeam = declaringTeam;
+        Declaration[] newDeclarations = declarations;
+        int[] newFriendCardsPlayed = friendCardsPlayed;
+        for (int i = 0; i < declarations.length; i++) {
+            int numCards = numFriendCards(declarations[i], play);
+            if (numCards == 0)
+                continue;
+            if (newFriendCardsPlayed == friendCardsPlayed)
+                newFriendCardsPlayed = friendCardsPlayed.clone();
+            newFriendCardsPlayed[i] += numCards;
+            if (!declarations[i].isSatisfied() && newFriendCardsPlayed[i] >= Math.max(declarations[i].getOrdinal(), 1)) {
+                if (newDeclarations == declarations)
+                    newDeclarations = declarations.clone();
+                newDeclarations[i] = new Declaration(declarations[i]);
+                newDeclarations[i].setSatisfied(true);
+                if (newDeclaringTeam == declaringTeam)
+                    newDeclaringTeam = declaringTeam.clone();
+                newDeclaringTeam[playerIndex] = true;
+            }
+        }
+
+        GameState state = new GameState(
+            trumpTable,
+            playerIds,
+            starterPlayerIndex,
+            kittyPoints,
+            newHands,
+            (currentPlayerIndex + 1) % playerIds.size(),
+            trickStartPlayerIndex,
+            newTrickPlays,
+            newTrickWinningPlayIndex,
+            roundScores,
+            newDeclaringTeam,
+            newDeclarations,
+            newFriendCardsPlayed);
+        return newTrickPlays.length == playerIds.size() ? state.finishTrick() : state;
+    }
+
+    /**
+     * Gives the points in the trick to its winner, and starts the next trick. At the end of the round,
+     * the kitty also goes to the winner if they are not on the declaring team. See
+     * {@link Game#finishTrick}.
+     */
+    private GameState finishTrick() {
+        CardTable cardTable = trumpTable.getCardTable();
+        int winningPlayerIndex = playerIds.indexOf(trickPlays[trickWinningPlayIndex].getPlayerId());
+        int[] newRoundScores = roundScores.clone();
+        for (Play play : trickPlays)
+            newRoundScores[winningPlayerIndex] += cardTable.totalPoints(play.getCardIds());
+        if (isRoundOver() && !declaringTeam[winningPlayerIndex])
+            newRoundScores[winningPlayerIndex] += 2 * trickPlays[0].getCardIds().size() * kittyPoints;
+
+        return new GameState(
+            trumpTable,
+            playerIds,
+            starterPlayerIndex,
+            kittyPoints,
+            hands,
+            winningPlayerIndex,
+            winningPlayerIndex,
+            new Play[0],
+            -1,
+            newRoundScores,
+            declaringTeam,
+            declarations,
+            friendCardsPlayed);
+    }
+
+    private int numFriendCards(Declaration declaration, Play play) {
+        if (declaration.getOrdinal() == 0 && playerIds.get(starterPlayerIndex).equals(play.getPlayerId()))
+            return 0;
+        CardTable cardTable = trumpTable.getCardTable();
+        int numCards = 0;
+        for (int cardId : play.getCardIds())
+            if (declaration.getValue() == cardTable.getValue(cardId) && declaration.getSuit() == cardTable.getSuit(cardId))
+                numCards++;
+        return numCards;
+    }
+
+    /**
+     * Returns a state where the player holds the given cards instead, e.g. to try out a guess of
+     * another player's hand.
+     */
+    public GameState withHand(String playerId, Collection<Integer> cardIds) {
+        CardTable cardTable = trumpTable.getCardTable();
+        long[] hand = new long[hands[0].length];
+        for (int cardId : cardIds)
+            hand[cardTable.index(cardId) >>> 6] |= 1L << cardTable.index(cardId);
+        long[][] newHands = hands.clone();
+        newHands[playerIds.indexOf(playerId)] = hand;
+        return new GameState(
+            trumpTable,
+            playerIds,
+            starterPlayerIndex,
+            kittyPoints,
+            newHands,
+            currentPlayerIndex,
+            trickStartPlayerIndex,
+            trickPlays,
+            trickWinningPlayIndex,
+            roundScores,
+            declaringTeam,
+            declarations,
+            friendCardsPlayed);
+    }
+
+    public TrumpTable getTrumpTable() {
+        return trumpTable;
+    }
+
+    public List<String> getPlayerIds() {
+        return playerIds;
+    }
+
+    public String getCurrentPlayerId() {
+        return playerIds.get(currentPlayerIndex);
+    }
+
+    public boolean isRoundOver() {
+        for (long[] hand : hands)
+            for (long word : hand)
+                if (word != 0)
+                    return false;
+        return true;
+    }
+
+    public boolean hasCard(String playerId, int cardId) {
+        int index = trumpTable.getCardTable().index(cardId);
+        return (hands[playerIds.indexOf(playerId)][index >>> 6] & 1L << index) != 0;
+    }
+
+    /**
+     * The card ids in the player's hand, in {@link CardTable} order.
+     */
+    public List<Integer> getCardIds(String playerId) {
+        CardTable cardTable = trumpTable.getCardTable();
+        long[] hand = hands[playerIds.indexOf(playerId)];
+        List<Integer> cardIds = new ArrayList<>();
+        for (int word = 0; word < hand.length; word++)
+            for (long bits = hand[word]; bits != 0; bits &= bits - 1)
+                cardIds.add(cardTable.cardId(word << 6 | Long.numberOfTrailingZeros(bits)));
+        return cardIds;
+    }
+
+    /**
+     * The trick in progress, as a new {@link Trick}.
+     */
+    public Trick getCurrentTrick() {
+        Trick trick = new Trick(playerIds.get(trickStartPlayerIndex));
+        trick.getPlays().addAll(Arrays.asList(trickPlays));
+        if (trickPlays.length > 0)
+            trick.setWinningPlayerId(trickPlays[trickWinningPlayIndex].getPlayerId());
+        return trick;
+    }
+
+    public Map<String, Integer> getCurrentRoundScores() {
+        ImmutableMap.Builder<String, Integer> scores = ImmutableMap.builder();
+        for (int i = 0; i < playerIds.size(); i++)
+            scores.put(playerIds.get(i), roundScores[i]);
+        return scores.build();
+    }
+
+    public boolean isDeclaringTeam(String playerId) {
+        return declaringTeam[playerIds.indexOf(playerId)];
+    }
+
+    public Card getTrump() {
+        return trumpTable.getTrump();
+    }
+}
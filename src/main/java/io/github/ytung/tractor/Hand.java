@@ -0,0 +1,298 @@
+package io.github.ytung.tractor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Ints;
+
+import io.github.ytung.tractor.Cards.Grouping;
+
+/**
+ * The cards in a player's hand. Membership is stored as a bitset over {@link CardTable} indices.
+ * Every card id in a round is distinct (duplicate cards across decks get different ids), so a single
+ * bit per card id is enough to represent the hand exactly.
+ *
+ * The hand also keeps its card ids in display order, i.e. by {@link TrumpTable#getSortKey} and then
+ * by card id. Cards are added by binary insertion, so dealing never re-sorts the whole hand. The only
+ * full sort happens when the game's trump changes (see {@link #sort}).
+ *
+ * Only the game changes a hand, while holding the game lock, so the methods that add, remove or
+ * sort cards do all of the work up front: the card ids in hand order are kept as a list that other
+ * threads can read without changing anything. The exception is the index of the strongest
+ * component of each shape in each grouping (see {@link #getTopMinRank}), which is only used to
+ * check special plays under the game lock. Adding or removing a card only drops the index of that
+ * card's grouping, which is rebuilt the next time it is needed.
+ */
+public final class Hand {
+
+    private final CardTable cardTable;
+    private final BitSet cards;
+
+    private int[] sortedCardIds;
+    private int size;
+    private int points;
+    private int sortedTrumpVersion = -1;
+    private volatile List<Integer> cardIdsView = Collections.emptyList();
+
+    // by grouping ordinal, see computeTopMinRanks; null if not computed since the grouping changed
+    private final int[][] topMinRanks = new int[Grouping.values().length][];
+    private int topMinRanksTrumpVersion = -1;
+
+    public Hand(CardTable cardTable) {
+        this.cardTable = cardTable;
+        this.cards = new BitSet(cardTable.size());
+        this.sortedCardIds = new int[16];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * The total point value of the cards in this hand, kept up to date as cards are added and removed.
+     */
+    public int getPoints() {
+        return points;
+    }
+
+    public boolean contains(int cardId) {
+        return cardTable.containsId(cardId) && cards.get(cardTable.index(cardId));
+    }
+
+    /**
+     * Whether every card id is in this hand, with no card id appearing more than once.
+     */
+    public boolean containsAll(Collection<Integer> cardIds) {
+        BitSet other = toBitSet(cardIds);
+        if (other == null)
+            return false;
+        other.andNot(cards);
+        return other.isEmpty();
+    }
+
+    public void add(TrumpTable trumpTable, int cardId) {
+        if (contains(cardId))
+            return;
+        sort(trumpTable);
+        if (sortedCardIds.length == size)
+            sortedCardIds = Arrays.copyOf(sortedCardIds, size * 2);
+        int position = -binarySearch(trumpTable, cardId) - 1;
+        System.arraycopy(sortedCardIds, position, sortedCardIds, position + 1, size - position);
+        sortedCardIds[position] = cardId;
+        size++;
+        points += cardTable.getPoints(cardId);
+        cards.set(cardTable.index(cardId));
+        updateCardIdsView();
+        topMinRanks[trumpTable.getGrouping(cardId).ordinal()] = null;
+    }
+
+    public void addAll(TrumpTable trumpTable, Collection<Integer> cardIds) {
+        for (int cardId : cardIds)
+            add(trumpTable, cardId);
+    }
+
+    public void removeAll(TrumpTable trumpTable, Collection<Integer> cardIds) {
+        sort(trumpTable);
+        for (int cardId : cardIds) {
+            int position = binarySearch(trumpTable, cardId);
+            if (position < 0)
+                continue;
+            System.arraycopy(sortedCardIds, position + 1, sortedCardIds, position, size - position - 1);
+            size--;
+            points -= cardTable.getPoints(cardId);
+            cards.clear(cardTable.index(cardId));
+            topMinRanks[trumpTable.getGrouping(cardId).ordinal()] = null;
+        }
+        updateCardIdsView();
+    }
+
+    /**
+     * Whether this hand has any cards in the grouping.
+     */
+    public boolean hasAny(TrumpTable trumpTable, Grouping grouping) {
+        return cards.intersects(trumpTable.getGroupingCards(grouping));
+    }
+
+    /**
+     * Whether this hand has any cards in the grouping that are not among the given card ids.
+     */
+    public boolean hasAnyExcept(TrumpTable trumpTable, Grouping grouping, Collection<Integer> cardIds) {
+        BitSet remaining = (BitSet) cards.clone();
+        remaining.and(trumpTable.getGroupingCards(grouping));
+        for (int cardId : cardIds)
+            if (cardTable.containsId(cardId))
+                remaining.clear(cardTable.index(cardId));
+        return !remaining.isEmpty();
+    }
+
+    /**
+     * The card ids of this hand in the grouping, in hand order.
+     */
+    public List<Integer> getCardIds(TrumpTable trumpTable, Grouping grouping) {
+        BitSet groupingCards = trumpTable.getGroupingCards(grouping);
+        List<Integer> cardIds = new ArrayList<>();
+        for (int cardId : cardIdsView)
+            if (groupingCards.get(cardTable.index(cardId)))
+                cardIds.add(cardId);
+        return cardIds;
+    }
+
+    /**
+     * The card ids of this hand in hand order. The returned list is unmodifiable and is not affected
+     * by later changes to the hand.
+     */
+    public List<Integer> getCardIds() {
+        return cardIdsView;
+    }
+
+    /**
+     * Returns the highest min rank of the components (in the profile of this hand's cards in the
+     * grouping) that are at least as wide and as tall as the shape, or -1 if there are none. A special
+     * play is invalid if another player's hand has a higher top min rank than one of its components.
+     *
+     * @param getProfile
+     *            computes the profile of card ids in hand order, see {@link Game#getProfile}
+     */
+    public int getTopMinRank(
+            TrumpTable trumpTable,
+            Grouping grouping,
+            Shape shape,
+            Function<List<Integer>, List<Component>> getProfile) {
+        if (topMinRanksTrumpVersion != trumpTable.getVersion()) {
+            Arrays.fill(topMinRanks, null);
+            topMinRanksTrumpVersion = trumpTable.getVersion();
+        }
+        int[] table = topMinRanks[grouping.ordinal()];
+        if (table == null) {
+            table = computeTopMinRanks(getProfile.apply(getCardIds(trumpTable, grouping)));
+            topMinRanks[grouping.ordinal()] = table;
+        }
+
+        int maxWidth = table[0];
+        int maxHeight = table[1];
+        if (shape.getWidth() > maxWidth || shape.getHeight() > maxHeight)
+            return -1;
+        return table[2 + (shape.getWidth() - 1) * maxHeight + shape.getHeight() - 1];
+    }
+
+    /**
+     * Returns the widest width and tallest height in the profile, followed by the top min rank for
+     * each width and height up to those, in order of width and then height.
+     */
+    private static int[] computeTopMinRanks(List<Component> profile) {
+        int maxWidth = 0;
+        int maxHeight = 0;
+        for (Component component : profile) {
+            maxWidth = Math.max(maxWidth, component.getShape().getWidth());
+            maxHeight = Math.max(maxHeight, component.getShape().getHeight());
+        }
+
+        int[] table = new int[2 + maxWidth * maxHeight];
+        table[0] = maxWidth;
+        table[1] = maxHeight;
+        Arrays.fill(table, 2, table.length, -1);
+        for (Component component : profile) {
+            int i = 2 + (component.getShape().getWidth() - 1) * maxHeight + component.getShape().getHeight() - 1;
+            table[i] = Math.max(table[i], component.getMinRank());
+        }
+        // a component also counts for every smaller shape, so carry the maximum down from the bigger ones
+        for (int width = maxWidth; width >= 1; width--) {
+            for (int height = maxHeight; height >= 1; height--) {
+                int i = 2 + (width - 1) * maxHeight + height - 1;
+                if (width < maxWidth)
+                    table[i] = Math.max(table[i], table[i + maxHeight]);
+                if (height < maxHeight)
+                    table[i] = Math.max(table[i], table[i + 1]);
+            }
+        }
+        return table;
+    }
+
+    /**
+     * The position of the card in this hand, in hand order, or -1 if it is not in the hand. The hand
+     * must already be sorted for the trump table.
+     */
+    int indexOf(TrumpTable trumpTable, int cardId) {
+        return Math.max(binarySearch(trumpTable, cardId), -1);
+    }
+
+    /**
+     * The cards in this hand as a bitset over {@link CardTable} indices, in the format of
+     * {@link BitSet#toLongArray}.
+     */
+    public long[] toLongArray() {
+        return cards.toLongArray();
+    }
+
+    /**
+     * Re-sorts the hand if the trump has changed since it was last sorted. The game calls this as
+     * soon as the trump changes, so the hand is always in order for the current trump table.
+     */
+    void sort(TrumpTable trumpTable) {
+        if (sortedTrumpVersion == trumpTable.getVersion())
+            return;
+        long[] keys = new long[size];
+        for (int i = 0; i < size; i++)
+            keys[i] = sortKey(trumpTable, sortedCardIds[i]);
+        Arrays.sort(keys);
+        for (int i = 0; i < size; i++)
+            sortedCardIds[i] = (int) keys[i];
+        sortedTrumpVersion = trumpTable.getVersion();
+        updateCardIdsView();
+    }
+
+    private void updateCardIdsView() {
+        cardIdsView = ImmutableList.copyOf(Ints.asList(sortedCardIds).subList(0, size));
+    }
+
+    /**
+     * Returns the position of the card id in sortedCardIds, or (-(insertion point) - 1) if it is not
+     * in the hand.
+     */
+    private int binarySearch(TrumpTable trumpTable, int cardId) {
+        long key = sortKey(trumpTable, cardId);
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midKey = sortKey(trumpTable, sortedCardIds[mid]);
+            if (midKey < key)
+                low = mid + 1;
+            else if (midKey > key)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -(low + 1);
+    }
+
+    private static long sortKey(TrumpTable trumpTable, int cardId) {
+        return (long) trumpTable.getSortKey(cardId) << 32 | cardId;
+    }
+
+    /**
+     * Returns the card ids as a bitset, or null if any card id is unknown or repeated.
+     */
+    private BitSet toBitSet(Collection<Integer> cardIds) {
+        BitSet bitSet = new BitSet(cardTable.size());
+        for (int cardId : cardIds) {
+            if (!cardTable.containsId(cardId))
+                return null;
+            int index = cardTable.index(cardId);
+            if (bitSet.get(index))
+                return null;
+            bitSet.set(index);
+        }
+        return bitSet;
+    }
+}
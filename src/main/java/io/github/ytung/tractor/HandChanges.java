@@ -0,0 +1,125 @@
+package io.github.ytung.tractor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import com.google.common.collect.Maps;
+
+import io.github.ytung.tractor.api.HandDelta;
+
+/**
+ * The cards that the game moved in and out of each hand since it last published a snapshot, from
+ * which the snapshot's {@link HandDelta} is built. This only takes time for the cards that moved,
+ * rather than for every card in every hand.
+ *
+ * A card that moves back within the same change cancels out. A hand whose order changed (because the
+ * trump changed) is diffed as a whole instead, and so are all hands once they are replaced (e.g. when
+ * a round starts).
+ */
+final class HandChanges {
+
+    private final Map<String, Set<Integer>> added = new HashMap<>();
+    private final Map<String, Set<Integer>> removed = new HashMap<>();
+    private final Set<String> reordered = new HashSet<>();
+    private boolean replaced;
+
+    void add(String playerId, Collection<Integer> cardIds) {
+        Set<Integer> removedCardIds = removed.get(playerId);
+        for (int cardId : cardIds)
+            if (removedCardIds == null || !removedCardIds.remove(cardId))
+                added.computeIfAbsent(playerId, key -> new LinkedHashSet<>()).add(cardId);
+    }
+
+    void remove(String playerId, Collection<Integer> cardIds) {
+        Set<Integer> addedCardIds = added.get(playerId);
+        for (int cardId : cardIds)
+            if (addedCardIds == null || !addedCardIds.remove(cardId))
+                removed.computeIfAbsent(playerId, key -> new LinkedHashSet<>()).add(cardId);
+    }
+
+    /**
+     * Records that the order of the cards in the player's hand changed.
+     */
+    void reorder(String playerId) {
+        reordered.add(playerId);
+    }
+
+    /**
+     * Records that the hands were replaced, or changed in a way that wasn't recorded.
+     */
+    void replaceAll() {
+        replaced = true;
+    }
+
+    /**
+     * Returns the delta from the old hands to the new hands, or null if they are the same.
+     *
+     * @param hands
+     *            the new hands, sorted for the trump table
+     */
+    HandDelta toDelta(
+            long version,
+            Map<String, List<Integer>> oldHands,
+            Map<String, List<Integer>> newHands,
+            Map<String, Hand> hands,
+            TrumpTable trumpTable) {
+        if (replaced)
+            return Objects.equals(oldHands, newHands) ? null : HandDelta.between(version, oldHands, newHands);
+
+        Map<String, List<Integer>> removedCardIds = new HashMap<>();
+        Map<String, List<Integer>> addedCardIds = new HashMap<>();
+        Map<String, List<Integer>> addedIndices = new HashMap<>();
+        if (!reordered.isEmpty()) {
+            HandDelta reorderDelta = HandDelta.between(
+                version,
+                Maps.filterKeys(oldHands == null ? Collections.emptyMap() : oldHands, reordered::contains),
+                Maps.filterKeys(newHands == null ? Collections.emptyMap() : newHands, reordered::contains));
+            removedCardIds.putAll(reorderDelta.getRemovedCardIds());
+            addedCardIds.putAll(reorderDelta.getAddedCardIds());
+            addedIndices.putAll(reorderDelta.getAddedIndices());
+        }
+        removed.forEach((playerId, cardIds) -> {
+            if (!reordered.contains(playerId) && !cardIds.isEmpty())
+                removedCardIds.put(playerId, new ArrayList<>(cardIds));
+        });
+        added.forEach((playerId, cardIds) -> {
+            if (reordered.contains(playerId) || cardIds.isEmpty())
+                return;
+            // the added cards in order of where they ended up in the hand
+            Hand hand = hands.get(playerId);
+            long[] keys = new long[cardIds.size()];
+            int i = 0;
+            for (int cardId : cardIds)
+                keys[i++] = (long) hand.indexOf(trumpTable, cardId) << 32 | cardId;
+            Arrays.sort(keys);
+            List<Integer> sortedCardIds = new ArrayList<>(keys.length);
+            List<Integer> indices = new ArrayList<>(keys.length);
+            for (long key : keys) {
+                sortedCardIds.add((int) key);
+                indices.add((int) (key >>> 32));
+            }
+            addedCardIds.put(playerId, sortedCardIds);
+            addedIndices.put(playerId, indices);
+        });
+
+        if (removedCardIds.isEmpty() && addedCardIds.isEmpty())
+            return null;
+        return new HandDelta(version, removedCardIds, addedCardIds, addedIndices);
+    }
+
+    void clear() {
+        added.clear();
+        removed.clear();
+        reordered.clear();
+        replaced = false;
+    }
+}
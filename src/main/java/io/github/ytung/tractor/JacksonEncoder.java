@@ -1,26 +1,71 @@
 package io.github.ytung.tractor;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.inject.Inject;
 
 import org.atmosphere.config.managed.Encoder;
 
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.fasterxml.jackson.annotation.JsonSubTypes;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import io.github.ytung.tractor.api.OutgoingMessage;
+import lombok.Data;
 
 public class JacksonEncoder implements Encoder<Object, String> {
 
     public static final JacksonEncoder INSTANCE = new JacksonEncoder();
 
+    // how long encoding takes, for each type of outgoing message, by its name on the wire
+    private static final Map<Class<?>, Timer> encodeTimes = new HashMap<>();
+    private static final Map<Class<?>, String> typeNames = new HashMap<>();
+
+    static {
+        for (JsonSubTypes.Type type : OutgoingMessage.class.getAnnotation(JsonSubTypes.class).value()) {
+            encodeTimes.put(type.value(), new Timer());
+            typeNames.put(type.value(), type.name());
+        }
+    }
+
     @Inject
     private ObjectMapper mapper = new ObjectMapper();
 
+    // a writer per mapper and class, so that each encode starts from an already resolved serializer
+    // of whichever mapper was injected
+    private final Map<WriterKey, ObjectWriter> writers = new ConcurrentHashMap<>();
+
+    @Data
+    private static class WriterKey {
+
+        private final ObjectMapper mapper;
+        private final Class<?> type;
+    }
+
     @Override
     public String encode(Object s) {
+        ObjectWriter writer = writers.computeIfAbsent(
+            new WriterKey(mapper, s.getClass()),
+            key -> key.getMapper().writerFor(key.getType()));
+        Timer encodeTime = encodeTimes.get(s.getClass());
+        Timer.Context context = encodeTime == null ? null : encodeTime.time();
         try {
-            return mapper.writeValueAsString(s);
+            return writer.writeValueAsString(s);
         } catch (IOException e) {
             throw new RuntimeException(e);
+        } finally {
+            if (context != null)
+                context.stop();
         }
     }
+
+    static void registerMetrics(MetricRegistry registry) {
+        encodeTimes.forEach((type, encodeTime) ->
+            registry.register(MetricRegistry.name(JacksonEncoder.class, "encode", typeNames.get(type)), encodeTime));
+    }
 }
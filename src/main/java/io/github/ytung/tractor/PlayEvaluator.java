@@ -0,0 +1,224 @@
+package io.github.ytung.tractor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import com.google.common.collect.Streams;
+
+import io.github.ytung.tractor.Cards.Grouping;
+import io.github.ytung.tractor.api.Card;
+import io.github.ytung.tractor.api.Play;
+import io.github.ytung.tractor.api.Trick;
+
+/**
+ * Splits plays into components (see {@link Component}) and decides which play wins a trick, for any
+ * trump table. The rules only depend on the trump table; an evaluator just holds a profile cache
+ * and a shape matcher as working memory, so each caller keeps its own. The game has one for checking
+ * plays, and snapshots and game states use the one of the thread that reads them (see
+ * {@link #forCurrentThread}), so AIs never wait on the game's evaluator or keep the game reachable.
+ */
+final class PlayEvaluator {
+
+    private static final int PROFILE_CACHE_SIZE = 1024;
+
+    private static final ThreadLocal<PlayEvaluator> THREAD_EVALUATORS = ThreadLocal.withInitial(PlayEvaluator::new);
+
+    private final ProfileCache profileCache = new ProfileCache(PROFILE_CACHE_SIZE);
+    private final ShapeMatcher shapeMatcher = new ShapeMatcher();
+
+    /**
+     * The evaluator of the current thread, for readers that don't have one of their own.
+     */
+    static PlayEvaluator forCurrentThread() {
+        return THREAD_EVALUATORS.get();
+    }
+
+    ProfileCache getProfileCache() {
+        return profileCache;
+    }
+
+    /**
+     * Splits the cards into components, or returns an empty profile if the cards are not all in the
+     * same grouping. Profiles are cached, so the result is unmodifiable.
+     */
+    List<Component> getProfile(TrumpTable trumpTable, Collection<Integer> cardIds) {
+        return profileCache.get(trumpTable, cardIds, sortedCardIds -> computeProfile(trumpTable, sortedCardIds));
+    }
+
+    private static List<Component> computeProfile(TrumpTable trumpTable, List<Integer> cardIds) {
+        CardTable cardTable = trumpTable.getCardTable();
+        if (trumpTable.getGrouping(cardIds) == null)
+            return new ArrayList<>();
+
+        // count the copies of each distinct card, in the order that the cards first appear
+        int[] counts = new int[CardTable.NUM_KINDS];
+        int[] ranks = new int[CardTable.NUM_KINDS];
+        int[] kinds = new int[CardTable.NUM_KINDS];
+        int numKinds = 0;
+        for (int cardId : cardIds) {
+            int kind = cardTable.getKind(cardId);
+            if (counts[kind]++ == 0) {
+                ranks[kind] = trumpTable.getRank(cardId);
+                kinds[numKinds++] = kind;
+            }
+        }
+
+        // bucket the distinct cards by rank. Only the off-suit trump values can share a rank, and if
+        // two of them also have the same width, then which one ends up in a tractor depends on the
+        // order of merging, so defer to merging components one pair at a time.
+        int[] firstAtRank = new int[TrumpTable.NUM_RANKS];
+        int[] nextAtRank = new int[CardTable.NUM_KINDS];
+        Arrays.fill(firstAtRank, -1);
+        for (int i = 0; i < numKinds; i++) {
+            int kind = kinds[i];
+            for (int other = firstAtRank[ranks[kind]]; other != -1; other = nextAtRank[other])
+                if (counts[other] == counts[kind] && counts[kind] >= 2)
+                    return getProfileByMerging(trumpTable, cardIds);
+            nextAtRank[kind] = firstAtRank[ranks[kind]];
+            firstAtRank[ranks[kind]] = kind;
+        }
+
+        // link each card to the card directly below it in a tractor
+        int[] below = new int[CardTable.NUM_KINDS];
+        boolean[] hasAbove = new boolean[CardTable.NUM_KINDS];
+        for (int i = 0; i < numKinds; i++) {
+            int kind = kinds[i];
+            below[kind] = -1;
+            if (counts[kind] >= 2 && ranks[kind] > 0)
+                for (int other = firstAtRank[ranks[kind] - 1]; other != -1; other = nextAtRank[other])
+                    if (counts[other] == counts[kind]) {
+                        below[kind] = other;
+                        hasAbove[other] = true;
+                    }
+        }
+
+        // each component is headed by its highest card, and is listed where that card first appears
+        int[] componentIndex = new int[CardTable.NUM_KINDS];
+        List<Set<Integer>> componentCardIds = new ArrayList<>();
+        for (int i = 0; i < numKinds; i++)
+            if (!hasAbove[kinds[i]]) {
+                for (int kind = kinds[i]; kind != -1; kind = below[kind])
+                    componentIndex[kind] = componentCardIds.size();
+                componentCardIds.add(new HashSet<>());
+            }
+        for (int cardId : cardIds)
+            componentCardIds.get(componentIndex[cardTable.getKind(cardId)]).add(cardId);
+
+        List<Component> profile = new ArrayList<>(componentCardIds.size());
+        for (int i = 0; i < numKinds; i++)
+            if (!hasAbove[kinds[i]]) {
+                int height = 1;
+                int bottom = kinds[i];
+                while (below[bottom] != -1) {
+                    bottom = below[bottom];
+                    height++;
+                }
+                profile.add(new Component(
+                    new Shape(counts[kinds[i]], height),
+                    ranks[bottom],
+                    ranks[kinds[i]],
+                    Collections.unmodifiableSet(componentCardIds.get(profile.size()))));
+            }
+        return profile;
+    }
+
+    /**
+     * Computes the profile by repeatedly merging pairs of consecutive components of the same width.
+     * This is only needed when two different cards of the same rank could extend the same tractor.
+     */
+    private static List<Component> getProfileByMerging(TrumpTable trumpTable, List<Integer> cardIds) {
+        CardTable cardTable = trumpTable.getCardTable();
+        List<Card> cards = cardIds.stream()
+                .map(cardTable::get)
+                .collect(Collectors.toList());
+        Card trump = trumpTable.getTrump();
+        List<Component> profile = cards.stream()
+            .distinct()
+            .map(card -> {
+                return new Component(
+                    new Shape(Collections.frequency(cards, card), 1),
+                    Cards.rank(card, trump),
+                    Cards.rank(card, trump),
+                    cardIds.stream().filter(cardId -> cardTable.get(cardId).equals(card)).collect(Collectors.toSet()));
+            })
+            .collect(Collectors.toList());
+
+        while (combineConsecutiveComponents(profile));
+
+        profile.replaceAll(component -> new Component(
+            component.shape,
+            component.minRank,
+            component.maxRank,
+            Collections.unmodifiableSet(component.cardIds)));
+        return profile;
+    }
+
+    private static boolean combineConsecutiveComponents(List<Component> profile) {
+        for (int i = 0; i < profile.size(); i++)
+            for (int j = 0; j < profile.size(); j++) {
+                Component component1 = profile.get(i);
+                Component component2 = profile.get(j);
+                if (component1.shape.width == component2.shape.width
+                        && component1.shape.width >= 2
+                        && component1.minRank - component2.maxRank == 1) {
+                    profile.set(i, new Component(
+                        new Shape(component1.shape.width, component1.shape.height + component2.shape.height),
+                        component2.minRank,
+                        component1.maxRank,
+                        Streams.concat(component1.cardIds.stream(), component2.cardIds.stream()).collect(Collectors.toSet())));
+                    profile.remove(j);
+                    return true;
+                }
+            }
+        return false;
+    }
+
+
+    /**
+     * Returns the player who is winning the trick, e.g. a trick with a hypothetical play added.
+     */
+    String winningPlayerId(TrumpTable trumpTable, Trick trick) {
+        List<Play> plays = trick.getPlays();
+        if (plays.isEmpty())
+            return null;
+        int winningPlayIndex = 0;
+        for (int i = 1; i < plays.size(); i++)
+            if (beatsWinningPlay(trumpTable, plays.get(i).getCardIds(), plays.get(winningPlayIndex).getCardIds()))
+                winningPlayIndex = i;
+        return winningPlayIndex == 0 ? trick.getStartPlayerId() : plays.get(winningPlayIndex).getPlayerId();
+    }
+
+    /**
+     * Returns whether a play beats the play that is currently winning the trick.
+     */
+    boolean beatsWinningPlay(TrumpTable trumpTable, List<Integer> cardIds, List<Integer> bestCardIds) {
+        List<Component> profile = getProfile(trumpTable, cardIds);
+        List<Component> bestProfile = getProfile(trumpTable, bestCardIds);
+        if (!shapeMatcher.covers(profile, bestProfile))
+            return false;
+        Grouping grouping = trumpTable.getGrouping(cardIds);
+        Grouping bestGrouping = trumpTable.getGrouping(bestCardIds);
+        return (grouping == Grouping.TRUMP && bestGrouping != Grouping.TRUMP)
+                || (grouping == bestGrouping && beats(profile, bestProfile));
+    }
+
+    private static boolean beats(List<Component> myProfile, List<Component> otherProfile) {
+        Component biggestComponent = otherProfile.stream()
+                .max(Comparator.<Component, Integer>comparing(component -> component.cardIds.size())
+                        .thenComparing(component -> component.maxRank))
+                .get();
+        return myProfile.stream()
+                .filter(component -> component.shape.width >= biggestComponent.shape.width)
+                .filter(component -> component.shape.height >= biggestComponent.shape.height)
+                .filter(component -> component.maxRank > biggestComponent.maxRank)
+                .findAny()
+                .isPresent();
+    }
+}
@@ -11,4 +11,9 @@ public class PlayResult {
     private final boolean isTrickComplete;
     private final boolean didFriendJoin;
     private final boolean isBadSpecialPlay;
+
+    /**
+     * The snapshot that the play published.
+     */
+    private final GameSnapshot snapshot;
 }
@@ -0,0 +1,109 @@
+package io.github.ytung.tractor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A bounded cache of play profiles (see {@link Game#getProfile}). The same handful of card sets
+ * get profiled over and over while validating and scoring a single play, so this saves recomputing
+ * them.
+ *
+ * Entries are keyed by the trump table and the set of card ids, encoded as a bitset over
+ * {@link CardTable} indices, so the order in which the card ids are passed in does not matter. The
+ * trump table is compared by identity, since a cache may be shared by the evaluations of several
+ * games (see {@link PlayEvaluator}), whose version numbers can coincide. A new trump table never
+ * clears the cache; entries for an older one just stop matching and are replaced as their slots are
+ * reused. The cache is direct-mapped: a new entry simply replaces
+ * whatever was in its slot. Looking up an entry that is already cached does not allocate.
+ */
+public final class ProfileCache {
+
+    private final int mask;
+    private final TrumpTable[] trumpTables;
+    private final long[][] keys;
+    private final Object[] profiles;
+
+    private long[] scratch = new long[0];
+    private long hits;
+    private long misses;
+
+    /**
+     * @param capacity
+     *            the number of entries, which must be a power of two
+     */
+    public ProfileCache(int capacity) {
+        if (Integer.bitCount(capacity) != 1)
+            throw new IllegalArgumentException("Capacity must be a power of two");
+        this.mask = capacity - 1;
+        this.trumpTables = new TrumpTable[capacity];
+        this.keys = new long[capacity][];
+        this.profiles = new Object[capacity];
+    }
+
+    /**
+     * Returns the cached profile of the card ids, computing it if needed. The profile is computed from
+     * the card ids in hand order, and the returned list and its components are unmodifiable.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized List<Component> get(
+            TrumpTable trumpTable,
+            Collection<Integer> cardIds,
+            Function<List<Integer>, List<Component>> computeProfile) {
+        CardTable cardTable = trumpTable.getCardTable();
+        int trumpVersion = trumpTable.getVersion();
+        int numWords = (cardTable.size() + 63) >>> 6;
+        if (scratch.length != numWords)
+            scratch = new long[numWords];
+
+        Arrays.fill(scratch, 0);
+        for (int cardId : cardIds) {
+            int index = cardTable.index(cardId);
+            long bit = 1L << index;
+            if ((scratch[index >>> 6] & bit) != 0) {
+                // the same card id twice is not a set of cards, so don't cache it
+                misses++;
+                return Collections.unmodifiableList(computeProfile.apply(new ArrayList<>(cardIds)));
+            }
+            scratch[index >>> 6] |= bit;
+        }
+
+        int slot = hash(trumpVersion, scratch) & mask;
+        if (trumpTables[slot] == trumpTable && Arrays.equals(keys[slot], scratch)) {
+            hits++;
+            return (List<Component>) profiles[slot];
+        }
+
+        misses++;
+        List<Integer> sortedCardIds = new ArrayList<>(cardIds);
+        sortedCardIds.sort(Comparator.comparingInt(trumpTable::getSortKey));
+        List<Component> profile = Collections.unmodifiableList(computeProfile.apply(sortedCardIds));
+        trumpTables[slot] = trumpTable;
+        keys[slot] = scratch.clone();
+        profiles[slot] = profile;
+        return profile;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public int getCapacity() {
+        return keys.length;
+    }
+
+    private static int hash(int trumpVersion, long[] words) {
+        long hash = trumpVersion;
+        for (long word : words)
+            hash = (hash + word) * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+}
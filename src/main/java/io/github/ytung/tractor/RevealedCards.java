@@ -0,0 +1,125 @@
+package io.github.ytung.tractor;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import io.github.ytung.tractor.api.Card;
+
+/**
+ * The cards of a round that every player has seen, i.e. that were declared or played, in the order
+ * they were first revealed. A card stays revealed when it is taken back into a hand.
+ *
+ * The registry is append-only, which makes {@link #asMap} cheap: a view only needs to remember how
+ * many cards were revealed when it was taken, since those entries never change afterwards. The one
+ * exception is {@link Game#undo}, which forgets the cards that the undone action revealed. Those are
+ * always the last ones, and the registry copies its array before dropping them, so existing views
+ * still don't change.
+ */
+final class RevealedCards {
+
+    private final CardTable cardTable;
+
+    // by CardTable index, the index in the game's action log of the action that revealed the card,
+    // or -1 if it hasn't been revealed
+    private final int[] revealedBy;
+    private int[] cardIds = new int[64];
+    private int size;
+
+    RevealedCards(CardTable cardTable) {
+        this.cardTable = cardTable;
+        this.revealedBy = new int[cardTable.size()];
+        Arrays.fill(revealedBy, -1);
+    }
+
+    /**
+     * Reveals the cards, as part of the action at the given index of the action log.
+     */
+    void reveal(Iterable<Integer> cardIds, int actionIndex) {
+        for (int cardId : cardIds) {
+            int index = cardTable.index(cardId);
+            if (revealedBy[index] != -1)
+                continue;
+            if (size == this.cardIds.length)
+                this.cardIds = Arrays.copyOf(this.cardIds, 2 * size);
+            this.cardIds[size++] = cardId;
+            revealedBy[index] = actionIndex;
+        }
+    }
+
+    /**
+     * Forgets the cards revealed by the action at the given index, which must be the last action.
+     */
+    void unreveal(int actionIndex) {
+        int newSize = size;
+        while (newSize > 0 && revealedBy[cardTable.index(cardIds[newSize - 1])] == actionIndex)
+            newSize--;
+        if (newSize == size)
+            return;
+        for (int i = newSize; i < size; i++)
+            revealedBy[cardTable.index(cardIds[i])] = -1;
+        cardIds = Arrays.copyOf(cardIds, cardIds.length);
+        size = newSize;
+    }
+
+    /**
+     * An unmodifiable map from card id to card of the cards revealed so far, iterated in the order
+     * they were revealed. The map doesn't change as more cards are revealed. Lookups by key scan the
+     * cards, so it is meant for iterating.
+     */
+    Map<Integer, Card> asMap() {
+        return new View(cardIds, size);
+    }
+
+    private final class View extends AbstractMap<Integer, Card> {
+
+        private final int[] cardIds;
+        private final int size;
+
+        View(int[] cardIds, int size) {
+            this.cardIds = cardIds;
+            this.size = size;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public Set<Map.Entry<Integer, Card>> entrySet() {
+            return new AbstractSet<Map.Entry<Integer, Card>>() {
+
+                @Override
+                public int size() {
+                    return size;
+                }
+
+                @Override
+                public Iterator<Map.Entry<Integer, Card>> iterator() {
+                    return new Iterator<Map.Entry<Integer, Card>>() {
+
+                        private int i = 0;
+
+                        @Override
+                        public boolean hasNext() {
+                            return i < size;
+                        }
+
+                        @Override
+                        public Map.Entry<Integer, Card> next() {
+                            if (i == size)
+                                throw new NoSuchElementException();
+                            int cardId = cardIds[i++];
+                            return new SimpleImmutableEntry<>(cardId, cardTable.get(cardId));
+                        }
+                    };
+                }
+            };
+        }
+    }
+}
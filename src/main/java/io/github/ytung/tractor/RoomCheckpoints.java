@@ -0,0 +1,200 @@
+package io.github.ytung.tractor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import lombok.Data;
+
+/**
+ * Saves rooms to a local directory (the system property tractor.checkpointDirectory, "checkpoints"
+ * by default), one file per room, so that games survive a server restart. Rooms save themselves at
+ * trick boundaries, and the server restores every saved room when it starts (see
+ * {@link #restoreAll}). A room takes over its restored state when its first client connects.
+ *
+ * Each file holds the player names, which players are AIs, and a {@link GameCheckpoint}. Files are
+ * replaced atomically, so a crash while saving leaves the previous checkpoint in place.
+ *
+ * Files are written and deleted on a single background thread, in the order they were asked for,
+ * so rooms never wait on the disk. A room's file is deleted when the room ends. Files that weren't
+ * saved for longer than the maximum age (the system property tractor.checkpointMaxAgeHours, 24 by
+ * default) are not restored, and a restored room that nobody rejoins within the maximum age is
+ * dropped along with its file.
+ */
+final class RoomCheckpoints {
+
+    private static final Path DIRECTORY = Paths.get(System.getProperty("tractor.checkpointDirectory", "checkpoints"));
+    private static final String SUFFIX = ".checkpoint";
+
+    private static final int MAGIC = 0x54524b52;
+    private static final int VERSION = 1;
+
+    private static final long MAX_AGE_MILLIS = TimeUnit.HOURS.toMillis(Long.getLong("tractor.checkpointMaxAgeHours", 24));
+
+    private static final ScheduledExecutorService WRITER = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("room-checkpoints").setDaemon(true).build());
+
+    private static final Map<String, RestoredRoom> restoredRooms = new ConcurrentHashMap<>();
+
+    @Data
+    static class RestoredRoom {
+
+        private final Game game;
+        private final Map<String, String> playerNames;
+        private final Set<String> aiPlayerIds;
+    }
+
+    private RoomCheckpoints() {
+    }
+
+    /**
+     * Queues the room to be saved. Checkpoints of a room are written in the order they were queued,
+     * so callers that queue them in order never have an older checkpoint replace a newer one.
+     */
+    static void save(String roomCode, GameCheckpoint checkpoint, Map<String, String> playerNames, Set<String> aiPlayerIds) {
+        Map<String, String> names = ImmutableMap.copyOf(playerNames);
+        Set<String> aiIds = ImmutableSet.copyOf(aiPlayerIds);
+        WRITER.execute(() -> {
+            try {
+                write(roomCode, checkpoint, names, aiIds);
+            } catch (IOException e) {
+                // the room carries on, it just can't be restored to this point
+                System.err.println("Could not save room " + roomCode + ": " + e);
+            }
+        });
+    }
+
+    /**
+     * Queues the room's file to be deleted, after any checkpoints of the room that are already
+     * queued, and forgets its restored state if it was never taken.
+     */
+    static void delete(String roomCode) {
+        restoredRooms.remove(roomCode);
+        WRITER.execute(() -> deleteFile(roomCode));
+    }
+
+    private static void write(String roomCode, GameCheckpoint checkpoint, Map<String, String> playerNames, Set<String> aiPlayerIds)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(playerNames.size());
+            for (Map.Entry<String, String> entry : playerNames.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeUTF(entry.getValue());
+            }
+            out.writeInt(aiPlayerIds.size());
+            for (String aiPlayerId : aiPlayerIds)
+                out.writeUTF(aiPlayerId);
+            byte[] game = checkpoint.toBytes();
+            out.writeInt(game.length);
+            out.write(game);
+        }
+
+        Files.createDirectories(DIRECTORY);
+        Path temp = Files.createTempFile(DIRECTORY, roomCode, ".tmp");
+        try {
+            Files.write(temp, bytes.toByteArray());
+            Files.move(temp, DIRECTORY.resolve(roomCode + SUFFIX), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void deleteFile(String roomCode) {
+        try {
+            Files.deleteIfExists(DIRECTORY.resolve(roomCode + SUFFIX));
+        } catch (IOException e) {
+            System.err.println("Could not delete room " + roomCode + ": " + e);
+        }
+    }
+
+    /**
+     * Restores every room saved in the directory within the maximum age, and registers it with the
+     * lobby so that its players can rejoin. Older files are deleted, and files that can't be restored
+     * are skipped. Returns the number of rooms restored.
+     */
+    static int restoreAll() throws IOException {
+        if (!Files.isDirectory(DIRECTORY))
+            return 0;
+
+        int numRestored = 0;
+        FileTime cutoff = FileTime.fromMillis(System.currentTimeMillis() - MAX_AGE_MILLIS);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(DIRECTORY, "*" + SUFFIX)) {
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                String roomCode = fileName.substring(0, fileName.length() - SUFFIX.length());
+                try {
+                    if (Files.getLastModifiedTime(file).compareTo(cutoff) < 0) {
+                        Files.delete(file);
+                        continue;
+                    }
+                    restoredRooms.put(roomCode, read(Files.readAllBytes(file)));
+                    TractorLobby.restoreRoom(roomCode);
+                    numRestored++;
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Could not restore room " + roomCode + ": " + e);
+                }
+            }
+        }
+        WRITER.schedule(RoomCheckpoints::dropUnclaimedRooms, MAX_AGE_MILLIS, TimeUnit.MILLISECONDS);
+        return numRestored;
+    }
+
+    /**
+     * Drops the restored rooms that no client has connected to, and their files.
+     */
+    private static void dropUnclaimedRooms() {
+        for (String roomCode : restoredRooms.keySet())
+            if (restoredRooms.remove(roomCode) != null) {
+                TractorLobby.removeRoom(roomCode);
+                deleteFile(roomCode);
+            }
+    }
+
+    /**
+     * Returns the restored state of the room, if any, which is handed out only once.
+     */
+    static RestoredRoom takeRestoredRoom(String roomCode) {
+        return restoredRooms.remove(roomCode);
+    }
+
+    private static RestoredRoom read(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        if (in.readInt() != MAGIC)
+            throw new IOException("Not a room checkpoint");
+        int version = in.readUnsignedByte();
+        if (version != VERSION)
+            throw new IOException("Unsupported room checkpoint version " + version);
+        Map<String, String> playerNames = new HashMap<>();
+        for (int i = in.readInt(); i > 0; i--)
+            playerNames.put(in.readUTF(), in.readUTF());
+        Set<String> aiPlayerIds = new HashSet<>();
+        for (int i = in.readInt(); i > 0; i--)
+            aiPlayerIds.add(in.readUTF());
+        byte[] game = new byte[in.readInt()];
+        in.readFully(game);
+        return new RestoredRoom(Game.restore(GameCheckpoint.fromBytes(game)), playerNames, aiPlayerIds);
+    }
+}
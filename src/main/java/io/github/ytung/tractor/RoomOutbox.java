@@ -0,0 +1,237 @@
+package io.github.ytung.tractor;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.atmosphere.cpr.AtmosphereResource;
+import org.atmosphere.cpr.Broadcaster;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import lombok.Data;
+
+/**
+ * The messages a room sends, to everyone in the room or to a single client, in the order they were
+ * sent. Sending only queues the encoded message; each client has a queue of its own, which is
+ * written out on a delivery thread, one message after the other, so the game never waits for a slow
+ * client, and a slow client never delays the others.
+ *
+ * All rooms share a fixed pool of delivery threads (the system property tractor.outboxThreads). A
+ * client gets at most {@link #BATCH_MESSAGES} messages written before giving its thread to the next
+ * client. A client that doesn't take a broadcast within {@link #WRITE_TIMEOUT_SECONDS} is stuck, and
+ * is detached: the rest of its queue is dropped and its connection is closed, so it reconnects and
+ * starts over from a full room state. That way no client ever gets a message after one that it
+ * missed, and a stuck client can't hold on to the pool.
+ *
+ * A room where any client's queue grows past {@link #BACKED_UP_MESSAGES} is backed up: that client
+ * is reading slower than the game produces messages, and the room should hold back optional work
+ * (e.g. keep dealing only once the queue has drained). Across all rooms, the number of pending
+ * messages, the number of backed up rooms, and how long messages wait before they are written are
+ * reported as metrics.
+ */
+final class RoomOutbox {
+
+    static final int BACKED_UP_MESSAGES = 64;
+    static final int BATCH_MESSAGES = 16;
+    static final int WRITE_TIMEOUT_SECONDS = 5;
+
+    // a client uses at most one delivery thread at a time, which may block on it for the timeout
+    private static final ThreadPoolExecutor DELIVERY = createDeliveryPool(
+        Integer.getInteger("tractor.outboxThreads", Math.max(2, Runtime.getRuntime().availableProcessors())));
+
+    private static final AtomicInteger totalPending = new AtomicInteger();
+    private static final AtomicInteger numBackedUp = new AtomicInteger();
+    private static final Timer latency = new Timer();
+
+    private final Map<AtmosphereResource, ClientOutbox> clients = new ConcurrentHashMap<>();
+    private final AtomicInteger numBackedUpClients = new AtomicInteger();
+
+    @Data
+    private static class Delivery {
+
+        // returns false if the client didn't take the message in time
+        private final BooleanSupplier write;
+        private final long sentTime;
+    }
+
+    /**
+     * Broadcasts the message to everyone in the room: the binary encoding to the given resources
+     * (see {@link BinaryWireFormat}), and the JSON encoding to everyone else.
+     */
+    void broadcast(Broadcaster broadcaster, String message, byte[] binaryMessage, Set<AtmosphereResource> binaryResources) {
+        for (AtmosphereResource r : broadcaster.getAtmosphereResources()) {
+            Object clientMessage = binaryResources.contains(r) ? binaryMessage : message;
+            getClient(r).enqueue(() -> await(broadcaster.broadcast(clientMessage, r)));
+        }
+    }
+
+    void send(AtmosphereResource r, String message) {
+        getClient(r).enqueue(() -> {
+            try {
+                r.write(message);
+            } catch (RuntimeException e) {
+                // client disconnected, ignore
+            }
+            return true;
+        });
+    }
+
+    void send(AtmosphereResource r, byte[] message) {
+        getClient(r).enqueue(() -> {
+            try {
+                r.write(message);
+            } catch (RuntimeException e) {
+                // client disconnected, ignore
+            }
+            return true;
+        });
+    }
+
+    /**
+     * Drops the client's queue, once it has disconnected.
+     */
+    void remove(AtmosphereResource r) {
+        ClientOutbox client = clients.remove(r);
+        if (client != null)
+            client.detached = true;
+    }
+
+    int getPendingMessages() {
+        int numPending = 0;
+        for (ClientOutbox client : clients.values())
+            numPending += client.pending.get();
+        return numPending;
+    }
+
+    boolean isBackedUp() {
+        return numBackedUpClients.get() > 0;
+    }
+
+    static void registerMetrics(MetricRegistry registry) {
+        registry.register(MetricRegistry.name(RoomOutbox.class, "pendingMessages"), (Gauge<Integer>) totalPending::get);
+        registry.register(MetricRegistry.name(RoomOutbox.class, "backedUpRooms"), (Gauge<Integer>) numBackedUp::get);
+        registry.register(MetricRegistry.name(RoomOutbox.class, "latency"), latency);
+    }
+
+    private static ThreadPoolExecutor createDeliveryPool(int numThreads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            numThreads,
+            numThreads,
+            60,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            new ThreadFactoryBuilder().setNameFormat("room-outbox-%d").setDaemon(true).build());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Waits for a broadcast to be written to a client, so that the next message can't overtake it.
+     * Returns false if the client is stuck. If the delivery thread was interrupted, it stops writing
+     * once this returns.
+     */
+    private static boolean await(Future<?> broadcast) {
+        try {
+            broadcast.get(WRITE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            return false;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return true;
+    }
+
+    private ClientOutbox getClient(AtmosphereResource r) {
+        return clients.computeIfAbsent(r, ClientOutbox::new);
+    }
+
+    private void updateBackedUpClients(int change) {
+        int numClients = numBackedUpClients.addAndGet(change);
+        if (change > 0 && numClients == 1)
+            numBackedUp.incrementAndGet();
+        else if (change < 0 && numClients == 0)
+            numBackedUp.decrementAndGet();
+    }
+
+    /**
+     * The queue of a single client.
+     */
+    private final class ClientOutbox {
+
+        private final AtmosphereResource resource;
+        private final Queue<Delivery> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pending = new AtomicInteger();
+        // once set, the messages still in the queue are dropped, and no more are queued
+        private volatile boolean detached = false;
+
+        ClientOutbox(AtmosphereResource resource) {
+            this.resource = resource;
+        }
+
+        void enqueue(BooleanSupplier write) {
+            if (detached)
+                return;
+            queue.add(new Delivery(write, System.nanoTime()));
+            totalPending.incrementAndGet();
+            int numPending = pending.getAndIncrement();
+            if (numPending == BACKED_UP_MESSAGES - 1)
+                updateBackedUpClients(1);
+            // whoever finds the queue empty starts the delivery, which runs until the queue is empty again
+            if (numPending == 0)
+                DELIVERY.execute(this::deliver);
+        }
+
+        private void deliver() {
+            int numPending;
+            int numDelivered = 0;
+            do {
+                Delivery delivery = queue.poll();
+                try {
+                    if (!detached && !delivery.getWrite().getAsBoolean())
+                        detach();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+                latency.update(System.nanoTime() - delivery.getSentTime(), TimeUnit.NANOSECONDS);
+                totalPending.decrementAndGet();
+                numPending = pending.decrementAndGet();
+                if (numPending == BACKED_UP_MESSAGES - 1)
+                    updateBackedUpClients(-1);
+                numDelivered++;
+            } while (numPending > 0 && numDelivered < BATCH_MESSAGES && !Thread.currentThread().isInterrupted());
+
+            // let the other clients have a turn before writing the rest
+            if (numPending > 0)
+                DELIVERY.execute(this::deliver);
+        }
+
+        /**
+         * Stops writing to the stuck client, and closes its connection so that it reconnects.
+         */
+        private void detach() {
+            detached = true;
+            try {
+                resource.close();
+            } catch (IOException | RuntimeException e) {
+                // already disconnected
+            }
+        }
+    }
+}
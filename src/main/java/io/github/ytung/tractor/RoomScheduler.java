@@ -0,0 +1,80 @@
+package io.github.ytung.tractor;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Runs the delayed steps of all rooms (dealing each card, dealing the kitty after the bottom cards
+ * were shown, finishing a trick) on one small server-wide pool, instead of a thread per delay. Each
+ * task can be cancelled through the future that {@link #schedule} returns.
+ *
+ * For monitoring, the scheduler reports the number of tasks waiting to run, and the timer lag, i.e.
+ * how long after its delay each task actually started. Lag grows when the threads are busy, e.g.
+ * with slow broadcasts or AI moves.
+ */
+public final class RoomScheduler {
+
+    /**
+     * The scheduler used by every room. The number of threads can be set with the system property
+     * tractor.schedulerThreads.
+     */
+    static final RoomScheduler INSTANCE = new RoomScheduler(
+        Integer.getInteger("tractor.schedulerThreads", Math.max(2, Runtime.getRuntime().availableProcessors())));
+
+    private final ScheduledThreadPoolExecutor executor;
+    private final Timer lag = new Timer();
+
+    public RoomScheduler(int numThreads) {
+        executor = new ScheduledThreadPoolExecutor(
+            numThreads,
+            new ThreadFactoryBuilder().setNameFormat("room-scheduler-%d").setDaemon(true).build());
+        executor.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Runs the task once the delay has passed. An exception thrown by the task is printed, as it
+     * would be by a thread of its own, and doesn't affect other tasks.
+     */
+    public ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+        long dueTime = System.nanoTime() + unit.toNanos(delay);
+        return executor.schedule(() -> {
+            lag.update(System.nanoTime() - dueTime, TimeUnit.NANOSECONDS);
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }, delay, unit);
+    }
+
+    /**
+     * The number of tasks waiting for their delay to pass, or for a free thread.
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public Timer getLag() {
+        return lag;
+    }
+
+    /**
+     * Stops the threads, dropping the tasks that haven't run yet. Only needed for a scheduler other
+     * than {@link #INSTANCE}, which lives as long as the server.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    void registerMetrics(MetricRegistry registry) {
+        registry.register(MetricRegistry.name(RoomScheduler.class, "queueDepth"), (Gauge<Integer>) this::getQueueDepth);
+        registry.register(MetricRegistry.name(RoomScheduler.class, "activeThreads"), (Gauge<Integer>) executor::getActiveCount);
+        registry.register(MetricRegistry.name(RoomScheduler.class, "lag"), lag);
+    }
+}
@@ -0,0 +1,270 @@
+package io.github.ytung.tractor;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Decides whether one play "covers" another, i.e. whether it has the same shape for the purposes of
+ * beating it. For example, a pair covers two singles, and a tractor 5-5-6-6 covers a pair and two
+ * singles, but two singles don't cover a pair.
+ *
+ * A component of width w and height h is h consecutive ranks with w copies of each. The play covers
+ * the other play if the other play's shapes can all be cut out of its components at once, using up
+ * every card. This is decided exactly by backtracking: the lowest rank that still has unused copies
+ * must be where some remaining shape starts (everything below it is used up), so the search only
+ * branches over which kind of shape goes there. Identical shapes are counted rather than listed, so
+ * e.g. a dozen singles never cause any branching. Big throws can still reach the same partial
+ * placement in many different ways, so the states that have already failed are remembered for the
+ * rest of the call.
+ *
+ * The working arrays are kept between calls, so matching doesn't allocate once they are big enough.
+ */
+public final class ShapeMatcher {
+
+    // most searches are over within a few dozen steps, faster than it takes to remember them
+    private static final int MIN_NODES_TO_REMEMBER = 32;
+
+    // for each rank of each of my components (laid out one component after another), the number of
+    // unused copies, and the index just past the last rank of the component
+    private int[] copies = new int[16];
+    private int[] componentEnds = new int[16];
+
+    // the distinct shapes of the other play, largest first, and how many of each are left to place
+    private int[] widths = new int[16];
+    private int[] heights = new int[16];
+    private int[] counts = new int[16];
+
+    // the number of search steps taken in this call
+    private int numNodes;
+
+    // search states that have already failed, as keys of keyLength ints one after another in
+    // failedKeys, found through an open addressing table of (index of the key + 1). Table slots from
+    // an earlier call (with a different stamp) count as empty, so the table never needs clearing.
+    private int keyLength;
+    private int numFailed;
+    private int[] failedKeys = new int[256];
+    private int[] table = new int[64];
+    private int[] tableStamps = new int[64];
+    private int stamp;
+
+    public synchronized boolean covers(List<Component> myProfile, List<Component> otherProfile) {
+        int numRanks = 0;
+        for (int i = 0; i < myProfile.size(); i++)
+            numRanks += myProfile.get(i).getShape().getHeight();
+        ensureCapacity(numRanks, otherProfile.size());
+
+        int myNumCards = 0;
+        int position = 0;
+        for (int i = 0; i < myProfile.size(); i++) {
+            Shape shape = myProfile.get(i).getShape();
+            int end = position + shape.getHeight();
+            for (; position < end; position++) {
+                copies[position] = shape.getWidth();
+                componentEnds[position] = end;
+            }
+            myNumCards += shape.getWidth() * shape.getHeight();
+        }
+
+        int otherNumCards = 0;
+        int maxHeight = 0;
+        int numTypes = 0;
+        for (int i = 0; i < otherProfile.size(); i++) {
+            Shape shape = otherProfile.get(i).getShape();
+            int width = shape.getWidth();
+            int height = shape.getHeight();
+            otherNumCards += width * height;
+            maxHeight = Math.max(maxHeight, height);
+
+            // insertion sort, by number of cards and then by width, merging identical shapes
+            int j = 0;
+            while (j < numTypes && isLarger(widths[j], heights[j], width, height))
+                j++;
+            if (j < numTypes && widths[j] == width && heights[j] == height) {
+                counts[j]++;
+                continue;
+            }
+            for (int k = numTypes; k > j; k--) {
+                widths[k] = widths[k - 1];
+                heights[k] = heights[k - 1];
+                counts[k] = counts[k - 1];
+            }
+            widths[j] = width;
+            heights[j] = height;
+            counts[j] = 1;
+            numTypes++;
+        }
+        if (myNumCards != otherNumCards)
+            return false;
+
+        // the ranks more than maxHeight past the lowest unused one haven't been touched yet, so the
+        // state is the rank, minType, the counts and the copies of the next maxHeight ranks
+        numNodes = 0;
+        keyLength = 2 + numTypes + maxHeight;
+        numFailed = 0;
+        if (++stamp == 0) {
+            Arrays.fill(tableStamps, 0);
+            stamp = 1;
+        }
+        for (int type = 0; type < numTypes; type++)
+            if (!hasRoom(widths[type], heights[type], numTypes, numRanks))
+                return false;
+        return place(0, 0, numTypes, numRanks);
+    }
+
+    /**
+     * Tries to place the remaining shapes, given that everything below the given rank is used up.
+     * Shapes that start at the same rank are placed in the order of their types, starting from
+     * minType, so that each combination is only tried once.
+     */
+    private boolean place(int rank, int minType, int numTypes, int numRanks) {
+        if (rank < numRanks && copies[rank] == 0) {
+            do {
+                rank++;
+            } while (rank < numRanks && copies[rank] == 0);
+            minType = 0;
+        }
+        if (rank == numRanks)
+            return true;
+        boolean remember = ++numNodes > MIN_NODES_TO_REMEMBER;
+        if (remember && hasFailed(rank, minType, numTypes, numRanks))
+            return false;
+
+        for (int type = minType; type < numTypes; type++) {
+            int width = widths[type];
+            int height = heights[type];
+            if (counts[type] == 0 || rank + height > componentEnds[rank] || !fits(rank, width, height))
+                continue;
+
+            for (int r = rank; r < rank + height; r++)
+                copies[r] -= width;
+            counts[type]--;
+            boolean placed = place(rank, type, numTypes, numRanks);
+            counts[type]++;
+            for (int r = rank; r < rank + height; r++)
+                copies[r] += width;
+            if (placed)
+                return true;
+        }
+        if (remember)
+            addFailed(rank, minType, numTypes, numRanks);
+        return false;
+    }
+
+    /**
+     * Checks that there is room for all of the shapes at least as wide as the given one, and for the
+     * given one in particular. A rank with c copies can hold at most c / width such shapes, and at
+     * most c of their cards. This rules out most plays that don't cover without any search.
+     */
+    private boolean hasRoom(int width, int height, int numTypes, int numRanks) {
+        int numShapeRanks = 0;
+        int numShapeCards = 0;
+        for (int type = 0; type < numTypes; type++) {
+            if (widths[type] >= width) {
+                numShapeRanks += counts[type] * heights[type];
+                numShapeCards += counts[type] * heights[type] * widths[type];
+            }
+        }
+
+        boolean fitsSomewhere = false;
+        for (int position = 0; position < numRanks; position++) {
+            if (copies[position] >= width) {
+                numShapeRanks -= copies[position] / width;
+                numShapeCards -= copies[position];
+            }
+            if (!fitsSomewhere && position + height <= componentEnds[position] && fits(position, width, height))
+                fitsSomewhere = true;
+        }
+        return fitsSomewhere && numShapeRanks <= 0 && numShapeCards <= 0;
+    }
+
+    private boolean fits(int position, int width, int height) {
+        for (int rank = position; rank < position + height; rank++)
+            if (copies[rank] < width)
+                return false;
+        return true;
+    }
+
+    /**
+     * The i-th int of the key of the current search state.
+     */
+    private int key(int i, int rank, int minType, int numTypes, int numRanks) {
+        if (i == 0)
+            return rank;
+        if (i == 1)
+            return minType;
+        if (i < 2 + numTypes)
+            return counts[i - 2];
+        int position = rank + i - 2 - numTypes;
+        return position < numRanks ? copies[position] : -1;
+    }
+
+    private boolean hasFailed(int rank, int minType, int numTypes, int numRanks) {
+        int hash = 0;
+        for (int i = 0; i < keyLength; i++)
+            hash = hash * 31 + key(i, rank, minType, numTypes, numRanks);
+
+        int mask = table.length - 1;
+        for (int slot = mix(hash) & mask; tableStamps[slot] == stamp; slot = (slot + 1) & mask) {
+            int offset = (table[slot] - 1) * keyLength;
+            int i = 0;
+            while (i < keyLength && failedKeys[offset + i] == key(i, rank, minType, numTypes, numRanks))
+                i++;
+            if (i == keyLength)
+                return true;
+        }
+        return false;
+    }
+
+    private void addFailed(int rank, int minType, int numTypes, int numRanks) {
+        if ((numFailed + 1) * keyLength > failedKeys.length)
+            failedKeys = Arrays.copyOf(failedKeys, Math.max(2 * failedKeys.length, (numFailed + 1) * keyLength));
+        for (int i = 0; i < keyLength; i++)
+            failedKeys[numFailed * keyLength + i] = key(i, rank, minType, numTypes, numRanks);
+        numFailed++;
+
+        if (2 * numFailed > table.length) {
+            table = new int[2 * table.length];
+            tableStamps = new int[table.length];
+            for (int index = 0; index < numFailed; index++)
+                insert(index);
+        } else {
+            insert(numFailed - 1);
+        }
+    }
+
+    private void insert(int index) {
+        int hash = 0;
+        for (int i = 0; i < keyLength; i++)
+            hash = hash * 31 + failedKeys[index * keyLength + i];
+
+        int mask = table.length - 1;
+        int slot = mix(hash) & mask;
+        while (tableStamps[slot] == stamp)
+            slot = (slot + 1) & mask;
+        table[slot] = index + 1;
+        tableStamps[slot] = stamp;
+    }
+
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean isLarger(int width1, int height1, int width2, int height2) {
+        int numCards1 = width1 * height1;
+        int numCards2 = width2 * height2;
+        return numCards1 > numCards2 || (numCards1 == numCards2 && width1 > width2);
+    }
+
+    private void ensureCapacity(int numRanks, int numShapes) {
+        if (copies.length < numRanks) {
+            copies = new int[numRanks];
+            componentEnds = new int[numRanks];
+        }
+        if (widths.length < numShapes) {
+            widths = new int[numShapes];
+            heights = new int[numShapes];
+            counts = new int[numShapes];
+        }
+    }
+}
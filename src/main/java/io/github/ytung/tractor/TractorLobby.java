@@ -46,6 +46,21 @@ public class TractorLobby {
         return roomCodes.containsKey(roomCode);
     }
 
+    /**
+     * Registers a room restored from a checkpoint (see {@link RoomCheckpoints}). Its creator's
+     * connection is gone, so no creator is recorded.
+     */
+    static void restoreRoom(String roomCode) {
+        roomCodes.putIfAbsent(roomCode, "");
+    }
+
+    /**
+     * Unregisters a restored room that none of its players came back to.
+     */
+    static void removeRoom(String roomCode) {
+        roomCodes.remove(roomCode);
+    }
+
     private String getNewRoomCode() {
         String code = "";
         for (int i=0; i<4; i++) {
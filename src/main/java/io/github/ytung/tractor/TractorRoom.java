@@ -8,7 +8,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
@@ -24,15 +24,16 @@ import org.atmosphere.cpr.Broadcaster;
 
 import com.google.common.collect.BiMap;
 import com.google.common.collect.HashBiMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
-import com.google.common.util.concurrent.Uninterruptibles;
 
 import io.github.ytung.tractor.ai.AiController;
 import io.github.ytung.tractor.ai.BayesianAiClientV2;
 import io.github.ytung.tractor.api.Card;
 import io.github.ytung.tractor.api.FindAFriendDeclaration;
 import io.github.ytung.tractor.api.GameStatus;
+import io.github.ytung.tractor.api.HandDelta;
 import io.github.ytung.tractor.api.IncomingMessage;
 import io.github.ytung.tractor.api.IncomingMessage.AddAiRequest;
 import io.github.ytung.tractor.api.IncomingMessage.DeclareRequest;
@@ -46,6 +47,7 @@ import io.github.ytung.tractor.api.IncomingMessage.PlayerScoreRequest;
 import io.github.ytung.tractor.api.IncomingMessage.ReadyForPlayRequest;
 import io.github.ytung.tractor.api.IncomingMessage.RejoinRequest;
 import io.github.ytung.tractor.api.IncomingMessage.RemovePlayerRequest;
+import io.github.ytung.tractor.api.IncomingMessage.ResyncRequest;
 import io.github.ytung.tractor.api.IncomingMessage.SetNameRequest;
 import io.github.ytung.tractor.api.IncomingMessage.TakeBackRequest;
 import io.github.ytung.tractor.api.OutgoingMessage;
@@ -90,6 +92,20 @@ public class TractorRoom {
      */
     private static final boolean DEV_MODE = false;
 
+    /**
+     * When this flag is on, messages that change hands carry a {@link HandDelta} instead of every
+     * player's full hand, and draws leave out the deck, which the client shrinks by the drawn cards.
+     * Clients get the full hands (and their version) only when they connect, when a round starts, or
+     * when they ask for a resync after missing a delta.
+     */
+    private static final boolean HAND_DELTAS = true;
+
+    /**
+     * A client that connects with this header (or query parameter) set to "binary" over a websocket
+     * gets the {@link BinaryWireFormat} instead of JSON, starting with its dictionary.
+     */
+    private static final String WIRE_FORMAT_HEADER = "X-Tractor-Wire";
+
     private final Set<AtmosphereResource> resources = ConcurrentHashMap.newKeySet();
 
     private final BiMap<String, AtmosphereResource> humanControllers = Maps.synchronizedBiMap(HashBiMap.create());
@@ -97,7 +113,16 @@ public class TractorRoom {
 
     private final Map<String, String> playerNames = new ConcurrentHashMap<>();
     private final Map<String, Boolean> playerReadyForPlay = new ConcurrentHashMap<>();
-    private final Game game = new Game();
+    // replaced once if the room was restored from a checkpoint, see takeRestoredRoom
+    private volatile Game game = new Game();
+    private boolean tookRestoredRoom = false;
+    private volatile ScheduledFuture<?> scheduledTask;
+    // everything sent to clients, in order; see send
+    private final RoomOutbox outbox = new RoomOutbox();
+    // the clients that negotiated the binary wire format; guarded by binaryWireFormat, which is also
+    // held while a client is registered and sent its full room state (see onReady)
+    private final Set<AtmosphereResource> binaryResources = ConcurrentHashMap.newKeySet();
+    private final BinaryWireFormat binaryWireFormat = new BinaryWireFormat();
 
     @PathParam("roomCode")
     private String roomCode;
@@ -108,93 +133,84 @@ public class TractorRoom {
             r.write(JacksonEncoder.INSTANCE.encode(new LeaveRoom()));
             return;
         }
+        takeRestoredRoom();
 
         resources.add(r);
-
-        Set<String> unmappedPlayerIds = game.getPlayerIds().stream()
-            .filter(playerId -> !humanControllers.containsKey(playerId) && !aiControllers.containsKey(playerId))
-            .collect(Collectors.toSet());
+        GameSnapshot snapshot;
         String myPlayerId = null;
+        // a binary client only knows the player table from its full room state on, so nothing may be
+        // broadcast to it between registering it and queueing that state
+        synchronized (binaryWireFormat) {
+            if ("binary".equals(getWireFormat(r)) && r.transport() == AtmosphereResource.TRANSPORT.WEBSOCKET) {
+                r.forceBinaryWrite(true);
+                binaryResources.add(r);
+                outbox.send(r, BinaryWireFormat.dictionaryFrame());
+            }
+
+            snapshot = game.getSnapshot();
+            Set<String> unmappedPlayerIds = snapshot.getPlayerIds().stream()
+                .filter(playerId -> !humanControllers.containsKey(playerId) && !aiControllers.containsKey(playerId))
+                .collect(Collectors.toSet());
+            if (unmappedPlayerIds.isEmpty() && snapshot.getStatus() == GameStatus.START_ROUND) {
+                snapshot = addHumanController(r);
+                myPlayerId = r.uuid();
+            }
 
-        if (unmappedPlayerIds.isEmpty() && game.getStatus() == GameStatus.START_ROUND) {
-            addHumanController(r);
-            myPlayerId = r.uuid();
-            broadcastUpdatePlayers(r.getBroadcaster());
+            write(r, getFullRoomState(snapshot, myPlayerId));
         }
 
-        r.write(JacksonEncoder.INSTANCE.encode(new FullRoomState(
-            game.getPlayerIds(),
-            game.getNumDecks(),
-            game.isFindAFriend(),
-            game.getRoundNumber(),
-            game.getStarterPlayerIndex(),
-            game.getPlayerRankScores(),
-            game.getWinningPlayerIds(),
-            game.getStatus(),
-            game.getCurrentPlayerIndex(),
-            game.getIsDeclaringTeam(),
-            game.getDeck(),
-            game.getPublicCards(),
-            game.getPlayerHands(),
-            game.getDeclaredCards(),
-            game.getKitty(),
-            game.getFindAFriendDeclaration(),
-            game.getPastTricks(),
-            game.getCurrentTrick(),
-            game.getCurrentRoundScores(),
-            game.getCurrentRoundPenalties(),
-            game.getCurrentTrump(),
-            game.getKittySize(),
-            humanControllers.keySet(),
-            aiControllers.keySet(),
-            playerNames,
-            playerReadyForPlay,
-            myPlayerId)));
+        if (myPlayerId != null)
+            broadcastUpdatePlayers(r.getBroadcaster(), snapshot);
     }
 
     @Disconnect
     public void onDisconnect(AtmosphereResourceEvent r) {
         resources.remove(r.getResource());
+        binaryResources.remove(r.getResource());
+        outbox.remove(r.getResource());
 
         String playerId = humanControllers.inverse().get(r.getResource());
         if (playerId == null)
             return;
 
         humanControllers.remove(playerId);
-        sendSync(r.broadcaster(), new DisconnectMessage(playerId));
+        send(r.broadcaster(), new DisconnectMessage(playerId));
         broadcastUpdatePlayers(r.broadcaster());
     }
 
-    @Message(decoders = {JacksonDecoder.class})
+    @Message(decoders = {JacksonDecoder.class, BinaryDecoder.class})
     @DeliverTo(DeliverTo.DELIVER_TO.BROADCASTER)
     public void onMessage(AtmosphereResource r, IncomingMessage message) throws Exception {
         if (!TractorLobby.roomExists(roomCode))
             return;
+        takeRestoredRoom();
 
         if (message instanceof RejoinRequest) {
             String playerId = ((RejoinRequest) message).getPlayerId();
-            if (game.getPlayerIds().contains(playerId)
+            GameSnapshot snapshot = game.getSnapshot();
+            if (snapshot.getPlayerIds().contains(playerId)
                     && !humanControllers.containsKey(playerId)
                     && !humanControllers.containsValue(r)
                     && !aiControllers.containsKey(playerId)) {
                 humanControllers.put(playerId, r);
-                sendSync(playerId, r.getBroadcaster(), new CardInfo(game.getPrivateCards(playerId)));
-                sendSync(playerId, r.getBroadcaster(), new Rejoin(playerId));
+                send(playerId, r.getBroadcaster(), new CardInfo(snapshot.getPrivateCards(playerId)));
+                send(playerId, r.getBroadcaster(), new Rejoin(playerId));
                 broadcastUpdatePlayers(r.getBroadcaster());
-                sendSync(r.getBroadcaster(), new ReconnectMessage(playerId));
+                send(r.getBroadcaster(), new ReconnectMessage(playerId));
             } else {
-                if (game.getStatus() == GameStatus.START_ROUND) {
-                    addHumanController(r);
-                    broadcastUpdatePlayers(r.getBroadcaster());
-                }
-                r.write(JacksonEncoder.INSTANCE.encode(new Rejoin(r.uuid())));
+                if (snapshot.getStatus() == GameStatus.START_ROUND)
+                    broadcastUpdatePlayers(r.getBroadcaster(), addHumanController(r));
+                write(r, new Rejoin(r.uuid()));
             }
         }
 
+        if (message instanceof ResyncRequest)
+            write(r, getFullRoomState(game.getSnapshot(), humanControllers.inverse().get(r)));
+
         if (message instanceof RemovePlayerRequest) {
             String removePlayerId = ((RemovePlayerRequest) message).getPlayerId();
             if (removePlayerId == null)
-                r.write(JacksonEncoder.INSTANCE.encode(new LeaveRoom()));
+                write(r, new LeaveRoom());
         }
 
         String playerId = humanControllers.inverse().get(r);
@@ -213,17 +229,17 @@ public class TractorRoom {
 
         if (message instanceof PlayerOrderRequest) {
             List<String> playerIds = ((PlayerOrderRequest) message).getPlayerIds();
-            game.setPlayerOrder(playerIds);
+            GameSnapshot snapshot = game.setPlayerOrder(playerIds);
             playerReadyForPlay.replaceAll((k, v) -> v=false);
-            broadcastUpdatePlayers(broadcaster);
+            broadcastUpdatePlayers(broadcaster, snapshot);
         }
 
         if (message instanceof PlayerScoreRequest) {
             String updatedPlayerId = ((PlayerScoreRequest) message).getPlayerId();
             boolean increment = ((PlayerScoreRequest) message).isIncrement();
-            game.updatePlayerScore(updatedPlayerId, increment);
+            GameSnapshot snapshot = game.updatePlayerScore(updatedPlayerId, increment);
             playerReadyForPlay.replaceAll((k, v) -> v=false);
-            broadcastUpdatePlayers(broadcaster);
+            broadcastUpdatePlayers(broadcaster, snapshot);
         }
 
         if (message instanceof AddAiRequest) {
@@ -232,59 +248,61 @@ public class TractorRoom {
             String aiPlayerId = UUID.randomUUID().toString();
             aiControllers.put(aiPlayerId, new AiController(aiPlayerId, new BayesianAiClientV2()));
             playerNames.put(aiPlayerId, Names.generateRandomName());
-            game.addPlayer(aiPlayerId);
-            broadcastUpdatePlayers(broadcaster);
+            broadcastUpdatePlayers(broadcaster, game.addPlayer(aiPlayerId));
         }
 
         if (message instanceof RemovePlayerRequest) {
             String removePlayerId = ((RemovePlayerRequest) message).getPlayerId();
-            if (game.getStatus() == GameStatus.START_ROUND) {
+            GameSnapshot snapshot = game.getSnapshot();
+            if (snapshot.getStatus() == GameStatus.START_ROUND) {
                 if (aiControllers.containsKey(removePlayerId)) {
                     aiControllers.remove(removePlayerId);
                     playerNames.remove(removePlayerId);
-                    game.removePlayer(removePlayerId);
-                } else if (game.getPlayerIds().contains(removePlayerId)) {
+                    snapshot = game.removePlayer(removePlayerId);
+                } else if (snapshot.getPlayerIds().contains(removePlayerId)) {
                     if (removePlayerId.equals(playerId) || !humanControllers.containsKey(removePlayerId)) {
                         playerNames.remove(removePlayerId);
                         playerReadyForPlay.remove(removePlayerId);
-                        game.removePlayer(removePlayerId);
+                        snapshot = game.removePlayer(removePlayerId);
                     }
                 }
-                broadcastUpdatePlayers(broadcaster);
+                broadcastUpdatePlayers(broadcaster, snapshot);
+                maybeDeleteCheckpoint();
                 if (removePlayerId.equals(playerId))
-                    sendSync(playerId, broadcaster, new LeaveRoom());
+                    send(playerId, broadcaster, new LeaveRoom());
             }
         }
 
         if (message instanceof GameConfigurationRequest) {
             game.setNumDecks(((GameConfigurationRequest) message).getNumDecks());
-            game.setFindAFriend(((GameConfigurationRequest) message).isFindAFriend());
+            GameSnapshot snapshot = game.setFindAFriend(((GameConfigurationRequest) message).isFindAFriend());
             playerReadyForPlay.replaceAll((k, v) -> v=false);
-            sendSync(broadcaster, new GameConfiguration(
-                game.getNumDecks(),
-                game.isFindAFriend(),
-                game.getKittySize(),
+            send(broadcaster, new GameConfiguration(
+                snapshot.getNumDecks(),
+                snapshot.isFindAFriend(),
+                snapshot.getKittySize(),
                 playerReadyForPlay));
         }
 
         if (message instanceof DeclareRequest) {
             List<Integer> cardIds = ((DeclareRequest) message).getCardIds();
             try {
-                game.declare(playerId, cardIds);
-                Map<Integer, Card> cardsById = game.getCardsById();
-                sendSync(broadcaster, new CardInfo(Maps.toMap(cardIds, cardsById::get)));
+                GameSnapshot snapshot = game.declare(playerId, cardIds);
+                Map<Integer, Card> cardsById = snapshot.getCardsById();
+                send(broadcaster, new CardInfo(Maps.toMap(cardIds, cardsById::get)));
                 playerReadyForPlay.replaceAll((k, v) -> v=false);
-                sendSync(broadcaster, new Declare(
+                send(broadcaster, new Declare(
                     playerId,
-                    game.getStarterPlayerIndex(),
-                    game.getIsDeclaringTeam(),
-                    game.getDeck(),
-                    game.getPlayerHands(),
-                    game.getDeclaredCards(),
-                    game.getCurrentTrump(),
+                    snapshot.getStarterPlayerIndex(),
+                    snapshot.getIsDeclaringTeam(),
+                    snapshot.getDeck(),
+                    getPlayerHands(snapshot),
+                    getHandDelta(snapshot),
+                    snapshot.getDeclaredCards(),
+                    snapshot.getCurrentTrump(),
                     playerReadyForPlay));
             } catch (InvalidDeclareException e) {
-                sendSync(playerId, broadcaster, new InvalidAction(e.getMessage()));
+                send(playerId, broadcaster, new InvalidAction(e.getMessage()));
             }
         }
 
@@ -292,38 +310,40 @@ public class TractorRoom {
             if (playerReadyForPlay.containsKey(playerId))
                 playerReadyForPlay.put(playerId, ((ReadyForPlayRequest) message).isReady());
             if (!playerReadyForPlay.containsValue(false) || DEV_MODE) {
-                if (game.getStatus() == GameStatus.START_ROUND)
+                GameSnapshot snapshot = game.getSnapshot();
+                if (snapshot.getStatus() == GameStatus.START_ROUND)
                     startRound(broadcaster);
-                else if (game.getStatus() == GameStatus.DRAW_KITTY)
+                else if (snapshot.getStatus() == GameStatus.DRAW_KITTY)
                     maybeExposeBottomCardsAndDealKitty(broadcaster);
                 else
                     throw new IllegalStateException();
                 playerReadyForPlay.replaceAll((k, v) -> v=false); // reset for next time
             }
-            sendSync(broadcaster, new ReadyForPlay(playerReadyForPlay));
+            send(broadcaster, new ReadyForPlay(playerReadyForPlay));
         }
 
         if (message instanceof FindAFriendDeclarationRequest) {
             FindAFriendDeclaration declaration = ((FindAFriendDeclarationRequest) message).getDeclaration();
             try {
-                game.makeFindAFriendDeclaration(playerId, declaration);
-                sendSync(broadcaster, new FindAFriendDeclarationMessage(game.getStatus(), game.getFindAFriendDeclaration()));
+                GameSnapshot snapshot = game.makeFindAFriendDeclaration(playerId, declaration);
+                send(broadcaster, new FindAFriendDeclarationMessage(snapshot.getStatus(), snapshot.getFindAFriendDeclaration()));
             } catch (InvalidFindAFriendDeclarationException e) {
-                sendSync(playerId, broadcaster, new InvalidAction(e.getMessage()));
+                send(playerId, broadcaster, new InvalidAction(e.getMessage()));
             }
         }
 
         if (message instanceof MakeKittyRequest) {
             List<Integer> cardIds = ((MakeKittyRequest) message).getCardIds();
             try {
-                game.makeKitty(playerId, cardIds);
-                sendSync(broadcaster, new MakeKitty(
-                    game.getStatus(),
-                    game.getKitty(),
-                    game.getPlayerHands(),
-                    game.getCurrentTrick()));
+                GameSnapshot snapshot = game.makeKitty(playerId, cardIds);
+                send(broadcaster, new MakeKitty(
+                    snapshot.getStatus(),
+                    snapshot.getKitty(),
+                    getPlayerHands(snapshot),
+                    getHandDelta(snapshot),
+                    snapshot.getCurrentTrick()));
             } catch (InvalidKittyException e) {
-                sendSync(playerId, broadcaster, new InvalidAction(e.getMessage()));
+                send(playerId, broadcaster, new InvalidAction(e.getMessage()));
             }
         }
 
@@ -332,207 +352,327 @@ public class TractorRoom {
             boolean confirmSpecialPlay = ((PlayRequest) message).isConfirmSpecialPlay();
             try {
                 PlayResult result = game.play(playerId, cardIds, confirmSpecialPlay);
-                Map<Integer, Card> cardsById = game.getCardsById();
-                sendSync(broadcaster, new CardInfo(Maps.toMap(cardIds, cardsById::get)));
-                sendSync(broadcaster, new PlayMessage(
-                    game.getCurrentPlayerIndex(),
-                    game.getPlayerHands(),
-                    game.getCurrentTrick()));
+                GameSnapshot snapshot = result.getSnapshot();
+                Map<Integer, Card> cardsById = snapshot.getCardsById();
+                send(broadcaster, new CardInfo(Maps.toMap(cardIds, cardsById::get)));
+                send(broadcaster, new PlayMessage(
+                    snapshot.getCurrentPlayerIndex(),
+                    getPlayerHands(snapshot),
+                    getHandDelta(snapshot),
+                    snapshot.getCurrentTrick()));
                 if (result.isTrickComplete())
                     scheduleFinishTrick(broadcaster);
                 if (result.isDidFriendJoin())
-                    sendSync(broadcaster, new FriendJoined(playerId, game.getIsDeclaringTeam(), game.getFindAFriendDeclaration()));
+                    send(broadcaster, new FriendJoined(playerId, snapshot.getIsDeclaringTeam(), snapshot.getFindAFriendDeclaration()));
                 if (result.isBadSpecialPlay())
-                    sendSync(broadcaster, new InvalidSpecialPlay(playerId, game.getCurrentRoundPenalties()));
+                    send(broadcaster, new InvalidSpecialPlay(playerId, snapshot.getCurrentRoundPenalties()));
             } catch (InvalidPlayException e) {
-                sendSync(playerId, broadcaster, new InvalidAction(e.getMessage()));
+                send(playerId, broadcaster, new InvalidAction(e.getMessage()));
             } catch (ConfirmSpecialPlayException e) {
-                sendSync(playerId, broadcaster, new ConfirmSpecialPlay(cardIds));
+                send(playerId, broadcaster, new ConfirmSpecialPlay(cardIds));
             }
         }
 
         if (message instanceof TakeBackRequest) {
-            game.takeBack(playerId);
-            sendSync(broadcaster, new TakeBack(
+            GameSnapshot snapshot = game.takeBack(playerId);
+            send(broadcaster, new TakeBack(
                 playerId,
-                game.getCurrentPlayerIndex(),
-                game.getIsDeclaringTeam(),
-                game.getPlayerHands(),
-                game.getFindAFriendDeclaration(),
-                game.getPastTricks(),
-                game.getCurrentTrick(),
-                game.getCurrentRoundScores()));
+                snapshot.getCurrentPlayerIndex(),
+                snapshot.getIsDeclaringTeam(),
+                getPlayerHands(snapshot),
+                getHandDelta(snapshot),
+                snapshot.getFindAFriendDeclaration(),
+                snapshot.getPastTricks(),
+                snapshot.getCurrentTrick(),
+                snapshot.getCurrentRoundScores()));
         }
 
         if (message instanceof ForfeitRequest) {
-            game.forfeitRound(playerId);
-            finishRound(broadcaster);
-            sendSync(broadcaster, new Forfeit(playerId));
+            // e.g. a trick that was about to be finished
+            cancelScheduledTask();
+            GameSnapshot snapshot = game.forfeitRound(playerId);
+            saveCheckpoint();
+            finishRound(broadcaster, snapshot);
+            send(broadcaster, new Forfeit(playerId));
         }
     }
 
-    private void addHumanController(AtmosphereResource r) {
+    /**
+     * If the server restored this room at startup, takes over the players and game from its
+     * checkpoint. The room code is only injected after construction, so this happens when the first
+     * client connects. Players rejoin the restored game as usual.
+     */
+    private synchronized void takeRestoredRoom() {
+        if (tookRestoredRoom)
+            return;
+        tookRestoredRoom = true;
+
+        RoomCheckpoints.RestoredRoom restoredRoom = RoomCheckpoints.takeRestoredRoom(roomCode);
+        if (restoredRoom == null)
+            return;
+        playerNames.putAll(restoredRoom.getPlayerNames());
+        for (String aiPlayerId : restoredRoom.getAiPlayerIds())
+            aiControllers.put(aiPlayerId, new AiController(aiPlayerId, new BayesianAiClientV2()));
+        for (String playerId : restoredRoom.getGame().getSnapshot().getPlayerIds())
+            if (!aiControllers.containsKey(playerId))
+                playerReadyForPlay.put(playerId, false);
+        game = restoredRoom.getGame();
+    }
+
+    /**
+     * Queues the room to be saved, so that it can be restored if the server restarts. The file is
+     * written in the background; queueing is serialized, so that an older checkpoint never replaces
+     * a newer one.
+     */
+    private synchronized void saveCheckpoint() {
+        RoomCheckpoints.save(roomCode, game.checkpoint(), playerNames, aiControllers.keySet());
+    }
+
+    /**
+     * Deletes the room's checkpoint once no human players are left in the game, since nobody could
+     * rejoin it after a restart.
+     */
+    private synchronized void maybeDeleteCheckpoint() {
+        if (game.getSnapshot().getPlayerIds().stream().allMatch(aiControllers::containsKey))
+            RoomCheckpoints.delete(roomCode);
+    }
+
+    /**
+     * Adds the client to the game as a new player, and returns the snapshot that this published.
+     */
+    private GameSnapshot addHumanController(AtmosphereResource r) {
         String playerId = r.uuid();
         humanControllers.put(playerId, r);
         playerNames.put(playerId, Names.generateRandomName());
         playerReadyForPlay.put(playerId, false);
-        game.addPlayer(playerId);
+        return game.addPlayer(playerId);
     }
 
     private void startRound(Broadcaster broadcaster) {
-        game.startRound();
-        sendSync(broadcaster, new StartRound(
-            game.getRoundNumber(),
-            game.getStarterPlayerIndex(),
-            game.getStatus(),
-            game.getCurrentPlayerIndex(),
-            game.getIsDeclaringTeam(),
-            game.getDeck(),
+        GameSnapshot snapshot = game.startRound();
+        send(broadcaster, new StartRound(
+            snapshot.getRoundNumber(),
+            snapshot.getStarterPlayerIndex(),
+            snapshot.getStatus(),
+            snapshot.getCurrentPlayerIndex(),
+            snapshot.getIsDeclaringTeam(),
+            snapshot.getDeck(),
             new HashMap<>(), // no cards are known at beginning
-            game.getPlayerHands(),
-            game.getDeclaredCards(),
-            game.getExposedBottomCards(),
-            game.getKitty(),
-            game.getFindAFriendDeclaration(),
-            game.getPastTricks(),
-            game.getCurrentTrick(),
-            game.getCurrentRoundScores(),
-            game.getCurrentRoundPenalties(),
-            game.getCurrentTrump()));
+            snapshot.getPlayerHands(),
+            snapshot.getHandsVersion(),
+            snapshot.getDeclaredCards(),
+            snapshot.getExposedBottomCards(),
+            snapshot.getKitty(),
+            snapshot.getFindAFriendDeclaration(),
+            snapshot.getPastTricks(),
+            snapshot.getCurrentTrick(),
+            snapshot.getCurrentRoundScores(),
+            snapshot.getCurrentRoundPenalties(),
+            snapshot.getCurrentTrump()));
 
         if (DEV_MODE)
-            sendSync(broadcaster, new CardInfo(game.getCardsById()));
-
-        Thread dealingThread = new Thread() {
-            @Override
-            public void run() {
-                Map<Integer, Card> cardsById = game.getCardsById();
-                while (true) {
-                    Play draw = game.draw();
-                    if (draw == null)
-                        break;
-                    sendSync(draw.getPlayerId(), broadcaster, new CardInfo(Maps.toMap(draw.getCardIds(), cardsById::get)));
-                    sendSync(broadcaster, new Draw(
-                        game.getStatus(),
-                        game.getCurrentPlayerIndex(),
-                        game.getDeck(),
-                        game.getPlayerHands()));
-                    Uninterruptibles.sleepUninterruptibly((DEV_MODE ? 10 : 1200) / game.getPlayerIds().size(), TimeUnit.MILLISECONDS);
-                }
-            }
-        };
+            send(broadcaster, new CardInfo(snapshot.getCardsById()));
 
-        dealingThread.setDaemon(true);
-        dealingThread.start();
+        schedule(() -> dealCard(broadcaster, snapshot.getCardsById()), 0);
     }
 
-    private void maybeExposeBottomCardsAndDealKitty(Broadcaster broadcaster) {
-        if (game.getDeclaredCards().isEmpty()) {
-            game.exposeBottomCards();
-            sendSync(broadcaster, new CardInfo(Maps.toMap(game.getExposedBottomCards(), game.getCardsById()::get)));
-            sendSync(broadcaster, new ExposeBottomCards(
-                game.getStatus(),
-                game.getPlayerHands(),
-                game.getExposedBottomCards(),
-                game.getCurrentTrump()));
-            Thread dealingThread = new Thread() {
-                @Override
-                public void run() {
-                    Uninterruptibles.sleepUninterruptibly(5000, TimeUnit.MILLISECONDS);
-                    dealKitty(broadcaster);
-                }
-            };
+    /**
+     * The next player draws a card, and the next card is scheduled, until the deck runs out. While
+     * the room's clients are behind on messages, dealing pauses until they catch up.
+     */
+    private void dealCard(Broadcaster broadcaster, Map<Integer, Card> cardsById) {
+        if (outbox.isBackedUp()) {
+            schedule(() -> dealCard(broadcaster, cardsById), 100);
+            return;
+        }
+        DrawResult draw = game.draw();
+        if (draw == null)
+            return;
+        GameSnapshot afterDraw = draw.getSnapshot();
+        Play play = draw.getPlay();
+        send(play.getPlayerId(), broadcaster, new CardInfo(Maps.toMap(play.getCardIds(), cardsById::get)));
+        send(broadcaster, new Draw(
+            afterDraw.getStatus(),
+            afterDraw.getCurrentPlayerIndex(),
+            getDeck(afterDraw),
+            getPlayerHands(afterDraw),
+            getHandDelta(afterDraw)));
+        schedule(() -> dealCard(broadcaster, cardsById), (DEV_MODE ? 10 : 1200) / afterDraw.getPlayerIds().size());
+    }
 
-            dealingThread.setDaemon(true);
-            dealingThread.start();
+    private void maybeExposeBottomCardsAndDealKitty(Broadcaster broadcaster) {
+        if (game.getSnapshot().getDeclaredCards().isEmpty()) {
+            GameSnapshot snapshot = game.exposeBottomCards();
+            send(broadcaster, new CardInfo(Maps.toMap(snapshot.getExposedBottomCards(), snapshot.getCardsById()::get)));
+            send(broadcaster, new ExposeBottomCards(
+                snapshot.getStatus(),
+                getPlayerHands(snapshot),
+                getHandDelta(snapshot),
+                snapshot.getExposedBottomCards(),
+                snapshot.getCurrentTrump()));
+            schedule(() -> dealKitty(broadcaster), 5000);
         } else {
             dealKitty(broadcaster);
         }
     }
 
     private void dealKitty(Broadcaster broadcaster) {
-        Play kitty = game.takeKitty();
-        if (kitty == null)
+        DrawResult result = game.takeKitty();
+        if (result == null)
             return;
-        sendSync(kitty.getPlayerId(), broadcaster, new CardInfo(Maps.toMap(kitty.getCardIds(), game.getCardsById()::get)));
-        sendSync(broadcaster, new TakeKitty(
-                game.getStatus(),
-                game.getCurrentPlayerIndex(),
-                game.getDeck(),
-                game.getPlayerHands()));
+        GameSnapshot snapshot = result.getSnapshot();
+        Play kitty = result.getPlay();
+        send(kitty.getPlayerId(), broadcaster, new CardInfo(Maps.toMap(kitty.getCardIds(), snapshot.getCardsById()::get)));
+        send(broadcaster, new TakeKitty(
+                snapshot.getStatus(),
+                snapshot.getCurrentPlayerIndex(),
+                getDeck(snapshot),
+                getPlayerHands(snapshot),
+                getHandDelta(snapshot)));
     }
 
     private void scheduleFinishTrick(Broadcaster broadcaster) {
-        Thread finishTrickThread = new Thread() {
-            @Override
-            public void run() {
-                Uninterruptibles.sleepUninterruptibly(1500, TimeUnit.MILLISECONDS);
-                game.finishTrick();
-                sendSync(broadcaster, new FinishTrick(
-                    game.getCurrentPlayerIndex(),
-                    game.getPastTricks(),
-                    game.getCurrentTrick(),
-                    game.getCurrentRoundScores(),
-                    game.getCurrentTrump()));
-                if (game.getStatus() != GameStatus.PLAY)
-                    finishRound(broadcaster);
-            }
-        };
+        schedule(() -> {
+            GameSnapshot snapshot = game.finishTrick();
+            saveCheckpoint();
+            send(broadcaster, new FinishTrick(
+                snapshot.getCurrentPlayerIndex(),
+                snapshot.getPastTricks(),
+                snapshot.getCurrentTrick(),
+                snapshot.getCurrentRoundScores(),
+                snapshot.getCurrentTrump()));
+            if (snapshot.getStatus() != GameStatus.PLAY)
+                finishRound(broadcaster, snapshot);
+        }, 1500);
+    }
+
+    /**
+     * Runs the task on the shared {@link RoomScheduler} after the delay. Only one task of a room is
+     * pending at a time (the phases of a round follow each other), and it can be cancelled with
+     * {@link #cancelScheduledTask}.
+     */
+    private void schedule(Runnable task, long delayMillis) {
+        scheduledTask = RoomScheduler.INSTANCE.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
 
-        finishTrickThread.setDaemon(true);
-        finishTrickThread.start();
+    private void cancelScheduledTask() {
+        ScheduledFuture<?> task = scheduledTask;
+        if (task != null)
+            task.cancel(false);
     }
 
-    private void finishRound(Broadcaster broadcaster) {
+    private void finishRound(Broadcaster broadcaster, GameSnapshot snapshot) {
         // game end, send kitty card info to all players
-        sendSync(broadcaster, new FinishRound(
-            game.getRoundNumber(),
-            game.getStarterPlayerIndex(),
-            game.getWinningPlayerIds(),
-            game.getPlayerRankScores(),
-            game.getStatus()));
-        sendSync(broadcaster, new CardInfo(Maps.toMap(game.getKitty(), game.getCardsById()::get)));
+        send(broadcaster, new FinishRound(
+            snapshot.getRoundNumber(),
+            snapshot.getStarterPlayerIndex(),
+            snapshot.getWinningPlayerIds(),
+            snapshot.getPlayerRankScores(),
+            snapshot.getStatus()));
+        send(broadcaster, new CardInfo(Maps.toMap(snapshot.getKitty(), snapshot.getCardsById()::get)));
 
         // add any current observers to the game
         Set<AtmosphereResource> observers = Sets.filter(resources, r -> !humanControllers.containsValue(r));
         if (!observers.isEmpty()) {
+            GameSnapshot afterObservers = null;
             for (AtmosphereResource observer : observers)
-                addHumanController(observer);
-            broadcastUpdatePlayers(broadcaster);
+                afterObservers = addHumanController(observer);
+            broadcastUpdatePlayers(broadcaster, afterObservers);
         }
     }
 
+    private List<Integer> getDeck(GameSnapshot snapshot) {
+        return HAND_DELTAS ? null : snapshot.getDeck();
+    }
+
+    private Map<String, List<Integer>> getPlayerHands(GameSnapshot snapshot) {
+        return HAND_DELTAS ? null : snapshot.getPlayerHands();
+    }
+
+    private HandDelta getHandDelta(GameSnapshot snapshot) {
+        return HAND_DELTAS ? snapshot.getHandDelta() : null;
+    }
+
+    private FullRoomState getFullRoomState(GameSnapshot snapshot, String myPlayerId) {
+        return new FullRoomState(
+            snapshot.getPlayerIds(),
+            snapshot.getNumDecks(),
+            snapshot.isFindAFriend(),
+            snapshot.getRoundNumber(),
+            snapshot.getStarterPlayerIndex(),
+            snapshot.getPlayerRankScores(),
+            snapshot.getWinningPlayerIds(),
+            snapshot.getStatus(),
+            snapshot.getCurrentPlayerIndex(),
+            snapshot.getIsDeclaringTeam(),
+            snapshot.getDeck(),
+            snapshot.getPublicCards(),
+            snapshot.getPlayerHands(),
+            snapshot.getHandsVersion(),
+            snapshot.getDeclaredCards(),
+            snapshot.getKitty(),
+            snapshot.getFindAFriendDeclaration(),
+            snapshot.getPastTricks(),
+            snapshot.getCurrentTrick(),
+            snapshot.getCurrentRoundScores(),
+            snapshot.getCurrentRoundPenalties(),
+            snapshot.getCurrentTrump(),
+            snapshot.getKittySize(),
+            humanControllers.keySet(),
+            aiControllers.keySet(),
+            playerNames,
+            playerReadyForPlay,
+            myPlayerId);
+    }
+
     private void broadcastUpdatePlayers(Broadcaster broadcaster) {
-        sendSync(broadcaster, new UpdatePlayers(
-            game.getPlayerIds(),
-            game.getPlayerRankScores(),
-            game.isFindAFriend(),
-            game.getKittySize(),
+        broadcastUpdatePlayers(broadcaster, game.getSnapshot());
+    }
+
+    private void broadcastUpdatePlayers(Broadcaster broadcaster, GameSnapshot snapshot) {
+        send(broadcaster, new UpdatePlayers(
+            snapshot.getPlayerIds(),
+            snapshot.getPlayerRankScores(),
+            snapshot.isFindAFriend(),
+            snapshot.getKittySize(),
             aiControllers.keySet(),
             humanControllers.keySet(),
             playerNames,
             playerReadyForPlay));
     }
 
-    private void sendSync(String playerId, Broadcaster broadcaster, OutgoingMessage message) {
-        if (humanControllers.containsKey(playerId))
-            try {
-                humanControllers.get(playerId).write(JacksonEncoder.INSTANCE.encode(message));
-            } catch (RuntimeException e) {
-                // client disconnected, ignore
-            }
+    private String getWireFormat(AtmosphereResource r) {
+        String wireFormat = r.getRequest().getHeader(WIRE_FORMAT_HEADER);
+        return wireFormat != null ? wireFormat : r.getRequest().getParameter(WIRE_FORMAT_HEADER);
+    }
+
+    private void send(String playerId, Broadcaster broadcaster, OutgoingMessage message) {
+        AtmosphereResource r = humanControllers.get(playerId);
+        if (r != null)
+            write(r, message);
         else if (aiControllers.containsKey(playerId))
             aiControllers.get(playerId).processMessage(game, message, inputMessage -> handleGameMessage(playerId, broadcaster, inputMessage));
     }
 
-    private void sendSync(Broadcaster broadcaster, OutgoingMessage message) {
-        try {
-            broadcaster.broadcast(JacksonEncoder.INSTANCE.encode(message)).get();
-        } catch (ExecutionException | InterruptedException e) {
-            throw new IllegalStateException(e);
+    private void send(Broadcaster broadcaster, OutgoingMessage message) {
+        String json = JacksonEncoder.INSTANCE.encode(message);
+        // binary frames must reach clients in the order they were encoded, see BinaryWireFormat
+        synchronized (binaryWireFormat) {
+            Set<AtmosphereResource> binary = ImmutableSet.copyOf(binaryResources);
+            outbox.broadcast(broadcaster, json, binary.isEmpty() ? null : binaryWireFormat.encode(message, true, false), binary);
         }
         aiControllers.forEach((playerId, aiController) -> {
             aiController.processMessage(game, message, inputMessage -> handleGameMessage(playerId, broadcaster, inputMessage));
         });
     }
+
+    private void write(AtmosphereResource r, OutgoingMessage message) {
+        if (!binaryResources.contains(r)) {
+            outbox.send(r, JacksonEncoder.INSTANCE.encode(message));
+            return;
+        }
+        synchronized (binaryWireFormat) {
+            outbox.send(r, binaryWireFormat.encode(message, false, message instanceof FullRoomState));
+        }
+    }
 }
@@ -25,6 +25,13 @@ public class TractorServer extends Application<Configuration> {
     @Override
     public void run(Configuration configuration, Environment environment) throws Exception {
         environment.jersey().setUrlPattern("/api/*");
+        RoomScheduler.INSTANCE.registerMetrics(environment.metrics());
+        RoomOutbox.registerMetrics(environment.metrics());
+        JacksonEncoder.registerMetrics(environment.metrics());
+
+        long startTime = System.nanoTime();
+        int numRestoredRooms = RoomCheckpoints.restoreAll();
+        System.out.printf("Restored %d rooms in %d ms%n", numRestoredRooms, (System.nanoTime() - startTime) / 1_000_000);
 
         AtmosphereServlet servlet = new AtmosphereServlet();
         servlet.framework().addInitParameter("com.sun.jersey.config.property.packages", "io.github.ytung.tractor");
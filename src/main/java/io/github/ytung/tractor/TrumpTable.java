@@ -0,0 +1,112 @@
+package io.github.ytung.tractor;
+
+import java.util.BitSet;
+import java.util.Collection;
+
+import io.github.ytung.tractor.Cards.Grouping;
+import io.github.ytung.tractor.api.Card;
+
+/**
+ * Trump-dependent lookups for every card in a round: its {@link Cards#grouping}, its
+ * {@link Cards#rank}, and the key used to sort hands. The table only needs to be rebuilt when the
+ * trump changes, which cannot happen once the round is in the play phase.
+ */
+public final class TrumpTable {
+
+    private static final Grouping[] GROUPINGS = Grouping.values();
+
+    /**
+     * Ranks are in [0, NUM_RANKS); the big joker has the highest rank.
+     */
+    public static final int NUM_RANKS = Card.Value.BIG_JOKER.ordinal() + 2;
+
+    private final CardTable cardTable;
+    private final Card trump;
+    private final int version;
+    private final byte[] groupings;
+    private final byte[] ranks;
+    private final int[] sortKeys;
+    private final BitSet[] groupingCards = new BitSet[GROUPINGS.length];
+
+    public TrumpTable(CardTable cardTable, Card trump, int version) {
+        this.cardTable = cardTable;
+        this.trump = trump;
+        this.version = version;
+        this.groupings = new byte[cardTable.size()];
+        this.ranks = new byte[cardTable.size()];
+        this.sortKeys = new int[cardTable.size()];
+
+        // Ensure same-colored suits are generally not next to each other
+        Grouping[] order = trump != null && (trump.getSuit() == Card.Suit.DIAMOND || trump.getSuit() == Card.Suit.SPADE)
+                ? new Grouping[] {Grouping.DIAMOND, Grouping.CLUB, Grouping.HEART, Grouping.SPADE, Grouping.TRUMP}
+                : new Grouping[] {Grouping.CLUB, Grouping.DIAMOND, Grouping.SPADE, Grouping.HEART, Grouping.TRUMP};
+        int[] groupingOrder = new int[GROUPINGS.length];
+        for (int i = 0; i < order.length; i++)
+            groupingOrder[order[i].ordinal()] = i;
+        for (int i = 0; i < groupingCards.length; i++)
+            groupingCards[i] = new BitSet(cardTable.size());
+
+        for (int cardId : cardTable.getCardIds()) {
+            int index = cardTable.index(cardId);
+            Card card = cardTable.get(cardId);
+            Grouping grouping = Cards.grouping(card, trump);
+            int rank = trump == null ? card.getValue().ordinal() : Cards.rank(card, trump);
+            groupings[index] = (byte) grouping.ordinal();
+            ranks[index] = (byte) rank;
+            sortKeys[index] = groupingOrder[grouping.ordinal()] * 1000 + rank * 10 + card.getSuit().ordinal();
+            groupingCards[grouping.ordinal()].set(index);
+        }
+    }
+
+    public Card getTrump() {
+        return trump;
+    }
+
+    /**
+     * A number that changes every time the trump table is rebuilt, so that results derived from
+     * this table can be cached against it.
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    public CardTable getCardTable() {
+        return cardTable;
+    }
+
+    public Grouping getGrouping(int cardId) {
+        return GROUPINGS[groupings[cardTable.index(cardId)]];
+    }
+
+    /**
+     * The indices (see {@link CardTable#index}) of every card in the grouping. Callers must not
+     * modify the returned bitset.
+     */
+    public BitSet getGroupingCards(Grouping grouping) {
+        return groupingCards[grouping.ordinal()];
+    }
+
+    /**
+     * Returns the grouping shared by all of the cards, or null if they are not all in the same
+     * grouping.
+     */
+    public Grouping getGrouping(Collection<Integer> cardIds) {
+        int grouping = -1;
+        for (int cardId : cardIds) {
+            int cardGrouping = groupings[cardTable.index(cardId)];
+            if (grouping == -1)
+                grouping = cardGrouping;
+            else if (grouping != cardGrouping)
+                return null;
+        }
+        return grouping == -1 ? null : GROUPINGS[grouping];
+    }
+
+    public int getRank(int cardId) {
+        return ranks[cardTable.index(cardId)];
+    }
+
+    public int getSortKey(int cardId) {
+        return sortKeys[cardTable.index(cardId)];
+    }
+}
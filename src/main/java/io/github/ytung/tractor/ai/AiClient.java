@@ -2,32 +2,36 @@ package io.github.ytung.tractor.ai;
 
 import java.util.Collection;
 
-import io.github.ytung.tractor.Game;
+import io.github.ytung.tractor.GameSnapshot;
 import io.github.ytung.tractor.api.FindAFriendDeclaration;
 
+/**
+ * Decides what an AI player does. Each decision is made from a single {@link GameSnapshot}, which
+ * doesn't change while the AI thinks, however the game moves on in the meantime.
+ */
 public interface AiClient {
 
     /**
      * Given a game in the draw phase where you have some cards in hand, return the cardIds that you
      * wish to declare, or return null if you do not wish to declare (yet).
      */
-    Collection<Integer> declare(String myPlayerId, Game game);
+    Collection<Integer> declare(String myPlayerId, GameSnapshot snapshot);
 
     /**
      * Given a game in the make kitty phase and you are about to make the kitty, return the cardIds
      * for the kitty you wish to make.
      */
-    Collection<Integer> makeKitty(String myPlayerId, Game game);
+    Collection<Integer> makeKitty(String myPlayerId, GameSnapshot snapshot);
 
     /**
      * Given a game in the declare friend phase and you are about to declare a friend, return your
      * declaration.
      */
-    FindAFriendDeclaration setFindAFriendDeclaration(String myPlayerId, Game game);
+    FindAFriendDeclaration setFindAFriendDeclaration(String myPlayerId, GameSnapshot snapshot);
 
     /**
      * Given a game in the play phase and you are about to play, return the cardIds that you wish to
      * play.
      */
-    Collection<Integer> play(String myPlayerId, Game game);
+    Collection<Integer> play(String myPlayerId, GameSnapshot snapshot);
 }
@@ -5,6 +5,7 @@ import java.util.Collection;
 import java.util.function.Consumer;
 
 import io.github.ytung.tractor.Game;
+import io.github.ytung.tractor.GameSnapshot;
 import io.github.ytung.tractor.api.GameStatus;
 import io.github.ytung.tractor.api.IncomingMessage;
 import io.github.ytung.tractor.api.IncomingMessage.DeclareRequest;
@@ -26,8 +27,12 @@ public class AiController {
             throw new IllegalStateException(((InvalidAction) message).getMessage());
         }
 
-        if (game.getStatus() == GameStatus.DRAW) {
-            Collection<Integer> declaredCardIds = client.declare(myPlayerId, game);
+        // decide whether and how to act from a single snapshot, so that the checks below and the
+        // client's decision all agree with each other
+        GameSnapshot snapshot = game.getSnapshot();
+
+        if (snapshot.getStatus() == GameStatus.DRAW) {
+            Collection<Integer> declaredCardIds = client.declare(myPlayerId, snapshot);
             if (declaredCardIds != null) {
                 DeclareRequest request = new DeclareRequest();
                 request.setCardIds(new ArrayList<>(declaredCardIds));
@@ -35,28 +40,28 @@ public class AiController {
             }
         }
 
-        if (game.getStatus() == GameStatus.MAKE_KITTY
-                && game.getCurrentPlayerIndex() != -1
-                && game.getPlayerIds().get(game.getCurrentPlayerIndex()).equals(myPlayerId)
-                && game.getKitty().isEmpty()) {
+        if (snapshot.getStatus() == GameStatus.MAKE_KITTY
+                && snapshot.getCurrentPlayerIndex() != -1
+                && snapshot.getPlayerIds().get(snapshot.getCurrentPlayerIndex()).equals(myPlayerId)
+                && snapshot.getKitty().isEmpty()) {
             MakeKittyRequest request = new MakeKittyRequest();
-            request.setCardIds(new ArrayList<>(client.makeKitty(myPlayerId, game)));
+            request.setCardIds(new ArrayList<>(client.makeKitty(myPlayerId, snapshot)));
             send.accept(request);
         }
 
-        if (game.getStatus() == GameStatus.DECLARE_FRIEND
-                && game.getPlayerIds().get(game.getCurrentPlayerIndex()).equals(myPlayerId)
-                && game.getFindAFriendDeclaration() == null) {
+        if (snapshot.getStatus() == GameStatus.DECLARE_FRIEND
+                && snapshot.getPlayerIds().get(snapshot.getCurrentPlayerIndex()).equals(myPlayerId)
+                && snapshot.getFindAFriendDeclaration() == null) {
             FindAFriendDeclarationRequest request = new FindAFriendDeclarationRequest();
-            request.setDeclaration(client.setFindAFriendDeclaration(myPlayerId, game));
+            request.setDeclaration(client.setFindAFriendDeclaration(myPlayerId, snapshot));
             send.accept(request);
         }
 
-        if (game.getStatus() == GameStatus.PLAY
-                && game.getCurrentPlayerIndex() != -1
-                && game.getPlayerIds().get(game.getCurrentPlayerIndex()).equals(myPlayerId)) {
+        if (snapshot.getStatus() == GameStatus.PLAY
+                && snapshot.getCurrentPlayerIndex() != -1
+                && snapshot.getPlayerIds().get(snapshot.getCurrentPlayerIndex()).equals(myPlayerId)) {
             PlayRequest request = new PlayRequest();
-            request.setCardIds(new ArrayList<>(client.play(myPlayerId, game)));
+            request.setCardIds(new ArrayList<>(client.play(myPlayerId, snapshot)));
             request.setConfirmSpecialPlay(true);
             send.accept(request);
         }
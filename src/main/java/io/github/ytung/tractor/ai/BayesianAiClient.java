@@ -14,10 +14,11 @@ import java.util.stream.IntStream;
 
 import com.google.common.collect.Maps;
 
-import io.github.ytung.tractor.Cards;
+import io.github.ytung.tractor.CardTable;
 import io.github.ytung.tractor.Cards.Grouping;
 import io.github.ytung.tractor.Component;
-import io.github.ytung.tractor.Game;
+import io.github.ytung.tractor.GameSnapshot;
+import io.github.ytung.tractor.TrumpTable;
 import io.github.ytung.tractor.api.Card;
 import io.github.ytung.tractor.api.Play;
 import io.github.ytung.tractor.api.Trick;
@@ -28,31 +29,31 @@ public class BayesianAiClient extends SimpleAiClient {
     private static final double EPS = 1e-6;
 
     @Override
-    public Collection<Integer> play(String myPlayerId, Game game) {
-        List<String> playerIds = game.getPlayerIds();
-        int numDecks = game.getNumDecks();
-        Map<Integer, Card> cardsById = game.getCardsById();
-        Trick currentTrick = game.getCurrentTrick();
-        Card trump = game.getCurrentTrump();
+    public Collection<Integer> play(String myPlayerId, GameSnapshot snapshot) {
+        List<String> playerIds = snapshot.getPlayerIds();
+        int numDecks = snapshot.getNumDecks();
+        CardTable cardTable = snapshot.getCardTable();
+        Trick currentTrick = snapshot.getCurrentTrick();
+        TrumpTable trumpTable = snapshot.getTrumpTable();
 
         Map<ProbKey, Double> probTable = new HashMap<>();
         for (String playerId : playerIds)
-            for (int cardId : cardsById.keySet())
+            for (int cardId : cardTable.getCardIds())
                 for (int numExisting = 0; numExisting < numDecks; numExisting++)
                     probTable.put(new ProbKey(playerId, cardId, numExisting), 1.);
 
         // compute the various probabilities of each player having which cards
-        for (Trick trick : game.getAllTricks()) {
+        for (Trick trick : snapshot.getAllTricks()) {
             List<Play> plays = trick.getPlays();
             if (plays.isEmpty())
                 continue;
 
             List<Integer> startingCardIds = plays.get(0).getCardIds();
-            Grouping startingGrouping = game.getGrouping(startingCardIds);
+            Grouping startingGrouping = snapshot.getGrouping(startingCardIds);
 
             for (Play play : plays) {
                 List<Integer> cardIds = play.getCardIds();
-                Grouping grouping = game.getGrouping(cardIds);
+                Grouping grouping = snapshot.getGrouping(cardIds);
 
                 // these cards are definitely no longer in hand
                 for (int cardId : cardIds)
@@ -62,19 +63,19 @@ public class BayesianAiClient extends SimpleAiClient {
 
                 // if the player isn't following suit, then they definitely don't have any more
                 if (grouping != startingGrouping)
-                    for (int cardId : cardsById.keySet())
-                        if (Cards.grouping(cardsById.get(cardId), trump) == startingGrouping)
+                    for (int cardId : cardTable.getCardIds())
+                        if (trumpTable.getGrouping(cardId) == startingGrouping)
                             probTable.put(new ProbKey(play.getPlayerId(), cardId, 0), 0.);
             }
         }
 
         // the cards that are in my hand are definitely in my hand by tautology
-        for (int cardId : game.getPlayerHands().get(myPlayerId))
+        for (int cardId : snapshot.getPlayerHands().get(myPlayerId))
             for (int numExisting = 0; numExisting < numDecks; numExisting++)
                 probTable.put(new ProbKey(myPlayerId, cardId, numExisting), 1000000.);
 
         // normalize the probability table
-        for (int cardId : cardsById.keySet())
+        for (int cardId : cardTable.getCardIds())
             IntStream.range(0, numDecks).forEach(numExisting -> {
                 double totalProb = playerIds.stream()
                     .mapToDouble(playerId -> probTable.get(new ProbKey(playerId, cardId, numExisting)) + EPS)
@@ -87,13 +88,13 @@ public class BayesianAiClient extends SimpleAiClient {
         // This only looks at the short-term of the current trick, and has no long-term goal
         double bestScore = Double.NEGATIVE_INFINITY;
         Collection<Integer> bestPlay = null;
-        for (Collection<Integer> myPlay : getCandidatePlays(myPlayerId, game)) {
+        for (Collection<Integer> myPlay : getCandidatePlays(myPlayerId, snapshot)) {
             Trick currentTrickWithMyPlay = new Trick(currentTrick.getStartPlayerId());
             currentTrickWithMyPlay.getPlays().addAll(currentTrick.getPlays());
             currentTrickWithMyPlay.getPlays().add(new Play(myPlayerId, new ArrayList<>(myPlay)));
-            currentTrickWithMyPlay.setWinningPlayerId(game.winningPlayerId(currentTrickWithMyPlay));
+            currentTrickWithMyPlay.setWinningPlayerId(snapshot.winningPlayerId(currentTrickWithMyPlay));
 
-            double score = score(myPlayerId, game, currentTrickWithMyPlay, probTable);
+            double score = score(myPlayerId, snapshot, currentTrickWithMyPlay, probTable);
             if (score > bestScore) {
                 bestScore = score;
                 bestPlay = myPlay;
@@ -107,27 +108,24 @@ public class BayesianAiClient extends SimpleAiClient {
      * sorted; a downstream processor will determine which play is the best. This list is also not
      * exhaustive; often, various other combinations of losing plays are not considered.
      */
-    private List<Collection<Integer>> getCandidatePlays(String myPlayerId, Game game) {
-        Map<Integer, Card> cardsById = game.getCardsById();
-        Card trump = game.getCurrentTrump();
+    private List<Collection<Integer>> getCandidatePlays(String myPlayerId, GameSnapshot snapshot) {
+        TrumpTable trumpTable = snapshot.getTrumpTable();
         Map<Grouping, List<Integer>> myHandByGrouping = Maps.toMap(
             Arrays.asList(Grouping.values()),
-            grouping -> game.getPlayerHands().get(myPlayerId).stream()
-                .filter(cardId -> Cards.grouping(cardsById.get(cardId), trump) == grouping)
-                .collect(Collectors.toList()));
-        Trick currentTrick = game.getCurrentTrick();
+            grouping -> snapshot.getPlayerHand(myPlayerId, grouping));
+        Trick currentTrick = snapshot.getCurrentTrick();
 
         List<Collection<Integer>> candidatePlays = new ArrayList<>();
         if (currentTrick.getPlays().isEmpty()) {
             // If I lead, I can lead with any component
             for (Grouping grouping : myHandByGrouping.keySet()) {
-                List<Component> profile = game.getProfile(myHandByGrouping.get(grouping));
+                List<Component> profile = snapshot.getProfile(myHandByGrouping.get(grouping));
                 for (Component component : profile)
                     candidatePlays.add(component.getCardIds());
             }
         } else {
             List<Integer> startingCardIds = currentTrick.getPlays().get(0).getCardIds();
-            Grouping startingGrouping = game.getGrouping(startingCardIds);
+            Grouping startingGrouping = snapshot.getGrouping(startingCardIds);
 
             String winningPlayerId = currentTrick.getWinningPlayerId();
             Play winningPlay = currentTrick.getPlays().stream()
@@ -135,8 +133,8 @@ public class BayesianAiClient extends SimpleAiClient {
                 .findFirst()
                 .get();
             List<Integer> winningCardIds = winningPlay.getCardIds();
-            Grouping winningGrouping = game.getGrouping(winningCardIds);
-            List<Component> winningProfile = game.getProfile(winningCardIds);
+            Grouping winningGrouping = snapshot.getGrouping(winningCardIds);
+            List<Component> winningProfile = new ArrayList<>(snapshot.getProfile(winningCardIds));
             // Optimization: ensure I try to beat the largest component first, etc.
             // Otherwise, I might use up a card in my pair to beat a single, and then not be able to beat the pair
             Collections.sort(
@@ -148,7 +146,7 @@ public class BayesianAiClient extends SimpleAiClient {
             if (myHandByGrouping.get(startingGrouping).isEmpty()) {
                 // If I'm out of the current suit, find the ways I can beat the play with trump
                 findWinningCandidatePlays(
-                    game,
+                    snapshot,
                     winningProfile,
                     myHandByGrouping.get(Grouping.TRUMP),
                     winningGrouping == Grouping.TRUMP,
@@ -156,7 +154,7 @@ public class BayesianAiClient extends SimpleAiClient {
             } else if (winningGrouping == startingGrouping) {
                 // Find the ways I can beat the play in the same suit
                 findWinningCandidatePlays(
-                    game,
+                    snapshot,
                     winningProfile,
                     myHandByGrouping.get(winningGrouping),
                     true,
@@ -168,7 +166,7 @@ public class BayesianAiClient extends SimpleAiClient {
             // We assume that one of these is the optimal; i.e. we never give only *some* points
             for (boolean playPoints : Arrays.asList(true, false))
                 candidatePlays.add(findLosingCandidatePlay(
-                    game,
+                    snapshot,
                     startingCardIds,
                     startingGrouping,
                     myHandByGrouping,
@@ -178,19 +176,18 @@ public class BayesianAiClient extends SimpleAiClient {
     }
 
     private void findWinningCandidatePlays(
-            Game game,
+            GameSnapshot snapshot,
             List<Component> winningProfile,
             List<Integer> myCardIds,
             boolean areMyCardIdsInSameSuit,
             List<Collection<Integer>> candidatePlays) {
-        List<Component> myProfile = game.getProfile(myCardIds);
+        List<Component> myProfile = new ArrayList<>(snapshot.getProfile(myCardIds));
         Collections.sort(
             myProfile,
             Comparator.<Component, Integer> comparing(component -> component.getShape().getWidth())
                 .thenComparing(component -> component.getShape().getHeight()));
         findWinningCandidatePlays(
-            game.getCardsById(),
-            game.getCurrentTrump(),
+            snapshot.getTrumpTable(),
             winningProfile,
             new ArrayList<>(myCardIds),
             myProfile,
@@ -200,8 +197,7 @@ public class BayesianAiClient extends SimpleAiClient {
     }
 
     private void findWinningCandidatePlays(
-            Map<Integer, Card> cardsById,
-            Card trump,
+            TrumpTable trumpTable,
             List<Component> winningProfile,
             List<Integer> myCardIds,
             List<Component> myProfile,
@@ -229,7 +225,7 @@ public class BayesianAiClient extends SimpleAiClient {
                     && (!areMyCardIdsInSameSuit || myComponent.getMaxRank() > winningComponent.getMaxRank())) {
                 // prune down to correct number of cards in correct shape
                 List<Integer> cardIds = myComponent.getCardIds().stream()
-                    .sorted(Comparator.comparing(cardId -> Cards.rank(cardsById.get(cardId), trump)))
+                    .sorted(Comparator.comparingInt(trumpTable::getRank))
                     .collect(Collectors.toList());
                 List<Integer> prunedCardIds = new ArrayList<>();
                 for (int i = 0; i < winningComponent.getShape().getWidth(); i++)
@@ -239,8 +235,7 @@ public class BayesianAiClient extends SimpleAiClient {
                 myCardIds.removeAll(prunedCardIds);
                 myComponents.add(prunedCardIds);
                 findWinningCandidatePlays(
-                    cardsById,
-                    trump,
+                    trumpTable,
                     winningProfile,
                     myCardIds,
                     myProfile,
@@ -253,25 +248,24 @@ public class BayesianAiClient extends SimpleAiClient {
     }
 
     private List<Integer> findLosingCandidatePlay(
-            Game game,
+            GameSnapshot snapshot,
             List<Integer> startingCardIds,
             Grouping startingGrouping,
             Map<Grouping, List<Integer>> myHandByGrouping,
             boolean playPoints) {
-        Map<Integer, Card> cardsById = game.getCardsById();
-        Card trump = game.getCurrentTrump();
+        TrumpTable trumpTable = snapshot.getTrumpTable();
 
-        List<Component> startingProfile = game.getProfile(startingCardIds);
+        List<Component> startingProfile = snapshot.getProfile(startingCardIds);
         int maxWidth = startingProfile.stream().mapToInt(component -> component.getShape().getWidth()).max().orElse(0);
 
         return myHandByGrouping.values().stream()
-            .flatMap(cardIds -> game.getProfile(cardIds).stream())
+            .flatMap(cardIds -> snapshot.getProfile(cardIds).stream())
             .sorted(Comparator.comparing(component -> {
                 // Scoring function that first prioritizes cards that you *must* play (e.g. same suit, smaller width)
                 // Then prioritizes lower cards and components with smaller width since you can't win anyway
-                Grouping grouping = game.getGrouping(component.getCardIds());
+                Grouping grouping = snapshot.getGrouping(component.getCardIds());
 
-                int score = (playPoints ? -100 : 100) * game.totalCardScore(component.getCardIds())
+                int score = (playPoints ? -100 : 100) * snapshot.totalCardScore(component.getCardIds())
                         + component.getMaxRank();
                 if (grouping == startingGrouping) {
                     if (component.getShape().getWidth() <= maxWidth) {
@@ -289,7 +283,7 @@ public class BayesianAiClient extends SimpleAiClient {
                 return score;
             }))
             .flatMap(component -> component.getCardIds().stream()
-                .sorted(Comparator.comparing(cardId -> Cards.rank(cardsById.get(cardId), trump))))
+                .sorted(Comparator.comparingInt(trumpTable::getRank)))
             .limit(startingCardIds.size())
             .collect(Collectors.toList());
     }
@@ -297,15 +291,15 @@ public class BayesianAiClient extends SimpleAiClient {
     /**
      * Scoring function for a particular play
      */
-    private double score(String myPlayerId, Game game, Trick currentTrickWithMyPlay, Map<ProbKey, Double> probTable) {
-        List<String> playerIds = game.getPlayerIds();
-        Map<String, Boolean> isDeclaringTeam = game.getIsDeclaringTeam();
-        Map<Integer, Card> cardsById = game.getCardsById();
-        Card trump = game.getCurrentTrump();
+    private double score(String myPlayerId, GameSnapshot snapshot, Trick currentTrickWithMyPlay, Map<ProbKey, Double> probTable) {
+        List<String> playerIds = snapshot.getPlayerIds();
+        Map<String, Boolean> isDeclaringTeam = snapshot.getIsDeclaringTeam();
+        CardTable cardTable = snapshot.getCardTable();
+        TrumpTable trumpTable = snapshot.getTrumpTable();
 
         int startingPlayerIndex = playerIds.indexOf(currentTrickWithMyPlay.getStartPlayerId());
         List<Integer> startingPlay = currentTrickWithMyPlay.getPlays().get(0).getCardIds();
-        List<Component> startingComponents = game.getProfile(startingPlay);
+        List<Component> startingComponents = snapshot.getProfile(startingPlay);
 
         List<String> remainingPlayerIds = new ArrayList<>();
         for (int i = currentTrickWithMyPlay.getPlays().size(); i < playerIds.size(); i++)
@@ -316,31 +310,30 @@ public class BayesianAiClient extends SimpleAiClient {
         // Only compute probabilities if a single type of card is played.
         // (Otherwise, it's too complicated - just assume the currently winning player wins.)
         if (startingComponents.size() == 1 && startingComponents.get(0).getShape().getHeight() == 1) {
-            Card startingCard = cardsById.get(startingPlay.get(0));
-            Grouping startingGrouping = Cards.grouping(startingCard, trump);
+            Card startingCard = cardTable.get(startingPlay.get(0));
+            Grouping startingGrouping = trumpTable.getGrouping(startingPlay.get(0));
             int startingWidth = startingPlay.size();
 
             // Compute the probability that each player is out of the suit
             Map<String, Double> outOfSuitProbabilities = new HashMap<>(Maps.toMap(playerIds, key -> 1.));
             for (String playerId : playerIds)
-                cardsById.forEach((cardId, card) -> {
-                    if (Cards.grouping(card, trump) == startingGrouping)
+                for (int cardId : cardTable.getCardIds())
+                    if (trumpTable.getGrouping(cardId) == startingGrouping)
                         outOfSuitProbabilities.compute(
                             playerId,
                             (key, prob) -> prob * (1 - probTable.get(new ProbKey(playerId, cardId, 0))));
-                });
 
             // Starting player has the kitty, so always give them at least a 30% chance of being out of a suit
             if (startingGrouping != Grouping.TRUMP)
-                outOfSuitProbabilities.compute(playerIds.get(game.getStarterPlayerIndex()), (key, prob) -> Math.max(prob, 0.3));
+                outOfSuitProbabilities.compute(playerIds.get(snapshot.getStarterPlayerIndex()), (key, prob) -> Math.max(prob, 0.3));
 
             // Go through every possible card that can beat the starting card,
             // starting from trumps (highest to lowest) than cards in the same suit (highest to lowest).
-            List<Integer> sortedCardIds = cardsById.keySet().stream()
-                .sorted(Comparator.comparing(cardId -> {
-                    Card card = cardsById.get(cardId);
-                    Grouping grouping = Cards.grouping(card, trump);
-                    int score = Cards.rank(card, trump);
+            List<Integer> sortedCardIds = Arrays.stream(cardTable.getCardIds())
+                .boxed()
+                .sorted(Comparator.<Integer, Integer>comparing(cardId -> {
+                    Grouping grouping = trumpTable.getGrouping(cardId);
+                    int score = trumpTable.getRank(cardId);
                     if (grouping == Grouping.TRUMP)
                         score += 1000;
                     else if (grouping == startingGrouping)
@@ -354,8 +347,8 @@ public class BayesianAiClient extends SimpleAiClient {
             // Then subtract that probability, and continue for the next card and player
             double remainingProbability = 1;
             for (int cardId : sortedCardIds) {
-                Card card = cardsById.get(cardId);
-                Grouping grouping = Cards.grouping(card, trump);
+                Card card = cardTable.get(cardId);
+                Grouping grouping = trumpTable.getGrouping(cardId);
 
                 // Stop once I get to this card; all later cards are smaller
                 if (card.equals(startingCard))
@@ -382,11 +375,13 @@ public class BayesianAiClient extends SimpleAiClient {
         double totalProb = winningProbabilities.values().stream().mapToDouble(prob -> prob).sum();
         winningProbabilities.compute(winningPlayerId, (key, prob) -> prob + 1 - totalProb);
 
+        int trickScore = 0;
+        for (Play play : currentTrickWithMyPlay.getPlays())
+            trickScore += snapshot.totalCardScore(play.getCardIds());
+
         double totalExpectedScore = 0;
         for (String playerId : playerIds) {
-            double expectedScore = 0;
-            for (Play play : currentTrickWithMyPlay.getPlays())
-                expectedScore += game.totalCardScore(play.getCardIds());
+            double expectedScore = trickScore;
 
             // As a heuristic, assume that members of the winning team will add an average of 5 points per card
             for (String remainingPlayerId : remainingPlayerIds)
@@ -6,106 +6,45 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.EnumMap;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
-import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Multimap;
-import com.google.common.collect.Sets;
 
-import io.github.ytung.tractor.Cards;
+import io.github.ytung.tractor.CardTable;
 import io.github.ytung.tractor.Cards.Grouping;
 import io.github.ytung.tractor.Component;
-import io.github.ytung.tractor.Game;
-import io.github.ytung.tractor.api.Card;
+import io.github.ytung.tractor.GameSnapshot;
+import io.github.ytung.tractor.TrumpTable;
 import io.github.ytung.tractor.api.Play;
 import io.github.ytung.tractor.api.Trick;
-import lombok.Data;
 
 public class BayesianAiClientV2 extends SimpleAiClient {
 
     @Override
-    public Collection<Integer> play(String myPlayerId, Game game) {
-        List<String> playerIds = game.getPlayerIds();
-        int numDecks = game.getNumDecks();
-        Map<Integer, Card> cardsById = game.getCardsById();
-        Trick currentTrick = game.getCurrentTrick();
-        Card trump = game.getCurrentTrump();
-
-        Map<ProbKey, Double> probTable = new HashMap<>();
-        for (String playerId : playerIds)
-            for (int cardId : cardsById.keySet())
-                for (int numExisting = 0; numExisting < numDecks; numExisting++)
-                    probTable.put(new ProbKey(playerId, cardId, numExisting), 1.);
-
-        // compute the various probabilities of each player having which cards
-        for (Trick trick : game.getAllTricks()) {
-            List<Play> plays = trick.getPlays();
-            if (plays.isEmpty())
-                continue;
-
-            List<Integer> startingCardIds = plays.get(0).getCardIds();
-            Grouping startingGrouping = game.getGrouping(startingCardIds);
-
-            for (Play play : plays) {
-                List<Integer> cardIds = play.getCardIds();
-                Grouping grouping = game.getGrouping(cardIds);
-
-                // these cards are definitely no longer in hand
-                for (int cardId : cardIds)
-                    for (String playerId : playerIds)
-                        for (int numExisting = 0; numExisting < numDecks; numExisting++)
-                            probTable.put(new ProbKey(playerId, cardId, numExisting), 0.);
-
-                // if the player isn't following suit, then they definitely don't have any more
-                if (grouping != startingGrouping)
-                    for (int cardId : cardsById.keySet())
-                        if (Cards.grouping(cardsById.get(cardId), trump) == startingGrouping)
-                            probTable.put(new ProbKey(play.getPlayerId(), cardId, 0), 0.);
-            }
-        }
-
-        // I know which cards are in my hand
-        for (int cardId : cardsById.keySet())
-            for (int numExisting = 0; numExisting < numDecks; numExisting++) {
-                probTable.put(
-                    new ProbKey(myPlayerId, cardId, numExisting),
-                    game.getPlayerHands().get(myPlayerId).contains(cardId) ? 1000000. : 0.);
-            }
-
-        // normalize the probability table
-        for (int cardId : cardsById.keySet())
-            IntStream.range(0, numDecks).forEach(numExisting -> {
-                double totalProb = playerIds.stream()
-                    .mapToDouble(playerId -> probTable.get(new ProbKey(playerId, cardId, numExisting)))
-                    .sum();
-                if (totalProb > 0)
-                    for (String playerId : playerIds)
-                        probTable.compute(new ProbKey(playerId, cardId, numExisting), (key, prob) -> prob / totalProb);
-            });
+    public Collection<Integer> play(String myPlayerId, GameSnapshot snapshot) {
+        Trick currentTrick = snapshot.getCurrentTrick();
+        CardProbabilities probabilities = new CardProbabilities(myPlayerId, snapshot);
 
         // Compute the expected future value of each of my possible plays
         Map<Collection<Integer>, Double> futureScores = new HashMap<>();
-        for (Collection<Integer> myPlay : getMyComponents(myPlayerId, game)) {
+        for (Collection<Integer> myPlay : getMyComponents(myPlayerId, snapshot)) {
             Trick currentTrickWithMyPlay = new Trick(myPlayerId);
             currentTrickWithMyPlay.getPlays().add(new Play(myPlayerId, new ArrayList<>(myPlay)));
-            futureScores.put(myPlay, score(myPlayerId, game, currentTrickWithMyPlay, probTable, true));
+            futureScores.put(myPlay, score(myPlayerId, snapshot, currentTrickWithMyPlay, probabilities, true));
         }
 
         // Find the play that gives me the highest expected score
         double bestScore = Double.NEGATIVE_INFINITY;
         Collection<Integer> bestPlay = null;
-        for (Collection<Integer> myPlay : getCandidatePlays(myPlayerId, game)) {
+        for (Collection<Integer> myPlay : getCandidatePlays(myPlayerId, snapshot)) {
             Trick currentTrickWithMyPlay = new Trick(currentTrick.getStartPlayerId());
             currentTrickWithMyPlay.getPlays().addAll(currentTrick.getPlays());
             currentTrickWithMyPlay.getPlays().add(new Play(myPlayerId, new ArrayList<>(myPlay)));
-            double currentScore = score(myPlayerId, game, currentTrickWithMyPlay, probTable, false);
+            double currentScore = score(myPlayerId, snapshot, currentTrickWithMyPlay, probabilities, false);
 
             // Discount by the expected future score (so as not optimize on only the current trick)
             double futureScore = 0;
@@ -127,23 +66,20 @@ public class BayesianAiClientV2 extends SimpleAiClient {
      * sorted; a downstream processor will determine which play is the best. This list is also not
      * exhaustive; often, various other combinations of losing plays are not considered.
      */
-    private List<Collection<Integer>> getCandidatePlays(String myPlayerId, Game game) {
-        Map<Integer, Card> cardsById = game.getCardsById();
-        Card trump = game.getCurrentTrump();
+    private List<Collection<Integer>> getCandidatePlays(String myPlayerId, GameSnapshot snapshot) {
+        TrumpTable trumpTable = snapshot.getTrumpTable();
         Map<Grouping, List<Integer>> myHandByGrouping = Maps.toMap(
             Arrays.asList(Grouping.values()),
-            grouping -> game.getPlayerHands().get(myPlayerId).stream()
-                .filter(cardId -> Cards.grouping(cardsById.get(cardId), trump) == grouping)
-                .collect(Collectors.toList()));
-        Trick currentTrick = game.getCurrentTrick();
+            grouping -> snapshot.getPlayerHand(myPlayerId, grouping));
+        Trick currentTrick = snapshot.getCurrentTrick();
 
         // If I lead, I can lead with any component
         if (currentTrick.getPlays().isEmpty())
-            return getMyComponents(myPlayerId, game);
+            return getMyComponents(myPlayerId, snapshot);
 
         // Otherwise, we have to pre-compute more things
         List<Integer> startingCardIds = currentTrick.getPlays().get(0).getCardIds();
-        Grouping startingGrouping = game.getGrouping(startingCardIds);
+        Grouping startingGrouping = snapshot.getGrouping(startingCardIds);
 
         String winningPlayerId = currentTrick.getWinningPlayerId();
         Play winningPlay = currentTrick.getPlays().stream()
@@ -151,8 +87,8 @@ public class BayesianAiClientV2 extends SimpleAiClient {
             .findFirst()
             .get();
         List<Integer> winningCardIds = winningPlay.getCardIds();
-        Grouping winningGrouping = game.getGrouping(winningCardIds);
-        List<Component> winningProfile = game.getProfile(winningCardIds);
+        Grouping winningGrouping = snapshot.getGrouping(winningCardIds);
+        List<Component> winningProfile = new ArrayList<>(snapshot.getProfile(winningCardIds));
         // Optimization: ensure I try to beat the largest component first, etc.
         // Otherwise, I might use up a card in my pair to beat a single, and then not be able to beat the pair
         Collections.sort(
@@ -165,7 +101,7 @@ public class BayesianAiClientV2 extends SimpleAiClient {
         if (myHandByGrouping.get(startingGrouping).isEmpty()) {
             // If I'm out of the current suit, find the ways I can beat the play with trump
             findWinningCandidatePlays(
-                game,
+                snapshot,
                 winningProfile,
                 myHandByGrouping.get(Grouping.TRUMP),
                 winningGrouping == Grouping.TRUMP,
@@ -173,7 +109,7 @@ public class BayesianAiClientV2 extends SimpleAiClient {
         } else if (winningGrouping == startingGrouping) {
             // Find the ways I can beat the play in the same suit
             findWinningCandidatePlays(
-                game,
+                snapshot,
                 winningProfile,
                 myHandByGrouping.get(winningGrouping),
                 true,
@@ -185,7 +121,7 @@ public class BayesianAiClientV2 extends SimpleAiClient {
         // We assume that one of these is the optimal; i.e. we never give only *some* points
         for (boolean playPoints : Arrays.asList(true, false))
             candidatePlays.add(findLosingCandidatePlay(
-                game,
+                snapshot,
                 startingCardIds,
                 startingGrouping,
                 myHandByGrouping,
@@ -194,18 +130,15 @@ public class BayesianAiClientV2 extends SimpleAiClient {
         return candidatePlays;
     }
 
-    private List<Collection<Integer>> getMyComponents(String myPlayerId, Game game) {
-        Map<Integer, Card> cardsById = game.getCardsById();
-        Card trump = game.getCurrentTrump();
+    private List<Collection<Integer>> getMyComponents(String myPlayerId, GameSnapshot snapshot) {
+        TrumpTable trumpTable = snapshot.getTrumpTable();
         Map<Grouping, List<Integer>> myHandByGrouping = Maps.toMap(
             Arrays.asList(Grouping.values()),
-            grouping -> game.getPlayerHands().get(myPlayerId).stream()
-                .filter(cardId -> Cards.grouping(cardsById.get(cardId), trump) == grouping)
-                .collect(Collectors.toList()));
+            grouping -> snapshot.getPlayerHand(myPlayerId, grouping));
 
         List<Collection<Integer>> components = new ArrayList<>();
         for (Grouping grouping : myHandByGrouping.keySet()) {
-            List<Component> profile = game.getProfile(myHandByGrouping.get(grouping));
+            List<Component> profile = snapshot.getProfile(myHandByGrouping.get(grouping));
             for (Component component : profile)
                 components.add(component.getCardIds());
         }
@@ -213,19 +146,18 @@ public class BayesianAiClientV2 extends SimpleAiClient {
     }
 
     private void findWinningCandidatePlays(
-            Game game,
+            GameSnapshot snapshot,
             List<Component> winningProfile,
             List<Integer> myCardIds,
             boolean areMyCardIdsInSameSuit,
             List<Collection<Integer>> candidatePlays) {
-        List<Component> myProfile = game.getProfile(myCardIds);
+        List<Component> myProfile = new ArrayList<>(snapshot.getProfile(myCardIds));
         Collections.sort(
             myProfile,
             Comparator.<Component, Integer> comparing(component -> component.getShape().getWidth())
                 .thenComparing(component -> component.getShape().getHeight()));
         findWinningCandidatePlays(
-            game.getCardsById(),
-            game.getCurrentTrump(),
+            snapshot.getTrumpTable(),
             winningProfile,
             new ArrayList<>(myCardIds),
             myProfile,
@@ -235,8 +167,7 @@ public class BayesianAiClientV2 extends SimpleAiClient {
     }
 
     private void findWinningCandidatePlays(
-            Map<Integer, Card> cardsById,
-            Card trump,
+            TrumpTable trumpTable,
             List<Component> winningProfile,
             List<Integer> myCardIds,
             List<Component> myProfile,
@@ -264,7 +195,7 @@ public class BayesianAiClientV2 extends SimpleAiClient {
                     && (!areMyCardIdsInSameSuit || myComponent.getMaxRank() > winningComponent.getMaxRank())) {
                 // prune down to correct number of cards in correct shape
                 List<Integer> cardIds = myComponent.getCardIds().stream()
-                    .sorted(Comparator.comparing(cardId -> Cards.rank(cardsById.get(cardId), trump)))
+                    .sorted(Comparator.comparingInt(trumpTable::getRank))
                     .collect(Collectors.toList());
                 List<Integer> prunedCardIds = new ArrayList<>();
                 for (int i = 0; i < winningComponent.getShape().getWidth(); i++)
@@ -274,8 +205,7 @@ public class BayesianAiClientV2 extends SimpleAiClient {
                 myCardIds.removeAll(prunedCardIds);
                 myComponents.add(prunedCardIds);
                 findWinningCandidatePlays(
-                    cardsById,
-                    trump,
+                    trumpTable,
                     winningProfile,
                     myCardIds,
                     myProfile,
@@ -288,25 +218,24 @@ public class BayesianAiClientV2 extends SimpleAiClient {
     }
 
     private List<Integer> findLosingCandidatePlay(
-            Game game,
+            GameSnapshot snapshot,
             List<Integer> startingCardIds,
             Grouping startingGrouping,
             Map<Grouping, List<Integer>> myHandByGrouping,
             boolean playPoints) {
-        Map<Integer, Card> cardsById = game.getCardsById();
-        Card trump = game.getCurrentTrump();
+        TrumpTable trumpTable = snapshot.getTrumpTable();
 
-        List<Component> startingProfile = game.getProfile(startingCardIds);
+        List<Component> startingProfile = snapshot.getProfile(startingCardIds);
         int maxWidth = startingProfile.stream().mapToInt(component -> component.getShape().getWidth()).max().orElse(0);
 
         return myHandByGrouping.values().stream()
-            .flatMap(cardIds -> game.getProfile(cardIds).stream())
+            .flatMap(cardIds -> snapshot.getProfile(cardIds).stream())
             .sorted(Comparator.comparing(component -> {
                 // Scoring function that first prioritizes cards that you *must* play (e.g. same suit, smaller width)
                 // Then prioritizes lower cards and components with smaller width since you can't win anyway
-                Grouping grouping = game.getGrouping(component.getCardIds());
+                Grouping grouping = snapshot.getGrouping(component.getCardIds());
 
-                int score = (playPoints ? -100 : 100) * game.totalCardScore(component.getCardIds())
+                int score = (playPoints ? -100 : 100) * snapshot.totalCardScore(component.getCardIds())
                         + component.getMaxRank();
                 if (grouping == startingGrouping) {
                     if (component.getShape().getWidth() <= maxWidth) {
@@ -324,7 +253,7 @@ public class BayesianAiClientV2 extends SimpleAiClient {
                 return score;
             }))
             .flatMap(component -> component.getCardIds().stream()
-                .sorted(Comparator.comparing(cardId -> Cards.rank(cardsById.get(cardId), trump))))
+                .sorted(Comparator.comparingInt(trumpTable::getRank)))
             .limit(startingCardIds.size())
             .collect(Collectors.toList());
     }
@@ -332,17 +261,17 @@ public class BayesianAiClientV2 extends SimpleAiClient {
     /**
      * Scoring function for a particular play
      */
-    private double score(String myPlayerId, Game game, Trick currentTrickWithMyPlay, Map<ProbKey, Double> probTable, boolean isFuture) {
-        List<String> playerIds = game.getPlayerIds();
-        Map<String, Boolean> isDeclaringTeam = game.getIsDeclaringTeam();
-        Map<Integer, Card> cardsById = game.getCardsById();
-        Card trump = game.getCurrentTrump();
+    private double score(String myPlayerId, GameSnapshot snapshot, Trick currentTrickWithMyPlay, CardProbabilities probabilities, boolean isFuture) {
+        List<String> playerIds = snapshot.getPlayerIds();
+        Map<String, Boolean> isDeclaringTeam = snapshot.getIsDeclaringTeam();
+        CardTable cardTable = snapshot.getCardTable();
+        TrumpTable trumpTable = snapshot.getTrumpTable();
 
-        currentTrickWithMyPlay.setWinningPlayerId(game.winningPlayerId(currentTrickWithMyPlay));
+        currentTrickWithMyPlay.setWinningPlayerId(snapshot.winningPlayerId(currentTrickWithMyPlay));
 
         int startingPlayerIndex = playerIds.indexOf(currentTrickWithMyPlay.getStartPlayerId());
         List<Integer> startingPlay = currentTrickWithMyPlay.getPlays().get(0).getCardIds();
-        List<Component> startingComponents = game.getProfile(startingPlay);
+        List<Component> startingComponents = snapshot.getProfile(startingPlay);
 
         List<String> remainingPlayerIds = new ArrayList<>();
         for (int i = currentTrickWithMyPlay.getPlays().size(); i < playerIds.size(); i++)
@@ -353,82 +282,58 @@ public class BayesianAiClientV2 extends SimpleAiClient {
         // Only compute probabilities if a single type of card is played.
         // (Otherwise, it's too complicated - just assume the currently winning player wins.)
         if (startingComponents.size() == 1 && startingComponents.get(0).getShape().getHeight() == 1) {
-            Card startingCard = cardsById.get(startingPlay.get(0));
-            Grouping startingGrouping = Cards.grouping(startingCard, trump);
+            Grouping startingGrouping = trumpTable.getGrouping(startingPlay.get(0));
             int startingWidth = startingPlay.size();
 
             // Compute the probability that each player is out of the suit
-            Map<String, Double> outOfSuitProbabilities = new HashMap<>(Maps.toMap(playerIds, key -> 1.));
-            for (String playerId : playerIds)
-                cardsById.forEach((cardId, card) -> {
-                    if (Cards.grouping(card, trump) == startingGrouping)
-                        outOfSuitProbabilities.compute(
-                            playerId,
-                            (key, prob) -> prob * (1 - probTable.get(new ProbKey(playerId, cardId, 0))));
-                });
+            Map<String, Double> outOfSuitProbabilities = new HashMap<>();
+            for (int i = 0; i < playerIds.size(); i++)
+                outOfSuitProbabilities.put(playerIds.get(i), probabilities.getProbOutOfSuit(i, startingGrouping));
 
             // Starting player has the kitty, so always give them at least a 30% chance of being out of a suit
             if (startingGrouping != Grouping.TRUMP)
-                outOfSuitProbabilities.compute(playerIds.get(game.getStarterPlayerIndex()), (key, prob) -> Math.max(prob, 0.3));
+                outOfSuitProbabilities.compute(playerIds.get(snapshot.getStarterPlayerIndex()), (key, prob) -> Math.max(prob, 0.3));
 
             // Go through every possible card that can beat the starting card,
             // starting from trumps (highest to lowest) than cards in the same suit (highest to lowest).
-            List<Card> sortedCards = cardsById.values().stream()
-                .distinct()
-                .sorted(Comparator.<Card, Integer>comparing(card -> {
-                    Grouping grouping = Cards.grouping(card, trump);
-                    int score = Cards.rank(card, trump);
-                    if (grouping == Grouping.TRUMP)
-                        score += 1000;
-                    else if (grouping == startingGrouping)
-                        score += 100;
-                    return score;
-                }).reversed())
-                .collect(Collectors.toList());
-
-            Multimap<Card, Integer> cardIdsByCard = HashMultimap.create();
-            cardsById.forEach((cardId, card) -> cardIdsByCard.put(card, cardId));
+            List<Integer> sortedCardIds = new ArrayList<>();
+            if (startingGrouping != Grouping.TRUMP)
+                sortedCardIds.addAll(probabilities.getDistinctCardIds(Grouping.TRUMP));
+            sortedCardIds.addAll(probabilities.getDistinctCardIds(startingGrouping));
 
             // Now go through these possible cards
             // For each card and player, process the probability that the player has the card(s) (and therefore can win)
             // Then subtract that probability, and continue for the next card and player
             double remainingProbability = 1;
-            for (Card card : sortedCards) {
-                Grouping grouping = Cards.grouping(card, trump);
+            for (int cardId : sortedCardIds) {
+                Grouping grouping = trumpTable.getGrouping(cardId);
 
                 // Stop once I get to this card; all later cards are smaller
-                if (card.equals(startingCard))
+                if (cardTable.isSameCard(cardId, startingPlay.get(0)))
                     break;
 
-                Set<Integer> allCardIds = new HashSet<>(cardIdsByCard.get(card));
-                Map<Integer, Double> corrections = new HashMap<>(Maps.toMap(allCardIds, key -> 1.));
-                for (String playerId : remainingPlayerIds)
-                    for (Set<Integer> cardIds : Sets.combinations(allCardIds, startingWidth)) {
-                        List<Integer> cardIdsList = new ArrayList<>(cardIds);
-                        double probHaveCards = 1;
-                        for (int numExisting = 0; numExisting < startingWidth; numExisting++)
-                            probHaveCards *= probTable.get(new ProbKey(playerId, cardIdsList.get(numExisting), numExisting));
-
-                        // We know the previous players don't have the card, so that affects our probability:
-                        // the denominator is only the sum of the remaining players.
-                        // This is more complicated for > 1 card, so we ignore that correction if so.
-                        if (startingWidth == 0) {
-                            int cardId = cardIdsList.get(0);
-                            double correction = corrections.get(cardId);
-                            corrections.put(cardId, corrections.get(cardId) - probHaveCards);
-                            if (correction > 0)
-                                probHaveCards /= correction;
-                        }
-
-                        // if this is a trump, the player needs to also be out of the starting suit
-                        double probCanPlayCards = grouping == Grouping.TRUMP && startingGrouping != Grouping.TRUMP
-                                ? outOfSuitProbabilities.get(playerId)
-                                : 1;
-
-                        double probCanBeat = remainingProbability * probHaveCards * probCanPlayCards;
-                        winningProbabilities.compute(playerId, (key, prob) -> prob + probCanBeat);
-                        remainingProbability -= probCanBeat;
-                    }
+                // The player can beat the play with any startingWidth of the unseen copies. Every such
+                // combination is equally likely, so rather than going through them one by one, take
+                // the chance that none of them works out at once.
+                int kind = cardTable.getKind(cardId);
+                double numCombinations = numCombinations(probabilities.getNumUnseen(kind), startingWidth);
+                if (numCombinations == 0)
+                    continue;
+                for (String playerId : remainingPlayerIds) {
+                    int playerIndex = playerIds.indexOf(playerId);
+                    double probHaveCards = probabilities.getProbFirst(playerIndex, kind)
+                            * Math.pow(probabilities.getProbAnother(playerIndex, kind), startingWidth - 1);
+
+                    // if this is a trump, the player needs to also be out of the starting suit
+                    double probCanPlayCards = grouping == Grouping.TRUMP && startingGrouping != Grouping.TRUMP
+                            ? outOfSuitProbabilities.get(playerId)
+                            : 1;
+
+                    double probCannotBeat = Math.pow(1 - probHaveCards * probCanPlayCards, numCombinations);
+                    double probCanBeat = remainingProbability * (1 - probCannotBeat);
+                    winningProbabilities.compute(playerId, (key, prob) -> prob + probCanBeat);
+                    remainingProbability *= probCannotBeat;
+                }
             }
         }
 
@@ -442,7 +347,7 @@ public class BayesianAiClientV2 extends SimpleAiClient {
             // If I'm computing the expected value for the future, then the probability that I win changes.
             // Non-trump cards become less likely to win as others become void in the suit.
             // Trump cards are more likely, because you may be void in the suit.
-            if (game.getGrouping(startingPlay) != Grouping.TRUMP) {
+            if (snapshot.getGrouping(startingPlay) != Grouping.TRUMP) {
                 double penaltyProb = remainingProb * 0.5;
                 for (String playerId : playerIds)
                     winningProbabilities.compute(playerId, (key, prob) -> prob + penaltyProb / playerIds.size());
@@ -455,11 +360,13 @@ public class BayesianAiClientV2 extends SimpleAiClient {
             }
         }
 
+        int trickScore = 0;
+        for (Play play : currentTrickWithMyPlay.getPlays())
+            trickScore += snapshot.totalCardScore(play.getCardIds()) / startingPlay.size();
+
         double totalExpectedScore = 0;
         for (String playerId : playerIds) {
-            double expectedScore = 0;
-            for (Play play : currentTrickWithMyPlay.getPlays())
-                expectedScore += game.totalCardScore(play.getCardIds()) / startingPlay.size();
+            double expectedScore = trickScore;
 
             // As a heuristic, assume that members of the winning team will add an average of 5 points per card
             for (String remainingPlayerId : remainingPlayerIds)
@@ -481,15 +388,119 @@ public class BayesianAiClientV2 extends SimpleAiClient {
         return totalExpectedScore;
     }
 
+    private static double numCombinations(int n, int k) {
+        double numCombinations = 1;
+        for (int i = 0; i < k; i++)
+            numCombinations = numCombinations * (n - i) / (i + 1);
+        return numCombinations;
+    }
+
     /**
-     * The key for the probability of playerId having cardId, given that the player already has
-     * numExisting copies of the same card (value + suit).
+     * The probabilities of each player having each card. Copies of the same card (value + suit) are
+     * interchangeable, so rather than a probability for every card id and number of copies the player
+     * already has, this only keeps, for each distinct card, the number of copies that I haven't seen,
+     * the probability that a player has one of them, and the probability that they have another one
+     * given that they already have one. The tables are indexed by player index * NUM_KINDS + kind, so
+     * their size doesn't depend on the number of decks.
      */
-    @Data
-    private static class ProbKey {
+    private static class CardProbabilities {
+
+        private final Map<Grouping, List<Integer>> distinctCardIds = new EnumMap<>(Grouping.class);
+        private final int[] numUnseen = new int[CardTable.NUM_KINDS];
+        private final double[] probFirst;
+        private final double[] probAnother;
+        private final double[] probOutOfSuit;
+
+        CardProbabilities(String myPlayerId, GameSnapshot snapshot) {
+            List<String> playerIds = snapshot.getPlayerIds();
+            int myPlayerIndex = playerIds.indexOf(myPlayerId);
+            CardTable cardTable = snapshot.getCardTable();
+            TrumpTable trumpTable = snapshot.getTrumpTable();
+
+            // these cards are definitely no longer in hand, and
+            // if a player isn't following suit, then they definitely don't have any more
+            boolean[] isPlayed = new boolean[cardTable.size()];
+            boolean[][] isOutOfSuit = new boolean[playerIds.size()][Grouping.values().length];
+            for (Trick trick : snapshot.getAllTricks()) {
+                List<Play> plays = trick.getPlays();
+                if (plays.isEmpty())
+                    continue;
+
+                Grouping startingGrouping = snapshot.getGrouping(plays.get(0).getCardIds());
+                for (Play play : plays) {
+                    for (int cardId : play.getCardIds())
+                        isPlayed[cardTable.index(cardId)] = true;
+                    if (snapshot.getGrouping(play.getCardIds()) != startingGrouping)
+                        isOutOfSuit[playerIds.indexOf(play.getPlayerId())][startingGrouping.ordinal()] = true;
+                }
+            }
 
-        final String playerId;
-        final int cardId;
-        final int numExisting;
+            // I know which cards are in my hand, so only the others are unseen
+            boolean[] isMine = new boolean[cardTable.size()];
+            for (int cardId : snapshot.getPlayerHands().get(myPlayerId))
+                isMine[cardTable.index(cardId)] = true;
+            for (Grouping grouping : Grouping.values())
+                distinctCardIds.put(grouping, new ArrayList<>());
+            boolean[] isKindSeen = new boolean[CardTable.NUM_KINDS];
+            for (int cardId : cardTable.getCardIds()) {
+                int kind = cardTable.getKind(cardId);
+                if (!isKindSeen[kind]) {
+                    isKindSeen[kind] = true;
+                    distinctCardIds.get(trumpTable.getGrouping(cardId)).add(cardId);
+                }
+                if (!isPlayed[cardTable.index(cardId)] && !isMine[cardTable.index(cardId)])
+                    numUnseen[kind]++;
+            }
+
+            // each unseen copy is in one of the other players' hands, so normalize over them
+            probFirst = new double[playerIds.size() * CardTable.NUM_KINDS];
+            probAnother = new double[playerIds.size() * CardTable.NUM_KINDS];
+            probOutOfSuit = new double[playerIds.size() * Grouping.values().length];
+            Arrays.fill(probOutOfSuit, 1);
+            for (Grouping grouping : Grouping.values()) {
+                distinctCardIds.get(grouping).sort(Comparator.comparingInt(trumpTable::getRank).reversed());
+                for (int cardId : distinctCardIds.get(grouping)) {
+                    int kind = cardTable.getKind(cardId);
+                    int numCandidates = 0;
+                    for (int playerIndex = 0; playerIndex < playerIds.size(); playerIndex++)
+                        if (playerIndex != myPlayerIndex && !isOutOfSuit[playerIndex][grouping.ordinal()])
+                            numCandidates++;
+
+                    for (int playerIndex = 0; playerIndex < playerIds.size(); playerIndex++) {
+                        if (playerIndex == myPlayerIndex)
+                            continue;
+                        int i = playerIndex * CardTable.NUM_KINDS + kind;
+                        if (!isOutOfSuit[playerIndex][grouping.ordinal()])
+                            probFirst[i] = 1. / numCandidates;
+                        probAnother[i] = 1. / (playerIds.size() - 1);
+                        probOutOfSuit[playerIndex * Grouping.values().length + grouping.ordinal()] *=
+                                Math.pow(1 - probFirst[i], numUnseen[kind]);
+                    }
+                }
+            }
+        }
+
+        /**
+         * One card id of each distinct card (value + suit) in the grouping, from highest to lowest.
+         */
+        List<Integer> getDistinctCardIds(Grouping grouping) {
+            return distinctCardIds.get(grouping);
+        }
+
+        int getNumUnseen(int kind) {
+            return numUnseen[kind];
+        }
+
+        double getProbFirst(int playerIndex, int kind) {
+            return probFirst[playerIndex * CardTable.NUM_KINDS + kind];
+        }
+
+        double getProbAnother(int playerIndex, int kind) {
+            return probAnother[playerIndex * CardTable.NUM_KINDS + kind];
+        }
+
+        double getProbOutOfSuit(int playerIndex, Grouping grouping) {
+            return probOutOfSuit[playerIndex * Grouping.values().length + grouping.ordinal()];
+        }
     }
 }
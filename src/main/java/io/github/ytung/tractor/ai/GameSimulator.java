@@ -7,10 +7,10 @@ import java.util.List;
 import java.util.UUID;
 
 import io.github.ytung.tractor.Game;
+import io.github.ytung.tractor.DrawResult;
 import io.github.ytung.tractor.PlayResult;
 import io.github.ytung.tractor.api.FindAFriendDeclaration;
 import io.github.ytung.tractor.api.GameStatus;
-import io.github.ytung.tractor.api.Play;
 
 public class GameSimulator {
 
@@ -40,8 +40,8 @@ public class GameSimulator {
             int currentPlayerIndex = game.getCurrentPlayerIndex();
             String playerId = playerIds.get(currentPlayerIndex);
 
-            Play draw = game.draw();
-            Collection<Integer> declare = aiClients.get(currentPlayerIndex).declare(playerId, game);
+            DrawResult draw = game.draw();
+            Collection<Integer> declare = aiClients.get(currentPlayerIndex).declare(playerId, game.getSnapshot());
             if (declare != null)
                 game.declare(playerId, new ArrayList<>(declare));
             if (draw == null)
@@ -52,11 +52,11 @@ public class GameSimulator {
             int starterPlayerIndex = game.getStarterPlayerIndex();
             String playerId = playerIds.get(starterPlayerIndex);
             game.takeKitty();
-            Collection<Integer> kitty = aiClients.get(starterPlayerIndex).makeKitty(playerId, game);
+            Collection<Integer> kitty = aiClients.get(starterPlayerIndex).makeKitty(playerId, game.getSnapshot());
             game.makeKitty(playerId, new ArrayList<>(kitty));
 
             if (findAFriend) {
-                FindAFriendDeclaration declaration = aiClients.get(starterPlayerIndex).setFindAFriendDeclaration(playerId, game);
+                FindAFriendDeclaration declaration = aiClients.get(starterPlayerIndex).setFindAFriendDeclaration(playerId, game.getSnapshot());
                 game.makeFindAFriendDeclaration(playerId, declaration);
             }
         }
@@ -65,7 +65,7 @@ public class GameSimulator {
             int currentPlayerIndex = game.getCurrentPlayerIndex();
             String playerId = playerIds.get(currentPlayerIndex);
 
-            Collection<Integer> play = aiClients.get(currentPlayerIndex).play(playerId, game);
+            Collection<Integer> play = aiClients.get(currentPlayerIndex).play(playerId, game.getSnapshot());
             PlayResult result = game.play(playerId, new ArrayList<>(play), true);
             if (result.isTrickComplete()) {
                 game.finishTrick();
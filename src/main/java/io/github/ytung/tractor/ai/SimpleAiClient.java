@@ -13,10 +13,12 @@ import java.util.stream.Collectors;
 
 import com.google.common.collect.Maps;
 
+import io.github.ytung.tractor.CardTable;
 import io.github.ytung.tractor.Cards;
 import io.github.ytung.tractor.Cards.Grouping;
 import io.github.ytung.tractor.Component;
-import io.github.ytung.tractor.Game;
+import io.github.ytung.tractor.GameSnapshot;
+import io.github.ytung.tractor.TrumpTable;
 import io.github.ytung.tractor.api.Card;
 import io.github.ytung.tractor.api.FindAFriendDeclaration;
 import io.github.ytung.tractor.api.FindAFriendDeclaration.Declaration;
@@ -26,21 +28,22 @@ import io.github.ytung.tractor.api.Trick;
 public class SimpleAiClient implements AiClient {
 
     @Override
-    public List<Integer> declare(String myPlayerId, Game game) {
-        Map<Integer, Card> cardsById = game.getCardsById();
-        List<Play> declaredCards = game.getDeclaredCards();
-        Card trump = game.getCurrentTrump();
-        List<Integer> myHand = game.getPlayerHands().get(myPlayerId);
+    public List<Integer> declare(String myPlayerId, GameSnapshot snapshot) {
+        CardTable cardTable = snapshot.getCardTable();
+        List<Play> declaredCards = snapshot.getDeclaredCards();
+        TrumpTable trumpTable = snapshot.getTrumpTable();
+        Card trump = trumpTable.getTrump();
+        List<Integer> myHand = snapshot.getPlayerHands().get(myPlayerId);
 
         if (!declaredCards.isEmpty())
             return null;
 
-        Map<Grouping, List<Integer>> myHandByGrouping = Maps.toMap(Arrays.asList(Grouping.values()), grouping -> myHand.stream()
-            .filter(cardId -> Cards.grouping(cardsById.get(cardId), trump) == grouping)
-            .collect(Collectors.toList()));
+        Map<Grouping, List<Integer>> myHandByGrouping = Maps.toMap(
+            Arrays.asList(Grouping.values()),
+            grouping -> snapshot.getPlayerHand(myPlayerId, grouping));
 
         for (int cardId : myHand) {
-            Card card = cardsById.get(cardId);
+            Card card = cardTable.get(cardId);
             if (card.getValue() == trump.getValue()) {
                 Grouping grouping = Cards.grouping(card, null);
                 if (myHandByGrouping.containsKey(grouping) && myHandByGrouping.get(grouping).size() >= 5)
@@ -51,34 +54,33 @@ public class SimpleAiClient implements AiClient {
     }
 
     @Override
-    public List<Integer> makeKitty(String myPlayerId, Game game) {
-        Map<Integer, Card> cardsById = game.getCardsById();
-        Card trump = game.getCurrentTrump();
-        int kittySize = game.getKittySize();
-        List<Integer> myHand = game.getPlayerHands().get(myPlayerId);
+    public List<Integer> makeKitty(String myPlayerId, GameSnapshot snapshot) {
+        CardTable cardTable = snapshot.getCardTable();
+        TrumpTable trumpTable = snapshot.getTrumpTable();
+        int kittySize = snapshot.getKittySize();
+        List<Integer> myHand = snapshot.getPlayerHands().get(myPlayerId);
 
-        List<Card> myCards = myHand.stream().map(cardsById::get).collect(Collectors.toList());
+        List<Card> myCards = myHand.stream().map(cardTable::get).collect(Collectors.toList());
         return myHand.stream()
-            .sorted(Comparator.comparing(cardId -> {
-                Card card = cardsById.get(cardId);
-                return Cards.rank(card, trump)
-                        + Collections.frequency(myCards, card) * 5
-                        + (Cards.grouping(card, trump) == Grouping.TRUMP ? 100 : 0);
+            .sorted(Comparator.comparingInt(cardId -> {
+                return trumpTable.getRank(cardId)
+                        + Collections.frequency(myCards, cardTable.get(cardId)) * 5
+                        + (trumpTable.getGrouping(cardId) == Grouping.TRUMP ? 100 : 0);
             }))
             .limit(kittySize)
             .collect(Collectors.toList());
     }
 
     @Override
-    public FindAFriendDeclaration setFindAFriendDeclaration(String myPlayerId, Game game) {
-        Map<Integer, Card> cardsById = game.getCardsById();
-        Card trump = game.getCurrentTrump();
-        List<Integer> myHand = game.getPlayerHands().get(myPlayerId);
-
-        int numFriends = game.getPlayerIds().size() / 2 - 1;
-        Set<Card> myCards = myHand.stream().map(cardsById::get).collect(Collectors.toSet());
-        List<Declaration> declarations = cardsById.values().stream()
-                .distinct()
+    public FindAFriendDeclaration setFindAFriendDeclaration(String myPlayerId, GameSnapshot snapshot) {
+        CardTable cardTable = snapshot.getCardTable();
+        TrumpTable trumpTable = snapshot.getTrumpTable();
+        Card trump = trumpTable.getTrump();
+        List<Integer> myHand = snapshot.getPlayerHands().get(myPlayerId);
+
+        int numFriends = snapshot.getPlayerIds().size() / 2 - 1;
+        Set<Card> myCards = myHand.stream().map(cardTable::get).collect(Collectors.toSet());
+        List<Declaration> declarations = cardTable.getDistinctCards().stream()
                 .filter(card -> !myCards.contains(card))
                 .sorted(Comparator.comparing(card -> {
                     int score = -Cards.rank(card, trump);
@@ -102,21 +104,20 @@ public class SimpleAiClient implements AiClient {
     }
 
     @Override
-    public Collection<Integer> play(String myPlayerId, Game game) {
-        Map<Integer, Card> cardsById = game.getCardsById();
-        Trick currentTrick = game.getCurrentTrick();
-        Card trump = game.getCurrentTrump();
-        List<Integer> myHand = game.getPlayerHands().get(myPlayerId);
+    public Collection<Integer> play(String myPlayerId, GameSnapshot snapshot) {
+        CardTable cardTable = snapshot.getCardTable();
+        Trick currentTrick = snapshot.getCurrentTrick();
+        TrumpTable trumpTable = snapshot.getTrumpTable();
+        List<Integer> myHand = snapshot.getPlayerHands().get(myPlayerId);
 
-        Map<Grouping, List<Integer>> myHandByGrouping = Maps.toMap(Arrays.asList(Grouping.values()), grouping -> myHand.stream()
-            .filter(cardId -> Cards.grouping(cardsById.get(cardId), trump) == grouping)
-            .collect(Collectors.toList()));
+        Map<Grouping, List<Integer>> myHandByGrouping = Maps.toMap(
+            Arrays.asList(Grouping.values()),
+            grouping -> snapshot.getPlayerHand(myPlayerId, grouping));
 
         if (currentTrick.getPlays().isEmpty()) {
             // Do I have aces?
             for (int cardId : myHand) {
-                Card card = cardsById.get(cardId);
-                if (card.getValue() == Card.Value.ACE && Cards.grouping(card, trump) != Grouping.TRUMP)
+                if (cardTable.getValue(cardId) == Card.Value.ACE && trumpTable.getGrouping(cardId) != Grouping.TRUMP)
                     return Arrays.asList(cardId);
             }
 
@@ -124,7 +125,7 @@ public class SimpleAiClient implements AiClient {
             int bestPairRank = -1;
             List<Integer> bestPair = null;
             for (List<Integer> sameSuitCards : myHandByGrouping.values())
-                for (Component component : game.getProfile(sameSuitCards))
+                for (Component component : snapshot.getProfile(sameSuitCards))
                     if (component.getShape().getWidth() >= 2) {
                         int rank = component.getMaxRank();
                         if (rank > bestPairRank) {
@@ -146,8 +147,8 @@ public class SimpleAiClient implements AiClient {
 
         Play startingPlay = currentTrick.getPlays().get(0);
         List<Integer> startingCardIds = startingPlay.getCardIds();
-        List<Component> startingProfile = game.getProfile(startingPlay.getCardIds());
-        Grouping startingGrouping = game.getGrouping(startingPlay.getCardIds());
+        List<Component> startingProfile = new ArrayList<>(snapshot.getProfile(startingPlay.getCardIds()));
+        Grouping startingGrouping = snapshot.getGrouping(startingPlay.getCardIds());
         Collections.sort(
             startingProfile,
             Comparator.<Component, Integer> comparing(component -> component.getShape().getWidth())
@@ -160,7 +161,7 @@ public class SimpleAiClient implements AiClient {
         if (sameSuitCards.isEmpty()) {
             List<Integer> trumpCardIds = new ArrayList<>(myHandByGrouping.get(Grouping.TRUMP));
             List<Integer> myCardIds = new ArrayList<>();
-            List<Component> profile = game.getProfile(trumpCardIds);
+            List<Component> profile = snapshot.getProfile(trumpCardIds);
             for (Component startingComponent : startingProfile)
                 for (Component component : profile)
                     if (trumpCardIds.containsAll(component.getCardIds())
@@ -168,7 +169,7 @@ public class SimpleAiClient implements AiClient {
                             && component.getShape().getHeight() >= startingComponent.getShape().getHeight()
                             && component.getMaxRank() > startingComponent.getMaxRank()) {
                         List<Integer> cardIds = component.getCardIds().stream()
-                            .sorted(Comparator.comparing(cardId -> Cards.rank(cardsById.get(cardId), trump)))
+                            .sorted(Comparator.comparingInt(trumpTable::getRank))
                             .collect(Collectors.toList());
                         List<Integer> prunedCardIds = new ArrayList<>();
                         for (int i = 0; i < startingComponent.getShape().getWidth(); i++)
@@ -183,7 +184,7 @@ public class SimpleAiClient implements AiClient {
         }
 
         // Can I beat it in the same suit?
-        List<Component> profile = game.getProfile(sameSuitCards);
+        List<Component> profile = new ArrayList<>(snapshot.getProfile(sameSuitCards));
         Collections.sort(
             profile,
             Comparator.<Component, Integer> comparing(component -> component.getShape().getWidth())
@@ -200,7 +201,7 @@ public class SimpleAiClient implements AiClient {
                             && component.getShape().getHeight() >= startingComponent.getShape().getHeight()
                             && component.getMaxRank() > startingComponent.getMaxRank()) {
                         List<Integer> cardIds = component.getCardIds().stream()
-                            .sorted(Comparator.comparing(cardId -> Cards.rank(cardsById.get(cardId), trump)))
+                            .sorted(Comparator.comparingInt(trumpTable::getRank))
                             .collect(Collectors.toList());
                         List<Integer> prunedCardIds = new ArrayList<>();
                         for (int i = 0; i < startingComponent.getShape().getWidth(); i++)
@@ -223,7 +224,7 @@ public class SimpleAiClient implements AiClient {
                     if (sameSuitCardsCopy.containsAll(component.getCardIds())
                             && component.getShape().getWidth() <= startingComponent.getShape().getWidth()) {
                         List<Integer> cardIds = component.getCardIds().stream()
-                            .sorted(Comparator.comparing(cardId -> Cards.rank(cardsById.get(cardId), trump)))
+                            .sorted(Comparator.comparingInt(trumpTable::getRank))
                             .collect(Collectors.toList());
                         sameSuitCardsCopy.removeAll(cardIds);
                         myCardIds.addAll(cardIds);
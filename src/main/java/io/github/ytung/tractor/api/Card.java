@@ -1,10 +1,17 @@
-
 package io.github.ytung.tractor.api;
 
-import lombok.Data;
+import lombok.Getter;
+import lombok.ToString;
 
-@Data
-public class Card {
+/**
+ * A card value and suit. There is exactly one instance of each combination (see {@link #of}), so
+ * cards can be compared by identity, and each card has a small {@link #ordinal} for array lookups.
+ * Besides the 54 real cards, this includes combinations like a two of jokers, which are used to
+ * describe the trump when no suit is trump.
+ */
+@Getter
+@ToString
+public final class Card {
 
     public enum Value {
         TWO, THREE, FOUR, FIVE, SIX, SEVEN, EIGHT, NINE, TEN, JACK, QUEEN, KING, ACE, SMALL_JOKER, BIG_JOKER
@@ -14,7 +21,45 @@ public class Card {
         SPADE, HEART, DIAMOND, CLUB, JOKER
     };
 
+    private static final Value[] VALUES = Value.values();
+    private static final Suit[] SUITS = Suit.values();
+
+    /**
+     * The number of distinct ordinals, i.e. every ordinal is in [0, NUM_ORDINALS).
+     */
+    public static final int NUM_ORDINALS = VALUES.length * SUITS.length;
+
+    private static final Card[] CARDS = new Card[NUM_ORDINALS];
+
+    static {
+        for (Value value : VALUES)
+            for (Suit suit : SUITS)
+                CARDS[value.ordinal() * SUITS.length + suit.ordinal()] = new Card(value, suit);
+    }
+
     private final Value value;
 
     private final Suit suit;
+
+    private Card(Value value, Suit suit) {
+        this.value = value;
+        this.suit = suit;
+    }
+
+    public static Card of(Value value, Suit suit) {
+        return CARDS[value.ordinal() * SUITS.length + suit.ordinal()];
+    }
+
+    public static Card ofOrdinal(int ordinal) {
+        return CARDS[ordinal];
+    }
+
+    public int ordinal() {
+        return value.ordinal() * SUITS.length + suit.ordinal();
+    }
+
+    @Override
+    public int hashCode() {
+        return ordinal();
+    }
 }
@@ -2,6 +2,7 @@
 package io.github.ytung.tractor.api;
 
 import java.util.List;
+import java.util.stream.Collectors;
 
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -12,6 +13,12 @@ public class FindAFriendDeclaration {
 
     private List<Declaration> declarations;
 
+    public FindAFriendDeclaration(FindAFriendDeclaration declaration) {
+        this.declarations = declaration.declarations.stream()
+            .map(Declaration::new)
+            .collect(Collectors.toList());
+    }
+
     @Data
     @NoArgsConstructor
     public static class Declaration {
@@ -29,5 +36,12 @@ public class FindAFriendDeclaration {
         private Card.Suit suit;
 
         private boolean satisfied = false;
+
+        public Declaration(Declaration declaration) {
+            this.ordinal = declaration.ordinal;
+            this.value = declaration.value;
+            this.suit = declaration.suit;
+            this.satisfied = declaration.satisfied;
+        }
     }
 }
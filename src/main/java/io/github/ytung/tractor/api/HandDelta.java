@@ -0,0 +1,96 @@
+package io.github.ytung.tractor.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import lombok.Data;
+
+/**
+ * The change from one version of the players' hands to the next, for clients that keep their own
+ * copy of the hands instead of receiving all of them with every update.
+ *
+ * To apply a delta, remove the removed cards from each hand, then insert each added card at its
+ * index, in order. That recreates the new hand in hand order. When the order of the cards that a
+ * hand kept changed (e.g. after a declare changed the trump), the delta removes and adds back the
+ * whole hand. Players whose hands didn't change are left out.
+ */
+@Data
+public class HandDelta {
+
+    /**
+     * The version of the hands after this change. Each delta is from version - 1; a client that has
+     * any other version has to ask for the full state instead.
+     */
+    private final long version;
+
+    private final Map<String, List<Integer>> removedCardIds;
+    private final Map<String, List<Integer>> addedCardIds;
+
+    /**
+     * For each added card, its index in the new hand, in increasing order.
+     */
+    private final Map<String, List<Integer>> addedIndices;
+
+    public static HandDelta between(long version, Map<String, List<Integer>> oldHands, Map<String, List<Integer>> newHands) {
+        if (oldHands == null)
+            oldHands = Collections.emptyMap();
+        if (newHands == null)
+            newHands = Collections.emptyMap();
+
+        Set<String> playerIds = new HashSet<>(oldHands.keySet());
+        playerIds.addAll(newHands.keySet());
+        Map<String, List<Integer>> removedCardIds = new HashMap<>();
+        Map<String, List<Integer>> addedCardIds = new HashMap<>();
+        Map<String, List<Integer>> addedIndices = new HashMap<>();
+        for (String playerId : playerIds) {
+            List<Integer> oldHand = oldHands.getOrDefault(playerId, Collections.emptyList());
+            List<Integer> newHand = newHands.getOrDefault(playerId, Collections.emptyList());
+            if (oldHand.equals(newHand))
+                continue;
+
+            Set<Integer> oldCardIds = new HashSet<>(oldHand);
+            Set<Integer> newCardIds = new HashSet<>(newHand);
+            List<Integer> removed = new ArrayList<>();
+            List<Integer> kept = new ArrayList<>();
+            for (int cardId : oldHand) {
+                if (newCardIds.contains(cardId))
+                    kept.add(cardId);
+                else
+                    removed.add(cardId);
+            }
+            List<Integer> added = new ArrayList<>();
+            List<Integer> indices = new ArrayList<>();
+            int numKept = 0;
+            boolean sameOrder = true;
+            for (int i = 0; i < newHand.size(); i++) {
+                int cardId = newHand.get(i);
+                if (oldCardIds.contains(cardId)) {
+                    sameOrder &= kept.get(numKept++) == cardId;
+                } else {
+                    added.add(cardId);
+                    indices.add(i);
+                }
+            }
+            if (!sameOrder) {
+                removed = oldHand;
+                added = newHand;
+                indices = new ArrayList<>();
+                for (int i = 0; i < newHand.size(); i++)
+                    indices.add(i);
+            }
+
+            if (!removed.isEmpty())
+                removedCardIds.put(playerId, removed);
+            if (!added.isEmpty()) {
+                addedCardIds.put(playerId, added);
+                addedIndices.put(playerId, indices);
+            }
+        }
+        return new HandDelta(version, removedCardIds, addedCardIds, addedIndices);
+    }
+}
@@ -20,6 +20,7 @@ import io.github.ytung.tractor.api.IncomingMessage.PlayerScoreRequest;
 import io.github.ytung.tractor.api.IncomingMessage.ReadyForPlayRequest;
 import io.github.ytung.tractor.api.IncomingMessage.RejoinRequest;
 import io.github.ytung.tractor.api.IncomingMessage.RemovePlayerRequest;
+import io.github.ytung.tractor.api.IncomingMessage.ResyncRequest;
 import io.github.ytung.tractor.api.IncomingMessage.SetNameRequest;
 import io.github.ytung.tractor.api.IncomingMessage.StartRoundRequest;
 import io.github.ytung.tractor.api.IncomingMessage.TakeBackRequest;
@@ -45,6 +46,7 @@ import lombok.NoArgsConstructor;
     @JsonSubTypes.Type(value = PlayRequest.class, name = "PLAY"),
     @JsonSubTypes.Type(value = TakeBackRequest.class, name = "TAKE_BACK"),
     @JsonSubTypes.Type(value = ForfeitRequest.class, name = "FORFEIT"),
+    @JsonSubTypes.Type(value = ResyncRequest.class, name = "RESYNC"),
 })
 public interface IncomingMessage {
 
@@ -161,4 +163,12 @@ public interface IncomingMessage {
     @NoArgsConstructor
     public static class ForfeitRequest implements IncomingMessage {
     }
+
+    /**
+     * Asks for the full room state, e.g. after missing a {@link HandDelta}.
+     */
+    @Data
+    @NoArgsConstructor
+    public static class ResyncRequest implements IncomingMessage {
+    }
 }
@@ -2,9 +2,10 @@ package io.github.ytung.tractor.api;
 
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.Set;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.annotation.JsonSubTypes;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 import com.fasterxml.jackson.annotation.JsonTypeInfo.As;
@@ -102,9 +103,10 @@ public interface OutgoingMessage {
         private final GameStatus status;
         private final int currentPlayerIndex;
         private final Map<String, Boolean> isDeclaringTeam;
-        private final Queue<Integer> deck;
+        private final List<Integer> deck;
         private final Map<Integer, Card> cardsById;
         private final Map<String, List<Integer>> playerHands;
+        private final long handsVersion;
         private final List<Play> declaredCards;
         private final List<Integer> kitty;
         private final FindAFriendDeclaration findAFriendDeclaration;
@@ -159,9 +161,10 @@ public interface OutgoingMessage {
         private final GameStatus status;
         private final int currentPlayerIndex;
         private final Map<String, Boolean> isDeclaringTeam;
-        private final Queue<Integer> deck;
+        private final List<Integer> deck;
         private final Map<Integer, Card> cardsById;
         private final Map<String, List<Integer>> playerHands;
+        private final long handsVersion;
         private final List<Play> declaredCards;
         private final List<Integer> exposedBottomCards;
         private final List<Integer> kitty;
@@ -184,15 +187,22 @@ public interface OutgoingMessage {
 
         private final GameStatus status;
         private final int currentPlayerIndex;
-        private final Queue<Integer> deck;
+        @JsonInclude(Include.NON_NULL)
+        private final List<Integer> deck;
+        @JsonInclude(Include.NON_NULL)
         private final Map<String, List<Integer>> playerHands;
+        @JsonInclude(Include.NON_NULL)
+        private final HandDelta handDelta;
     }
 
     @Data
     public static class ExposeBottomCards implements OutgoingMessage {
 
         private final GameStatus status;
+        @JsonInclude(Include.NON_NULL)
         private final Map<String, List<Integer>> playerHands;
+        @JsonInclude(Include.NON_NULL)
+        private final HandDelta handDelta;
         private final List<Integer> exposedBottomCards;
         private final Card currentTrump;
     }
@@ -202,8 +212,12 @@ public interface OutgoingMessage {
 
         private final GameStatus status;
         private final int currentPlayerIndex;
-        private final Queue<Integer> deck;
+        @JsonInclude(Include.NON_NULL)
+        private final List<Integer> deck;
+        @JsonInclude(Include.NON_NULL)
         private final Map<String, List<Integer>> playerHands;
+        @JsonInclude(Include.NON_NULL)
+        private final HandDelta handDelta;
     }
 
     @Data
@@ -214,8 +228,11 @@ public interface OutgoingMessage {
         private final int starterPlayerIndex;
 
         private final Map<String, Boolean> isDeclaringTeam;
-        private final Queue<Integer> deck;
+        private final List<Integer> deck;
+        @JsonInclude(Include.NON_NULL)
         private final Map<String, List<Integer>> playerHands;
+        @JsonInclude(Include.NON_NULL)
+        private final HandDelta handDelta;
         private final List<Play> declaredCards;
         private final Card currentTrump;
         private final Map<String, Boolean> playerReadyForPlay;
@@ -239,7 +256,10 @@ public interface OutgoingMessage {
 
         private final GameStatus status;
         private final List<Integer> kitty;
+        @JsonInclude(Include.NON_NULL)
         private final Map<String, List<Integer>> playerHands;
+        @JsonInclude(Include.NON_NULL)
+        private final HandDelta handDelta;
         private final Trick currentTrick;
     }
 
@@ -247,7 +267,10 @@ public interface OutgoingMessage {
     public static class PlayMessage implements OutgoingMessage {
 
         private final int currentPlayerIndex;
+        @JsonInclude(Include.NON_NULL)
         private final Map<String, List<Integer>> playerHands;
+        @JsonInclude(Include.NON_NULL)
+        private final HandDelta handDelta;
         private final Trick currentTrick;
     }
 
@@ -289,7 +312,10 @@ public interface OutgoingMessage {
 
         private final int currentPlayerIndex;
         private final Map<String, Boolean> isDeclaringTeam;
+        @JsonInclude(Include.NON_NULL)
         private final Map<String, List<Integer>> playerHands;
+        @JsonInclude(Include.NON_NULL)
+        private final HandDelta handDelta;
         private final FindAFriendDeclaration findAFriendDeclaration;
         private final List<Trick> pastTricks;
         private final Trick currentTrick;
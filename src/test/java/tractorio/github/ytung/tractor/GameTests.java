@@ -5,14 +5,46 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.when;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
 import org.junit.jupiter.api.Test;
 
+import com.google.common.collect.HashMultiset;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.Sets;
+import com.google.common.primitives.Ints;
 
+import io.github.ytung.tractor.Cards.Grouping;
+import io.github.ytung.tractor.Component;
+import io.github.ytung.tractor.DrawResult;
 import io.github.ytung.tractor.Game;
+import io.github.ytung.tractor.GameAction;
+import io.github.ytung.tractor.GameCheckpoint;
+import io.github.ytung.tractor.GameSnapshot;
+import io.github.ytung.tractor.GameState;
+import io.github.ytung.tractor.InvalidPlayException;
+import io.github.ytung.tractor.PlayResult;
+import io.github.ytung.tractor.Shape;
+import io.github.ytung.tractor.ai.SimpleAiClient;
 import io.github.ytung.tractor.api.Card;
 import io.github.ytung.tractor.api.Card.Suit;
 import io.github.ytung.tractor.api.Card.Value;
+import io.github.ytung.tractor.api.FindAFriendDeclaration;
+import io.github.ytung.tractor.api.FindAFriendDeclaration.Declaration;
+import io.github.ytung.tractor.api.GameStatus;
+import io.github.ytung.tractor.api.HandDelta;
 import io.github.ytung.tractor.api.Play;
 import io.github.ytung.tractor.api.Trick;
 
@@ -22,13 +54,13 @@ class GameTests {
     void testWinningPlayerId_trumpPair_beatsTwoSingles() {
         Game game = spy(new Game());
 
+        when(game.getCurrentTrump()).thenReturn(Card.of(Value.TWO, Suit.SPADE));
         game.setCardsById(ImmutableMap.<Integer, Card>builder()
-            .put(1, new Card(Value.ACE, Suit.CLUB))
-            .put(2, new Card(Value.KING, Suit.CLUB))
-            .put(3, new Card(Value.TWO, Suit.SPADE))
-            .put(4, new Card(Value.TWO, Suit.SPADE))
+            .put(1, Card.of(Value.ACE, Suit.CLUB))
+            .put(2, Card.of(Value.KING, Suit.CLUB))
+            .put(3, Card.of(Value.TWO, Suit.SPADE))
+            .put(4, Card.of(Value.TWO, Suit.SPADE))
             .build());
-        when(game.getCurrentTrump()).thenReturn(new Card(Value.TWO, Suit.SPADE));
 
         Trick trick = new Trick("p1");
         trick.getPlays().add(new Play("p1", asList(1, 2)));
@@ -42,13 +74,13 @@ class GameTests {
     void testWinningPlayerId_smallerPair_doesNotBeatTopSingles() {
         Game game = spy(new Game());
 
+        when(game.getCurrentTrump()).thenReturn(Card.of(Value.EIGHT, Suit.SPADE));
         game.setCardsById(ImmutableMap.<Integer, Card>builder()
-                .put(1, new Card(Value.ACE, Suit.HEART))
-                .put(2, new Card(Value.KING, Suit.HEART))
-                .put(3, new Card(Value.SIX, Suit.HEART))
-                .put(4, new Card(Value.SIX, Suit.HEART))
+                .put(1, Card.of(Value.ACE, Suit.HEART))
+                .put(2, Card.of(Value.KING, Suit.HEART))
+                .put(3, Card.of(Value.SIX, Suit.HEART))
+                .put(4, Card.of(Value.SIX, Suit.HEART))
                 .build());
-        when(game.getCurrentTrump()).thenReturn(new Card(Value.EIGHT, Suit.SPADE));
 
         Trick trick = new Trick("p1");
         trick.getPlays().add(new Play("p1", asList(1, 2)));
@@ -62,15 +94,15 @@ class GameTests {
     void testWinningPlayerId_mustBeatHighestCard() {
         Game game = spy(new Game());
 
+        when(game.getCurrentTrump()).thenReturn(Card.of(Value.TWO, Suit.SPADE));
         game.setCardsById(ImmutableMap.<Integer, Card>builder()
-                .put(1, new Card(Value.KING, Suit.CLUB))
-                .put(2, new Card(Value.ACE, Suit.CLUB))
-                .put(3, new Card(Value.THREE, Suit.SPADE))
-                .put(4, new Card(Value.BIG_JOKER, Suit.JOKER))
-                .put(5, new Card(Value.FOUR, Suit.SPADE))
-                .put(6, new Card(Value.FIVE, Suit.SPADE))
+                .put(1, Card.of(Value.KING, Suit.CLUB))
+                .put(2, Card.of(Value.ACE, Suit.CLUB))
+                .put(3, Card.of(Value.THREE, Suit.SPADE))
+                .put(4, Card.of(Value.BIG_JOKER, Suit.JOKER))
+                .put(5, Card.of(Value.FOUR, Suit.SPADE))
+                .put(6, Card.of(Value.FIVE, Suit.SPADE))
                 .build());
-        when(game.getCurrentTrump()).thenReturn(new Card(Value.TWO, Suit.SPADE));
 
         Trick trick = new Trick("p1");
         trick.getPlays().add(new Play("p1", asList(1, 2)));
@@ -80,4 +112,730 @@ class GameTests {
         // p2 should win with the highest trump
         assertThat(game.winningPlayerId(trick)).isEqualTo("p2");
     }
+
+    @Test
+    void testGetProfile_tractorAndSingle() {
+        Game game = spy(new Game());
+
+        when(game.getCurrentTrump()).thenReturn(Card.of(Value.TWO, Suit.SPADE));
+        game.setCardsById(ImmutableMap.<Integer, Card>builder()
+                .put(1, Card.of(Value.ACE, Suit.HEART))
+                .put(2, Card.of(Value.SIX, Suit.HEART))
+                .put(3, Card.of(Value.SIX, Suit.HEART))
+                .put(4, Card.of(Value.FIVE, Suit.HEART))
+                .put(5, Card.of(Value.FIVE, Suit.HEART))
+                .build());
+
+        // components are listed in hand order, regardless of the order of the card ids
+        assertThat(game.getProfile(asList(4, 1, 2, 5, 3))).containsExactly(
+            new Component(new Shape(2, 2), 2, 3, ImmutableSet.of(2, 3, 4, 5)),
+            new Component(new Shape(1, 1), 11, 11, ImmutableSet.of(1)));
+    }
+
+    @Test
+    void testSnapshotGetProfile_gamesWithSameTrumpVersion_useTheirOwnCards() {
+        List<Game> games = new ArrayList<>();
+        for (long seed : new long[] {1, 2}) {
+            Game game = new Game(seed);
+            for (String playerId : asList("p1", "p2", "p3", "p4"))
+                game.addPlayer(playerId);
+            game.startRound();
+            games.add(game);
+        }
+
+        // the same card ids are different cards in each game, and both snapshots profile on this thread
+        List<Integer> cardIds = new ArrayList<>(games.get(0).getCardsById().keySet());
+        cardIds.sort(Comparator.naturalOrder());
+        for (int i = 0; i + 3 <= cardIds.size(); i += 3)
+            for (Game game : games)
+                assertThat(game.getSnapshot().getProfile(cardIds.subList(i, i + 3))).isEqualTo(game.getProfile(cardIds.subList(i, i + 3)));
+    }
+
+    @Test
+    void testReplay_sameSeed_dealsSameHands() {
+        Game game = new Game();
+        for (String playerId : asList("p1", "p2", "p3", "p4"))
+            game.addPlayer(playerId);
+        game.startRound(42);
+        for (int i = 0; i < 20; i++)
+            game.draw();
+
+        Game replayedGame = Game.replay(game.getActionLog());
+
+        assertThat(replayedGame.getPlayerHands()).isEqualTo(game.getPlayerHands());
+        assertThat(new ArrayList<>(replayedGame.getDeck())).isEqualTo(new ArrayList<>(game.getDeck()));
+        assertThat(replayedGame.getActionLog()).isEqualTo(game.getActionLog());
+    }
+
+    @Test
+    void testStartRound_sameGameSeed_dealsSameRounds() {
+        Game game = new Game(7);
+        Game otherGame = new Game(7);
+        for (Game g : asList(game, otherGame)) {
+            for (String playerId : asList("p1", "p2", "p3", "p4"))
+                g.addPlayer(playerId);
+            g.startRound();
+        }
+
+        assertThat(otherGame.getCardsById()).isEqualTo(game.getCardsById());
+        assertThat(otherGame.getDeck()).isEqualTo(game.getDeck());
+        assertThat(otherGame.getActionLog()).isEqualTo(game.getActionLog());
+    }
+
+    @Test
+    void testRestore_midRound_continuesSameGame() throws Exception {
+        Game game = new Game(7);
+        for (String playerId : asList("p1", "p2", "p3", "p4"))
+            game.addPlayer(playerId);
+        game.startRound();
+        for (int i = 0; i < 20; i++)
+            game.draw();
+
+        Game restoredGame = Game.restore(GameCheckpoint.fromBytes(game.checkpoint().toBytes()));
+
+        assertThat(restoredGame.getPlayerHands()).isEqualTo(game.getPlayerHands());
+        assertThat(restoredGame.getDeck()).isEqualTo(game.getDeck());
+        assertThat(restoredGame.checkpoint()).isEqualTo(game.checkpoint());
+
+        // later rounds are dealt from the same seeds
+        for (Game g : asList(game, restoredGame)) {
+            g.forfeitRound("p1");
+            g.startRound();
+        }
+        assertThat(restoredGame.getCardsById()).isEqualTo(game.getCardsById());
+        assertThat(restoredGame.getDeck()).isEqualTo(game.getDeck());
+    }
+
+    @Test
+    void testMutators_returnTheSnapshotTheyPublished() throws Exception {
+        Game game = new Game(7);
+        for (String playerId : asList("p1", "p2", "p3", "p4"))
+            game.addPlayer(playerId);
+        // adding a player again changes nothing, so the current snapshot is returned
+        assertThat(game.addPlayer("p1")).isSameAs(game.getSnapshot());
+
+        GameSnapshot afterStart = game.startRound();
+        assertThat(afterStart).isSameAs(game.getSnapshot());
+        DrawResult draw = game.draw();
+        DrawResult nextDraw = game.draw();
+
+        // the first draw's snapshot isn't replaced by the later draw
+        assertThat(draw.getSnapshot().getVersion()).isEqualTo(afterStart.getVersion() + 1);
+        assertThat(draw.getSnapshot().getPlayerHands().get(draw.getPlay().getPlayerId()))
+            .containsExactlyElementsOf(draw.getPlay().getCardIds());
+        assertThat(draw.getSnapshot().getPlayerHands().get(nextDraw.getPlay().getPlayerId())).isEmpty();
+        assertThat(nextDraw.getSnapshot()).isSameAs(game.getSnapshot());
+    }
+
+    @Test
+    void testStartRound_afterFinishedRound_logStartsAtRound() throws Exception {
+        Game game = new Game(7);
+        for (String playerId : asList("p1", "p2", "p3", "p4"))
+            game.addPlayer(playerId);
+        for (int round = 0; round < 3; round++) {
+            game.startRound();
+            for (int i = 0; i < 20; i++)
+                game.draw();
+            game.forfeitRound("p1");
+            game.updatePlayerScore("p2", true);
+        }
+        game.startRound();
+        game.draw();
+
+        // the earlier rounds are only carried over in the checkpoint's round start
+        assertThat(game.getActionLog()).hasSize(2);
+        assertThat(game.getActionLog().get(0)).isInstanceOf(GameAction.StartRound.class);
+        assertThat(game.checkpoint().getActions()).isEqualTo(game.getActionLog());
+        Game restoredGame = Game.restore(game.checkpoint());
+        assertThat(restoredGame.getPlayerRankScores()).isEqualTo(game.getPlayerRankScores());
+        assertThat(restoredGame.getPlayerHands()).isEqualTo(game.getPlayerHands());
+    }
+
+    @Test
+    void testSnapshot_handDeltas_rebuildHands() throws Exception {
+        Game game = new Game(7);
+        for (String playerId : asList("p1", "p2", "p3", "p4"))
+            game.addPlayer(playerId);
+        game.startRound();
+        Map<String, List<Integer>> hands = new HashMap<>(game.getSnapshot().getPlayerHands());
+
+        // draws only add cards, but the declare reorders the hands
+        for (int i = 0; i < 40; i++) {
+            game.draw();
+            applyHandDelta(hands, game.getSnapshot());
+            if (i == 20) {
+                for (String playerId : asList("p1", "p2", "p3", "p4")) {
+                    List<Integer> trumpCardIds = game.getPlayerHands().get(playerId).stream()
+                        .filter(cardId -> game.getCardsById().get(cardId).getValue() == Value.TWO)
+                        .collect(Collectors.toList());
+                    if (!trumpCardIds.isEmpty()) {
+                        game.declare(playerId, trumpCardIds.subList(0, 1));
+                        break;
+                    }
+                }
+                assertThat(game.getDeclaredCards()).hasSize(1);
+                applyHandDelta(hands, game.getSnapshot());
+            }
+        }
+    }
+
+    @Test
+    void testSnapshot_takeBacksAndUndo_deltasRebuildHandsAndPastTricksDontChange() throws Exception {
+        Game game = startPlaying(7);
+        Map<String, List<Integer>> hands = new HashMap<>(game.getSnapshot().getPlayerHands());
+        long handsVersion = game.getSnapshot().getHandsVersion();
+
+        for (int i = 0; i < 4; i++) {
+            playFirstLegalPlay(game);
+            handsVersion = applyNewHandDelta(hands, handsVersion, game.getSnapshot());
+        }
+        game.finishTrick();
+        handsVersion = applyNewHandDelta(hands, handsVersion, game.getSnapshot());
+        GameSnapshot afterTrick = game.getSnapshot();
+        List<Trick> pastTricks = new ArrayList<>();
+        for (Trick trick : afterTrick.getPastTricks()) {
+            Trick copy = new Trick(trick.getStartPlayerId());
+            copy.getPlays().addAll(trick.getPlays());
+            copy.setWinningPlayerId(trick.getWinningPlayerId());
+            pastTricks.add(copy);
+        }
+
+        // take back into the finished trick, play it differently and finish it again
+        playFirstLegalPlay(game);
+        handsVersion = applyNewHandDelta(hands, handsVersion, game.getSnapshot());
+        game.takeBack(game.getCurrentTrick().getPlays().get(0).getPlayerId());
+        handsVersion = applyNewHandDelta(hands, handsVersion, game.getSnapshot());
+        List<Play> lastPlays = game.getPastTricks().get(0).getPlays();
+        game.takeBack(lastPlays.get(lastPlays.size() - 1).getPlayerId());
+        handsVersion = applyNewHandDelta(hands, handsVersion, game.getSnapshot());
+        String playerId = game.getPlayerIds().get(game.getCurrentPlayerIndex());
+        List<int[]> plays = game.legalPlays(playerId, false);
+        game.play(playerId, new ArrayList<>(Ints.asList(plays.get(plays.size() - 1))), false);
+        handsVersion = applyNewHandDelta(hands, handsVersion, game.getSnapshot());
+        game.finishTrick();
+        handsVersion = applyNewHandDelta(hands, handsVersion, game.getSnapshot());
+        assertThat(game.getSnapshot().getPastTricks()).isEqualTo(game.getPastTricks());
+        assertThat(game.getPastTricks()).isNotEqualTo(pastTricks);
+        assertThat(afterTrick.getPastTricks()).isEqualTo(pastTricks);
+
+        // undoing moves the cards back the same way
+        for (int i = 0; i < 4; i++) {
+            game.undo();
+            handsVersion = applyNewHandDelta(hands, handsVersion, game.getSnapshot());
+        }
+        assertThat(afterTrick.getPastTricks()).isEqualTo(pastTricks);
+    }
+
+    @Test
+    void testTakeBack_acrossTrick_restoresWinningPlayer() throws Exception {
+        Game game = startPlaying(7);
+        List<String> winningPlayerIds = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            playFirstLegalPlay(game);
+            assertThat(game.getCurrentTrick().getWinningPlayerId()).isEqualTo(game.winningPlayerId(game.getCurrentTrick()));
+            winningPlayerIds.add(game.getCurrentTrick().getWinningPlayerId());
+        }
+        game.finishTrick();
+        playFirstLegalPlay(game);
+
+        // take back the new trick's play, then back into the finished trick
+        game.takeBack(game.getCurrentTrick().getPlays().get(0).getPlayerId());
+        for (int numPlays = 3; numPlays >= 1; numPlays--) {
+            List<Play> plays = game.getCurrentTrick().getPlays().isEmpty()
+                    ? game.getPastTricks().get(game.getPastTricks().size() - 1).getPlays()
+                    : game.getCurrentTrick().getPlays();
+            game.takeBack(plays.get(plays.size() - 1).getPlayerId());
+            assertThat(game.getCurrentTrick().getPlays()).hasSize(numPlays);
+            assertThat(game.getCurrentTrick().getWinningPlayerId()).isEqualTo(winningPlayerIds.get(numPlays - 1));
+        }
+
+        // the winner is tracked the same way when the trick is played again
+        while (game.getCurrentTrick().getPlays().size() < 4) {
+            playFirstLegalPlay(game);
+            assertThat(game.getCurrentTrick().getWinningPlayerId()).isEqualTo(game.winningPlayerId(game.getCurrentTrick()));
+        }
+        assertThat(game.getCurrentTrick().getWinningPlayerId()).isEqualTo(winningPlayerIds.get(3));
+    }
+
+    @Test
+    void testUndo_wholeRound_matchesEveryEarlierStateAndReplay() throws Exception {
+        Game game = new Game(11);
+        for (String playerId : asList("p1", "p2", "p3", "p4"))
+            game.addPlayer(playerId);
+        game.setFindAFriend(true);
+        game.startRound();
+        List<List<Object>> states = new ArrayList<>();
+        states.add(state(game));
+
+        // the first player to draw a two declares it
+        while (game.draw() != null) {
+            states.add(state(game));
+            if (game.getDeclaredCards().isEmpty()) {
+                String playerId = game.getPlayerIds().get((game.getCurrentPlayerIndex() + 3) % 4);
+                for (int cardId : game.getPlayerHands().get(playerId))
+                    if (game.getCardsById().get(cardId).getValue() == Value.TWO) {
+                        game.declare(playerId, new ArrayList<>(asList(cardId)));
+                        states.add(state(game));
+                        break;
+                    }
+            }
+        }
+        assertThat(game.getDeclaredCards()).hasSize(1);
+
+        String starterPlayerId = game.getPlayerIds().get(game.getStarterPlayerIndex());
+        game.takeKitty();
+        states.add(state(game));
+        game.makeKitty(starterPlayerId, new ArrayList<>(new SimpleAiClient().makeKitty(starterPlayerId, game.getSnapshot())));
+        states.add(state(game));
+        game.makeFindAFriendDeclaration(starterPlayerId, new SimpleAiClient().setFindAFriendDeclaration(starterPlayerId, game.getSnapshot()));
+        states.add(state(game));
+
+        // play some tricks, taking back a play in the middle of a trick and one across a finished trick
+        for (int trick = 0; trick < 3; trick++) {
+            for (int i = 0; i < 4; i++) {
+                playFirstLegalPlay(game);
+                states.add(state(game));
+                if (trick == 1 && i == 1) {
+                    List<Play> plays = game.getCurrentTrick().getPlays();
+                    game.takeBack(plays.get(plays.size() - 1).getPlayerId());
+                    states.add(state(game));
+                    playFirstLegalPlay(game);
+                    states.add(state(game));
+                }
+            }
+            game.finishTrick();
+            states.add(state(game));
+        }
+        List<Play> lastTrickPlays = game.getPastTricks().get(game.getPastTricks().size() - 1).getPlays();
+        game.takeBack(lastTrickPlays.get(3).getPlayerId());
+        states.add(state(game));
+
+        // step back to the start of the round, checking against the states on the way and a replay
+        assertThat(state(Game.replay(game.getActionLog()))).isEqualTo(states.get(states.size() - 1));
+        for (int i = states.size() - 2; i >= 0; i--) {
+            game.undo();
+            assertThat(state(game)).isEqualTo(states.get(i));
+            assertThat(state(Game.replay(game.getActionLog()))).isEqualTo(states.get(i));
+        }
+    }
+
+    @Test
+    void testUndo_exposeBottomCards_restoresDrawKitty() throws Exception {
+        Game game = new Game(7);
+        for (String playerId : asList("p1", "p2", "p3", "p4"))
+            game.addPlayer(playerId);
+        game.startRound();
+        while (game.draw() != null)
+            ;
+        List<Object> drawnState = state(game);
+        game.exposeBottomCards();
+        List<Object> exposedState = state(game);
+        game.takeKitty();
+
+        game.undo();
+        assertThat(state(game)).isEqualTo(exposedState);
+        game.undo();
+        assertThat(state(game)).isEqualTo(drawnState);
+        assertThat(game.getExposedBottomCards()).isEmpty();
+    }
+
+    @Test
+    void testLegalPlays_followSuit_matchesPlayValidation() throws Exception {
+        Game game = findFollow(snapshot -> {
+            List<Integer> startingCardIds = snapshot.getCurrentTrick().getPlays().get(0).getCardIds();
+            return startingCardIds.size() >= 2
+                && snapshot.getPlayerHand(currentPlayerId(snapshot), snapshot.getGrouping(startingCardIds)).size() > startingCardIds.size();
+        });
+        String playerId = currentPlayerId(game.getSnapshot());
+
+        assertThat(cardsOf(game, game.legalPlays(playerId, false))).isEqualTo(acceptedPlays(game, playerId));
+    }
+
+    @Test
+    void testLegalPlays_shortSuit_fillsWithOtherCards() throws Exception {
+        Game game = findFollow(snapshot -> {
+            List<Integer> startingCardIds = snapshot.getCurrentTrick().getPlays().get(0).getCardIds();
+            int numSameSuit = snapshot.getPlayerHand(currentPlayerId(snapshot), snapshot.getGrouping(startingCardIds)).size();
+            return numSameSuit > 0 && numSameSuit < startingCardIds.size();
+        });
+        String playerId = currentPlayerId(game.getSnapshot());
+
+        Set<Multiset<Card>> acceptedPlays = acceptedPlays(game, playerId);
+        assertThat(acceptedPlays.size()).isGreaterThan(1);
+        assertThat(cardsOf(game, game.legalPlays(playerId, false))).isEqualTo(acceptedPlays);
+    }
+
+    @Test
+    void testLegalPlays_pruneDominated_keepsWinningAndLowestLosingPlays() throws Exception {
+        Game game = findFollow(snapshot -> {
+            List<Integer> startingCardIds = snapshot.getCurrentTrick().getPlays().get(0).getCardIds();
+            return startingCardIds.size() >= 2
+                && snapshot.getPlayerHand(currentPlayerId(snapshot), snapshot.getGrouping(startingCardIds)).isEmpty();
+        });
+        String playerId = currentPlayerId(game.getSnapshot());
+        GameSnapshot snapshot = game.getSnapshot();
+
+        List<int[]> legalPlays = game.legalPlays(playerId, false);
+        List<int[]> prunedPlays = game.legalPlays(playerId, true);
+        assertThat(prunedPlays.size()).isLessThan(legalPlays.size());
+        assertThat(acceptedPlays(game, playerId)).containsAll(cardsOf(game, prunedPlays));
+
+        // every winning play is kept, and one losing play with the lowest ranks for each pruning key
+        Map<List<Integer>, Integer> lowestRanks = new HashMap<>();
+        Set<Multiset<Card>> winningPlays = new HashSet<>();
+        for (int[] play : legalPlays) {
+            if (winsTrick(game, playerId, play))
+                winningPlays.add(cardsOf(game, play));
+            else
+                lowestRanks.merge(pruningKey(snapshot, play), totalRank(snapshot, play), Math::min);
+        }
+        Set<Multiset<Card>> prunedWinningPlays = new HashSet<>();
+        Map<List<Integer>, Integer> prunedRanks = new HashMap<>();
+        for (int[] play : prunedPlays) {
+            if (winsTrick(game, playerId, play))
+                prunedWinningPlays.add(cardsOf(game, play));
+            else
+                assertThat(prunedRanks.put(pruningKey(snapshot, play), totalRank(snapshot, play))).isNull();
+        }
+        assertThat(prunedWinningPlays).isEqualTo(winningPlays);
+        assertThat(prunedRanks).isEqualTo(lowestRanks);
+    }
+
+    @Test
+    void testFindAFriend_secondCopyPlayed_playerJoinsUntilTakenBack() throws Exception {
+        Game game = new Game(5);
+        for (String playerId : asList("p1", "p2", "p3", "p4"))
+            game.addPlayer(playerId);
+        game.setFindAFriend(true);
+        game.startRound();
+        while (game.draw() != null)
+            ;
+        game.takeKitty();
+        String starterPlayerId = game.getPlayerIds().get(game.getCurrentPlayerIndex());
+        game.makeKitty(starterPlayerId, new ArrayList<>(game.getPlayerHands().get(starterPlayerId).subList(0, game.getKittySize())));
+
+        // declare the second copy of a card that neither the starter nor the kitty has
+        Set<Card> starterCards = new HashSet<>();
+        for (int cardId : Iterables.concat(game.getPlayerHands().get(starterPlayerId), game.getKitty()))
+            starterCards.add(game.getCardsById().get(cardId));
+        Card friendCard = game.getPlayerHands().values().stream()
+            .flatMap(List::stream)
+            .map(game.getCardsById()::get)
+            .filter(card -> !starterCards.contains(card))
+            .findFirst()
+            .get();
+        Declaration declaration = new Declaration();
+        declaration.setOrdinal(2);
+        declaration.setValue(friendCard.getValue());
+        declaration.setSuit(friendCard.getSuit());
+        FindAFriendDeclaration findAFriendDeclaration = new FindAFriendDeclaration();
+        findAFriendDeclaration.setDeclarations(new ArrayList<>(asList(declaration)));
+        game.makeFindAFriendDeclaration(starterPlayerId, findAFriendDeclaration);
+
+        int numPlayed = 0;
+        while (true) {
+            if (game.getCurrentPlayerIndex() == -1) {
+                game.finishTrick();
+                continue;
+            }
+            String playerId = game.getPlayerIds().get(game.getCurrentPlayerIndex());
+            List<Integer> cardIds = new ArrayList<>(Ints.asList(game.legalPlays(playerId, false).get(0)));
+            PlayResult result = game.play(playerId, cardIds, false);
+            numPlayed += cardIds.stream().filter(cardId -> game.getCardsById().get(cardId) == friendCard).count();
+            if (numPlayed < 2) {
+                assertThat(result.isDidFriendJoin()).isFalse();
+                assertThat(game.getFindAFriendDeclaration().getDeclarations().get(0).isSatisfied()).isFalse();
+                continue;
+            }
+
+            assertThat(result.isDidFriendJoin()).isTrue();
+            assertThat(game.getFindAFriendDeclaration().getDeclarations().get(0).isSatisfied()).isTrue();
+            assertThat(game.getIsDeclaringTeam().get(playerId)).isTrue();
+
+            game.takeBack(playerId);
+            assertThat(game.getFindAFriendDeclaration().getDeclarations().get(0).isSatisfied()).isFalse();
+            assertThat(game.getIsDeclaringTeam().get(playerId)).isFalse();
+
+            assertThat(game.play(playerId, cardIds, false).isDidFriendJoin()).isTrue();
+            assertThat(game.getIsDeclaringTeam().get(playerId)).isTrue();
+            break;
+        }
+    }
+
+    @Test
+    void testPointTotals_wholeRoundWithTakeBacks_matchCards() throws Exception {
+        Game game = startPlaying(3);
+        assertPointTotals(game);
+
+        int numPlays = 0;
+        while (game.getStatus() == GameStatus.PLAY) {
+            if (game.getCurrentPlayerIndex() == -1) {
+                game.finishTrick();
+            } else {
+                String playerId = game.getPlayerIds().get(game.getCurrentPlayerIndex());
+                playFirstLegalPlay(game);
+                // take back every third play, including ones that completed a trick
+                if (++numPlays % 3 == 0) {
+                    assertPointTotals(game);
+                    game.takeBack(playerId);
+                    assertPointTotals(game);
+                    playFirstLegalPlay(game);
+                }
+            }
+            // the kitty bonus is added once the round is over, see below
+            if (game.getStatus() == GameStatus.PLAY)
+                assertPointTotals(game);
+        }
+
+        // every point outside the kitty was won, and the kitty's points were doubled for the defenders or not won at all
+        int totalScore = game.getCurrentRoundScores().values().stream().mapToInt(Integer::intValue).sum();
+        int numLastCards = game.getPastTricks().get(game.getPastTricks().size() - 1).getPlays().get(0).getCardIds().size();
+        assertThat(totalScore - (200 - game.getKittyPoints())).isIn(0, 2 * numLastCards * game.getKittyPoints());
+        assertThat(game.getUnplayedPoints()).isEqualTo(game.getKittyPoints());
+    }
+
+    /**
+     * Checks the running point totals of the play phase against the cards where they are.
+     */
+    private static void assertPointTotals(Game game) {
+        int handPoints = 0;
+        for (String playerId : game.getPlayerIds()) {
+            assertThat(game.getHandPoints(playerId)).isEqualTo(points(game, game.getPlayerHands().get(playerId)));
+            handPoints += game.getHandPoints(playerId);
+        }
+        int trickPoints = 0;
+        for (Play play : game.getCurrentTrick().getPlays())
+            trickPoints += points(game, play.getCardIds());
+        assertThat(game.getKittyPoints()).isEqualTo(points(game, game.getKitty()));
+        assertThat(game.getCurrentTrickPoints()).isEqualTo(trickPoints);
+        assertThat(game.getUnplayedPoints()).isEqualTo(handPoints + game.getKittyPoints());
+        assertThat(game.getTeamPoints(true) + game.getTeamPoints(false) + trickPoints + game.getUnplayedPoints())
+            .isEqualTo(200);
+    }
+
+    private static int points(Game game, List<Integer> cardIds) {
+        int points = 0;
+        for (int cardId : cardIds) {
+            Value value = game.getCardsById().get(cardId).getValue();
+            points += value == Value.FIVE ? 5 : value == Value.TEN || value == Value.KING ? 10 : 0;
+        }
+        return points;
+    }
+
+    @Test
+    void testTakeBack_playedCardsStayRevealed() throws Exception {
+        Game game = startPlaying(13);
+        String playerId = game.getPlayerIds().get(game.getCurrentPlayerIndex());
+        List<Integer> cardIds = Ints.asList(game.legalPlays(playerId, false).get(0));
+        List<Integer> revealedBefore = new ArrayList<>(game.getPublicCards().keySet());
+
+        game.play(playerId, new ArrayList<>(cardIds), false);
+        Map<Integer, Card> publicCardsAfterPlay = game.getPublicCards();
+        List<Integer> revealedAfterPlay = new ArrayList<>(publicCardsAfterPlay.keySet());
+        assertThat(revealedAfterPlay).containsSubsequence(cardIds);
+
+        // the cards were seen, so taking them back doesn't hide them, and playing them again doesn't repeat them
+        game.takeBack(playerId);
+        assertThat(game.getPublicCards().keySet()).containsExactlyElementsOf(revealedAfterPlay);
+        game.play(playerId, new ArrayList<>(cardIds), false);
+        assertThat(game.getPublicCards().keySet()).containsExactlyElementsOf(revealedAfterPlay);
+
+        // only undoing the play that first revealed the cards hides them again
+        game.undo();
+        game.undo();
+        assertThat(game.getPublicCards().keySet()).containsExactlyElementsOf(revealedAfterPlay);
+        game.undo();
+        assertThat(game.getPublicCards().keySet()).containsExactlyElementsOf(revealedBefore);
+        // earlier views don't change
+        assertThat(publicCardsAfterPlay.keySet()).containsExactlyElementsOf(revealedAfterPlay);
+    }
+
+    @Test
+    void testExportState_applySamePlays_matchesGame() throws Exception {
+        Game game = startPlaying(17);
+        GameState initialState = game.exportState();
+        GameState state = initialState;
+
+        while (game.getStatus() == GameStatus.PLAY) {
+            String playerId = game.getPlayerIds().get(game.getCurrentPlayerIndex());
+            playFirstLegalPlay(game);
+            List<Play> plays = game.getCurrentTrick().getPlays();
+            state = state.apply(plays.get(plays.size() - 1));
+            // the state finishes a trick as soon as it is complete
+            if (game.getCurrentPlayerIndex() == -1)
+                game.finishTrick();
+
+            assertThat(state.getCurrentTrick()).isEqualTo(game.getCurrentTrick());
+            assertThat(state.getCurrentRoundScores()).isEqualTo(game.getCurrentRoundScores());
+            assertThat(state.isDeclaringTeam(playerId)).isEqualTo(game.getIsDeclaringTeam().get(playerId));
+            assertThat(state.getCardIds(playerId)).containsExactlyInAnyOrderElementsOf(game.getPlayerHands().get(playerId));
+            assertThat(state.isRoundOver()).isEqualTo(game.getStatus() != GameStatus.PLAY);
+            if (!state.isRoundOver())
+                assertThat(state.getCurrentPlayerId()).isEqualTo(game.getPlayerIds().get(game.getCurrentPlayerIndex()));
+        }
+
+        // branching off the initial state didn't change it
+        Game restartedGame = startPlaying(17);
+        assertThat(initialState.getCurrentTrick()).isEqualTo(restartedGame.getCurrentTrick());
+        assertThat(initialState.getCurrentRoundScores()).isEqualTo(restartedGame.getCurrentRoundScores());
+        for (String playerId : game.getPlayerIds())
+            assertThat(initialState.getCardIds(playerId)).containsExactlyInAnyOrderElementsOf(restartedGame.getPlayerHands().get(playerId));
+    }
+
+    /**
+     * The state of the game that players can tell apart, including the order in which cards were
+     * revealed and the points left to play.
+     */
+    private static List<Object> state(Game game) {
+        GameSnapshot snapshot = game.getSnapshot();
+        return asList(
+            snapshot.getStatus(),
+            snapshot.getCurrentPlayerIndex(),
+            snapshot.getStarterPlayerIndex(),
+            snapshot.getIsDeclaringTeam(),
+            snapshot.getDeck(),
+            snapshot.getPlayerHands(),
+            new ArrayList<>(snapshot.getPublicCards().keySet()),
+            snapshot.getDeclaredCards(),
+            snapshot.getExposedBottomCards(),
+            snapshot.getKitty(),
+            snapshot.getFindAFriendDeclaration(),
+            snapshot.getPastTricks(),
+            snapshot.getCurrentTrick(),
+            snapshot.getCurrentRoundScores(),
+            snapshot.getCurrentRoundPenalties(),
+            snapshot.getCurrentTrump(),
+            game.getUnplayedPoints());
+    }
+
+    /**
+     * Deals a round to four players without any declares, and has the starter bury the first cards
+     * in their hand, so that the returned game is at the first play.
+     */
+    private static Game startPlaying(long seed) throws Exception {
+        Game game = new Game(seed);
+        for (String playerId : asList("p1", "p2", "p3", "p4"))
+            game.addPlayer(playerId);
+        game.startRound();
+        while (game.draw() != null)
+            ;
+        game.takeKitty();
+        String starterPlayerId = game.getPlayerIds().get(game.getCurrentPlayerIndex());
+        game.makeKitty(starterPlayerId, new ArrayList<>(game.getPlayerHands().get(starterPlayerId).subList(0, game.getKittySize())));
+        return game;
+    }
+
+    /**
+     * Plays games where each player leads their widest component and follows with the first legal
+     * play, and returns the first game where the player to follow meets the condition.
+     */
+    private static Game findFollow(Predicate<GameSnapshot> condition) throws Exception {
+        for (long seed = 0; seed < 100; seed++) {
+            Game game = startPlaying(seed);
+            while (game.getStatus() == GameStatus.PLAY) {
+                GameSnapshot snapshot = game.getSnapshot();
+                String playerId = currentPlayerId(snapshot);
+                if (game.getCurrentPlayerIndex() == -1) {
+                    game.finishTrick();
+                } else if (snapshot.getCurrentTrick().getPlays().isEmpty()) {
+                    int[] play = game.legalPlays(playerId, false).stream()
+                        .max(Comparator.comparingInt(cardIds -> cardIds.length))
+                        .get();
+                    game.play(playerId, new ArrayList<>(Ints.asList(play)), false);
+                } else if (condition.test(snapshot)) {
+                    return game;
+                } else {
+                    playFirstLegalPlay(game);
+                }
+            }
+        }
+        throw new IllegalStateException("No game found");
+    }
+
+    private static String currentPlayerId(GameSnapshot snapshot) {
+        return snapshot.getCurrentPlayerIndex() == -1 ? null : snapshot.getPlayerIds().get(snapshot.getCurrentPlayerIndex());
+    }
+
+    /**
+     * Tries every set of cards of the right size from the player's hand, and returns the ones that
+     * play() accepts.
+     */
+    private static Set<Multiset<Card>> acceptedPlays(Game game, String playerId) throws Exception {
+        List<Integer> hand = game.getPlayerHands().get(playerId);
+        int numCards = game.getCurrentTrick().getPlays().get(0).getCardIds().size();
+        Set<Multiset<Card>> acceptedPlays = new HashSet<>();
+        for (Set<Integer> combination : Sets.combinations(ImmutableSet.copyOf(hand), numCards)) {
+            List<Integer> cardIds = new ArrayList<>(combination);
+            try {
+                game.play(playerId, new ArrayList<>(cardIds), false);
+            } catch (InvalidPlayException e) {
+                continue;
+            }
+            game.takeBack(playerId);
+            acceptedPlays.add(cardsOf(game, Ints.toArray(cardIds)));
+        }
+        return acceptedPlays;
+    }
+
+    private static boolean winsTrick(Game game, String playerId, int[] play) throws Exception {
+        game.play(playerId, new ArrayList<>(Ints.asList(play)), false);
+        boolean winsTrick = playerId.equals(game.getCurrentTrick().getWinningPlayerId());
+        game.takeBack(playerId);
+        return winsTrick;
+    }
+
+    private static List<Integer> pruningKey(GameSnapshot snapshot, int[] play) {
+        List<Integer> key = new ArrayList<>();
+        key.add(snapshot.totalCardScore(Ints.asList(play)));
+        for (Grouping grouping : Grouping.values())
+            key.add((int) Arrays.stream(play).filter(cardId -> snapshot.getTrumpTable().getGrouping(cardId) == grouping).count());
+        return key;
+    }
+
+    private static int totalRank(GameSnapshot snapshot, int[] play) {
+        return Arrays.stream(play).map(snapshot.getTrumpTable()::getRank).sum();
+    }
+
+    private static Set<Multiset<Card>> cardsOf(Game game, List<int[]> plays) {
+        return plays.stream().map(play -> cardsOf(game, play)).collect(Collectors.toSet());
+    }
+
+    private static Multiset<Card> cardsOf(Game game, int[] play) {
+        return Arrays.stream(play).mapToObj(game.getCardsById()::get).collect(Collectors.toCollection(HashMultiset::create));
+    }
+
+    private static void playFirstLegalPlay(Game game) throws Exception {
+        String playerId = game.getPlayerIds().get(game.getCurrentPlayerIndex());
+        int[] play = game.legalPlays(playerId, false).get(0);
+        game.play(playerId, new ArrayList<>(Ints.asList(play)), false);
+    }
+
+    /**
+     * Applies the snapshot's hand delta if its hands are newer than the given version, and returns
+     * the snapshot's version.
+     */
+    private static long applyNewHandDelta(Map<String, List<Integer>> hands, long handsVersion, GameSnapshot snapshot) {
+        if (snapshot.getHandsVersion() == handsVersion)
+            assertThat(hands).isEqualTo(snapshot.getPlayerHands());
+        else
+            applyHandDelta(hands, snapshot);
+        return snapshot.getHandsVersion();
+    }
+
+    private static void applyHandDelta(Map<String, List<Integer>> hands, GameSnapshot snapshot) {
+        HandDelta handDelta = snapshot.getHandDelta();
+        assertThat(handDelta.getVersion()).isEqualTo(snapshot.getHandsVersion());
+        handDelta.getRemovedCardIds().forEach((playerId, cardIds) -> {
+            List<Integer> hand = new ArrayList<>(hands.get(playerId));
+            hand.removeAll(cardIds);
+            hands.put(playerId, hand);
+        });
+        handDelta.getAddedCardIds().forEach((playerId, cardIds) -> {
+            List<Integer> hand = new ArrayList<>(hands.get(playerId));
+            for (int i = 0; i < cardIds.size(); i++)
+                hand.add(handDelta.getAddedIndices().get(playerId).get(i), cardIds.get(i));
+            hands.put(playerId, hand);
+        });
+        assertThat(hands).isEqualTo(snapshot.getPlayerHands());
+    }
 }
@@ -0,0 +1,146 @@
+package tractorio.github.ytung.tractor;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+import io.github.ytung.tractor.CardTable;
+import io.github.ytung.tractor.Cards.Grouping;
+import io.github.ytung.tractor.Component;
+import io.github.ytung.tractor.Game;
+import io.github.ytung.tractor.Hand;
+import io.github.ytung.tractor.Shape;
+import io.github.ytung.tractor.TrumpTable;
+import io.github.ytung.tractor.api.Card;
+import io.github.ytung.tractor.api.Card.Suit;
+import io.github.ytung.tractor.api.Card.Value;
+
+class HandTests {
+
+    private final CardTable cardTable = new CardTable(ImmutableMap.<Integer, Card>builder()
+        .put(1, Card.of(Value.ACE, Suit.HEART))
+        .put(2, Card.of(Value.FIVE, Suit.HEART))
+        .put(3, Card.of(Value.KING, Suit.SPADE))
+        .put(4, Card.of(Value.TWO, Suit.CLUB))
+        .put(5, Card.of(Value.BIG_JOKER, Suit.JOKER))
+        .put(6, Card.of(Value.TEN, Suit.CLUB))
+        .put(7, Card.of(Value.FIVE, Suit.HEART))
+        .build());
+
+    @Test
+    void testAdd_anyOrder_keepsHandOrder() {
+        TrumpTable trumpTable = new TrumpTable(cardTable, Card.of(Value.TWO, Suit.SPADE), 1);
+        Hand hand = new Hand(cardTable);
+
+        hand.addAll(trumpTable, asList(5, 2, 7, 3, 1, 6, 4));
+        // adding a card that is already in the hand does nothing
+        hand.add(trumpTable, 3);
+
+        assertThat(hand.getCardIds()).isEqualTo(inHandOrder(trumpTable, asList(1, 2, 3, 4, 5, 6, 7)));
+        assertThat(hand.size()).isEqualTo(7);
+        assertThat(hand.getPoints()).isEqualTo(30);
+        assertThat(hand.getCardIds(trumpTable, Grouping.TRUMP)).containsExactly(3, 4, 5);
+    }
+
+    @Test
+    void testRemoveAll_keepsHandOrderAndPoints() {
+        TrumpTable trumpTable = new TrumpTable(cardTable, Card.of(Value.TWO, Suit.SPADE), 1);
+        Hand hand = new Hand(cardTable);
+        hand.addAll(trumpTable, asList(1, 2, 3, 4, 5, 6, 7));
+        List<Integer> cardIdsBefore = hand.getCardIds();
+
+        hand.removeAll(trumpTable, asList(7, 3));
+
+        assertThat(hand.getCardIds()).isEqualTo(inHandOrder(trumpTable, asList(1, 2, 4, 5, 6)));
+        assertThat(hand.getPoints()).isEqualTo(15);
+        assertThat(hand.contains(3)).isFalse();
+        assertThat(hand.containsAll(asList(1, 2))).isTrue();
+        assertThat(hand.containsAll(asList(1, 1))).isFalse();
+        assertThat(hand.containsAll(asList(1, 3))).isFalse();
+        // an earlier list is not affected
+        assertThat(cardIdsBefore).hasSize(7);
+    }
+
+    @Test
+    void testAdd_newTrump_resortsHand() {
+        TrumpTable trumpTable = new TrumpTable(cardTable, Card.of(Value.TWO, Suit.SPADE), 1);
+        TrumpTable newTrumpTable = new TrumpTable(cardTable, Card.of(Value.FIVE, Suit.HEART), 2);
+        Hand hand = new Hand(cardTable);
+        hand.addAll(trumpTable, asList(1, 2, 3, 4, 5, 6));
+
+        // hearts and fives become trumps, so the hand is re-sorted before the next card is inserted
+        hand.add(newTrumpTable, 7);
+
+        assertThat(hand.getCardIds()).isEqualTo(inHandOrder(newTrumpTable, asList(1, 2, 3, 4, 5, 6, 7)));
+        assertThat(hand.getCardIds(newTrumpTable, Grouping.TRUMP)).containsExactly(1, 2, 7, 5);
+    }
+
+    @Test
+    void testGetTopMinRank_matchesOtherHandCheck() {
+        Game game = spy(new Game());
+        when(game.getCurrentTrump()).thenReturn(Card.of(Value.TWO, Suit.SPADE));
+        game.setCardsById(ImmutableMap.<Integer, Card>builder()
+            .put(1, Card.of(Value.ACE, Suit.HEART))
+            .put(2, Card.of(Value.KING, Suit.HEART))
+            .put(3, Card.of(Value.KING, Suit.HEART))
+            .put(4, Card.of(Value.SIX, Suit.HEART))
+            .put(5, Card.of(Value.SIX, Suit.HEART))
+            .put(6, Card.of(Value.FIVE, Suit.HEART))
+            .put(7, Card.of(Value.FIVE, Suit.HEART))
+            .put(8, Card.of(Value.THREE, Suit.HEART))
+            .put(9, Card.of(Value.QUEEN, Suit.HEART))
+            .put(10, Card.of(Value.QUEEN, Suit.HEART))
+            .put(11, Card.of(Value.ACE, Suit.CLUB))
+            .build());
+        TrumpTable trumpTable = game.getTrumpTable();
+        Hand hand = new Hand(trumpTable.getCardTable());
+
+        hand.addAll(trumpTable, asList(1, 2, 3, 4, 5, 6, 7, 8, 11));
+        assertTopMinRanks(game, trumpTable, hand);
+        assertThat(hand.getTopMinRank(trumpTable, Grouping.HEART, new Shape(2, 1), game::getProfile)).isEqualTo(trumpTable.getRank(2));
+        assertThat(hand.getTopMinRank(trumpTable, Grouping.HEART, new Shape(2, 2), game::getProfile)).isEqualTo(trumpTable.getRank(6));
+        assertThat(hand.getTopMinRank(trumpTable, Grouping.CLUB, new Shape(2, 1), game::getProfile)).isEqualTo(-1);
+
+        // the queens make a higher tractor with the kings, and the index of the hearts is rebuilt
+        hand.addAll(trumpTable, asList(9, 10));
+        assertTopMinRanks(game, trumpTable, hand);
+        assertThat(hand.getTopMinRank(trumpTable, Grouping.HEART, new Shape(2, 2), game::getProfile)).isEqualTo(trumpTable.getRank(9));
+
+        hand.removeAll(trumpTable, asList(3));
+        assertTopMinRanks(game, trumpTable, hand);
+    }
+
+    /**
+     * Checks the hand's index against what a special play checks for: the highest min rank of the
+     * components in the grouping that are at least as wide and as tall as the shape.
+     */
+    private static void assertTopMinRanks(Game game, TrumpTable trumpTable, Hand hand) {
+        for (Grouping grouping : Grouping.values()) {
+            List<Component> profile = game.getProfile(hand.getCardIds(trumpTable, grouping));
+            for (int width = 1; width <= 3; width++)
+                for (int height = 1; height <= 3; height++) {
+                    int expected = -1;
+                    for (Component component : profile)
+                        if (component.getShape().getWidth() >= width && component.getShape().getHeight() >= height)
+                            expected = Math.max(expected, component.getMinRank());
+                    assertThat(hand.getTopMinRank(trumpTable, grouping, new Shape(width, height), game::getProfile))
+                        .isEqualTo(expected);
+                }
+        }
+    }
+
+    private static List<Integer> inHandOrder(TrumpTable trumpTable, List<Integer> cardIds) {
+        List<Integer> sorted = new ArrayList<>(cardIds);
+        sorted.sort(Comparator.<Integer>comparingInt(trumpTable::getSortKey).thenComparing(Comparator.naturalOrder()));
+        return sorted;
+    }
+}
@@ -0,0 +1,90 @@
+package tractorio.github.ytung.tractor;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import io.github.ytung.tractor.CardTable;
+import io.github.ytung.tractor.Component;
+import io.github.ytung.tractor.ProfileCache;
+import io.github.ytung.tractor.Shape;
+import io.github.ytung.tractor.TrumpTable;
+import io.github.ytung.tractor.api.Card;
+import io.github.ytung.tractor.api.Card.Suit;
+import io.github.ytung.tractor.api.Card.Value;
+
+class ProfileCacheTests {
+
+    private final CardTable cardTable = new CardTable(ImmutableMap.<Integer, Card>builder()
+        .put(1, Card.of(Value.ACE, Suit.HEART))
+        .put(2, Card.of(Value.SIX, Suit.HEART))
+        .put(3, Card.of(Value.SIX, Suit.HEART))
+        .put(4, Card.of(Value.FIVE, Suit.HEART))
+        .build());
+
+    private final List<List<Integer>> computed = new ArrayList<>();
+
+    private final Function<List<Integer>, List<Component>> computeProfile = cardIds -> {
+        computed.add(cardIds);
+        return Collections.singletonList(
+            new Component(new Shape(1, cardIds.size()), 0, 0, ImmutableSet.copyOf(cardIds)));
+    };
+
+    @Test
+    void testGet_sameCardIds_hitsInAnyOrder() {
+        ProfileCache cache = new ProfileCache(16);
+        TrumpTable trumpTable = new TrumpTable(cardTable, Card.of(Value.TWO, Suit.SPADE), 1);
+
+        List<Component> profile = cache.get(trumpTable, asList(2, 1), computeProfile);
+        assertThat(cache.get(trumpTable, asList(1, 2), computeProfile)).isSameAs(profile);
+
+        // computed once, from the card ids in hand order
+        assertThat(computed).containsExactly(asList(2, 1));
+        assertThat(cache.getHits()).isEqualTo(1);
+        assertThat(cache.getMisses()).isEqualTo(1);
+    }
+
+    @Test
+    void testGet_differentCardIds_misses() {
+        ProfileCache cache = new ProfileCache(16);
+        TrumpTable trumpTable = new TrumpTable(cardTable, Card.of(Value.TWO, Suit.SPADE), 1);
+
+        cache.get(trumpTable, asList(1, 2), computeProfile);
+        cache.get(trumpTable, asList(1, 3), computeProfile);
+        // the same card id twice is never cached
+        cache.get(trumpTable, asList(4, 4), computeProfile);
+        cache.get(trumpTable, asList(4, 4), computeProfile);
+
+        assertThat(computed).hasSize(4);
+        assertThat(cache.getHits()).isEqualTo(0);
+        assertThat(cache.getMisses()).isEqualTo(4);
+    }
+
+    @Test
+    void testGet_newTrumpVersion_invalidatesOnlyOlderEntries() {
+        ProfileCache cache = new ProfileCache(16);
+        TrumpTable trumpTable = new TrumpTable(cardTable, Card.of(Value.TWO, Suit.SPADE), 1);
+        TrumpTable newTrumpTable = new TrumpTable(cardTable, Card.of(Value.SIX, Suit.HEART), 2);
+
+        List<Component> profile = cache.get(trumpTable, asList(1, 2), computeProfile);
+        List<Component> newProfile = cache.get(newTrumpTable, asList(1, 2), computeProfile);
+        assertThat(newProfile).isNotSameAs(profile);
+        assertThat(computed).hasSize(2);
+
+        // looking up the new version did not flush the rest of the cache
+        cache.get(newTrumpTable, asList(1, 2), computeProfile);
+        cache.get(trumpTable, asList(1, 2), computeProfile);
+        assertThat(computed).hasSize(2);
+        assertThat(cache.getHits()).isEqualTo(2);
+        assertThat(cache.getMisses()).isEqualTo(2);
+    }
+}
@@ -0,0 +1,65 @@
+package tractorio.github.ytung.tractor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import io.github.ytung.tractor.RoomScheduler;
+
+class RoomSchedulerTests {
+
+    private final RoomScheduler scheduler = new RoomScheduler(1);
+
+    @AfterEach
+    void shutdownScheduler() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    void testSchedule_tasksRunInDelayOrder() throws Exception {
+        List<Integer> ran = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(3);
+        scheduler.schedule(() -> { ran.add(3); done.countDown(); }, 60, TimeUnit.MILLISECONDS);
+        scheduler.schedule(() -> { ran.add(1); done.countDown(); }, 0, TimeUnit.MILLISECONDS);
+        scheduler.schedule(() -> { ran.add(2); done.countDown(); }, 30, TimeUnit.MILLISECONDS);
+
+        assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(ran).containsExactly(1, 2, 3);
+        assertThat(scheduler.getLag().getCount()).isEqualTo(3);
+    }
+
+    @Test
+    void testSchedule_cancelledTask_isRemovedAndNeverRuns() throws Exception {
+        List<String> ran = new CopyOnWriteArrayList<>();
+        ScheduledFuture<?> cancelled = scheduler.schedule(() -> ran.add("cancelled"), 50, TimeUnit.MILLISECONDS);
+        scheduler.schedule(() -> ran.add("kept"), 1, TimeUnit.HOURS);
+        assertThat(scheduler.getQueueDepth()).isEqualTo(2);
+
+        cancelled.cancel(false);
+        assertThat(scheduler.getQueueDepth()).isEqualTo(1);
+
+        // the only thread runs tasks in delay order, so the cancelled task would have run before this one
+        CountDownLatch later = new CountDownLatch(1);
+        scheduler.schedule(later::countDown, 100, TimeUnit.MILLISECONDS);
+        assertThat(later.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(ran).isEmpty();
+    }
+
+    @Test
+    void testSchedule_failingTask_doesNotStopLaterTasks() throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        scheduler.schedule(() -> {
+            throw new IllegalStateException("expected by the test");
+        }, 0, TimeUnit.MILLISECONDS);
+        scheduler.schedule(done::countDown, 10, TimeUnit.MILLISECONDS);
+
+        assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+}
@@ -0,0 +1,47 @@
+package tractorio.github.ytung.tractor;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+
+import io.github.ytung.tractor.Component;
+import io.github.ytung.tractor.Shape;
+import io.github.ytung.tractor.ShapeMatcher;
+
+class ShapeMatcherTests {
+
+    private final ShapeMatcher shapeMatcher = new ShapeMatcher();
+
+    @Test
+    void testCovers_tractorAndFourOfAKind_sameCardCount() {
+        Component fourOfAKind = component(4, 1);
+        Component tractor = component(2, 2);
+
+        // both shapes have four cards, but neither can stand in for the other
+        assertThat(shapeMatcher.covers(asList(fourOfAKind, tractor), asList(tractor, fourOfAKind))).isTrue();
+        assertThat(shapeMatcher.covers(asList(tractor, tractor), asList(tractor, fourOfAKind))).isFalse();
+        assertThat(shapeMatcher.covers(asList(fourOfAKind, fourOfAKind), asList(tractor, fourOfAKind))).isFalse();
+    }
+
+    @Test
+    void testCovers_widerComponent_splitsIntoNarrowerShapes() {
+        // a triple covers a pair and a single, leaving no cards over
+        assertThat(shapeMatcher.covers(
+            Collections.singletonList(component(3, 1)),
+            asList(component(2, 1), component(1, 1)))).isTrue();
+        // a triple tractor covers a pair tractor and two singles
+        assertThat(shapeMatcher.covers(
+            Collections.singletonList(component(3, 2)),
+            asList(component(2, 2), component(1, 1), component(1, 1)))).isTrue();
+        assertThat(shapeMatcher.covers(
+            Collections.singletonList(component(3, 1)),
+            asList(component(2, 1), component(2, 1)))).isFalse();
+    }
+
+    private static Component component(int width, int height) {
+        return new Component(new Shape(width, height), 0, height - 1, Collections.emptySet());
+    }
+}
@@ -0,0 +1,110 @@
+package tractorio.github.ytung.tractor;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+
+import io.github.ytung.tractor.BinaryWireFormat;
+import io.github.ytung.tractor.DrawResult;
+import io.github.ytung.tractor.Game;
+import io.github.ytung.tractor.GameSnapshot;
+import io.github.ytung.tractor.JacksonEncoder;
+import io.github.ytung.tractor.api.Card;
+import io.github.ytung.tractor.api.IncomingMessage;
+import io.github.ytung.tractor.api.IncomingMessage.PlayRequest;
+import io.github.ytung.tractor.api.IncomingMessage.PlayerOrderRequest;
+import io.github.ytung.tractor.api.IncomingMessage.SetNameRequest;
+import io.github.ytung.tractor.api.OutgoingMessage;
+import io.github.ytung.tractor.api.OutgoingMessage.CardInfo;
+import io.github.ytung.tractor.api.OutgoingMessage.Draw;
+import io.github.ytung.tractor.api.OutgoingMessage.UpdatePlayers;
+
+class WireFormatTests {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    void testBinaryWireFormat_dealPhase_smallerThanJson() throws Exception {
+        Game game = new Game(11);
+        List<String> playerIds = new ArrayList<>();
+        Map<String, String> playerNames = new HashMap<>();
+        for (int i = 0; i < 8; i++) {
+            String playerId = UUID.randomUUID().toString();
+            game.addPlayer(playerId);
+            playerIds.add(playerId);
+            playerNames.put(playerId, "Player " + i);
+        }
+        game.setNumDecks(4);
+        game.startRound();
+
+        BinaryWireFormat binaryWireFormat = new BinaryWireFormat();
+        List<String> clientPlayerIds = new ArrayList<>();
+        int[] totalBytes = new int[2];
+        GameSnapshot snapshot = game.getSnapshot();
+        assertSameContent(binaryWireFormat, clientPlayerIds, totalBytes, true, new UpdatePlayers(
+            snapshot.getPlayerIds(),
+            snapshot.getPlayerRankScores(),
+            false,
+            snapshot.getKittySize(),
+            Collections.emptySet(),
+            ImmutableSet.copyOf(playerIds),
+            playerNames,
+            Maps.toMap(playerIds, playerId -> false)));
+
+        Map<Integer, Card> cardsById = snapshot.getCardsById();
+        DrawResult draw;
+        while ((draw = game.draw()) != null) {
+            snapshot = draw.getSnapshot();
+            assertSameContent(binaryWireFormat, clientPlayerIds, totalBytes, false,
+                new CardInfo(Maps.toMap(draw.getPlay().getCardIds(), cardsById::get)));
+            assertSameContent(binaryWireFormat, clientPlayerIds, totalBytes, true,
+                new Draw(snapshot.getStatus(), snapshot.getCurrentPlayerIndex(), null, null, snapshot.getHandDelta()));
+        }
+
+        assertThat(clientPlayerIds).containsExactlyElementsOf(playerIds);
+        assertThat(totalBytes[1]).isLessThan(totalBytes[0] / 3);
+    }
+
+    @Test
+    void testBinaryWireFormat_incomingMessages_roundTrip() throws Exception {
+        PlayRequest play = new PlayRequest();
+        play.setCardIds(asList(3, 127, 128, 431));
+        play.setConfirmSpecialPlay(true);
+        PlayerOrderRequest playerOrder = new PlayerOrderRequest();
+        playerOrder.setPlayerIds(asList(UUID.randomUUID().toString(), UUID.randomUUID().toString()));
+        SetNameRequest setName = new SetNameRequest();
+        setName.setName("Zo\u00eb \ud83d\udc09 007");
+
+        for (IncomingMessage message : asList(play, playerOrder, setName)) {
+            byte[] binary = BinaryWireFormat.encode(message);
+            assertThat(BinaryWireFormat.decodeIncomingMessage(binary)).isEqualTo(message);
+            assertThat(binary.length).isLessThan(mapper.writeValueAsString(message).getBytes(StandardCharsets.UTF_8).length);
+        }
+    }
+
+    private void assertSameContent(
+            BinaryWireFormat binaryWireFormat,
+            List<String> clientPlayerIds,
+            int[] totalBytes,
+            boolean broadcast,
+            OutgoingMessage message) throws Exception {
+        String json = JacksonEncoder.INSTANCE.encode(message);
+        byte[] binary = binaryWireFormat.encode(message, broadcast, false);
+        assertThat(mapper.writeValueAsString(BinaryWireFormat.decode(binary, clientPlayerIds))).isEqualTo(json);
+        totalBytes[0] += json.getBytes(StandardCharsets.UTF_8).length;
+        totalBytes[1] += binary.length;
+    }
+}